@@ -15,20 +15,43 @@
 */
 package nl.nn.adapterframework.senders;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.internal.BucketNameUtils;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.BucketAccelerateConfiguration;
 import com.amazonaws.services.s3.model.BucketAccelerateStatus;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
@@ -39,6 +62,7 @@ import com.amazonaws.services.s3.model.GetBucketAccelerateConfigurationRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.SetBucketAccelerateConfigurationRequest;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
@@ -50,6 +74,7 @@ import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.ParameterList;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.parameters.ParameterValueList;
+import nl.nn.adapterframework.util.VirtualThreadExecutors;
 
 /**
  * <p>
@@ -81,8 +106,76 @@ import nl.nn.adapterframework.parameters.ParameterValueList;
  * <li>upload: uploads a file into a bucket, when bucket doesn't exist bucketCreationEnabled can be set to 'true' so this action can also create a bucket (file parameter required)</li>
  * <li>download: download a file from a S3 bucket and safe the InputStream in storeResultInSessionKey</li>
  * <li>copy: copies a file from one bucket to another, when destination bucket doesn't exist bucketCreationEnabled can be set to 'true' so this action also creates a destination bucket (destinationBucketName and destinationFileName parameter required)</li>
- * <li>delete: delete a file from inside a S3 bucket</li></ul></td><td></td></tr>
+ * <li>delete: delete a file from inside a S3 bucket</li>
+ * <li>list: lists the names of the files in a S3 bucket, one per line, and saves the InputStream in storeResultInSessionKey. Only the files of which the name starts with the value of the prefix parameter are listed when it is present. Pages of 1000 names are listed while the InputStream is read</li>
+ * <li>deleteBatch: delete many files from inside a S3 bucket with requests of 1000 files at a time, the files are given one per line in the fileName parameter or the message, or all files starting with the value of the prefix parameter are deleted. The result reports the number of deleted files and every file that could not be deleted</li></ul></td><td></td></tr>
  * <tr><td>{@link #setStoreResultInSessionKey(String) storeResultInSessionKey}</td><td>Set a value for sessionKey in which result will be stored.</td><td></td></tr>
+ * <tr><td>{@link #setMultipartUploadEnabled(boolean) multipartUploadEnabled}</td><td>When set to 'true' the [upload] action streams the file into parts of partSize bytes which are uploaded concurrently. Files larger than 5 GB can only be uploaded in this mode.</td><td>false</td></tr>
+ * <tr><td>{@link #setPartSize(int) partSize}</td><td>Size in bytes of a part when multipartUploadEnabled is set to 'true', at least 5 MB. A file smaller than one part is uploaded with a single request.</td><td>8388608</td></tr>
+ * <tr><td>{@link #setPartConcurrency(int) partConcurrency}</td><td>Maximum number of parts that are uploaded or copied at the same time, memory used per upload is partConcurrency * partSize.</td><td>4</td></tr>
+ * <tr><td>{@link #setParallelListingEnabled(boolean) parallelListingEnabled}</td><td>When set to 'true' the [list] action splits the bucket on listDelimiter and lists the resulting prefixes at the same time. Names are then only sorted within a prefix, the names of different prefixes are interleaved in the order they are listed.</td><td>false</td></tr>
+ * <tr><td>{@link #setListDelimiter(String) listDelimiter}</td><td>Delimiter on which the bucket is split when parallelListingEnabled is set to 'true'.</td><td>/</td></tr>
+ * <tr><td>{@link #setListConcurrency(int) listConcurrency}</td><td>Maximum number of prefixes that are listed at the same time.</td><td>4</td></tr>
+ * <tr><td>{@link #setDeleteBatchConcurrency(int) deleteBatchConcurrency}</td><td>Maximum number of requests of 1000 files the [deleteBatch] action sends at the same time.</td><td>4</td></tr>
+ * <tr><td>{@link #setOptimisticModeEnabled(boolean) optimisticModeEnabled}</td><td>When set to 'true' the [upload], [copy] and [delete] actions don't check buckets and files with HEAD requests before they are changed, errors returned by S3 are used instead.
+ * [upload] sends the file with an If-None-Match header so an existing file is never overwritten, [copy] only checks whether the destination file exists.
+ * Note that [delete] of a file that does not exist succeeds in this mode, as S3 does not report it.</td><td>false</td></tr>
+ * <tr><td>{@link #setBucketExistsCacheTtl(long) bucketExistsCacheTtl}</td><td>Number of milliseconds the existence of a bucket is remembered, so actions don't check the bucket on every message. 0 disables the cache.</td><td>300000</td></tr>
+ * <tr><td>{@link #setBucketNotExistsCacheTtl(long) bucketNotExistsCacheTtl}</td><td>Number of milliseconds a bucket that does not exist is remembered. 0 disables caching of non-existing buckets.</td><td>10000</td></tr>
+ * <tr><td>{@link #setMultipartCopyThreshold(long) multipartCopyThreshold}</td><td>Files larger than this number of bytes are copied by the [copy] action in parts of copyPartSize bytes, of which partConcurrency are copied at the same time. S3 copies files larger than 5 GB only this way. When larger than 0 the source file is checked with a HEAD request to find its size. In optimistic mode the file is copied with a single request without this check, and only checked and copied in parts when S3 refuses it for its size. 0 always copies with a single request.</td><td>268435456</td></tr>
+ * <tr><td>{@link #setCopyPartSize(int) copyPartSize}</td><td>Size in bytes of a part of a multipart copy, raised when needed to fit the file in 10000 parts.</td><td>67108864</td></tr>
+ * <tr><td>{@link #setParallelDownloadEnabled(boolean) parallelDownloadEnabled}</td><td>When set to 'true' the [download] action fetches the file in ranges of rangeSize bytes over concurrent connections, the InputStream in storeResultInSessionKey returns the ranges in order.</td><td>false</td></tr>
+ * <tr><td>{@link #setRangeSize(int) rangeSize}</td><td>Size in bytes of a range when parallelDownloadEnabled is set to 'true'.</td><td>8388608</td></tr>
+ * <tr><td>{@link #setPrefetchDepth(int) prefetchDepth}</td><td>Number of ranges that are fetched ahead of the range that is being read.</td><td>4</td></tr>
+ * <tr><td>{@link #setAsyncEnabled(boolean) asyncEnabled}</td><td>When set to 'true' the actions of a message are run on a thread of this sender and sendMessage returns the fileName as soon as they are submitted, so the pipeline does not wait for S3.
+ * Parameters are resolved before sendMessage returns, the result of the actions is only available through asyncResultSessionKey and failures are logged.
+ * The [download] and [list] actions, which store their result in the session, cannot be performed asynchronously. A file parameter that holds an InputStream or a channel
+ * is refused, as the pipeline may close it before it is uploaded, use a File or Path instead.</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxInFlightRequests(int) maxInFlightRequests}</td><td>Maximum number of messages of which the actions are running at the same time when asyncEnabled is set to 'true', sendMessage waits for one to finish when the maximum is reached.</td><td>100</td></tr>
+ * <tr><td>{@link #setAsyncSubmitTimeout(long) asyncSubmitTimeout}</td><td>Number of milliseconds sendMessage waits for a free slot when maxInFlightRequests is reached before it throws a TimeOutException, 0 waits indefinitely.</td><td>0</td></tr>
+ * <tr><td>{@link #setAsyncResultSessionKey(String) asyncResultSessionKey}</td><td>When set, a java.util.concurrent.Future of the result of the actions is stored in this sessionKey so a later pipe can wait for it.</td><td></td></tr>
+ * <tr><td>{@link #setVirtualThreadsEnabled(boolean) virtualThreadsEnabled}</td><td>When set to 'true' asynchronous messages and the parts, ranges and requests of transfers run on virtual threads (Java 21 and later, platform threads are used otherwise),
+ * and maxConnections is raised to the number of requests this sender can have in flight, so threads never wait for a connection.</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>Maximum number of open HTTP connections of the client. Senders with equal client settings share one client and therefore its connections, so size it for all of them including the parts, ranges and requests they transfer concurrently.</td><td>50</td></tr>
+ * <tr><td>{@link #setConnectionTtl(long) connectionTtl}</td><td>Number of milliseconds a pooled connection may be reused, -1 keeps connections until they are closed.</td><td>-1</td></tr>
+ * <tr><td>{@link #setConnectionTimeout(int) connectionTimeout}</td><td>Number of milliseconds to wait for a connection to be established.</td><td>10000</td></tr>
+ * <tr><td>{@link #setSocketTimeout(int) socketTimeout}</td><td>Number of milliseconds to wait for data on an open connection.</td><td>50000</td></tr>
+ * <tr><td>{@link #setRequestTimeout(int) requestTimeout}</td><td>Number of milliseconds a request may take as a whole, 0 disables the timeout. Note that this also limits the transfer of a file.</td><td>0</td></tr>
+ * <tr><td>{@link #setTcpKeepAlive(boolean) tcpKeepAlive}</td><td>When set to 'true' TCP keep-alive is used, so idle pooled connections are not dropped by firewalls.</td><td>false</td></tr>
+ * <tr><td>{@link #setDownloadMemoryBudget(int) downloadMemoryBudget}</td><td>Maximum number of bytes a single download may keep in ranges, including the range that is being read. prefetchDepth is lowered when (prefetchDepth + 1) * rangeSize does not fit, it must fit at least two ranges.</td><td>67108864</td></tr>
+ * <tr><td>{@link #setSeekableDownloadEnabled(boolean) seekableDownloadEnabled}</td><td>When set to 'true' the [download] action stores a java.nio.channels.SeekableByteChannel in storeResultInSessionKey instead of an InputStream.
+ * The channel fetches blocks of blockSize bytes with ranged GET requests when they are read, so a reader that seeks, like one of a ZIP file, only downloads the bytes it needs. Cannot be combined with parallelDownloadEnabled or compression, as the channel returns the bytes as they are stored.</td><td>false</td></tr>
+ * <tr><td>{@link #setBlockSize(int) blockSize}</td><td>Size in bytes of a block when seekableDownloadEnabled is set to 'true'.</td><td>1048576</td></tr>
+ * <tr><td>{@link #setBlockCacheSize(int) blockCacheSize}</td><td>Number of blocks a channel keeps in memory, the least recently read block is dropped first.</td><td>16</td></tr>
+ * <tr><td>{@link #setCompression(String) compression}</td><td>When set to 'gzip' the [upload] action compresses the file while it is uploaded and stores it with Content-Encoding gzip, and the [download] action decompresses files stored with Content-Encoding gzip while they are read.
+ * A compressed file is always uploaded in parts of partSize bytes, so the payload is never held in memory as a whole. Cannot be combined with seekableDownloadEnabled, the positions of a compressed file don't match those of its content.</td><td></td></tr>
+ * <tr><td>{@link #setCompressionBlockSize(int) compressionBlockSize}</td><td>Size in bytes of the blocks that are compressed independently, each into a gzip member of its own.</td><td>1048576</td></tr>
+ * <tr><td>{@link #setCompressionConcurrency(int) compressionConcurrency}</td><td>Maximum number of blocks that are compressed at the same time.</td><td>1</td></tr>
+ * <tr><td>{@link #setDeduplicationEnabled(boolean) deduplicationEnabled}</td><td>When set to 'true' the [upload] action computes the SHA-256 hash of the file, and stores it in the metadata of the object as x-amz-meta-content-sha256.
+ * When a file with the same hash was uploaded before and the object still has that hash, the object is copied within S3 instead of uploading the file again.
+ * A copy to a name that already exists fails like an upload does, also in optimistic mode, where a file that is sent again to the name it was uploaded to fails without sending its content.
+ * A file given as InputStream is spooled to disk to compute the hash before it is uploaded.</td><td>false</td></tr>
+ * <tr><td>{@link #setDeduplicationIndexSize(int) deduplicationIndexSize}</td><td>Maximum number of hashes of uploaded files that are remembered, the least recently used hash is forgotten first.</td><td>10000</td></tr>
+ * <tr><td>{@link #setSpoolDirectory(String) spoolDirectory}</td><td>Directory in which files given as InputStream are spooled when deduplicationEnabled is set to 'true'.</td><td>the temporary directory of the JVM</td></tr>
+ * <tr><td>{@link #setMetricsEnabled(boolean) metricsEnabled}</td><td>When set to 'true' the sender records latency histograms per action and per kind of S3 request (HEAD, GET, PUT, COPY, DELETE, LIST), bytes transferred,
+ * failed requests, retries and throttled requests, and registers them over JMX as nl.nn.adapterframework:type=AmazonS3Sender,name=<i>name</i>. They are logged at debug level when the sender is closed.</td><td>false</td></tr>
+ * <tr><td>{@link #setAdaptiveConcurrencyEnabled(boolean) adaptiveConcurrencyEnabled}</td><td>When set to 'true' the number of requests in flight is limited per bucket and key prefix, the limit grows while requests succeed and is halved when S3 throttles,
+ * so the request rate converges to what the partition of the bucket allows. Throttled requests without a body are sent again after a random backoff by the sender
+ * instead of by the SDK, so throttling reaches the limit at once; requests with a body are still retried by the SDK.
+ * Independent of this setting, a request that S3 throttles, for instance with 503 SlowDown, fails with an S3ThrottlingException instead of a plain SenderException.</td><td>false</td></tr>
+ * <tr><td>{@link #setInitialConcurrency(int) initialConcurrency}</td><td>Number of requests per partition that may be in flight before any request has succeeded.</td><td>16</td></tr>
+ * <tr><td>{@link #setMaxConcurrency(int) maxConcurrency}</td><td>Highest number of requests per partition that may be in flight.</td><td>256</td></tr>
+ * <tr><td>{@link #setPartitionDepth(int) partitionDepth}</td><td>Number of leading '/' separated segments of the key that determine the partition a request is limited in, 0 limits per bucket.</td><td>1</td></tr>
+ * <tr><td>{@link #setLatencyThreshold(long) latencyThreshold}</td><td>When larger than 0, a request that takes longer than this number of milliseconds lowers the limit of its partition by 10%.</td><td>0</td></tr>
+ * <tr><td>{@link #setThrottleRetries(int) throttleRetries}</td><td>Number of times a throttled request without a body is sent again.</td><td>3</td></tr>
+ * <tr><td>{@link #setThrottleBackoff(long) throttleBackoff}</td><td>Number of milliseconds of the first backoff after throttling, doubling with every retry. The actual backoff is a random time up to this value.</td><td>100</td></tr>
+ * <tr><td>{@link #setMaxThrottleBackoff(long) maxThrottleBackoff}</td><td>Highest number of milliseconds of a backoff after throttling.</td><td>5000</td></tr>
+ * <tr><td>{@link #setDownloadCacheDirectory(String) downloadCacheDirectory}</td><td>When set, the [download] action keeps the files it downloads in this directory and only downloads a file again when its ETag changed.
+ * A cached file is checked with a single GET with an If-None-Match header, which S3 answers without content when the file did not change. The directory must not be shared with other senders, files left behind by an earlier run are removed when the sender is opened.
+ * Not used when parallelDownloadEnabled or seekableDownloadEnabled is set to 'true'.</td><td></td></tr>
+ * <tr><td>{@link #setDownloadCacheMaxSize(long) downloadCacheMaxSize}</td><td>Maximum number of bytes of all cached files together, the least recently downloaded files are removed first.</td><td>1073741824</td></tr>
+ * <tr><td>{@link #setDownloadCacheMaxFileSize(long) downloadCacheMaxFileSize}</td><td>Files larger than this number of bytes are not cached.</td><td>67108864</td></tr>
+ * <tr><td>{@link #setDownloadCacheFreshness(long) downloadCacheFreshness}</td><td>Number of milliseconds after a check in which a cached file is returned without any request to S3, so changes of the file may be missed for this long. 0 checks the file on every download.</td><td>0</td></tr>
  * </table>
  * </p>
  * 
@@ -91,8 +184,11 @@ import nl.nn.adapterframework.parameters.ParameterValueList;
  * <table border="1">
  * <tr><th>name</th><th>type</th><th>remarks</th></tr>
  * <tr><td>fileName</td><td><i>String</i></td><td>(Optional) When an parameter with name fileName is configured, it is used instead of the message</td></tr>
- * <tr><td>file</td><td><i>Stream</i></td><td>This parameter contains InputStream, it must be present when performing upload action</td></tr>
+ * <tr><td>file</td><td><i>Stream</i></td><td>This parameter contains InputStream, it must be present when performing upload action.
+ * It may also contain a java.io.File, java.nio.file.Path or java.nio.channels.FileChannel, the file is then uploaded with its known length and read from disk at the offsets of the parts,
+ * so it is never buffered in memory and a failed request is retried from disk. A FileChannel is uploaded from its start and is not closed.</td></tr>
  * <tr><td>destinationFileName</td><td><i>String</i></td><td>This parameter specifies the name of the copied file, it must be present when performing copy action</td></tr>
+ * <tr><td>prefix</td><td><i>String</i></td><td>(Optional) When present the deleteBatch action deletes and the list action lists all files of which the name starts with this value</td></tr>
  * </table>
  * </p>
  * 
@@ -119,10 +215,13 @@ import nl.nn.adapterframework.parameters.ParameterValueList;
 public class AmazonS3Sender extends SenderWithParametersBase
 {
 	private static final List<String> AVAILABLE_REGIONS = getAvailableRegions();
-	private List<String> availableActions = Arrays.asList("createBucket", "deleteBucket", "upload", "download", "copy", "delete");
+	private static final long ASYNC_CLOSE_TIMEOUT = 30000;
+	private static final long MAX_SINGLE_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+	public static final String CONTENT_HASH_METADATA_KEY = "content-sha256";
+	private List<String> availableActions = S3Action.getActionNames();
 	
-	private AmazonS3ClientBuilder s3ClientBuilder;
 	private AmazonS3 s3Client;
+	private AmazonS3 uninstrumentedS3Client;
 	private String name;
 	private boolean chunkedEncodingDisabled = false;
 	private boolean accelerateModeEnabled = false; // this may involve some extra costs
@@ -134,8 +233,70 @@ public class AmazonS3Sender extends SenderWithParametersBase
 	private String destinationBucketName;
 	private String actions;
 	private String storeResultInSessionKey;
+	private boolean parallelListingEnabled = false;
+	private String listDelimiter = "/";
+	private int listConcurrency = 4;
+	private int deleteBatchConcurrency = 4;
+	private boolean optimisticModeEnabled = false;
+	private boolean multipartUploadEnabled = false;
+	private int partSize = 8 * 1024 * 1024;
+	private int partConcurrency = 4;
+	private long multipartCopyThreshold = 256L * 1024 * 1024;
+	private int copyPartSize = 64 * 1024 * 1024;
+	private boolean parallelDownloadEnabled = false;
+	private int rangeSize = 8 * 1024 * 1024;
+	private int prefetchDepth = 4;
+	private int downloadMemoryBudget = 64 * 1024 * 1024;
+	private boolean seekableDownloadEnabled = false;
+	private int blockSize = 1024 * 1024;
+	private int blockCacheSize = 16;
+	private String compression;
+	private int compressionBlockSize = 1024 * 1024;
+	private int compressionConcurrency = 1;
+	private boolean deduplicationEnabled = false;
+	private int deduplicationIndexSize = 10000;
+	private String spoolDirectory;
+	private boolean metricsEnabled = false;
+	private boolean adaptiveConcurrencyEnabled = false;
+	private int initialConcurrency = 16;
+	private int maxConcurrency = 256;
+	private int partitionDepth = 1;
+	private long latencyThreshold = 0;
+	private int throttleRetries = 3;
+	private long throttleBackoff = 100;
+	private long maxThrottleBackoff = 5000;
+	private String downloadCacheDirectory;
+	private long downloadCacheMaxSize = 1024L * 1024 * 1024;
+	private long downloadCacheMaxFileSize = 64L * 1024 * 1024;
+	private long downloadCacheFreshness = 0;
+	private long bucketExistsCacheTtl = 300000;
+	private long bucketNotExistsCacheTtl = 10000;
+	private boolean asyncEnabled = false;
+	private int maxInFlightRequests = 100;
+	private long asyncSubmitTimeout = 0;
+	private String asyncResultSessionKey;
+	private boolean virtualThreadsEnabled = false;
+	private int maxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+	private long connectionTtl = ClientConfiguration.DEFAULT_CONNECTION_TTL;
+	private int connectionTimeout = ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT;
+	private int socketTimeout = ClientConfiguration.DEFAULT_SOCKET_TIMEOUT;
+	private int requestTimeout = ClientConfiguration.DEFAULT_REQUEST_TIMEOUT;
+	private boolean tcpKeepAlive = ClientConfiguration.DEFAULT_TCP_KEEP_ALIVE;
 	
 	private boolean bucketExistsThrowException = true;
+	private ExecutorService transferExecutor;
+	private ExecutorService asyncExecutor;
+	private Semaphore inFlightRequests;
+	private S3BucketCache bucketCache;
+	private S3DownloadCache downloadCache;
+	private S3ContentIndex contentIndex;
+	private S3Metrics metrics;
+	private ObjectName metricsName;
+	private S3Action[] actionPlan;
+	private int fileNameParameterIndex = -1;
+	private int fileParameterIndex = -1;
+	private int destinationFileNameParameterIndex = -1;
+	private int prefixParameterIndex = -1;
 
 	
 	@Override
@@ -148,48 +309,299 @@ public class AmazonS3Sender extends SenderWithParametersBase
 		if(StringUtils.isEmpty(getBucketName()) || !BucketNameUtils.isValidV2BucketName(getBucketName()))
 			throw new ConfigurationException(getLogPrefix() + " invalid bucketName [" + getBucketName() + "] visit AWS to see correct bucket naming");
 		
+		if(isMultipartUploadEnabled() && getPartSize() < S3MultipartUpload.MIN_PART_SIZE)
+			throw new ConfigurationException(getLogPrefix() + " invalid partSize [" + getPartSize() + "] a part must be at least [" + S3MultipartUpload.MIN_PART_SIZE + "] bytes");
+		
+		if(getPartConcurrency() < 1)
+			throw new ConfigurationException(getLogPrefix() + " invalid partConcurrency [" + getPartConcurrency() + "] at least one part has to be uploaded at a time");
+		
+		if(isParallelListingEnabled() && (StringUtils.isEmpty(getListDelimiter()) || getListConcurrency() < 1))
+			throw new ConfigurationException(getLogPrefix() + " invalid listDelimiter [" + getListDelimiter() + "] or listConcurrency [" + getListConcurrency() + "] a delimiter and at least one prefix at a time are required for parallel listing");
+		
+		if(getMultipartCopyThreshold() > 0 && getCopyPartSize() < S3MultipartUpload.MIN_PART_SIZE)
+			throw new ConfigurationException(getLogPrefix() + " invalid copyPartSize [" + getCopyPartSize() + "] a part must be at least [" + S3MultipartUpload.MIN_PART_SIZE + "] bytes");
+		
+		if(getDeleteBatchConcurrency() < 1)
+			throw new ConfigurationException(getLogPrefix() + " invalid deleteBatchConcurrency [" + getDeleteBatchConcurrency() + "] at least one request has to be sent at a time");
+		
+		if(getBucketExistsCacheTtl() < 0 || getBucketNotExistsCacheTtl() < 0)
+			throw new ConfigurationException(getLogPrefix() + " invalid bucketExistsCacheTtl [" + getBucketExistsCacheTtl() + "] or bucketNotExistsCacheTtl [" + getBucketNotExistsCacheTtl() + "] a time to live cannot be negative");
+		
+		if(isAsyncEnabled() && (getMaxInFlightRequests() < 1 || getAsyncSubmitTimeout() < 0))
+			throw new ConfigurationException(getLogPrefix() + " invalid maxInFlightRequests [" + getMaxInFlightRequests() + "] or asyncSubmitTimeout [" + getAsyncSubmitTimeout() + "] at least one request must be in flight and the timeout cannot be negative");
+		
+		if(getMaxConnections() < 1)
+			throw new ConfigurationException(getLogPrefix() + " invalid maxConnections [" + getMaxConnections() + "] at least one connection is required");
+		
+		if(getConnectionTimeout() < 0 || getSocketTimeout() < 0 || getRequestTimeout() < 0)
+			throw new ConfigurationException(getLogPrefix() + " invalid connectionTimeout [" + getConnectionTimeout() + "], socketTimeout [" + getSocketTimeout() + "] or requestTimeout [" + getRequestTimeout() + "] a timeout cannot be negative");
+		
+		if(isParallelDownloadEnabled())
+		{
+			if(getRangeSize() < 1 || getPrefetchDepth() < 1)
+				throw new ConfigurationException(getLogPrefix() + " invalid rangeSize [" + getRangeSize() + "] or prefetchDepth [" + getPrefetchDepth() + "] both must be positive");
+			if(getDownloadMemoryBudget() / getRangeSize() < 2)
+				throw new ConfigurationException(getLogPrefix() + " invalid downloadMemoryBudget [" + getDownloadMemoryBudget() + "] it must at least fit two ranges of [" + getRangeSize() + "] bytes, the range that is being read and one that is prefetched");
+		}
+		
+		if(isSeekableDownloadEnabled())
+		{
+			if(isParallelDownloadEnabled())
+				throw new ConfigurationException(getLogPrefix() + " seekableDownloadEnabled and parallelDownloadEnabled cannot both be set to 'true'");
+			if(getBlockSize() < 1 || getBlockCacheSize() < 1)
+				throw new ConfigurationException(getLogPrefix() + " invalid blockSize [" + getBlockSize() + "] or blockCacheSize [" + getBlockCacheSize() + "] both must be positive");
+		}
+		
+		if(isCompressionEnabled())
+		{
+			if(!S3CompressingInputStream.GZIP.equals(getCompression()))
+				throw new ConfigurationException(getLogPrefix() + " invalid compression [" + getCompression() + "] only [" + S3CompressingInputStream.GZIP + "] is supported");
+			if(getCompressionBlockSize() < 1 || getCompressionConcurrency() < 1)
+				throw new ConfigurationException(getLogPrefix() + " invalid compressionBlockSize [" + getCompressionBlockSize() + "] or compressionConcurrency [" + getCompressionConcurrency() + "] both must be positive");
+			if(isSeekableDownloadEnabled())
+				throw new ConfigurationException(getLogPrefix() + " compression [" + getCompression() + "] and seekableDownloadEnabled cannot be combined, the channel would return the compressed bytes");
+			if(getPartSize() < S3MultipartUpload.MIN_PART_SIZE)
+				throw new ConfigurationException(getLogPrefix() + " invalid partSize [" + getPartSize() + "] compressed files are uploaded in parts of at least [" + S3MultipartUpload.MIN_PART_SIZE + "] bytes");
+		}
+		
+		if(isAdaptiveConcurrencyEnabled())
+		{
+			if(getInitialConcurrency() < 1 || getMaxConcurrency() < getInitialConcurrency())
+				throw new ConfigurationException(getLogPrefix() + " invalid initialConcurrency [" + getInitialConcurrency() + "] or maxConcurrency [" + getMaxConcurrency() + "] at least one request has to be in flight and the maximum cannot be below the initial concurrency");
+			if(getPartitionDepth() < 0 || getLatencyThreshold() < 0 || getThrottleRetries() < 0 || getThrottleBackoff() < 0 || getMaxThrottleBackoff() < getThrottleBackoff())
+				throw new ConfigurationException(getLogPrefix() + " invalid partitionDepth [" + getPartitionDepth() + "], latencyThreshold [" + getLatencyThreshold() + "], throttleRetries [" + getThrottleRetries()
+						+ "], throttleBackoff [" + getThrottleBackoff() + "] or maxThrottleBackoff [" + getMaxThrottleBackoff() + "] they cannot be negative and the maximum backoff cannot be below the first");
+		}
+		
+		if(isDeduplicationEnabled() && getDeduplicationIndexSize() < 1)
+			throw new ConfigurationException(getLogPrefix() + " invalid deduplicationIndexSize [" + getDeduplicationIndexSize() + "] at least one hash must be remembered");
+		
+		if(StringUtils.isNotEmpty(getDownloadCacheDirectory()) && (getDownloadCacheMaxSize() < 1 || getDownloadCacheMaxFileSize() < 1 || getDownloadCacheFreshness() < 0))
+			throw new ConfigurationException(getLogPrefix() + " invalid downloadCacheMaxSize [" + getDownloadCacheMaxSize() + "], downloadCacheMaxFileSize [" + getDownloadCacheMaxFileSize() + "] or downloadCacheFreshness [" + getDownloadCacheFreshness() + "] sizes must be positive and the freshness cannot be negative");
+		
+		//the actions are compiled into a plan once, sendMessage only has to run it
+		List<S3Action> plan = new ArrayList<S3Action>();
 		StringTokenizer tokenizer = new StringTokenizer(getActions(), " ,\t\n\r\f");
 		while (tokenizer.hasMoreTokens()) 
 		{
-			String action = tokenizer.nextToken();
-
-			if(StringUtils.isEmpty(action) || !availableActions.contains(action))
-				throw new ConfigurationException(getLogPrefix()+" invalid action [" + action + "] please use following supported actions " + availableActions.toString());	
-			
-			if(action.equalsIgnoreCase("createBucket") && isForceGlobalBucketAccessEnabled())
-				if(StringUtils.isEmpty(getBucketRegion()) || !AVAILABLE_REGIONS.contains(getBucketRegion()))
-					throw new ConfigurationException(getLogPrefix()+" invalid bucketRegion [" + getBucketRegion() + "] please use following supported regions " + AVAILABLE_REGIONS.toString());
+			String actionName = tokenizer.nextToken();
+			S3Action action = S3Action.findAction(actionName);
+			if(action == null)
+				throw new ConfigurationException(getLogPrefix()+" invalid action [" + actionName + "] please use following supported actions " + availableActions.toString());	
 			
-			ParameterList parameterList = getParameterList();
-			if(!(action.equalsIgnoreCase("createBucket") || action.equalsIgnoreCase("deleteBucket")))
-			{				
-				if(action.equalsIgnoreCase("upload") && parameterList.findParameter("file") == null)
-					throw new ConfigurationException(getLogPrefix()+" file parameter requires to be present to perform [" + action + "] action");
-			
-				if(action.equalsIgnoreCase("copy") && StringUtils.isEmpty(destinationBucketName) && parameterList.findParameter("destinationFileName") == null)
-					throw new ConfigurationException(getLogPrefix()+" destinationBucketName attribute and destinationFileName parameter requires to be present to perform [" + action + "] action");
-			}
+			action.configure(this);
+			plan.add(action);
 	    }
-				
+		actionPlan = plan.toArray(new S3Action[plan.size()]);
+		
+		fileNameParameterIndex = findParameterIndex("fileName");
+		fileParameterIndex = findParameterIndex("file");
+		destinationFileNameParameterIndex = findParameterIndex("destinationFileName");
+		prefixParameterIndex = findParameterIndex("prefix");
+	}
+	
+	/**
+	 * Returns the position of a parameter in the ParameterValueList of a message, or -1 when the parameter is not configured.
+	 */
+	private int findParameterIndex(String parameterName)
+	{
+		ParameterList parameterList = getParameterList();
+		if(parameterList != null)
+			for(int i = 0; i < parameterList.size(); i++)
+				if(parameterName.equals(parameterList.getParameter(i).getName()))
+					return i;
+		return -1;
 	}
 
 	@Override
-	public void open()
+	public void open() throws SenderException
 	{
-		s3ClientBuilder = AmazonS3ClientBuilder.standard()
-				.withChunkedEncodingDisabled(isChunkedEncodingDisabled())
-				.withAccelerateModeEnabled(isAccelerateModeEnabled())
-				.withForceGlobalBucketAccessEnabled(isForceGlobalBucketAccessEnabled())
-				.withRegion(getClientRegion())
-				.withCredentials(new EnvironmentVariableCredentialsProvider());
-
-		s3Client = s3ClientBuilder.build();
+		uninstrumentedS3Client = createS3Client();
+		s3Client = uninstrumentedS3Client;
+		if(isMetricsEnabled())
+		{
+			metrics = new S3Metrics();
+			s3Client = metrics.instrument(uninstrumentedS3Client);
+			registerMetrics();
+		}
+		if(isAdaptiveConcurrencyEnabled())
+		{
+			//outside the metrics, so they measure the requests and not the time spent waiting for a slot or backing off
+			S3ConcurrencyLimiter concurrencyLimiter = new S3ConcurrencyLimiter(getInitialConcurrency(), getMaxConcurrency(), getPartitionDepth(), getLatencyThreshold(),
+					getThrottleRetries(), getThrottleBackoff(), getMaxThrottleBackoff());
+			s3Client = concurrencyLimiter.limit(s3Client);
+		}
+		bucketCache = new S3BucketCache(getBucketExistsCacheTtl(), getBucketNotExistsCacheTtl());
+		if(isDeduplicationEnabled())
+			contentIndex = new S3ContentIndex(getDeduplicationIndexSize());
+		
+		if(StringUtils.isNotEmpty(getDownloadCacheDirectory()) && !isParallelDownloadEnabled() && !isSeekableDownloadEnabled() && isActionConfigured(S3Action.DOWNLOAD))
+		{
+			downloadCache = new S3DownloadCache(new File(getDownloadCacheDirectory()), getDownloadCacheMaxSize(), getDownloadCacheMaxFileSize(), getDownloadCacheFreshness());
+			try
+			{
+				downloadCache.setDecodeContent(isCompressionEnabled());
+				downloadCache.open();
+			}
+			catch(IOException e)
+			{
+				throw new SenderException(getLogPrefix() + "cannot open download cache directory [" + getDownloadCacheDirectory() + "]", e);
+			}
+		}
+		
+		if(isMultipartUploadEnabled() || isParallelDownloadEnabled() || (isCompressionEnabled() && isActionConfigured(S3Action.UPLOAD))
+				|| (isDeduplicationEnabled() && isActionConfigured(S3Action.UPLOAD) && getMultipartCopyThreshold() > 0) || isActionConfigured(S3Action.DELETE_BATCH) || isActionConfigured(S3Action.LIST)
+				|| (isActionConfigured(S3Action.COPY) && getMultipartCopyThreshold() > 0))
+			transferExecutor = createTransferExecutor();
+		
+		if(isAsyncEnabled())
+		{
+			inFlightRequests = new Semaphore(getMaxInFlightRequests());
+			asyncExecutor = createAsyncExecutor();
+		}
 	}
 
 	@Override
 	public void close()
 	{
-		s3Client.shutdown();
+		if(asyncExecutor != null)
+		{
+			//messages that are submitted already get a chance to finish before their transfers are stopped
+			asyncExecutor.shutdown();
+			try
+			{
+				if(!asyncExecutor.awaitTermination(ASYNC_CLOSE_TIMEOUT, TimeUnit.MILLISECONDS))
+					log.warn(getLogPrefix() + "messages still in flight after [" + ASYNC_CLOSE_TIMEOUT + "] ms are cancelled");
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			asyncExecutor.shutdownNow();
+			asyncExecutor = null;
+		}
+		if(transferExecutor != null)
+		{
+			transferExecutor.shutdownNow();
+			transferExecutor = null;
+		}
+		if(downloadCache != null)
+		{
+			downloadCache.clear();
+			downloadCache = null;
+		}
+		if(metrics != null)
+		{
+			unregisterMetrics();
+			if(log.isDebugEnabled()) log.debug(getLogPrefix() + "metrics " + metrics);
+			metrics = null;
+		}
+		if(uninstrumentedS3Client == null)
+			return;
+		//a client shared with senders of equal settings is released once, a second close must not take a reference of another sender
+		if(!S3ClientRegistry.getInstance().release(uninstrumentedS3Client))
+			uninstrumentedS3Client.shutdown();
+		uninstrumentedS3Client = null;
+		s3Client = null;
+	}
+	
+	private void registerMetrics()
+	{
+		try
+		{
+			metricsName = new ObjectName("nl.nn.adapterframework:type=AmazonS3Sender,name=" + ObjectName.quote(String.valueOf(getName())));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+		}
+		catch(JMException e)
+		{
+			//the metrics are still recorded and logged when the sender is closed
+			log.warn(getLogPrefix() + "cannot register metrics over JMX as [" + metricsName + "]", e);
+			metricsName = null;
+		}
+	}
+	
+	private void unregisterMetrics()
+	{
+		if(metricsName == null)
+			return;
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+		}
+		catch(JMException e)
+		{
+			log.warn(getLogPrefix() + "cannot unregister metrics [" + metricsName + "]", e);
+		}
+		metricsName = null;
+	}
+	
+	/**
+	 * Returns the metrics of this sender, or null when metricsEnabled is not set or the sender is not open.
+	 */
+	public S3Metrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	private boolean isActionConfigured(S3Action action)
+	{
+		return actionPlan != null && Arrays.asList(actionPlan).contains(action);
+	}
+	
+	/**
+	 * Returns the client this sender sends its requests with, shared with every sender that has the same client settings.
+	 * A client that is not acquired from the {@link S3ClientRegistry} is shut down by {@link #close()}.
+	 */
+	protected AmazonS3 createS3Client()
+	{
+		int connections = getMaxConnections();
+		if(isVirtualThreadsEnabled())
+			connections = Math.max(connections, getConcurrentRequests());
+		S3ClientRegistry.Options options = new S3ClientRegistry.Options(getClientRegion(), isChunkedEncodingDisabled(), isAccelerateModeEnabled(),
+				isForceGlobalBucketAccessEnabled(), connections, getConnectionTtl(), getConnectionTimeout(), getSocketTimeout(), getRequestTimeout(), isTcpKeepAlive(), isMetricsEnabled(),
+				isAdaptiveConcurrencyEnabled());
+
+		return S3ClientRegistry.getInstance().acquire(options);
+	}
+	
+	/**
+	 * Returns the highest number of requests this sender can send at the same time: one per message, or one per part, range or prefix of a transfer.
+	 */
+	private int getConcurrentRequests()
+	{
+		int requestsPerMessage = 1;
+		if(isMultipartUploadEnabled() || (isActionConfigured(S3Action.COPY) && getMultipartCopyThreshold() > 0))
+			requestsPerMessage = Math.max(requestsPerMessage, getPartConcurrency());
+		if(isParallelDownloadEnabled())
+			requestsPerMessage = Math.max(requestsPerMessage, getPrefetchDepth());
+		if(isActionConfigured(S3Action.LIST))
+			requestsPerMessage = Math.max(requestsPerMessage, getListConcurrency());
+		if(isActionConfigured(S3Action.DELETE_BATCH))
+			requestsPerMessage = Math.max(requestsPerMessage, getDeleteBatchConcurrency());
+		return (isAsyncEnabled() ? getMaxInFlightRequests() : 1) * requestsPerMessage;
+	}
+	
+	/**
+	 * Creates the thread pool on which parts are transferred. Every transfer bounds its own number of parts in flight,
+	 * so the pool itself is unbounded and threads that are idle for a minute are released.
+	 */
+	protected ExecutorService createTransferExecutor()
+	{
+		return createThreadPool("transfer");
+	}
+	
+	/**
+	 * Creates the thread pool on which the actions of messages run when asyncEnabled is set to 'true'.
+	 * The number of messages in flight is bounded by maxInFlightRequests, so the pool itself is unbounded as well.
+	 */
+	protected ExecutorService createAsyncExecutor()
+	{
+		return createThreadPool("async");
+	}
+	
+	private ExecutorService createThreadPool(String purpose)
+	{
+		return VirtualThreadExecutors.newExecutor("S3Sender-" + getName() + "-" + purpose + "-", isVirtualThreadsEnabled());
 	}
 
 	@Override
@@ -203,10 +615,11 @@ public class AmazonS3Sender extends SenderWithParametersBase
 			if (prc != null && paramList != null)
 				pvl = prc.getValues(paramList);
 			
-			if(pvl == null || pvl.getParameterValue("fileName") == null)
+			Object fileNameValue = getParameterValue(pvl, fileNameParameterIndex);
+			if(fileNameValue == null)
 				generalFileName = message;
 			else
-				generalFileName = pvl.getParameterValue("fileName").getValue().toString(); //DONE this need to be fixed! When fileName parameter not assigned generalFileName is null somehow, how?
+				generalFileName = fileNameValue.toString();
 		}
 		catch (ParameterException e)
 		{
@@ -217,45 +630,102 @@ public class AmazonS3Sender extends SenderWithParametersBase
 			throw new SenderException(getLogPrefix() + "Sender [" + getName() + "] caught NullPointerException");
 		}
 		
-		StringTokenizer tokenizer = new StringTokenizer(getActions(), " ,\t\n\r\f");
+		if(isAsyncEnabled())
+			return submitActionPlan(generalFileName, pvl, prc);
+		
+		return runActionPlan(generalFileName, pvl, prc);
+	}
+	
+	@Override
+	public boolean isSynchronous()
+	{
+		return !isAsyncEnabled();
+	}
+	
+	private String runActionPlan(String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+	{
 		String result = null;
-		while (tokenizer.hasMoreTokens())
+		for(S3Action action : actionPlan)
 		{
-			String action = tokenizer.nextToken();
-			if(action.equalsIgnoreCase("upload") || action.equalsIgnoreCase("download") || action.equalsIgnoreCase("copy") || action.equalsIgnoreCase("delete"))
-				if(StringUtils.isEmpty(generalFileName) && StringUtils.isEmpty(message))
-					throw new SenderException(getLogPrefix() + " no value found for the fileName and message parameter, atleast one value has to be assigned");
+			if(action.isFileNameRequired() && StringUtils.isEmpty(fileName))
+				throw new SenderException(getLogPrefix() + " no value found for the fileName and message parameter, atleast one value has to be assigned");
 			
-			if(action.equalsIgnoreCase("createBucket"))												//createBucket block
-				result = createBucket(getBucketName(), bucketExistsThrowException);
-			else if(action.equalsIgnoreCase("deleteBucket"))										//deleteBucket block
-				result = deleteBucket(getBucketName());
-			else if(action.equalsIgnoreCase("upload"))												//upload file block
-				if(pvl.getParameterValue("file") != null)
-					if(pvl.getParameterValue("file").getValue() != null)
-						result = uploadObject(getBucketName(), generalFileName, pvl);
-					else
-						throw new SenderException(getLogPrefix() + " no value was assinged for file parameter");
-				else
-					throw new SenderException(getLogPrefix() + " file parameter doesn't exist, please use file parameter to perform [upload] action");
-			else if(action.equalsIgnoreCase("download"))											//download file block
-				result = downloadObject(getBucketName(), generalFileName, prc);
-			else if(action.equalsIgnoreCase("copy"))												//copy file block
-				if(pvl.getParameterValue("destinationFileName") != null)
-					if(pvl.getParameterValue("destinationFileName").getValue() != null)
-						result = copyObject(getBucketName(), generalFileName, pvl);
-					else
-						throw new SenderException(getLogPrefix() + " no value in destinationFileName parameter found, please assing value to the parameter to perfom [copy] action");
-				else
-					throw new SenderException(getLogPrefix() + " no destinationFileName parameter found, it must be used to perform [copy] action");
-			else if(action.equalsIgnoreCase("delete"))												//delete file block
-					result = deleteObject(getBucketName(), generalFileName);
-	    }
-		
-		System.out.println("Return message: "+result);
+			long start = System.nanoTime();
+			try
+			{
+				result = action.execute(this, fileName, pvl, prc);
+			}
+			finally
+			{
+				if(metrics != null)
+					metrics.recordAction(action.getActionName(), System.nanoTime() - start);
+			}
+		}
 		return result;
 	}
 	
+	/**
+	 * Runs the actions of a message on the async executor, waiting for a free slot when maxInFlightRequests messages are in flight already.
+	 */
+	private String submitActionPlan(final String fileName, final ParameterValueList pvl, final ParameterResolutionContext prc) throws SenderException, TimeOutException
+	{
+		Object file = getFileParameterValue(pvl);
+		if(file instanceof InputStream || file instanceof Channel)
+			throw new SenderException(getLogPrefix() + "file parameter holds a [" + file.getClass().getName() + "] that the pipeline may close before it is uploaded, asynchronous actions require a File or Path");
+		
+		try
+		{
+			if(getAsyncSubmitTimeout() == 0)
+				inFlightRequests.acquire();
+			else if(!inFlightRequests.tryAcquire(getAsyncSubmitTimeout(), TimeUnit.MILLISECONDS))
+				throw new TimeOutException(getLogPrefix() + "no free slot within [" + getAsyncSubmitTimeout() + "] ms, [" + getMaxInFlightRequests() + "] messages are in flight");
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SenderException(getLogPrefix() + "interrupted while waiting for a free slot", e);
+		}
+		
+		Future<String> future;
+		try
+		{
+			future = asyncExecutor.submit(new Callable<String>()
+			{
+				@Override
+				public String call() throws SenderException
+				{
+					try
+					{
+						return runActionPlan(fileName, pvl, prc);
+					}
+					catch(SenderException e)
+					{
+						log.warn(getLogPrefix() + "asynchronous actions for file [" + fileName + "] failed", e);
+						throw e;
+					}
+					catch(RuntimeException e)
+					{
+						log.warn(getLogPrefix() + "asynchronous actions for file [" + fileName + "] failed", e);
+						throw e;
+					}
+					finally
+					{
+						inFlightRequests.release();
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			inFlightRequests.release();
+			throw new SenderException(getLogPrefix() + "sender is closed", e);
+		}
+		
+		if(getAsyncResultSessionKey() != null && prc != null)
+			prc.getSession().put(getAsyncResultSessionKey(), future);
+		return fileName;
+	}
+	
 	 /**
      * Creates a bucket on Amazon S3.
      *
@@ -270,7 +740,7 @@ public class AmazonS3Sender extends SenderWithParametersBase
 	{
 		try
 		{
-			if(!s3Client.doesBucketExistV2(bucketName))
+			if(!bucketExists(bucketName))
 			{
 				CreateBucketRequest createBucketRequest = null;
 				if(isForceGlobalBucketAccessEnabled())
@@ -278,13 +748,14 @@ public class AmazonS3Sender extends SenderWithParametersBase
 				else
 					createBucketRequest = new CreateBucketRequest(bucketName);			
 				s3Client.createBucket(createBucketRequest);
-				log.debug("Bucket with bucketName: ["+bucketName+"] is created.");
+				bucketCache.put(bucketName, true);
+				if(log.isDebugEnabled()) log.debug("Bucket with bucketName: ["+bucketName+"] is created.");
 				
 				if(isAccelerateModeEnabled())
 				{
 					s3Client.setBucketAccelerateConfiguration(new SetBucketAccelerateConfigurationRequest(bucketName, new BucketAccelerateConfiguration(BucketAccelerateStatus.Enabled)));
 					String accelerateStatus = s3Client.getBucketAccelerateConfiguration(new GetBucketAccelerateConfigurationRequest(bucketName)).getStatus();
-					log.debug("Bucket ["+bucketName+"] accelerate status: " + accelerateStatus);					
+					if(log.isDebugEnabled()) log.debug("Bucket ["+bucketName+"] accelerate status: " + accelerateStatus);
 				}
 			}
 			else
@@ -294,6 +765,15 @@ public class AmazonS3Sender extends SenderWithParametersBase
 		}
 		catch(AmazonServiceException e)
 		{
+			throwIfThrottled(e, bucketName);
+			if("BucketAlreadyOwnedByYou".equals(e.getErrorCode()))
+			{
+				//the bucket was created after its absence was cached
+				bucketCache.put(bucketName, true);
+				if(!bucketExistsThrowException)
+					return bucketName;
+				throw new SenderException(getLogPrefix() + " bucket with bucketName [" + bucketName + "] already exists, please specify a unique bucketName");
+			}
 			log.warn("Failed to create bucket with bucketName ["+bucketName+"].");
 			throw new SenderException("Failed to create bucket with bucketName ["+bucketName+"].");
 		}
@@ -314,10 +794,13 @@ public class AmazonS3Sender extends SenderWithParametersBase
 			bucketDoesNotExist(bucketName);
 			DeleteBucketRequest deleteBucketRequest = new DeleteBucketRequest(bucketName);
 			s3Client.deleteBucket(deleteBucketRequest);
-			log.debug("Bucket with bucketName [" + bucketName + "] is deleted.");
+			bucketCache.put(bucketName, false);
+			if(log.isDebugEnabled()) log.debug("Bucket with bucketName [" + bucketName + "] is deleted.");
 		}
 		catch(AmazonServiceException e)
 		{
+			throwIfThrottled(e, bucketName);
+			invalidateOnNoSuchBucket(e, bucketName);
 			log.warn("Failed to delete bucket with bucketName [" + bucketName + "].");
 			throw new SenderException("Failed to delete bucket with bucketName [" + bucketName + "].");
 		}
@@ -340,147 +823,685 @@ public class AmazonS3Sender extends SenderWithParametersBase
 	{	
 		try
 		{
-			if(!s3Client.doesBucketExistV2(bucketName))
-				bucketCreationForObjectAction(bucketName);
-			if(!s3Client.doesObjectExist(bucketName, fileName))
+			if(isOptimisticModeEnabled())
 			{
-				InputStream inputStream = (InputStream) pvl.getParameterValue("file").getValue();
-				ObjectMetadata metadata = new ObjectMetadata();
-				metadata.setContentType("application/octet-stream");	
-				PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, fileName, inputStream, metadata);
-				s3Client.putObject(putObjectRequest);
-				log.debug("Object with fileName [" + fileName + "] uploaded into bucket with bucketName [" + bucketName + "]");
+				//only a bucket that might have to be created is checked, the existence of the file is checked by S3 through If-None-Match
+				if(isBucketCreationEnabled() && !bucketExists(bucketName))
+					bucketCreationForObjectAction(bucketName);
+				putObject(bucketName, fileName, pvl, true);
 			}
 			else
-				throw new SenderException(getLogPrefix() + " file with given name already exists, please specify a new name for your file");			
+			{
+				if(!bucketExists(bucketName))
+					bucketCreationForObjectAction(bucketName);
+				if(!s3Client.doesObjectExist(bucketName, fileName))
+					putObject(bucketName, fileName, pvl, false);
+				else
+					throw new SenderException(getLogPrefix() + " file with given name already exists, please specify a new name for your file");			
+			}
+			if(log.isDebugEnabled()) log.debug("Object with fileName [" + fileName + "] uploaded into bucket with bucketName [" + bucketName + "]");
 		}
 		catch(AmazonServiceException e)
 		{
+			throwIfThrottled(e, bucketName);
+			invalidateOnNoSuchBucket(e, bucketName);
+			if(isOptimisticModeEnabled())
+				throwOptimisticFailure(e, bucketName, fileName);
 			log.warn("Failed to upload object with fileName [" + fileName + "] into bucket with bucketName [" + bucketName + "]");
 			throw new SenderException("Failed to upload object with fileName [" + fileName + "] into bucket with bucketName [" + bucketName + "]");
 		}
+		catch(AmazonClientException e)
+		{
+			log.warn("Failed to upload object with fileName [" + fileName + "] into bucket with bucketName [" + bucketName + "]");
+			throw new SenderException("Failed to upload object with fileName [" + fileName + "] into bucket with bucketName [" + bucketName + "]", e);
+		}
+		catch(IOException e)
+		{
+			log.warn("Failed to read file for object with fileName [" + fileName + "]");
+			throw new SenderException("Failed to read file for object with fileName [" + fileName + "]", e);
+		}
 		
 		return fileName;
 	}
 	
 	/**
-     * Downloads a file from Amazon S3 bucket.
+     * Puts the contents of the file parameter into the bucket, either with a single request or as a multipart upload.
      *
-     * @param bucketName
-     *            The name of the bucket where the file is stored in.
-     * @param fileName
-     * 			  This parameter is used for controlling the behavior for weather an exception has to be thrown or not. 
-     * 			  In case of upload action being configured to be able to create a bucket, an exception will not be thrown when a bucket with assigned bucketName already exists.
+     * @param failIfExists
+     * 			  When 'true' the request carries an If-None-Match header, so S3 refuses to overwrite an existing file.
      */
-	protected String downloadObject(String bucketName, String fileName, ParameterResolutionContext prc) throws SenderException
+	private void putObject(String bucketName, String fileName, ParameterValueList pvl, boolean failIfExists) throws IOException
+	{
+		Object file = getFileParameterValue(pvl);
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentType("application/octet-stream");	
+		if(isDeduplicationEnabled())
+			putDeduplicated(bucketName, fileName, file, metadata, failIfExists);
+		else
+			putContent(bucketName, fileName, file, metadata, failIfExists);
+	}
+	
+	private void putContent(String bucketName, String fileName, Object file, ObjectMetadata metadata, boolean failIfExists) throws IOException
+	{
+		if(isCompressionEnabled())
+			putCompressed(bucketName, fileName, file, metadata, failIfExists);
+		else if(file instanceof FileChannel)
+			putFile(bucketName, fileName, (FileChannel) file, metadata, failIfExists);
+		else if(file instanceof File || file instanceof Path)
+		{
+			FileChannel channel = FileChannel.open(file instanceof File ? ((File) file).toPath() : (Path) file, StandardOpenOption.READ);
+			try
+			{
+				putFile(bucketName, fileName, channel, metadata, failIfExists);
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+		else
+			putStream(bucketName, fileName, (InputStream) file, metadata, failIfExists);
+	}
+	
+	/**
+	 * Uploads a file, or copies an object within S3 that holds the same content when one is known. A stream is spooled to disk first,
+	 * as the hash is only known after the last byte has been read.
+	 */
+	private void putDeduplicated(String bucketName, String fileName, Object file, ObjectMetadata metadata, boolean failIfExists) throws IOException
 	{
-		S3ObjectInputStreamCloser s3InputStream = null;
+		MessageDigest digest;
 		try
 		{
-			bucketDoesNotExist(bucketName);
-			fileDoesNotExist(bucketName, fileName);
-			GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, fileName);
-			s3InputStream = new S3ObjectInputStreamCloser(s3Client.getObject(getObjectRequest).getObjectContent());
-			log.debug("Object with fileName [" + fileName + "] downloaded from bucket with bucketName [" + bucketName + "]");
+			digest = MessageDigest.getInstance("SHA-256");
 		}
-		catch(AmazonServiceException e)
+		catch(NoSuchAlgorithmException e)
 		{
-			log.error("Failed to download object with fileName [" + fileName + "] from bucket with bucketName [" + bucketName + "]");			
-			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]");
+			throw new IOException("SHA-256 is not available", e);
 		}
 		
-		try 
+		File spool = null;
+		try
 		{
-			IPipeLineSession session=null;
-			if (prc!=null)
+			Object content = file;
+			if(file instanceof InputStream)
 			{
-				session=prc.getSession();
-				session.put(getStoreResultInSessionKey(), s3InputStream);				
+				spool = File.createTempFile("s3-upload-", ".spool", StringUtils.isEmpty(getSpoolDirectory()) ? null : new File(getSpoolDirectory()));
+				InputStream inputStream = new DigestInputStream((InputStream) file, digest);
+				try
+				{
+					Files.copy(inputStream, spool.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				finally
+				{
+					inputStream.close();
+				}
+				content = spool;
+			}
+			else
+				digest(file, digest);
+			
+			String hash = toHex(digest.digest());
+			metadata.addUserMetadata(CONTENT_HASH_METADATA_KEY, hash);
+			if(!copyDuplicate(hash, bucketName, fileName, failIfExists))
+			{
+				putContent(bucketName, fileName, content, metadata, failIfExists);
+				contentIndex.put(hash, bucketName, fileName);
 			}
 		}
-		catch(Exception e) 
+		finally
 		{
-			throw new SenderException("Error during processing of the inputStream ", e);
+			if(spool != null)
+				Files.deleteIfExists(spool.toPath());
 		}
-		
-		return getStoreResultInSessionKey();
 	}
 	
-	/**
-     * Copies a file from one Amazon S3 bucket to another one. 
-     *
-     * @param bucketName
-     *            The name of the bucket where the file is stored in.
-     * @param fileName
-     * 			  This is the name of the file that is desired to be copied.
-     * @param pvl
-     * 			  This object is given in order to get the contents of destinationFileName parameter for naming the new object within bucket where the file is copied to.
-     */
-	protected String copyObject(String bucketName, String fileName, ParameterValueList pvl) throws SenderException
+	private static void digest(Object file, MessageDigest digest) throws IOException
 	{
-		String destinationFileName = pvl.getParameterValue("destinationFileName").getValue().toString();				
+		InputStream inputStream;
+		if(file instanceof FileChannel)
+			inputStream = new S3FileRegionInputStream((FileChannel) file, 0, ((FileChannel) file).size());
+		else
+			inputStream = Files.newInputStream(file instanceof File ? ((File) file).toPath() : (Path) file);
 		try
 		{
-			bucketDoesNotExist(bucketName);
-			fileDoesNotExist(bucketName, fileName);
-			if(BucketNameUtils.isValidV2BucketName(destinationBucketName))
-			{
-				bucketCreationForObjectAction(destinationBucketName);
-				if(!s3Client.doesObjectExist(destinationBucketName, destinationFileName))
-				{
-					CopyObjectRequest copyObjectRequest = new CopyObjectRequest(bucketName, fileName, destinationBucketName, destinationFileName);
-					s3Client.copyObject(copyObjectRequest);
-					log.debug("Object with fileName [" + fileName + "] copied from bucket with bucketName [" + bucketName + "] into bucket with bucketName [" + destinationBucketName + "] and new fileName [" + destinationFileName + "]");
-				}
-				else
-					throw new SenderException(getLogPrefix() + " file with given name already exists, please specify a new name");
-			}
-			else
-				throw new SenderException(getLogPrefix() + " failed to create bucket, correct bucket naming is not used for destinationBucketName parameter, visit AWS to see correct bucket naming");
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while((read = inputStream.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
 		}
-		catch(AmazonServiceException e)
+		finally
 		{
-			log.error("Failed to perform copy action from bucket ["+bucketName+"]");
-			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]");
+			inputStream.close();
 		}
-
-		return destinationFileName;
+	}
+	
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return hex.toString();
 	}
 	
 	/**
-     * Deletes a file from Amazon S3 bucket.
-     *
-     * @param bucketName
-     *            The name of the bucket where the file is stored in.
-     * @param fileName
-     * 			   
-     */
-	protected String deleteObject(String bucketName, String fileName) throws SenderException
+	 * Copies the object that was uploaded with the same hash before, returns false when none is known or it no longer holds that content.
+	 * The hash in the metadata of the object is checked and its ETag is used as a constraint, so the copy never takes different content.
+	 */
+	private boolean copyDuplicate(String hash, String bucketName, String fileName, boolean failIfExists) throws IOException
 	{
+		S3ContentIndex.Location location = contentIndex.get(hash);
+		if(location == null)
+			return false;
+		
+		ObjectMetadata sourceMetadata;
 		try
 		{
-			bucketDoesNotExist(bucketName);
-			fileDoesNotExist(bucketName, fileName);
-			DeleteObjectRequest deleteObjectRequest = new DeleteObjectRequest(bucketName, fileName);
-			s3Client.deleteObject(deleteObjectRequest);
-			log.debug("Object with fileName [" + fileName + "] deleted from bucket with bucketName [" + bucketName + "]");
+			sourceMetadata = s3Client.getObjectMetadata(location.getBucketName(), location.getKey());
 		}
 		catch(AmazonServiceException e)
 		{
-			log.error("Failed to perform copy action from bucket ["+bucketName+"]");
-			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]");
+			if(e.getStatusCode() != 404)
+				throw e;
+			contentIndex.remove(hash, location);
+			return false;
+		}
+		if(!hash.equals(sourceMetadata.getUserMetaDataOf(CONTENT_HASH_METADATA_KEY)))
+		{
+			contentIndex.remove(hash, location);
+			return false;
 		}
-			
 		
-		return fileName;
-	}
-
-	
-	/**
-     * This method is wrapper which makes it possible for upload and copy actions to create a bucket and 
-     * incase a bucket already exists the operation will proceed without throwing an exception. 
-     *
-     * @param bucketName
+		if(location.getBucketName().equals(bucketName) && location.getKey().equals(fileName))
+		{
+			//S3 refuses to copy an object onto itself without changes, and there is nothing to copy, but the file exists like any other
+			if(failIfExists)
+				throw preconditionFailed(bucketName, fileName);
+			if(log.isDebugEnabled()) log.debug(getLogPrefix() + "file [" + fileName + "] already has the same content, skipped the upload");
+			return true;
+		}
+		
+		boolean multipart = getMultipartCopyThreshold() > 0 && sourceMetadata.getContentLength() > getMultipartCopyThreshold();
+		if(!multipart && sourceMetadata.getContentLength() > MAX_SINGLE_COPY_SIZE)
+			return false;
+		
+		//CopyObject has no conditional write, so the destination is checked up front and refused the way a PUT with If-None-Match is
+		if(failIfExists && s3Client.doesObjectExist(bucketName, fileName))
+			throw preconditionFailed(bucketName, fileName);
+		
+		if(multipart)
+		{
+			S3MultipartCopy multipartCopy = new S3MultipartCopy(s3Client, transferExecutor, getCopyPartSize(), getPartConcurrency());
+			multipartCopy.copy(location.getBucketName(), location.getKey(), sourceMetadata, bucketName, fileName);
+		}
+		else
+		{
+			CopyObjectRequest copyObjectRequest = new CopyObjectRequest(location.getBucketName(), location.getKey(), bucketName, fileName)
+					.withMatchingETagConstraint(sourceMetadata.getETag());
+			if(s3Client.copyObject(copyObjectRequest) == null)
+			{
+				//the object was replaced after the HEAD request
+				contentIndex.remove(hash, location);
+				return false;
+			}
+		}
+		if(log.isDebugEnabled()) log.debug(getLogPrefix() + "file [" + fileName + "] has the same content as [" + location + "], copied it instead of uploading");
+		return true;
+	}
+	
+	private static AmazonS3Exception preconditionFailed(String bucketName, String fileName)
+	{
+		AmazonS3Exception e = new AmazonS3Exception("file [" + fileName + "] already exists in bucket [" + bucketName + "]");
+		e.setStatusCode(412);
+		e.setErrorCode("PreconditionFailed");
+		e.setErrorType(AmazonServiceException.ErrorType.Client);
+		return e;
+	}
+	
+	/**
+	 * Compresses a file while it is uploaded in parts, the length of the compressed file is not known up front.
+	 */
+	private void putCompressed(String bucketName, String fileName, Object file, ObjectMetadata metadata, boolean failIfExists) throws IOException
+	{
+		InputStream source;
+		if(file instanceof FileChannel)
+			source = new S3FileRegionInputStream((FileChannel) file, 0, ((FileChannel) file).size());
+		else if(file instanceof File)
+			source = Files.newInputStream(((File) file).toPath());
+		else if(file instanceof Path)
+			source = Files.newInputStream((Path) file);
+		else
+			source = (InputStream) file;
+		
+		InputStream compressed = new S3CompressingInputStream(source, getCompressionConcurrency() > 1 ? transferExecutor : null, getCompressionBlockSize(), getCompressionConcurrency());
+		try
+		{
+			metadata.setContentEncoding(S3CompressingInputStream.GZIP);
+			S3MultipartUpload multipartUpload = new S3MultipartUpload(s3Client, transferExecutor, getPartSize(), isMultipartUploadEnabled() ? getPartConcurrency() : 1);
+			multipartUpload.setFailIfExists(failIfExists);
+			long length = multipartUpload.upload(bucketName, fileName, compressed, metadata);
+			if(log.isDebugEnabled()) log.debug(getLogPrefix() + "uploaded file [" + fileName + "] compressed to [" + length + "] bytes");
+		}
+		finally
+		{
+			//a stream given as parameter is closed as well, like the SDK does after a plain upload
+			if(!(file instanceof FileChannel))
+				compressed.close();
+		}
+	}
+	
+	/**
+	 * Uploads a file with its known length, the SDK rereads the file from disk when a request is retried.
+	 */
+	private void putFile(String bucketName, String fileName, FileChannel channel, ObjectMetadata metadata, boolean failIfExists) throws IOException
+	{
+		if(isMultipartUploadEnabled())
+		{
+			S3MultipartUpload multipartUpload = new S3MultipartUpload(s3Client, transferExecutor, getPartSize(), getPartConcurrency());
+			multipartUpload.setFailIfExists(failIfExists);
+			multipartUpload.upload(bucketName, fileName, channel, metadata);
+		}
+		else
+		{
+			long length = channel.size();
+			metadata.setContentLength(length);
+			PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, fileName, new S3FileRegionInputStream(channel, 0, length), metadata);
+			if(failIfExists)
+				putObjectRequest.putCustomRequestHeader("If-None-Match", "*");
+			s3Client.putObject(putObjectRequest);
+		}
+	}
+	
+	private void putStream(String bucketName, String fileName, InputStream inputStream, ObjectMetadata metadata, boolean failIfExists) throws IOException
+	{
+		if(isMultipartUploadEnabled())
+		{
+			S3MultipartUpload multipartUpload = new S3MultipartUpload(s3Client, transferExecutor, getPartSize(), getPartConcurrency());
+			multipartUpload.setFailIfExists(failIfExists);
+			multipartUpload.upload(bucketName, fileName, inputStream, metadata);
+		}
+		else
+		{
+			PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, fileName, inputStream, metadata);
+			if(failIfExists)
+				putObjectRequest.putCustomRequestHeader("If-None-Match", "*");
+			s3Client.putObject(putObjectRequest);
+		}
+	}
+	
+	/**
+     * Downloads a file from Amazon S3 bucket.
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			  This parameter is used for controlling the behavior for weather an exception has to be thrown or not. 
+     * 			  In case of upload action being configured to be able to create a bucket, an exception will not be thrown when a bucket with assigned bucketName already exists.
+     */
+	protected String downloadObject(String bucketName, String fileName, ParameterResolutionContext prc) throws SenderException
+	{
+		Object content = null;
+		try
+		{
+			bucketDoesNotExist(bucketName);
+			if(isSeekableDownloadEnabled())
+				content = createSeekableByteChannel(bucketName, fileName);
+			else if(isParallelDownloadEnabled())
+				content = createRangedInputStream(bucketName, fileName);
+			else if(downloadCache != null)
+				content = getCachedInputStream(bucketName, fileName);
+			else
+			{
+				fileDoesNotExist(bucketName, fileName);
+				GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, fileName);
+				S3Object object = s3Client.getObject(getObjectRequest);
+				content = new S3ObjectInputStreamCloser(object.getObjectContent());
+				if(isCompressionEnabled())
+					content = decode((InputStream) content, object.getObjectMetadata().getContentEncoding());
+			}
+			if(log.isDebugEnabled()) log.debug("Object with fileName [" + fileName + "] downloaded from bucket with bucketName [" + bucketName + "]");
+		}
+		catch(AmazonServiceException e)
+		{
+			throwIfThrottled(e, bucketName);
+			invalidateOnNoSuchBucket(e, bucketName);
+			log.error("Failed to download object with fileName [" + fileName + "] from bucket with bucketName [" + bucketName + "]");			
+			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]");
+		}
+		
+		try 
+		{
+			IPipeLineSession session=null;
+			if (prc!=null)
+			{
+				session=prc.getSession();
+				session.put(getStoreResultInSessionKey(), content);				
+			}
+		}
+		catch(Exception e) 
+		{
+			throw new SenderException("Error during processing of the inputStream ", e);
+		}
+		
+		return getStoreResultInSessionKey();
+	}
+	
+	/**
+     * Returns the content of a file from the download cache, the GET that checks whether the cached file is current also checks
+     * whether the file exists.
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			  The name of the file that is downloaded.
+     */
+	protected InputStream getCachedInputStream(String bucketName, String fileName) throws SenderException
+	{
+		try
+		{
+			return downloadCache.getObject(s3Client, bucketName, fileName);
+		}
+		catch(AmazonServiceException e)
+		{
+			if(e.getStatusCode() == 404 && !"NoSuchBucket".equals(e.getErrorCode()))
+				throw new SenderException(getLogPrefix() + " file with fileName ["+ fileName +"] does not exist, please specify the name of an existing file");
+			throw e;
+		}
+		catch(IOException e)
+		{
+			throw new SenderException(getLogPrefix() + "failed to download file [" + fileName + "] from bucket [" + bucketName + "] into the download cache", e);
+		}
+	}
+	
+	/**
+     * Opens an InputStream that downloads a file in concurrent ranges, the HEAD request that retrieves the length of the file
+     * also checks whether the file exists.
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			  The name of the file that is downloaded.
+     */
+	protected InputStream createRangedInputStream(String bucketName, String fileName) throws SenderException
+	{
+		ObjectMetadata metadata = getFileMetadata(bucketName, fileName);
+		int depth = Math.max(1, Math.min(getPrefetchDepth(), getDownloadMemoryBudget() / getRangeSize() - 1));
+		InputStream content = new S3RangedInputStream(s3Client, transferExecutor, bucketName, fileName, metadata.getETag(), metadata.getContentLength(), getRangeSize(), depth);
+		if(isCompressionEnabled())
+			return decode(content, metadata.getContentEncoding());
+		return content;
+	}
+	
+	private InputStream decode(InputStream content, String contentEncoding) throws SenderException
+	{
+		try
+		{
+			return S3CompressingInputStream.decode(content, contentEncoding);
+		}
+		catch(IOException e)
+		{
+			try
+			{
+				content.close();
+			}
+			catch(IOException ignored)
+			{
+				//the decoding failure is reported
+			}
+			throw new SenderException(getLogPrefix() + "cannot decode file with Content-Encoding [" + contentEncoding + "]", e);
+		}
+	}
+	
+	/**
+     * Opens a read-only channel that fetches blocks of a file when they are read, the HEAD request that retrieves the length of the file
+     * also checks whether the file exists.
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			  The name of the file that is downloaded.
+     */
+	protected SeekableByteChannel createSeekableByteChannel(String bucketName, String fileName) throws SenderException
+	{
+		ObjectMetadata metadata = getFileMetadata(bucketName, fileName);
+		return new S3SeekableByteChannel(s3Client, bucketName, fileName, metadata.getETag(), metadata.getContentLength(), getBlockSize(), getBlockCacheSize());
+	}
+	
+	/**
+     * Copies a file from one Amazon S3 bucket to another one. 
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			  This is the name of the file that is desired to be copied.
+     * @param pvl
+     * 			  This object is given in order to get the contents of destinationFileName parameter for naming the new object within bucket where the file is copied to.
+     */
+	protected String copyObject(String bucketName, String fileName, ParameterValueList pvl) throws SenderException
+	{
+		String destinationFileName = getDestinationFileNameParameterValue(pvl).toString();				
+		try
+		{
+			//the size of the source is only needed to choose between a single and a multipart copy,
+			//in optimistic mode it is only asked for when S3 refuses the single copy
+			ObjectMetadata sourceMetadata = null;
+			if(!isOptimisticModeEnabled())
+			{
+				bucketDoesNotExist(bucketName);
+				if(getMultipartCopyThreshold() > 0)
+					sourceMetadata = getFileMetadata(bucketName, fileName);
+				else
+					fileDoesNotExist(bucketName, fileName);
+			}
+			if(BucketNameUtils.isValidV2BucketName(destinationBucketName))
+			{
+				if(!bucketExists(destinationBucketName))
+					bucketCreationForObjectAction(destinationBucketName);
+				if(!s3Client.doesObjectExist(destinationBucketName, destinationFileName))
+				{
+					if(sourceMetadata != null && sourceMetadata.getContentLength() > getMultipartCopyThreshold())
+					{
+						S3MultipartCopy multipartCopy = new S3MultipartCopy(s3Client, transferExecutor, getCopyPartSize(), getPartConcurrency());
+						multipartCopy.copy(bucketName, fileName, sourceMetadata, destinationBucketName, destinationFileName);
+					}
+					else
+					{
+						CopyObjectRequest copyObjectRequest = new CopyObjectRequest(bucketName, fileName, destinationBucketName, destinationFileName);
+						try
+						{
+							s3Client.copyObject(copyObjectRequest);
+						}
+						catch(AmazonServiceException e)
+						{
+							if(!isOptimisticModeEnabled() || getMultipartCopyThreshold() <= 0 || !isCopySourceTooLarge(e))
+								throw e;
+							sourceMetadata = getFileMetadata(bucketName, fileName);
+							if(log.isDebugEnabled()) log.debug(getLogPrefix() + "file [" + fileName + "] of [" + sourceMetadata.getContentLength() + "] bytes is too large for a single copy, copying it in parts");
+							S3MultipartCopy multipartCopy = new S3MultipartCopy(s3Client, transferExecutor, getCopyPartSize(), getPartConcurrency());
+							multipartCopy.copy(bucketName, fileName, sourceMetadata, destinationBucketName, destinationFileName);
+						}
+					}
+					if(log.isDebugEnabled()) log.debug("Object with fileName [" + fileName + "] copied from bucket with bucketName [" + bucketName + "] into bucket with bucketName [" + destinationBucketName + "] and new fileName [" + destinationFileName + "]");
+				}
+				else
+					throw new SenderException(getLogPrefix() + " file with given name already exists, please specify a new name");
+			}
+			else
+				throw new SenderException(getLogPrefix() + " failed to create bucket, correct bucket naming is not used for destinationBucketName parameter, visit AWS to see correct bucket naming");
+		}
+		catch(AmazonServiceException e)
+		{
+			throwIfThrottled(e, bucketName);
+			invalidateOnNoSuchBucket(e, bucketName);
+			invalidateOnNoSuchBucket(e, destinationBucketName);
+			if(isOptimisticModeEnabled())
+			{
+				//S3 doesn't tell which bucket is missing, the source bucket is checked to report the right one
+				if("NoSuchBucket".equals(e.getErrorCode()))
+					bucketDoesNotExist(bucketName);
+				throwOptimisticFailure(e, destinationBucketName, fileName);
+			}
+			log.error("Failed to perform copy action from bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]");
+		}
+		catch(AmazonClientException e)
+		{
+			log.error("Failed to perform copy action from bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]", e);
+		}
+		catch(IOException e)
+		{
+			log.error("Failed to perform copy action from bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]", e);
+		}
+
+		return destinationFileName;
+	}
+	
+	/**
+	 * Whether S3 refused a CopyObject request because the source is larger than 5 GB.
+	 * S3 reports this as an InvalidRequest, EntityTooLarge is accepted as well.
+	 */
+	protected static boolean isCopySourceTooLarge(AmazonServiceException e)
+	{
+		if("EntityTooLarge".equals(e.getErrorCode()))
+			return true;
+		return "InvalidRequest".equals(e.getErrorCode()) && e.getErrorMessage() != null && e.getErrorMessage().contains("copy source is larger than the maximum allowable size");
+	}
+	
+	/**
+     * Deletes a file from Amazon S3 bucket.
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			   
+     */
+	protected String deleteObject(String bucketName, String fileName) throws SenderException
+	{
+		try
+		{
+			if(!isOptimisticModeEnabled())
+			{
+				bucketDoesNotExist(bucketName);
+				fileDoesNotExist(bucketName, fileName);
+			}
+			DeleteObjectRequest deleteObjectRequest = new DeleteObjectRequest(bucketName, fileName);
+			s3Client.deleteObject(deleteObjectRequest);
+			if(log.isDebugEnabled()) log.debug("Object with fileName [" + fileName + "] deleted from bucket with bucketName [" + bucketName + "]");
+		}
+		catch(AmazonServiceException e)
+		{
+			throwIfThrottled(e, bucketName);
+			invalidateOnNoSuchBucket(e, bucketName);
+			if(isOptimisticModeEnabled())
+				throwOptimisticFailure(e, bucketName, fileName);
+			log.error("Failed to perform copy action from bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform copy action from bucket ["+bucketName+"]");
+		}
+			
+		
+		return fileName;
+	}
+
+	
+	/**
+     * Lists the names of the files in Amazon S3 bucket into an InputStream that is stored in storeResultInSessionKey.
+     *
+     * @param bucketName
+     *            The name of the bucket that is listed.
+     * @param prefix
+     * 			  When not null only the files of which the name starts with the prefix are listed.
+     */
+	protected String listObjects(String bucketName, String prefix, ParameterResolutionContext prc) throws SenderException
+	{
+		InputStream listing;
+		try
+		{
+			if(!isOptimisticModeEnabled())
+				bucketDoesNotExist(bucketName);
+			//the requests of the listing are sent while it is read, their failures are reported by the InputStream
+			if(isParallelListingEnabled())
+				listing = new S3ListingInputStream(s3Client, transferExecutor, bucketName, prefix, getListDelimiter(), getListConcurrency());
+			else
+				listing = new S3ListingInputStream(s3Client, transferExecutor, bucketName, prefix, null, 1);
+			if(log.isDebugEnabled()) log.debug("Listing of bucket with bucketName [" + bucketName + "] and prefix [" + prefix + "] started");
+		}
+		catch(AmazonServiceException e)
+		{
+			throwIfThrottled(e, bucketName);
+			invalidateOnNoSuchBucket(e, bucketName);
+			log.error("Failed to perform list action on bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform list action on bucket ["+bucketName+"]", e);
+		}
+		catch(AmazonClientException e)
+		{
+			log.error("Failed to perform list action on bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform list action on bucket ["+bucketName+"]", e);
+		}
+		
+		if(prc != null)
+			prc.getSession().put(getStoreResultInSessionKey(), listing);
+		return getStoreResultInSessionKey();
+	}
+	
+	/**
+     * Deletes many files from Amazon S3 bucket with multi-object delete requests.
+     *
+     * @param bucketName
+     *            The name of the bucket where the files are stored in.
+     * @param fileNames
+     * 			  The names of the files that are deleted, one per line. Not used when a prefix is given.
+     * @param prefix
+     * 			  When not null all files of which the name starts with the prefix are deleted.
+     * @return an XML report with the number of deleted files and the files that could not be deleted.
+     */
+	protected String deleteBatch(String bucketName, String fileNames, String prefix) throws SenderException
+	{
+		try
+		{
+			if(!isOptimisticModeEnabled())
+				bucketDoesNotExist(bucketName);
+			S3BatchDelete batchDelete = new S3BatchDelete(s3Client, transferExecutor, bucketName, getDeleteBatchConcurrency());
+			if(prefix != null)
+				batchDelete.deletePrefix(prefix);
+			else
+			{
+				List<String> keys = new ArrayList<String>();
+				for(String key : fileNames.split("\\r?\\n"))
+					if(StringUtils.isNotBlank(key))
+						keys.add(key.trim());
+				batchDelete.deleteKeys(keys);
+			}
+			String report = batchDelete.getReport();
+			if(log.isDebugEnabled()) log.debug("Batch delete from bucket with bucketName [" + bucketName + "] finished");
+			return report;
+		}
+		catch(AmazonServiceException e)
+		{
+			throwIfThrottled(e, bucketName);
+			invalidateOnNoSuchBucket(e, bucketName);
+			if(isOptimisticModeEnabled())
+				throwOptimisticFailure(e, bucketName, null);
+			log.error("Failed to perform deleteBatch action from bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform deleteBatch action from bucket ["+bucketName+"]", e);
+		}
+		catch(AmazonClientException e)
+		{
+			log.error("Failed to perform deleteBatch action from bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform deleteBatch action from bucket ["+bucketName+"]", e);
+		}
+		catch(IOException e)
+		{
+			log.error("Failed to perform deleteBatch action from bucket ["+bucketName+"]");
+			throw new SenderException("Failed to perform deleteBatch action from bucket ["+bucketName+"]", e);
+		}
+	}
+	
+	/**
+     * This method is wrapper which makes it possible for upload and copy actions to create a bucket and 
+     * incase a bucket already exists the operation will proceed without throwing an exception. 
+     *
+     * @param bucketName
      *            The name of the bucket that is addressed. 
      */
 	public void bucketCreationForObjectAction(String bucketName) throws SenderException
@@ -491,155 +1512,764 @@ public class AmazonS3Sender extends SenderWithParametersBase
 			throw new SenderException(getLogPrefix() + " failed to create a bucket, to create a bucket bucketCreationEnabled attribute must be assinged to [true]");	
 	}
 
-	/**
-     * This is a help method which throws an exception if a bucket does not exist.
-     *
-     * @param bucketName
-     *            The name of the bucket that is processed. 
-     */
-	public void bucketDoesNotExist(String bucketName) throws SenderException
+	/**
+     * This is a help method which throws an exception if a bucket does not exist.
+     *
+     * @param bucketName
+     *            The name of the bucket that is processed. 
+     */
+	public void bucketDoesNotExist(String bucketName) throws SenderException
+	{
+		if(!bucketExists(bucketName))
+			throw new SenderException(getLogPrefix() + " bucket with bucketName [" + bucketName + "] does not exist, please specify the name of an existing bucket");
+	}
+	
+	/**
+     * Checks whether a bucket exists, a HEAD request is only done when the state of the bucket is not remembered in the bucket cache.
+     *
+     * @param bucketName
+     *            The name of the bucket that is processed. 
+     */
+	public boolean bucketExists(String bucketName)
+	{
+		Boolean exists = bucketCache.get(bucketName);
+		if(exists == null)
+		{
+			exists = s3Client.doesBucketExistV2(bucketName);
+			bucketCache.put(bucketName, exists);
+		}
+		return exists;
+	}
+	
+	/**
+     * Translates the error codes S3 returns in optimistic mode into the same exceptions the HEAD checks would have thrown.
+     * Errors that don't correspond to a check are left to the caller.
+     *
+     * @param bucketName
+     *            The name of the bucket the failing request addressed.
+     * @param fileName
+     * 			  The name of the file the failing request addressed.
+     */
+	protected void throwOptimisticFailure(AmazonServiceException e, String bucketName, String fileName) throws SenderException
+	{
+		String errorCode = e.getErrorCode();
+		if("NoSuchBucket".equals(errorCode))
+			throw new SenderException(getLogPrefix() + " bucket with bucketName [" + bucketName + "] does not exist, please specify the name of an existing bucket");
+		if("NoSuchKey".equals(errorCode))
+			throw new SenderException(getLogPrefix() + " file with fileName ["+ fileName +"] does not exist, please specify the name of an existing file");
+		if(e.getStatusCode() == 412 || "ConditionalRequestConflict".equals(errorCode))
+			throw new SenderException(getLogPrefix() + " file with given name already exists, please specify a new name for your file");
+	}
+	
+	/**
+	 * Throws an {@link S3ThrottlingException} when S3 refused a request because of its request rate, so the caller can tell it apart from
+	 * a failure that will not succeed when the message is sent again.
+	 */
+	protected void throwIfThrottled(AmazonServiceException e, String bucketName) throws S3ThrottlingException
+	{
+		if(S3ThrottlingException.isThrottling(e))
+		{
+			log.warn(getLogPrefix() + "request to bucket [" + bucketName + "] was throttled with [" + e.getErrorCode() + "]");
+			throw new S3ThrottlingException(getLogPrefix() + "request to bucket [" + bucketName + "] was throttled by S3 with [" + e.getErrorCode() + "], please send it again later", bucketName, e);
+		}
+	}
+	
+	/**
+     * Forgets the cached state of a bucket when S3 reports that it does not exist (anymore).
+     */
+	protected void invalidateOnNoSuchBucket(AmazonServiceException e, String bucketName)
+	{
+		if("NoSuchBucket".equals(e.getErrorCode()) && bucketName != null)
+			bucketCache.invalidate(bucketName);
+	}
+	
+	/**
+     * This is a help method which throws an exception if a file does not exist.
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			  The name of the file that is processed. 
+     */
+	public void fileDoesNotExist(String bucketName, String fileName) throws SenderException
+	{
+		if(!s3Client.doesObjectExist(bucketName, fileName))
+			throw new SenderException(getLogPrefix() + " file with fileName ["+ fileName +"] does not exist, please specify the name of an existing file");
+	}
+	
+	/**
+     * Returns the value of the parameter at the given position, or null when the parameter is not configured or has no value.
+     */
+	private Object getParameterValue(ParameterValueList pvl, int parameterIndex)
+	{
+		if(pvl == null || parameterIndex < 0)
+			return null;
+		return pvl.getParameterValue(parameterIndex).getValue();
+	}
+	
+	Object getFileParameterValue(ParameterValueList pvl)
+	{
+		return getParameterValue(pvl, fileParameterIndex);
+	}
+	
+	Object getDestinationFileNameParameterValue(ParameterValueList pvl)
+	{
+		return getParameterValue(pvl, destinationFileNameParameterIndex);
+	}
+	
+	Object getPrefixParameterValue(ParameterValueList pvl)
+	{
+		return getParameterValue(pvl, prefixParameterIndex);
+	}
+	
+	/**
+     * Gives the {@link S3Action actions} the same log prefix as the sender.
+     */
+	String getActionLogPrefix()
+	{
+		return getLogPrefix();
+	}
+	
+	/**
+     * This is a help method which returns the metadata of a file and throws an exception if the file does not exist.
+     *
+     * @param bucketName
+     *            The name of the bucket where the file is stored in.
+     * @param fileName
+     * 			  The name of the file that is processed. 
+     */
+	public ObjectMetadata getFileMetadata(String bucketName, String fileName) throws SenderException
+	{
+		try
+		{
+			return s3Client.getObjectMetadata(bucketName, fileName);
+		}
+		catch(AmazonServiceException e)
+		{
+			if(e.getStatusCode() == 404)
+				throw new SenderException(getLogPrefix() + " file with fileName ["+ fileName +"] does not exist, please specify the name of an existing file");
+			throw e;
+		}
+	}
+	
+	/**
+     * Static method which can be used to get all currently available regions.
+     */
+	public static List<String> getAvailableRegions()
+	{
+		//this method checks for available regions in AWS
+		List<String> availableRegions = new ArrayList<String>(Regions.values().length);
+		for (Regions region : Regions.values())
+		{
+			availableRegions.add(region.getName());
+			//System.out.println(region.getName());
+		}
+		
+		return availableRegions;
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+
+	public void setName(String name)
+	{
+		this.name = name;
+	}
+
+	public boolean isChunkedEncodingDisabled()
+	{
+		return chunkedEncodingDisabled;
+	}
+
+	public void setChunkedEncodingDisabled(boolean chunkedEncodingDisabled)
+	{
+		this.chunkedEncodingDisabled = chunkedEncodingDisabled;
+	}
+
+	public boolean isAccelerateModeEnabled()
+	{
+		return accelerateModeEnabled;
+	}
+
+	public void setAccelerateModeEnabled(boolean accelerateModeEnabled)
+	{
+		this.accelerateModeEnabled = accelerateModeEnabled;
+	}
+
+	public boolean isForceGlobalBucketAccessEnabled()
+	{
+		return forceGlobalBucketAccessEnabled;
+	}
+
+	public void setForceGlobalBucketAccessEnabled(boolean forceGlobalBucketAccessEnabled)
+	{
+		this.forceGlobalBucketAccessEnabled = forceGlobalBucketAccessEnabled;
+	}
+	
+	public boolean isBucketCreationEnabled()
+	{
+		return bucketCreationEnabled;
+	}
+
+	public void setBucketCreationEnabled(boolean bucketCreationEnabled)
+	{
+		this.bucketCreationEnabled = bucketCreationEnabled;
+	}
+
+	public String getClientRegion()
+	{
+		return clientRegion;
+	}
+
+	public void setClientRegion(String clientRegion)
+	{
+		this.clientRegion = clientRegion;
+	}
+	
+	public String getBucketRegion()
+	{
+		return bucketRegion;
+	}
+
+	public void setBucketRegion(String bucketRegion)
+	{
+		this.bucketRegion = bucketRegion;
+	}
+
+	public String getDestinationBucketName()
+	{
+		return destinationBucketName;
+	}
+
+	public void setDestinationBucketName(String destinationBucketName)
+	{
+		this.destinationBucketName = destinationBucketName;
+	}
+
+	public String getActions()
+	{
+		return actions;
+	}
+	
+	public void setActions(String actions)
+	{
+		this.actions = actions;
+	}
+	
+	public String getBucketName()
+	{
+		return bucketName;
+	}
+
+	public void setBucketName(String bucketName)
+	{
+		this.bucketName = bucketName;
+	}
+
+	public String getStoreResultInSessionKey()
+	{
+		return storeResultInSessionKey;
+	}
+
+	public void setStoreResultInSessionKey(String storeResultInSessionKey)
+	{
+		this.storeResultInSessionKey = storeResultInSessionKey;
+	}
+
+	public boolean isParallelListingEnabled()
+	{
+		return parallelListingEnabled;
+	}
+
+	public void setParallelListingEnabled(boolean parallelListingEnabled)
+	{
+		this.parallelListingEnabled = parallelListingEnabled;
+	}
+
+	public String getListDelimiter()
+	{
+		return listDelimiter;
+	}
+
+	public void setListDelimiter(String listDelimiter)
+	{
+		this.listDelimiter = listDelimiter;
+	}
+
+	public int getListConcurrency()
+	{
+		return listConcurrency;
+	}
+
+	public void setListConcurrency(int listConcurrency)
+	{
+		this.listConcurrency = listConcurrency;
+	}
+
+	public int getDeleteBatchConcurrency()
+	{
+		return deleteBatchConcurrency;
+	}
+
+	public void setDeleteBatchConcurrency(int deleteBatchConcurrency)
+	{
+		this.deleteBatchConcurrency = deleteBatchConcurrency;
+	}
+
+	public boolean isOptimisticModeEnabled()
+	{
+		return optimisticModeEnabled;
+	}
+
+	public void setOptimisticModeEnabled(boolean optimisticModeEnabled)
+	{
+		this.optimisticModeEnabled = optimisticModeEnabled;
+	}
+
+	public boolean isMultipartUploadEnabled()
+	{
+		return multipartUploadEnabled;
+	}
+
+	public void setMultipartUploadEnabled(boolean multipartUploadEnabled)
+	{
+		this.multipartUploadEnabled = multipartUploadEnabled;
+	}
+
+	public int getPartSize()
+	{
+		return partSize;
+	}
+
+	public void setPartSize(int partSize)
+	{
+		this.partSize = partSize;
+	}
+
+	public int getPartConcurrency()
+	{
+		return partConcurrency;
+	}
+
+	public void setPartConcurrency(int partConcurrency)
+	{
+		this.partConcurrency = partConcurrency;
+	}
+
+	public long getBucketExistsCacheTtl()
+	{
+		return bucketExistsCacheTtl;
+	}
+
+	public void setBucketExistsCacheTtl(long bucketExistsCacheTtl)
+	{
+		this.bucketExistsCacheTtl = bucketExistsCacheTtl;
+	}
+
+	public long getBucketNotExistsCacheTtl()
+	{
+		return bucketNotExistsCacheTtl;
+	}
+
+	public void setBucketNotExistsCacheTtl(long bucketNotExistsCacheTtl)
 	{
-		if(!s3Client.doesBucketExistV2(bucketName))
-			throw new SenderException(getLogPrefix() + " bucket with bucketName [" + bucketName + "] does not exist, please specify the name of an existing bucket");
+		this.bucketNotExistsCacheTtl = bucketNotExistsCacheTtl;
 	}
-	
-	/**
-     * This is a help method which throws an exception if a file does not exist.
-     *
-     * @param bucketName
-     *            The name of the bucket where the file is stored in.
-     * @param fileName
-     * 			  The name of the file that is processed. 
-     */
-	public void fileDoesNotExist(String bucketName, String fileName) throws SenderException
+
+	public long getMultipartCopyThreshold()
 	{
-		if(!s3Client.doesObjectExist(bucketName, fileName))
-			throw new SenderException(getLogPrefix() + " file with fileName ["+ fileName +"] does not exist, please specify the name of an existing file");
+		return multipartCopyThreshold;
 	}
-	
-	/**
-     * Static method which can be used to get all currently available regions.
-     */
-	public static List<String> getAvailableRegions()
+
+	public void setMultipartCopyThreshold(long multipartCopyThreshold)
 	{
-		//this method checks for available regions in AWS
-		List<String> availableRegions = new ArrayList<String>(Regions.values().length);
-		for (Regions region : Regions.values())
-		{
-			availableRegions.add(region.getName());
-			//System.out.println(region.getName());
-		}
-		
-		return availableRegions;
+		this.multipartCopyThreshold = multipartCopyThreshold;
 	}
-	
-	public String getName()
+
+	public int getCopyPartSize()
 	{
-		return name;
+		return copyPartSize;
 	}
 
-	public void setName(String name)
+	public void setCopyPartSize(int copyPartSize)
 	{
-		this.name = name;
+		this.copyPartSize = copyPartSize;
 	}
 
-	public boolean isChunkedEncodingDisabled()
+	public boolean isParallelDownloadEnabled()
 	{
-		return chunkedEncodingDisabled;
+		return parallelDownloadEnabled;
 	}
 
-	public void setChunkedEncodingDisabled(boolean chunkedEncodingDisabled)
+	public void setParallelDownloadEnabled(boolean parallelDownloadEnabled)
 	{
-		this.chunkedEncodingDisabled = chunkedEncodingDisabled;
+		this.parallelDownloadEnabled = parallelDownloadEnabled;
 	}
 
-	public boolean isAccelerateModeEnabled()
+	public int getRangeSize()
 	{
-		return accelerateModeEnabled;
+		return rangeSize;
 	}
 
-	public void setAccelerateModeEnabled(boolean accelerateModeEnabled)
+	public void setRangeSize(int rangeSize)
 	{
-		this.accelerateModeEnabled = accelerateModeEnabled;
+		this.rangeSize = rangeSize;
 	}
 
-	public boolean isForceGlobalBucketAccessEnabled()
+	public int getPrefetchDepth()
 	{
-		return forceGlobalBucketAccessEnabled;
+		return prefetchDepth;
 	}
 
-	public void setForceGlobalBucketAccessEnabled(boolean forceGlobalBucketAccessEnabled)
+	public void setPrefetchDepth(int prefetchDepth)
 	{
-		this.forceGlobalBucketAccessEnabled = forceGlobalBucketAccessEnabled;
+		this.prefetchDepth = prefetchDepth;
 	}
-	
-	public boolean isBucketCreationEnabled()
+
+	public int getDownloadMemoryBudget()
 	{
-		return bucketCreationEnabled;
+		return downloadMemoryBudget;
 	}
 
-	public void setBucketCreationEnabled(boolean bucketCreationEnabled)
+	public void setDownloadMemoryBudget(int downloadMemoryBudget)
 	{
-		this.bucketCreationEnabled = bucketCreationEnabled;
+		this.downloadMemoryBudget = downloadMemoryBudget;
 	}
 
-	public String getClientRegion()
+	public boolean isSeekableDownloadEnabled()
 	{
-		return clientRegion;
+		return seekableDownloadEnabled;
 	}
 
-	public void setClientRegion(String clientRegion)
+	public void setSeekableDownloadEnabled(boolean seekableDownloadEnabled)
 	{
-		this.clientRegion = clientRegion;
+		this.seekableDownloadEnabled = seekableDownloadEnabled;
 	}
-	
-	public String getBucketRegion()
+
+	public int getBlockSize()
 	{
-		return bucketRegion;
+		return blockSize;
 	}
 
-	public void setBucketRegion(String bucketRegion)
+	public void setBlockSize(int blockSize)
 	{
-		this.bucketRegion = bucketRegion;
+		this.blockSize = blockSize;
 	}
 
-	public String getDestinationBucketName()
+	public int getBlockCacheSize()
 	{
-		return destinationBucketName;
+		return blockCacheSize;
 	}
 
-	public void setDestinationBucketName(String destinationBucketName)
+	public void setBlockCacheSize(int blockCacheSize)
 	{
-		this.destinationBucketName = destinationBucketName;
+		this.blockCacheSize = blockCacheSize;
 	}
 
-	public String getActions()
+	public boolean isCompressionEnabled()
 	{
-		return actions;
+		return StringUtils.isNotEmpty(getCompression());
 	}
-	
-	public void setActions(String actions)
+
+	public String getCompression()
 	{
-		this.actions = actions;
+		return compression;
 	}
-	
-	public String getBucketName()
+
+	public void setCompression(String compression)
 	{
-		return bucketName;
+		this.compression = compression;
 	}
 
-	public void setBucketName(String bucketName)
+	public int getCompressionBlockSize()
 	{
-		this.bucketName = bucketName;
+		return compressionBlockSize;
 	}
 
-	public String getStoreResultInSessionKey()
+	public void setCompressionBlockSize(int compressionBlockSize)
 	{
-		return storeResultInSessionKey;
+		this.compressionBlockSize = compressionBlockSize;
 	}
 
-	public void setStoreResultInSessionKey(String storeResultInSessionKey)
+	public int getCompressionConcurrency()
 	{
-		this.storeResultInSessionKey = storeResultInSessionKey;
+		return compressionConcurrency;
+	}
+
+	public void setCompressionConcurrency(int compressionConcurrency)
+	{
+		this.compressionConcurrency = compressionConcurrency;
+	}
+
+	public boolean isDeduplicationEnabled()
+	{
+		return deduplicationEnabled;
+	}
+
+	public void setDeduplicationEnabled(boolean deduplicationEnabled)
+	{
+		this.deduplicationEnabled = deduplicationEnabled;
+	}
+
+	public int getDeduplicationIndexSize()
+	{
+		return deduplicationIndexSize;
+	}
+
+	public void setDeduplicationIndexSize(int deduplicationIndexSize)
+	{
+		this.deduplicationIndexSize = deduplicationIndexSize;
+	}
+
+	public String getSpoolDirectory()
+	{
+		return spoolDirectory;
+	}
+
+	public void setSpoolDirectory(String spoolDirectory)
+	{
+		this.spoolDirectory = spoolDirectory;
+	}
+
+	public boolean isMetricsEnabled()
+	{
+		return metricsEnabled;
+	}
+
+	public void setMetricsEnabled(boolean metricsEnabled)
+	{
+		this.metricsEnabled = metricsEnabled;
+	}
+
+	public boolean isAdaptiveConcurrencyEnabled()
+	{
+		return adaptiveConcurrencyEnabled;
+	}
+
+	public void setAdaptiveConcurrencyEnabled(boolean adaptiveConcurrencyEnabled)
+	{
+		this.adaptiveConcurrencyEnabled = adaptiveConcurrencyEnabled;
+	}
+
+	public int getInitialConcurrency()
+	{
+		return initialConcurrency;
+	}
+
+	public void setInitialConcurrency(int initialConcurrency)
+	{
+		this.initialConcurrency = initialConcurrency;
+	}
+
+	public int getMaxConcurrency()
+	{
+		return maxConcurrency;
+	}
+
+	public void setMaxConcurrency(int maxConcurrency)
+	{
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public int getPartitionDepth()
+	{
+		return partitionDepth;
+	}
+
+	public void setPartitionDepth(int partitionDepth)
+	{
+		this.partitionDepth = partitionDepth;
+	}
+
+	public long getLatencyThreshold()
+	{
+		return latencyThreshold;
+	}
+
+	public void setLatencyThreshold(long latencyThreshold)
+	{
+		this.latencyThreshold = latencyThreshold;
+	}
+
+	public int getThrottleRetries()
+	{
+		return throttleRetries;
+	}
+
+	public void setThrottleRetries(int throttleRetries)
+	{
+		this.throttleRetries = throttleRetries;
+	}
+
+	public long getThrottleBackoff()
+	{
+		return throttleBackoff;
+	}
+
+	public void setThrottleBackoff(long throttleBackoff)
+	{
+		this.throttleBackoff = throttleBackoff;
+	}
+
+	public long getMaxThrottleBackoff()
+	{
+		return maxThrottleBackoff;
+	}
+
+	public void setMaxThrottleBackoff(long maxThrottleBackoff)
+	{
+		this.maxThrottleBackoff = maxThrottleBackoff;
+	}
+
+	public String getDownloadCacheDirectory()
+	{
+		return downloadCacheDirectory;
+	}
+
+	public void setDownloadCacheDirectory(String downloadCacheDirectory)
+	{
+		this.downloadCacheDirectory = downloadCacheDirectory;
+	}
+
+	public long getDownloadCacheMaxSize()
+	{
+		return downloadCacheMaxSize;
+	}
+
+	public void setDownloadCacheMaxSize(long downloadCacheMaxSize)
+	{
+		this.downloadCacheMaxSize = downloadCacheMaxSize;
+	}
+
+	public long getDownloadCacheMaxFileSize()
+	{
+		return downloadCacheMaxFileSize;
+	}
+
+	public void setDownloadCacheMaxFileSize(long downloadCacheMaxFileSize)
+	{
+		this.downloadCacheMaxFileSize = downloadCacheMaxFileSize;
+	}
+
+	public long getDownloadCacheFreshness()
+	{
+		return downloadCacheFreshness;
+	}
+
+	public void setDownloadCacheFreshness(long downloadCacheFreshness)
+	{
+		this.downloadCacheFreshness = downloadCacheFreshness;
+	}
+
+	public int getMaxConnections()
+	{
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections)
+	{
+		this.maxConnections = maxConnections;
+	}
+
+	public long getConnectionTtl()
+	{
+		return connectionTtl;
+	}
+
+	public void setConnectionTtl(long connectionTtl)
+	{
+		this.connectionTtl = connectionTtl;
+	}
+
+	public int getConnectionTimeout()
+	{
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout(int connectionTimeout)
+	{
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	public int getSocketTimeout()
+	{
+		return socketTimeout;
+	}
+
+	public void setSocketTimeout(int socketTimeout)
+	{
+		this.socketTimeout = socketTimeout;
+	}
+
+	public int getRequestTimeout()
+	{
+		return requestTimeout;
+	}
+
+	public void setRequestTimeout(int requestTimeout)
+	{
+		this.requestTimeout = requestTimeout;
+	}
+
+	public boolean isTcpKeepAlive()
+	{
+		return tcpKeepAlive;
+	}
+
+	public void setTcpKeepAlive(boolean tcpKeepAlive)
+	{
+		this.tcpKeepAlive = tcpKeepAlive;
+	}
+
+	public boolean isAsyncEnabled()
+	{
+		return asyncEnabled;
+	}
+
+	public void setAsyncEnabled(boolean asyncEnabled)
+	{
+		this.asyncEnabled = asyncEnabled;
+	}
+
+	public int getMaxInFlightRequests()
+	{
+		return maxInFlightRequests;
+	}
+
+	public void setMaxInFlightRequests(int maxInFlightRequests)
+	{
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	public long getAsyncSubmitTimeout()
+	{
+		return asyncSubmitTimeout;
+	}
+
+	public void setAsyncSubmitTimeout(long asyncSubmitTimeout)
+	{
+		this.asyncSubmitTimeout = asyncSubmitTimeout;
+	}
+
+	public String getAsyncResultSessionKey()
+	{
+		return asyncResultSessionKey;
+	}
+
+	public void setAsyncResultSessionKey(String asyncResultSessionKey)
+	{
+		this.asyncResultSessionKey = asyncResultSessionKey;
+	}
+
+	public boolean isVirtualThreadsEnabled()
+	{
+		return virtualThreadsEnabled;
+	}
+
+	public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled)
+	{
+		this.virtualThreadsEnabled = virtualThreadsEnabled;
 	}
-}
\ No newline at end of file
+}
@@ -1,6 +1,23 @@
 package nl.nn.adapterframework.senders;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -8,11 +25,25 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
 import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.parameters.Parameter;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 
 public class AmazonS3SenderTest
@@ -22,6 +53,9 @@ public class AmazonS3SenderTest
 	
 	@Rule
 	public ExpectedException exception = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 	
 	@Mock
 	public IPipeLineSession session;
@@ -31,11 +65,42 @@ public class AmazonS3SenderTest
 		return new AmazonS3Sender();
 	}
 
+	public AmazonS3Sender createAmazonS3Sender(final AmazonS3 s3Client)
+	{
+		return new AmazonS3Sender()
+		{
+			@Override
+			protected AmazonS3 createS3Client()
+			{
+				return s3Client;
+			}
+		};
+	}
+
 	@Before
 	public void setup()
 	{
 		sender = createAmazonS3Sender();
 	}
+
+	private AmazonS3Sender createAsyncSender(FakeAmazonS3 s3Client, String actions, long asyncSubmitTimeout) throws ConfigurationException
+	{
+		AmazonS3Sender asyncSender = createAmazonS3Sender(s3Client);
+		asyncSender.setName("async");
+		asyncSender.setBucketName("bucket-created-for-tests");
+		asyncSender.setActions(actions);
+		asyncSender.setStoreResultInSessionKey("result");
+		asyncSender.setAsyncEnabled(true);
+		asyncSender.setMaxInFlightRequests(1);
+		asyncSender.setAsyncSubmitTimeout(asyncSubmitTimeout);
+		asyncSender.setAsyncResultSessionKey("future");
+		Parameter file = new Parameter();
+		file.setName("file");
+		file.setSessionKey("file");
+		asyncSender.addParameter(file);
+		asyncSender.configure();
+		return asyncSender;
+	}
 	
 	@Test
 	public void wrongClientRegion()  throws ConfigurationException
@@ -89,6 +154,747 @@ public class AmazonS3SenderTest
 		sender.configure();
 	}
 
+	@Test
+	public void partSizeBelowMinimum() throws ConfigurationException
+	{
+		exception.expect(ConfigurationException.class);
+
+		sender.setBucketName("bucket-created-for-tests");
+		sender.setActions("upload");
+		sender.setMultipartUploadEnabled(true);
+		sender.setPartSize(1024);
+		sender.configure();
+	}
+
+	@Test
+	public void downloadMemoryBudgetOfOneRange() throws ConfigurationException
+	{
+		exception.expect(ConfigurationException.class);
+
+		sender.setBucketName("bucket-created-for-tests");
+		sender.setActions("download");
+		sender.setParallelDownloadEnabled(true);
+		sender.setRangeSize(1024);
+		sender.setDownloadMemoryBudget(1024);
+		sender.configure();
+	}
+
+	@Test
+	public void prefetchDepthLeavesRoomForTheRangeThatIsRead() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject("bucket-created-for-tests", "file", "0123456789".getBytes());
+		AmazonS3Sender downloadSender = createAmazonS3Sender(s3Client);
+		downloadSender.setName("download");
+		downloadSender.setBucketName("bucket-created-for-tests");
+		downloadSender.setActions("download");
+		downloadSender.setStoreResultInSessionKey("content");
+		downloadSender.setParallelDownloadEnabled(true);
+		downloadSender.setRangeSize(2);
+		downloadSender.setPrefetchDepth(4);
+		downloadSender.setDownloadMemoryBudget(6);
+		downloadSender.configure();
+		downloadSender.open();
+		s3Client.resetRequestCounts();
+		InputStream content = downloadSender.createRangedInputStream("bucket-created-for-tests", "file");
+		try
+		{
+			// a budget of three ranges holds the range that is being read and two prefetched ranges
+			for(int i = 0; i < 100 && requests(s3Client, "GET") < 2; i++)
+				TimeUnit.MILLISECONDS.sleep(10);
+			TimeUnit.MILLISECONDS.sleep(100);
+			assertEquals(2, requests(s3Client, "GET"));
+		}
+		finally
+		{
+			content.close();
+			downloadSender.close();
+		}
+	}
+
+	@Test
+	public void compressionWithSeekableDownload() throws ConfigurationException
+	{
+		exception.expect(ConfigurationException.class);
+		exception.expectMessage("cannot be combined");
+
+		sender.setBucketName("bucket-created-for-tests");
+		sender.setActions("download");
+		sender.setStoreResultInSessionKey("content");
+		sender.setSeekableDownloadEnabled(true);
+		sender.setCompression("gzip");
+		sender.configure();
+	}
+
+	private AmazonS3Sender createDeduplicatingSender(FakeAmazonS3 s3Client, boolean optimisticModeEnabled) throws ConfigurationException, SenderException
+	{
+		AmazonS3Sender deduplicatingSender = createAmazonS3Sender(s3Client);
+		deduplicatingSender.setName("deduplicating");
+		deduplicatingSender.setBucketName("bucket-created-for-tests");
+		deduplicatingSender.setActions("upload");
+		deduplicatingSender.setDeduplicationEnabled(true);
+		deduplicatingSender.setOptimisticModeEnabled(optimisticModeEnabled);
+		Parameter file = new Parameter();
+		file.setName("file");
+		file.setSessionKey("file");
+		deduplicatingSender.addParameter(file);
+		deduplicatingSender.configure();
+		deduplicatingSender.open();
+		return deduplicatingSender;
+	}
+
+	private static void upload(AmazonS3Sender sender, String fileName, String content) throws SenderException, TimeOutException
+	{
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.put("file", new ByteArrayInputStream(content.getBytes()));
+		sender.sendMessage(null, fileName, new ParameterResolutionContext(fileName, session));
+	}
+
+	private static String content(FakeAmazonS3 s3Client, String fileName) throws IOException
+	{
+		return content(s3Client, "bucket-created-for-tests", fileName);
+	}
+
+	private static String content(FakeAmazonS3 s3Client, String bucketName, String fileName) throws IOException
+	{
+		InputStream inputStream = s3Client.getObject(new GetObjectRequest(bucketName, fileName)).getObjectContent();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while((read = inputStream.read(buffer)) != -1)
+			content.write(buffer, 0, read);
+		inputStream.close();
+		return content.toString();
+	}
+
+	private static long requests(FakeAmazonS3 s3Client, String type)
+	{
+		Long count = s3Client.getRequestCounts().get(type);
+		return count == null ? 0 : count;
+	}
+
+	@Test
+	public void duplicateIsCopied() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender deduplicatingSender = createDeduplicatingSender(s3Client, false);
+		upload(deduplicatingSender, "first", "content");
+		s3Client.resetRequestCounts();
+		upload(deduplicatingSender, "second", "content");
+		deduplicatingSender.close();
+
+		assertEquals(1, requests(s3Client, "COPY"));
+		assertEquals(0, requests(s3Client, "PUT"));
+		assertEquals("content", content(s3Client, "second"));
+	}
+
+	@Test
+	public void otherContentIsUploaded() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender deduplicatingSender = createDeduplicatingSender(s3Client, false);
+		upload(deduplicatingSender, "first", "content");
+		s3Client.resetRequestCounts();
+		upload(deduplicatingSender, "second", "other content");
+		deduplicatingSender.close();
+
+		assertEquals(0, requests(s3Client, "COPY"));
+		assertEquals(1, requests(s3Client, "PUT"));
+		assertEquals("other content", content(s3Client, "second"));
+	}
+
+	@Test
+	public void replacedObjectIsNotCopied() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender deduplicatingSender = createDeduplicatingSender(s3Client, false);
+		upload(deduplicatingSender, "first", "content");
+		s3Client.addObject("bucket-created-for-tests", "first", "replaced".getBytes());
+		s3Client.resetRequestCounts();
+		upload(deduplicatingSender, "second", "content");
+		deduplicatingSender.close();
+
+		assertEquals(0, requests(s3Client, "COPY"));
+		assertEquals(1, requests(s3Client, "PUT"));
+		assertEquals("content", content(s3Client, "second"));
+	}
+
+	@Test
+	public void duplicateSentToTheSameFileFailsInOptimisticMode() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender deduplicatingSender = createDeduplicatingSender(s3Client, true);
+		upload(deduplicatingSender, "first", "content");
+		s3Client.resetRequestCounts();
+		try
+		{
+			exception.expect(SenderException.class);
+			upload(deduplicatingSender, "first", "content");
+		}
+		finally
+		{
+			deduplicatingSender.close();
+			assertEquals(0, requests(s3Client, "COPY"));
+			assertEquals(0, requests(s3Client, "PUT"));
+			assertEquals("content", content(s3Client, "first"));
+		}
+	}
+
+	@Test
+	public void duplicateSentToTheSameFileFails() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender deduplicatingSender = createDeduplicatingSender(s3Client, false);
+		upload(deduplicatingSender, "first", "content");
+		s3Client.resetRequestCounts();
+		try
+		{
+			exception.expect(SenderException.class);
+			upload(deduplicatingSender, "first", "content");
+		}
+		finally
+		{
+			deduplicatingSender.close();
+			assertEquals(0, requests(s3Client, "PUT"));
+			assertEquals("content", content(s3Client, "first"));
+		}
+	}
+
+	@Test
+	public void duplicateIsNotCopiedOverAnExistingFileInOptimisticMode() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		s3Client.addObject("bucket-created-for-tests", "second", "existing".getBytes());
+		AmazonS3Sender deduplicatingSender = createDeduplicatingSender(s3Client, true);
+		upload(deduplicatingSender, "first", "content");
+		s3Client.resetRequestCounts();
+		try
+		{
+			exception.expect(SenderException.class);
+			upload(deduplicatingSender, "second", "content");
+		}
+		finally
+		{
+			deduplicatingSender.close();
+			assertEquals(0, requests(s3Client, "COPY"));
+			assertEquals("existing", content(s3Client, "second"));
+		}
+	}
+
+	private AmazonS3Sender createCopySender(FakeAmazonS3 s3Client, boolean optimisticModeEnabled) throws ConfigurationException, SenderException
+	{
+		AmazonS3Sender copySender = createAmazonS3Sender(s3Client);
+		copySender.setName("copy");
+		copySender.setBucketName("bucket-created-for-tests");
+		copySender.setDestinationBucketName("destination-bucket-for-tests");
+		copySender.setActions("copy");
+		copySender.setOptimisticModeEnabled(optimisticModeEnabled);
+		Parameter destinationFileName = new Parameter();
+		destinationFileName.setName("destinationFileName");
+		destinationFileName.setValue("copied");
+		copySender.addParameter(destinationFileName);
+		copySender.configure();
+		copySender.open();
+		return copySender;
+	}
+
+	private static void copy(AmazonS3Sender sender, String fileName) throws SenderException, TimeOutException
+	{
+		sender.sendMessage(null, fileName, new ParameterResolutionContext(fileName, new PipeLineSessionBase()));
+	}
+
+	@Test
+	public void copyInOptimisticModeDoesNotCheckTheSource() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject("bucket-created-for-tests", "file", "content".getBytes());
+		s3Client.addBucket("destination-bucket-for-tests");
+		AmazonS3Sender copySender = createCopySender(s3Client, true);
+		s3Client.resetRequestCounts();
+		copy(copySender, "file");
+		copySender.close();
+
+		// the destination bucket and the destination file are checked, the source is not
+		assertEquals(2, requests(s3Client, "HEAD"));
+		assertEquals(1, requests(s3Client, "COPY"));
+		assertEquals(0, requests(s3Client, "MULTIPART"));
+		assertEquals("content", content(s3Client, "destination-bucket-for-tests", "copied"));
+	}
+
+	@Test
+	public void copyChecksTheSourceWhenNotOptimistic() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject("bucket-created-for-tests", "file", "content".getBytes());
+		s3Client.addBucket("destination-bucket-for-tests");
+		AmazonS3Sender copySender = createCopySender(s3Client, false);
+		s3Client.resetRequestCounts();
+		copy(copySender, "file");
+		copySender.close();
+
+		// the source bucket, the source file, the destination bucket and the destination file
+		assertEquals(4, requests(s3Client, "HEAD"));
+		assertEquals(1, requests(s3Client, "COPY"));
+	}
+
+	@Test
+	public void sourceTooLargeForASingleCopyIsCopiedInPartsInOptimisticMode() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3()
+		{
+			@Override
+			public CopyObjectResult copyObject(CopyObjectRequest copyObjectRequest)
+			{
+				super.copyObject(copyObjectRequest);
+				AmazonS3Exception e = new AmazonS3Exception("The specified copy source is larger than the maximum allowable size for a copy source: 5368709120");
+				e.setStatusCode(400);
+				e.setErrorCode("InvalidRequest");
+				throw e;
+			}
+		};
+		s3Client.addObject("bucket-created-for-tests", "file", "content".getBytes());
+		s3Client.addBucket("destination-bucket-for-tests");
+		AmazonS3Sender copySender = createCopySender(s3Client, true);
+		s3Client.resetRequestCounts();
+		copy(copySender, "file");
+		copySender.close();
+
+		// the refused copy, followed by the size of the source and a multipart copy
+		assertEquals(3, requests(s3Client, "HEAD"));
+		assertEquals(2, requests(s3Client, "COPY"));
+		assertTrue(requests(s3Client, "MULTIPART") > 0);
+	}
+
+	@Test
+	public void missingSourceIsReportedInOptimisticMode() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		s3Client.addBucket("destination-bucket-for-tests");
+		AmazonS3Sender copySender = createCopySender(s3Client, true);
+		try
+		{
+			exception.expect(SenderException.class);
+			exception.expectMessage("file with fileName [file] does not exist");
+			copy(copySender, "file");
+		}
+		finally
+		{
+			copySender.close();
+		}
+	}
+
+	private AmazonS3Sender createListSender(FakeAmazonS3 s3Client) throws ConfigurationException, SenderException
+	{
+		AmazonS3Sender listSender = createAmazonS3Sender(s3Client);
+		listSender.setName("list");
+		listSender.setBucketName("bucket-created-for-tests");
+		listSender.setActions("list");
+		listSender.setStoreResultInSessionKey("listing");
+		listSender.configure();
+		listSender.open();
+		return listSender;
+	}
+
+	@Test
+	public void throttledBucketCheckOfListIsReported() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3()
+		{
+			@Override
+			public boolean doesBucketExistV2(String bucketName)
+			{
+				AmazonS3Exception e = new AmazonS3Exception("Please reduce your request rate.");
+				e.setStatusCode(503);
+				e.setErrorCode("SlowDown");
+				throw e;
+			}
+		};
+		AmazonS3Sender listSender = createListSender(s3Client);
+		try
+		{
+			exception.expect(S3ThrottlingException.class);
+			listSender.sendMessage(null, "", new ParameterResolutionContext("", new PipeLineSessionBase()));
+		}
+		finally
+		{
+			listSender.close();
+		}
+	}
+
+	@Test
+	public void failedBucketCheckOfListIsASenderException() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3()
+		{
+			@Override
+			public boolean doesBucketExistV2(String bucketName)
+			{
+				AmazonS3Exception e = new AmazonS3Exception("Access Denied");
+				e.setStatusCode(403);
+				e.setErrorCode("AccessDenied");
+				throw e;
+			}
+		};
+		AmazonS3Sender listSender = createListSender(s3Client);
+		try
+		{
+			exception.expect(SenderException.class);
+			exception.expectMessage("Failed to perform list action on bucket [bucket-created-for-tests]");
+			listSender.sendMessage(null, "", new ParameterResolutionContext("", new PipeLineSessionBase()));
+		}
+		finally
+		{
+			listSender.close();
+		}
+	}
+
+	/**
+	 * Keeps the content length and the content of the last PutObjectRequest, the content is read after the upload.
+	 */
+	private static class RecordingPutAmazonS3 extends FakeAmazonS3
+	{
+		private long contentLength;
+		private InputStream content;
+
+		@Override
+		public PutObjectResult putObject(PutObjectRequest putObjectRequest)
+		{
+			contentLength = putObjectRequest.getMetadata().getContentLength();
+			content = putObjectRequest.getInputStream();
+			content.mark(Integer.MAX_VALUE);
+			PutObjectResult result = super.putObject(putObjectRequest);
+			try
+			{
+				content.reset();
+			}
+			catch(IOException e)
+			{
+				throw new SdkClientException("content cannot be reset", e);
+			}
+			return result;
+		}
+	}
+
+	private AmazonS3Sender createUploadSender(FakeAmazonS3 s3Client) throws ConfigurationException, SenderException
+	{
+		return createUploadSender(s3Client, false);
+	}
+
+	private AmazonS3Sender createUploadSender(FakeAmazonS3 s3Client, boolean optimisticModeEnabled) throws ConfigurationException, SenderException
+	{
+		AmazonS3Sender uploadSender = createAmazonS3Sender(s3Client);
+		uploadSender.setName("upload");
+		uploadSender.setBucketName("bucket-created-for-tests");
+		uploadSender.setActions("upload");
+		uploadSender.setOptimisticModeEnabled(optimisticModeEnabled);
+		Parameter file = new Parameter();
+		file.setName("file");
+		file.setSessionKey("file");
+		uploadSender.addParameter(file);
+		uploadSender.configure();
+		uploadSender.open();
+		return uploadSender;
+	}
+
+	private static void uploadFile(AmazonS3Sender sender, String fileName, Object file) throws SenderException, TimeOutException
+	{
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.put("file", file);
+		sender.sendMessage(null, fileName, new ParameterResolutionContext(fileName, session));
+	}
+
+	@Test
+	public void fileIsUploadedWithItsLength() throws Exception
+	{
+		File file = folder.newFile();
+		Files.write(file.toPath(), "content".getBytes());
+		RecordingPutAmazonS3 s3Client = new RecordingPutAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender uploadSender = createUploadSender(s3Client);
+		uploadFile(uploadSender, "from-file", file);
+		assertEquals("content".length(), s3Client.contentLength);
+		uploadFile(uploadSender, "from-path", file.toPath());
+		assertEquals("content".length(), s3Client.contentLength);
+		uploadSender.close();
+
+		assertEquals("content", content(s3Client, "from-file"));
+		assertEquals("content", content(s3Client, "from-path"));
+	}
+
+	@Test
+	public void channelOpenedByTheSenderIsClosed() throws Exception
+	{
+		File file = folder.newFile();
+		Files.write(file.toPath(), "content".getBytes());
+		RecordingPutAmazonS3 s3Client = new RecordingPutAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender uploadSender = createUploadSender(s3Client);
+		uploadFile(uploadSender, "from-file", file);
+		uploadSender.close();
+
+		exception.expect(ClosedChannelException.class);
+		s3Client.content.read();
+	}
+
+	@Test
+	public void channelOfTheCallerStaysOpen() throws Exception
+	{
+		File file = folder.newFile();
+		Files.write(file.toPath(), "content".getBytes());
+		RecordingPutAmazonS3 s3Client = new RecordingPutAmazonS3();
+		s3Client.addBucket("bucket-created-for-tests");
+		AmazonS3Sender uploadSender = createUploadSender(s3Client);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try
+		{
+			uploadFile(uploadSender, "from-channel", channel);
+			uploadSender.close();
+
+			assertTrue(channel.isOpen());
+			assertEquals("content".length(), s3Client.contentLength);
+			assertEquals("content", content(s3Client, "from-channel"));
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private AmazonS3Sender createDeleteSender(FakeAmazonS3 s3Client, boolean optimisticModeEnabled) throws ConfigurationException, SenderException
+	{
+		AmazonS3Sender deleteSender = createAmazonS3Sender(s3Client);
+		deleteSender.setName("delete");
+		deleteSender.setBucketName("bucket-created-for-tests");
+		deleteSender.setActions("delete");
+		deleteSender.setOptimisticModeEnabled(optimisticModeEnabled);
+		deleteSender.configure();
+		deleteSender.open();
+		return deleteSender;
+	}
+
+	private static String uploadFailure(AmazonS3Sender sender, String fileName) throws TimeOutException
+	{
+		try
+		{
+			upload(sender, fileName, "other content");
+			throw new AssertionError("upload of [" + fileName + "] should fail");
+		}
+		catch(SenderException e)
+		{
+			return e.getMessage();
+		}
+	}
+
+	@Test
+	public void uploadOfAnExistingFileFailsTheSameWayInOptimisticMode() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject("bucket-created-for-tests", "file", "content".getBytes());
+		AmazonS3Sender uploadSender = createUploadSender(s3Client, false);
+		AmazonS3Sender optimisticSender = createUploadSender(s3Client, true);
+		String failure = uploadFailure(uploadSender, "file");
+		s3Client.resetRequestCounts();
+		String optimisticFailure = uploadFailure(optimisticSender, "file");
+		uploadSender.close();
+		optimisticSender.close();
+
+		assertTrue(failure, failure.contains("file with given name already exists"));
+		assertEquals(failure.substring(failure.indexOf("file with given name")), optimisticFailure.substring(optimisticFailure.indexOf("file with given name")));
+		// the PUT with If-None-Match is refused by S3, no HEAD request is sent
+		assertEquals(0, requests(s3Client, "HEAD"));
+		assertEquals(1, requests(s3Client, "PUT"));
+		assertEquals("content", content(s3Client, "file"));
+	}
+
+	@Test
+	public void deleteSendsOneRequestInOptimisticMode() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject("bucket-created-for-tests", "file", "content".getBytes());
+		AmazonS3Sender deleteSender = createDeleteSender(s3Client, true);
+		s3Client.resetRequestCounts();
+		deleteSender.sendMessage(null, "file", new ParameterResolutionContext("file", new PipeLineSessionBase()));
+		deleteSender.close();
+
+		assertEquals(1, s3Client.getRequestCount());
+		assertEquals(1, requests(s3Client, "DELETE"));
+		assertFalse(s3Client.doesObjectExist("bucket-created-for-tests", "file"));
+	}
+
+	@Test
+	public void missingBucketOfDeleteIsReportedInOptimisticMode() throws Exception
+	{
+		AmazonS3Sender deleteSender = createDeleteSender(new FakeAmazonS3(), true);
+		try
+		{
+			exception.expect(SenderException.class);
+			exception.expectMessage("bucket with bucketName [bucket-created-for-tests] does not exist");
+			deleteSender.sendMessage(null, "file", new ParameterResolutionContext("file", new PipeLineSessionBase()));
+		}
+		finally
+		{
+			deleteSender.close();
+		}
+	}
+
+	@Test
+	public void missingBucketOfUploadIsReportedInOptimisticMode() throws Exception
+	{
+		AmazonS3Sender uploadSender = createUploadSender(new FakeAmazonS3(), true);
+		try
+		{
+			exception.expect(SenderException.class);
+			exception.expectMessage("bucket with bucketName [bucket-created-for-tests] does not exist");
+			upload(uploadSender, "file", "content");
+		}
+		finally
+		{
+			uploadSender.close();
+		}
+	}
+
+	@Test
+	public void missingSourceBucketOfCopyIsReportedInOptimisticMode() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket("destination-bucket-for-tests");
+		AmazonS3Sender copySender = createCopySender(s3Client, true);
+		try
+		{
+			// S3 reports NoSuchBucket without telling which bucket, the source bucket is named as the destination exists
+			exception.expect(SenderException.class);
+			exception.expectMessage("bucket with bucketName [bucket-created-for-tests] does not exist");
+			copy(copySender, "file");
+		}
+		finally
+		{
+			copySender.close();
+		}
+	}
+
+	@Test
+	public void asyncDownloadIsRefused() throws ConfigurationException
+	{
+		exception.expect(ConfigurationException.class);
+		
+		createAsyncSender(new FakeAmazonS3(), "download", 0);
+	}
+
+	@Test
+	public void asyncSendWaitsForAFreeSlot() throws Exception
+	{
+		final AtomicInteger deleted = new AtomicInteger();
+		FakeAmazonS3 s3Client = new FakeAmazonS3()
+		{
+			@Override
+			public void deleteObject(DeleteObjectRequest deleteObjectRequest)
+			{
+				super.deleteObject(deleteObjectRequest);
+				deleted.incrementAndGet();
+			}
+		};
+		s3Client.setLatencyMillis(100);
+		s3Client.setRetainDeletedObjects(true);
+		s3Client.addObject("bucket-created-for-tests", "file", new byte[1]);
+		AmazonS3Sender asyncSender = createAsyncSender(s3Client, "delete", 0);
+		asyncSender.open();
+		try
+		{
+			PipeLineSessionBase session = new PipeLineSessionBase();
+			assertEquals("file", asyncSender.sendMessage(null, "file", new ParameterResolutionContext("file", session)));
+			Future<?> first = (Future<?>) session.get("future");
+			asyncSender.sendMessage(null, "file", new ParameterResolutionContext("file", new PipeLineSessionBase()));
+			// the slot is freed when the first delete has finished, its future may only be completed just after that
+			assertEquals(1, deleted.get());
+			assertEquals("file", first.get(1, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			asyncSender.close();
+		}
+	}
+
+	@Test
+	public void asyncSendTimesOutWithoutAFreeSlot() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.setLatencyMillis(500);
+		s3Client.setRetainDeletedObjects(true);
+		s3Client.addObject("bucket-created-for-tests", "file", new byte[1]);
+		AmazonS3Sender asyncSender = createAsyncSender(s3Client, "delete", 50);
+		asyncSender.open();
+		try
+		{
+			asyncSender.sendMessage(null, "file", new ParameterResolutionContext("file", new PipeLineSessionBase()));
+			exception.expect(TimeOutException.class);
+			asyncSender.sendMessage(null, "file", new ParameterResolutionContext("file", new PipeLineSessionBase()));
+		}
+		finally
+		{
+			asyncSender.close();
+		}
+	}
+
+	@Test
+	public void asyncUploadOfStreamIsRefused() throws Exception
+	{
+		AmazonS3Sender asyncSender = createAsyncSender(new FakeAmazonS3(), "upload", 0);
+		asyncSender.open();
+		try
+		{
+			PipeLineSessionBase session = new PipeLineSessionBase();
+			session.put("file", new ByteArrayInputStream(new byte[1]));
+			exception.expect(SenderException.class);
+			asyncSender.sendMessage(null, "file", new ParameterResolutionContext("file", session));
+		}
+		finally
+		{
+			asyncSender.close();
+		}
+	}
+
+	@Test
+	public void equalClientSettingsShareClient()
+	{
+		S3ClientRegistry registry = new S3ClientRegistry();
+		S3ClientRegistry.Options options = new S3ClientRegistry.Options("eu-west-1", false, false, false, 50, -1, 10000, 50000, 0, false, false, false);
+		AmazonS3 client = registry.acquire(options);
+		assertSame(client, registry.acquire(new S3ClientRegistry.Options("eu-west-1", false, false, false, 50, -1, 10000, 50000, 0, false, false, false)));
+		AmazonS3 otherClient = registry.acquire(new S3ClientRegistry.Options("eu-west-1", false, false, false, 100, -1, 10000, 50000, 0, false, false, false));
+		assertNotSame(client, otherClient);
+		assertTrue(registry.release(otherClient));
+		assertFalse(registry.release(otherClient));
+		assertTrue(registry.release(client));
+		assertTrue(registry.release(client));
+		assertFalse(registry.release(client));
+	}
+
+	@Test
+	public void secondCloseDoesNotReleaseTheClientAgain() throws Exception
+	{
+		final AtomicInteger shutdowns = new AtomicInteger();
+		FakeAmazonS3 s3Client = new FakeAmazonS3()
+		{
+			@Override
+			public void shutdown()
+			{
+				shutdowns.incrementAndGet();
+			}
+		};
+		AmazonS3Sender asyncSender = createAsyncSender(s3Client, "delete", 0);
+		asyncSender.open();
+		asyncSender.close();
+		asyncSender.close();
+		assertEquals(1, shutdowns.get());
+	}
+
 	@Test
 	public void createBucketTrue() throws SenderException
 	{
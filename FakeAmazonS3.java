@@ -0,0 +1,522 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.DeleteBucketRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * <p>
+ * In-process stand-in for Amazon S3 that keeps buckets and objects in memory, used to test {@link AmazonS3Sender} without network.
+ * Every request waits for the configured latency and is counted by its type (HEAD, GET, PUT, COPY, DELETE, MULTIPART),
+ * so tests can check and the benchmarks can report how many requests an action costs. Errors are reported with the status and error codes S3 uses.
+ * Only the operations the sender uses are implemented, all others throw UnsupportedOperationException.
+ * </p>
+ */
+public class FakeAmazonS3 extends AbstractAmazonS3
+{
+	private final ConcurrentMap<String, Boolean> buckets = new ConcurrentHashMap<String, Boolean>();
+	private final ConcurrentMap<String, StoredObject> objects = new ConcurrentHashMap<String, StoredObject>();
+	private final ConcurrentMap<String, ConcurrentMap<Integer, byte[]>> multipartUploads = new ConcurrentHashMap<String, ConcurrentMap<Integer, byte[]>>();
+	private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private volatile long latencyMillis = 0;
+	private volatile boolean retainDeletedObjects = false;
+
+	/**
+	 * Sets the time every request takes, to simulate the round trip to S3.
+	 */
+	public void setLatencyMillis(long latencyMillis)
+	{
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * When set, deleted objects stay available, so the same object can be deleted over and over in a benchmark.
+	 */
+	public void setRetainDeletedObjects(boolean retainDeletedObjects)
+	{
+		this.retainDeletedObjects = retainDeletedObjects;
+	}
+
+	public void addBucket(String bucketName)
+	{
+		buckets.put(bucketName, Boolean.TRUE);
+	}
+
+	public void addObject(String bucketName, String key, byte[] data)
+	{
+		addBucket(bucketName);
+		objects.put(objectKey(bucketName, key), new StoredObject(data, new ObjectMetadata()));
+	}
+
+	public void removeObjects()
+	{
+		objects.clear();
+	}
+
+	public long getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	/**
+	 * Returns the number of requests per request type since the last reset.
+	 */
+	public Map<String, Long> getRequestCounts()
+	{
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for(Map.Entry<String, AtomicLong> entry : requestCounts.entrySet())
+			counts.put(entry.getKey(), entry.getValue().get());
+		return counts;
+	}
+
+	public void resetRequestCounts()
+	{
+		requestCounts.clear();
+		requestCount.set(0);
+	}
+
+	private void request(String type)
+	{
+		AtomicLong count = requestCounts.get(type);
+		if(count == null)
+		{
+			requestCounts.putIfAbsent(type, new AtomicLong());
+			count = requestCounts.get(type);
+		}
+		count.incrementAndGet();
+		requestCount.incrementAndGet();
+		if(latencyMillis > 0)
+		{
+			try
+			{
+				TimeUnit.MILLISECONDS.sleep(latencyMillis);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SdkClientException("interrupted", e);
+			}
+		}
+	}
+
+	private static String objectKey(String bucketName, String key)
+	{
+		return bucketName + "/" + key;
+	}
+
+	private static AmazonS3Exception serviceException(int statusCode, String errorCode, String message)
+	{
+		AmazonS3Exception e = new AmazonS3Exception(message);
+		e.setStatusCode(statusCode);
+		e.setErrorCode(errorCode);
+		e.setErrorType(ErrorType.Client);
+		return e;
+	}
+
+	private void checkBucket(String bucketName)
+	{
+		if(!buckets.containsKey(bucketName))
+			throw serviceException(404, "NoSuchBucket", "The specified bucket does not exist");
+	}
+
+	private StoredObject getStoredObject(String bucketName, String key, boolean head)
+	{
+		checkBucket(bucketName);
+		StoredObject object = objects.get(objectKey(bucketName, key));
+		if(object == null)
+			throw head ? serviceException(404, "404 Not Found", "Not Found") : serviceException(404, "NoSuchKey", "The specified key does not exist.");
+		return object;
+	}
+
+	private void checkIfNoneMatch(Map<String, String> customRequestHeaders, String bucketName, String key)
+	{
+		if(customRequestHeaders != null && "*".equals(customRequestHeaders.get("If-None-Match")) && objects.containsKey(objectKey(bucketName, key)))
+			throw serviceException(412, "PreconditionFailed", "At least one of the pre-conditions you specified did not hold");
+	}
+
+	private static byte[] readFully(InputStream inputStream)
+	{
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = inputStream.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		}
+		catch(IOException e)
+		{
+			throw new SdkClientException("failed to read request content", e);
+		}
+	}
+
+	@Override
+	public boolean doesBucketExistV2(String bucketName)
+	{
+		request("HEAD");
+		return buckets.containsKey(bucketName);
+	}
+
+	@Override
+	public boolean doesObjectExist(String bucketName, String objectName)
+	{
+		request("HEAD");
+		return objects.containsKey(objectKey(bucketName, objectName));
+	}
+
+	@Override
+	public Bucket createBucket(CreateBucketRequest createBucketRequest)
+	{
+		request("PUT");
+		if(buckets.putIfAbsent(createBucketRequest.getBucketName(), Boolean.TRUE) != null)
+			throw serviceException(409, "BucketAlreadyOwnedByYou", "Your previous request to create the named bucket succeeded and you already own it.");
+		return new Bucket(createBucketRequest.getBucketName());
+	}
+
+	@Override
+	public void deleteBucket(DeleteBucketRequest deleteBucketRequest)
+	{
+		request("DELETE");
+		checkBucket(deleteBucketRequest.getBucketName());
+		buckets.remove(deleteBucketRequest.getBucketName());
+	}
+
+	@Override
+	public PutObjectResult putObject(PutObjectRequest putObjectRequest)
+	{
+		request("PUT");
+		checkBucket(putObjectRequest.getBucketName());
+		byte[] data = readFully(putObjectRequest.getInputStream());
+		checkIfNoneMatch(putObjectRequest.getCustomRequestHeaders(), putObjectRequest.getBucketName(), putObjectRequest.getKey());
+		StoredObject object = new StoredObject(data, putObjectRequest.getMetadata());
+		objects.put(objectKey(putObjectRequest.getBucketName(), putObjectRequest.getKey()), object);
+		PutObjectResult result = new PutObjectResult();
+		result.setETag(object.eTag);
+		return result;
+	}
+
+	@Override
+	public S3Object getObject(GetObjectRequest getObjectRequest)
+	{
+		request("GET");
+		StoredObject object = getStoredObject(getObjectRequest.getBucketName(), getObjectRequest.getKey(), false);
+		if(!getObjectRequest.getMatchingETagConstraints().isEmpty() && !getObjectRequest.getMatchingETagConstraints().contains(object.eTag))
+			return null;
+		if(getObjectRequest.getNonmatchingETagConstraints().contains(object.eTag))
+			return null;
+
+		int start = 0;
+		int length = object.data.length;
+		long[] range = getObjectRequest.getRange();
+		if(range != null)
+		{
+			start = (int) range[0];
+			length = (int) Math.min(range[1] + 1, object.data.length) - start;
+		}
+		S3Object s3Object = new S3Object();
+		s3Object.setBucketName(getObjectRequest.getBucketName());
+		s3Object.setKey(getObjectRequest.getKey());
+		s3Object.setObjectMetadata(object.metadata(length));
+		s3Object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(object.data, start, length), null));
+		return s3Object;
+	}
+
+	@Override
+	public ObjectMetadata getObjectMetadata(String bucketName, String key)
+	{
+		return getObjectMetadata(new GetObjectMetadataRequest(bucketName, key));
+	}
+
+	@Override
+	public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest)
+	{
+		request("HEAD");
+		StoredObject object = getStoredObject(getObjectMetadataRequest.getBucketName(), getObjectMetadataRequest.getKey(), true);
+		return object.metadata(object.data.length);
+	}
+
+	@Override
+	public CopyObjectResult copyObject(CopyObjectRequest copyObjectRequest)
+	{
+		request("COPY");
+		StoredObject source = getStoredObject(copyObjectRequest.getSourceBucketName(), copyObjectRequest.getSourceKey(), false);
+		checkBucket(copyObjectRequest.getDestinationBucketName());
+		ObjectMetadata metadata = copyObjectRequest.getNewObjectMetadata() != null ? copyObjectRequest.getNewObjectMetadata() : source.metadata;
+		objects.put(objectKey(copyObjectRequest.getDestinationBucketName(), copyObjectRequest.getDestinationKey()), new StoredObject(source.data, metadata));
+		CopyObjectResult result = new CopyObjectResult();
+		result.setETag(source.eTag);
+		return result;
+	}
+
+	@Override
+	public void deleteObject(DeleteObjectRequest deleteObjectRequest)
+	{
+		request("DELETE");
+		checkBucket(deleteObjectRequest.getBucketName());
+		if(!retainDeletedObjects)
+			objects.remove(objectKey(deleteObjectRequest.getBucketName(), deleteObjectRequest.getKey()));
+	}
+
+	@Override
+	public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
+	{
+		request("DELETE");
+		checkBucket(deleteObjectsRequest.getBucketName());
+		List<DeletedObject> deletedObjects = new ArrayList<DeletedObject>();
+		for(KeyVersion keyVersion : deleteObjectsRequest.getKeys())
+		{
+			if(!retainDeletedObjects)
+				objects.remove(objectKey(deleteObjectsRequest.getBucketName(), keyVersion.getKey()));
+			if(!deleteObjectsRequest.getQuiet())
+			{
+				DeletedObject deletedObject = new DeletedObject();
+				deletedObject.setKey(keyVersion.getKey());
+				deletedObjects.add(deletedObject);
+			}
+		}
+		return new DeleteObjectsResult(deletedObjects);
+	}
+
+	@Override
+	public ListObjectsV2Result listObjectsV2(ListObjectsV2Request listObjectsV2Request)
+	{
+		request("LIST");
+		String bucketName = listObjectsV2Request.getBucketName();
+		checkBucket(bucketName);
+		String prefix = listObjectsV2Request.getPrefix() == null ? "" : listObjectsV2Request.getPrefix();
+		String delimiter = listObjectsV2Request.getDelimiter();
+		int maxKeys = listObjectsV2Request.getMaxKeys() == null ? 1000 : listObjectsV2Request.getMaxKeys();
+		String after = listObjectsV2Request.getContinuationToken() != null ? listObjectsV2Request.getContinuationToken() : listObjectsV2Request.getStartAfter();
+
+		SortedMap<String, StoredObject> keys = new TreeMap<String, StoredObject>();
+		for(Map.Entry<String, StoredObject> entry : objects.entrySet())
+		{
+			if(!entry.getKey().startsWith(bucketName + "/"))
+				continue;
+			String key = entry.getKey().substring(bucketName.length() + 1);
+			if(key.startsWith(prefix) && (after == null || key.compareTo(after) > 0))
+				keys.put(key, entry.getValue());
+		}
+
+		ListObjectsV2Result result = new ListObjectsV2Result();
+		result.setBucketName(bucketName);
+		result.setPrefix(listObjectsV2Request.getPrefix());
+		result.setDelimiter(delimiter);
+		List<String> commonPrefixes = new ArrayList<String>();
+		int count = 0;
+		String lastKey = null;
+		for(Map.Entry<String, StoredObject> entry : keys.entrySet())
+		{
+			String key = entry.getKey();
+			int delimiterIndex = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+			String commonPrefix = delimiterIndex < 0 ? null : key.substring(0, delimiterIndex + delimiter.length());
+			boolean newItem = commonPrefix == null || commonPrefixes.isEmpty() || !commonPrefixes.get(commonPrefixes.size() - 1).equals(commonPrefix);
+			if(newItem && count >= maxKeys)
+			{
+				result.setTruncated(true);
+				result.setNextContinuationToken(lastKey);
+				break;
+			}
+			if(commonPrefix != null)
+			{
+				if(newItem)
+				{
+					commonPrefixes.add(commonPrefix);
+					count++;
+				}
+			}
+			else
+			{
+				S3ObjectSummary summary = new S3ObjectSummary();
+				summary.setBucketName(bucketName);
+				summary.setKey(key);
+				summary.setSize(entry.getValue().data.length);
+				summary.setETag(entry.getValue().eTag);
+				result.getObjectSummaries().add(summary);
+				count++;
+			}
+			lastKey = key;
+		}
+		result.setCommonPrefixes(commonPrefixes);
+		result.setKeyCount(count);
+		return result;
+	}
+
+	@Override
+	public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+	{
+		request("MULTIPART");
+		checkBucket(request.getBucketName());
+		String uploadId = UUID.randomUUID().toString();
+		multipartUploads.put(uploadId, new ConcurrentHashMap<Integer, byte[]>());
+		InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		result.setUploadId(uploadId);
+		return result;
+	}
+
+	@Override
+	public UploadPartResult uploadPart(UploadPartRequest request)
+	{
+		request("PUT");
+		ConcurrentMap<Integer, byte[]> parts = multipartUploads.get(request.getUploadId());
+		if(parts == null)
+			throw serviceException(404, "NoSuchUpload", "The specified multipart upload does not exist.");
+		byte[] data = Arrays.copyOf(readFully(request.getInputStream()), (int) request.getPartSize());
+		parts.put(request.getPartNumber(), data);
+		UploadPartResult result = new UploadPartResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag(StoredObject.eTag(data));
+		return result;
+	}
+
+	@Override
+	public CopyPartResult copyPart(CopyPartRequest copyPartRequest)
+	{
+		request("COPY");
+		StoredObject source = getStoredObject(copyPartRequest.getSourceBucketName(), copyPartRequest.getSourceKey(), false);
+		if(!copyPartRequest.getMatchingETagConstraints().isEmpty() && !copyPartRequest.getMatchingETagConstraints().contains(source.eTag))
+			return null;
+		ConcurrentMap<Integer, byte[]> parts = multipartUploads.get(copyPartRequest.getUploadId());
+		if(parts == null)
+			throw serviceException(404, "NoSuchUpload", "The specified multipart upload does not exist.");
+		int firstByte = copyPartRequest.getFirstByte() == null ? 0 : copyPartRequest.getFirstByte().intValue();
+		int lastByte = copyPartRequest.getLastByte() == null ? source.data.length - 1 : copyPartRequest.getLastByte().intValue();
+		byte[] data = Arrays.copyOfRange(source.data, firstByte, lastByte + 1);
+		parts.put(copyPartRequest.getPartNumber(), data);
+		CopyPartResult result = new CopyPartResult();
+		result.setPartNumber(copyPartRequest.getPartNumber());
+		result.setETag(StoredObject.eTag(data));
+		return result;
+	}
+
+	@Override
+	public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+	{
+		request("MULTIPART");
+		checkIfNoneMatch(request.getCustomRequestHeaders(), request.getBucketName(), request.getKey());
+		ConcurrentMap<Integer, byte[]> parts = multipartUploads.remove(request.getUploadId());
+		if(parts == null)
+			throw serviceException(404, "NoSuchUpload", "The specified multipart upload does not exist.");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(PartETag partETag : request.getPartETags())
+		{
+			byte[] part = parts.get(partETag.getPartNumber());
+			if(part == null)
+				throw serviceException(400, "InvalidPart", "One or more of the specified parts could not be found.");
+			out.write(part, 0, part.length);
+		}
+		StoredObject object = new StoredObject(out.toByteArray(), new ObjectMetadata());
+		objects.put(objectKey(request.getBucketName(), request.getKey()), object);
+		CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		result.setETag(object.eTag);
+		return result;
+	}
+
+	@Override
+	public void abortMultipartUpload(AbortMultipartUploadRequest request)
+	{
+		request("MULTIPART");
+		multipartUploads.remove(request.getUploadId());
+	}
+
+	@Override
+	public void shutdown()
+	{
+	}
+
+	private static class StoredObject
+	{
+		final byte[] data;
+		final ObjectMetadata metadata;
+		final String eTag;
+
+		StoredObject(byte[] data, ObjectMetadata metadata)
+		{
+			this.data = data;
+			this.metadata = metadata != null ? metadata.clone() : new ObjectMetadata();
+			this.eTag = eTag(data);
+		}
+
+		static String eTag(byte[] data)
+		{
+			return Integer.toHexString(Arrays.hashCode(data));
+		}
+
+		ObjectMetadata metadata(long contentLength)
+		{
+			ObjectMetadata copy = metadata.clone();
+			copy.setContentLength(contentLength);
+			copy.setHeader(Headers.ETAG, eTag);
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+/**
+ * <p>
+ * In-process stand-in for Amazon SQS used to test {@link SQSListener} without network.
+ * Every queue has an endless supply of messages with the configured body, every request waits for the configured latency
+ * and is counted by its action name. Only the operations the listener uses are implemented, all others throw UnsupportedOperationException.
+ * </p>
+ */
+public class FakeAmazonSQS extends AbstractAmazonSQS
+{
+	private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong messageCount = new AtomicLong();
+	private volatile long latencyMillis = 0;
+	private volatile String messageBody = "message";
+
+	public void setLatencyMillis(long latencyMillis)
+	{
+		this.latencyMillis = latencyMillis;
+	}
+
+	public void setMessageBody(String messageBody)
+	{
+		this.messageBody = messageBody;
+	}
+
+	public long getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	/**
+	 * Returns the number of requests per action since the last reset.
+	 */
+	public Map<String, Long> getRequestCounts()
+	{
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for(Map.Entry<String, AtomicLong> entry : requestCounts.entrySet())
+			counts.put(entry.getKey(), entry.getValue().get());
+		return counts;
+	}
+
+	public void resetRequestCounts()
+	{
+		requestCounts.clear();
+		requestCount.set(0);
+	}
+
+	private void request(String action)
+	{
+		AtomicLong count = requestCounts.get(action);
+		if(count == null)
+		{
+			requestCounts.putIfAbsent(action, new AtomicLong());
+			count = requestCounts.get(action);
+		}
+		count.incrementAndGet();
+		requestCount.incrementAndGet();
+		if(latencyMillis > 0)
+		{
+			try
+			{
+				TimeUnit.MILLISECONDS.sleep(latencyMillis);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SdkClientException("interrupted", e);
+			}
+		}
+	}
+
+	private Message newMessage()
+	{
+		long number = messageCount.incrementAndGet();
+		return new Message()
+				.withMessageId("message-" + number)
+				.withReceiptHandle("receipt-" + number)
+				.withBody(messageBody);
+	}
+
+	@Override
+	public ReceiveMessageResult receiveMessage(ReceiveMessageRequest receiveMessageRequest)
+	{
+		request("ReceiveMessage");
+		int maxNumberOfMessages = receiveMessageRequest.getMaxNumberOfMessages() == null ? 1 : receiveMessageRequest.getMaxNumberOfMessages();
+		List<Message> messages = new ArrayList<Message>(maxNumberOfMessages);
+		for(int i = 0; i < maxNumberOfMessages; i++)
+			messages.add(newMessage());
+		return new ReceiveMessageResult().withMessages(messages);
+	}
+
+	@Override
+	public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest deleteMessageBatchRequest)
+	{
+		request("DeleteMessageBatch");
+		List<DeleteMessageBatchResultEntry> successful = new ArrayList<DeleteMessageBatchResultEntry>(deleteMessageBatchRequest.getEntries().size());
+		for(DeleteMessageBatchRequestEntry entry : deleteMessageBatchRequest.getEntries())
+			successful.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+		return new DeleteMessageBatchResult().withSuccessful(successful);
+	}
+
+	@Override
+	public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest)
+	{
+		request("ChangeMessageVisibilityBatch");
+		List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<ChangeMessageVisibilityBatchResultEntry>(changeMessageVisibilityBatchRequest.getEntries().size());
+		for(ChangeMessageVisibilityBatchRequestEntry entry : changeMessageVisibilityBatchRequest.getEntries())
+			successful.add(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+		return new ChangeMessageVisibilityBatchResult().withSuccessful(successful);
+	}
+
+	@Override
+	public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest getQueueAttributesRequest)
+	{
+		request("GetQueueAttributes");
+		return new GetQueueAttributesResult().withAttributes(Collections.singletonMap(QueueAttributeName.VisibilityTimeout.toString(), "30"));
+	}
+
+	@Override
+	public void shutdown()
+	{
+	}
+}
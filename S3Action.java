@@ -0,0 +1,211 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.parameters.ParameterValueList;
+
+/**
+ * <p>
+ * The actions the {@link AmazonS3Sender} can perform. The actions attribute of the sender is compiled into an array of these actions
+ * when the sender is configured, sending a message then only runs the actions in that order.
+ * Every action validates its own configuration and parameters, so a new action only needs a new constant here.
+ * </p>
+ */
+public enum S3Action
+{
+	CREATE_BUCKET("createBucket", false)
+	{
+		@Override
+		void configure(AmazonS3Sender sender) throws ConfigurationException
+		{
+			if(sender.isForceGlobalBucketAccessEnabled() && (StringUtils.isEmpty(sender.getBucketRegion()) || !AmazonS3Sender.getAvailableRegions().contains(sender.getBucketRegion())))
+				throw new ConfigurationException(sender.getActionLogPrefix()+" invalid bucketRegion [" + sender.getBucketRegion() + "] please use following supported regions " + AmazonS3Sender.getAvailableRegions().toString());
+		}
+
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			return sender.createBucket(sender.getBucketName(), true);
+		}
+	},
+	DELETE_BUCKET("deleteBucket", false)
+	{
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			return sender.deleteBucket(sender.getBucketName());
+		}
+	},
+	UPLOAD("upload", true)
+	{
+		@Override
+		void configure(AmazonS3Sender sender) throws ConfigurationException
+		{
+			if(sender.getParameterList() == null || sender.getParameterList().findParameter("file") == null)
+				throw new ConfigurationException(sender.getActionLogPrefix()+" file parameter requires to be present to perform [" + getActionName() + "] action");
+		}
+
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			if(sender.getFileParameterValue(pvl) == null)
+				throw new SenderException(sender.getActionLogPrefix() + " no value was assinged for file parameter");
+			return sender.uploadObject(sender.getBucketName(), fileName, pvl);
+		}
+	},
+	DOWNLOAD("download", true)
+	{
+		@Override
+		void configure(AmazonS3Sender sender) throws ConfigurationException
+		{
+			checkSynchronous(sender);
+		}
+
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			return sender.downloadObject(sender.getBucketName(), fileName, prc);
+		}
+	},
+	COPY("copy", true)
+	{
+		@Override
+		void configure(AmazonS3Sender sender) throws ConfigurationException
+		{
+			if(StringUtils.isEmpty(sender.getDestinationBucketName()) && (sender.getParameterList() == null || sender.getParameterList().findParameter("destinationFileName") == null))
+				throw new ConfigurationException(sender.getActionLogPrefix()+" destinationBucketName attribute and destinationFileName parameter requires to be present to perform [" + getActionName() + "] action");
+		}
+
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			if(sender.getDestinationFileNameParameterValue(pvl) == null)
+				throw new SenderException(sender.getActionLogPrefix() + " no value in destinationFileName parameter found, please assing value to the parameter to perfom [copy] action");
+			return sender.copyObject(sender.getBucketName(), fileName, pvl);
+		}
+	},
+	DELETE("delete", true)
+	{
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			return sender.deleteObject(sender.getBucketName(), fileName);
+		}
+	},
+	DELETE_BATCH("deleteBatch", false)
+	{
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			Object prefix = sender.getPrefixParameterValue(pvl);
+			if(prefix == null && StringUtils.isEmpty(fileName))
+				throw new SenderException(sender.getActionLogPrefix() + " no keys found in the fileName parameter or message and no prefix parameter present, one of them has to be assigned to perform [deleteBatch] action");
+			return sender.deleteBatch(sender.getBucketName(), fileName, prefix == null ? null : prefix.toString());
+		}
+	},
+	LIST("list", false)
+	{
+		@Override
+		void configure(AmazonS3Sender sender) throws ConfigurationException
+		{
+			if(StringUtils.isEmpty(sender.getStoreResultInSessionKey()))
+				throw new ConfigurationException(sender.getActionLogPrefix()+" storeResultInSessionKey attribute requires to be present to perform [" + getActionName() + "] action");
+			checkSynchronous(sender);
+		}
+
+		@Override
+		String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException
+		{
+			Object prefix = sender.getPrefixParameterValue(pvl);
+			return sender.listObjects(sender.getBucketName(), prefix == null ? null : prefix.toString(), prc);
+		}
+	};
+
+	private final String actionName;
+	private final boolean fileNameRequired;
+
+	private S3Action(String actionName, boolean fileNameRequired)
+	{
+		this.actionName = actionName;
+		this.fileNameRequired = fileNameRequired;
+	}
+
+	/**
+	 * Validates the configuration of the sender for this action.
+	 */
+	void configure(AmazonS3Sender sender) throws ConfigurationException
+	{
+	}
+
+	/**
+	 * Rejects asyncEnabled for an action that stores its result in the session, as the session of the pipeline is not thread safe
+	 * and may be finished by the time an asynchronous action is done.
+	 */
+	void checkSynchronous(AmazonS3Sender sender) throws ConfigurationException
+	{
+		if(sender.isAsyncEnabled())
+			throw new ConfigurationException(sender.getActionLogPrefix()+" [" + getActionName() + "] action stores its result in the session and cannot be performed when asyncEnabled is set to 'true'");
+	}
+
+	/**
+	 * Performs the action for one message.
+	 *
+	 * @param fileName
+	 *            The value of the fileName parameter, or the message when that parameter is not present.
+	 * @return the result of the action, the result of the last action is returned by the sender.
+	 */
+	abstract String execute(AmazonS3Sender sender, String fileName, ParameterValueList pvl, ParameterResolutionContext prc) throws SenderException;
+
+	public String getActionName()
+	{
+		return actionName;
+	}
+
+	/**
+	 * Returns whether the action works on a file and needs the fileName parameter or the message to name it.
+	 */
+	public boolean isFileNameRequired()
+	{
+		return fileNameRequired;
+	}
+
+	/**
+	 * Returns the action with the given name as used in the actions attribute, or null when there is no such action.
+	 */
+	public static S3Action findAction(String actionName)
+	{
+		for(S3Action action : values())
+			if(action.actionName.equals(actionName))
+				return action;
+		return null;
+	}
+
+	public static List<String> getActionNames()
+	{
+		List<String> actionNames = new ArrayList<String>(values().length);
+		for(S3Action action : values())
+			actionNames.add(action.actionName);
+		return actionNames;
+	}
+}
@@ -0,0 +1,187 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import nl.nn.adapterframework.util.XmlBuilder;
+
+/**
+ * <p>
+ * This class is used for the deleteBatch action. Keys are deleted with multi-object DeleteObjects requests of at most 1000 keys,
+ * of which up to concurrency requests are sent at the same time. The requests are sent quiet, so S3 only returns the keys that failed.
+ * When deleting by prefix the next page of keys is listed while the previous pages are being deleted.
+ * </p>
+ */
+public class S3BatchDelete
+{
+	/** Highest number of keys S3 accepts in a single DeleteObjects request. */
+	public static final int MAX_KEYS_PER_REQUEST = 1000;
+
+	private final AmazonS3 s3Client;
+	private final ExecutorService executor;
+	private final String bucketName;
+	private final Semaphore inFlight;
+	private final List<Future<List<DeleteError>>> requests = new ArrayList<Future<List<DeleteError>>>();
+	private long keyCount = 0;
+
+	public S3BatchDelete(AmazonS3 s3Client, ExecutorService executor, String bucketName, int concurrency)
+	{
+		this.s3Client = s3Client;
+		this.executor = executor;
+		this.bucketName = bucketName;
+		this.inFlight = new Semaphore(concurrency);
+	}
+
+	/**
+	 * Deletes the given keys.
+	 */
+	public S3BatchDelete deleteKeys(List<String> keys) throws IOException
+	{
+		for(int start = 0; start < keys.size(); start += MAX_KEYS_PER_REQUEST)
+			submit(keys.subList(start, Math.min(start + MAX_KEYS_PER_REQUEST, keys.size())));
+		return this;
+	}
+
+	/**
+	 * Deletes all keys that start with the prefix, one page of the listing per request.
+	 */
+	public S3BatchDelete deletePrefix(String prefix) throws IOException
+	{
+		ListObjectsV2Request listRequest = new ListObjectsV2Request()
+				.withBucketName(bucketName)
+				.withPrefix(prefix)
+				.withMaxKeys(MAX_KEYS_PER_REQUEST);
+		ListObjectsV2Result listing;
+		do
+		{
+			listing = s3Client.listObjectsV2(listRequest);
+			List<String> keys = new ArrayList<String>(listing.getObjectSummaries().size());
+			for(S3ObjectSummary summary : listing.getObjectSummaries())
+				keys.add(summary.getKey());
+			if(!keys.isEmpty())
+				submit(keys);
+			listRequest.setContinuationToken(listing.getNextContinuationToken());
+		}
+		while(listing.isTruncated());
+		return this;
+	}
+
+	private void submit(List<String> keys) throws IOException
+	{
+		try
+		{
+			inFlight.acquire();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a delete request to finish", e);
+		}
+		keyCount += keys.size();
+		requests.add(executor.submit(new DeleteTask(keys.toArray(new String[keys.size()]))));
+	}
+
+	/**
+	 * Waits for all delete requests and returns an XML report with the number of deleted keys and every key that could not be deleted.
+	 */
+	public String getReport() throws IOException
+	{
+		List<DeleteError> failures = new ArrayList<DeleteError>();
+		try
+		{
+			for(Future<List<DeleteError>> request : requests)
+				failures.addAll(request.get());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			cancel();
+			throw new IOException("interrupted while waiting for a delete request to finish", e);
+		}
+		catch(ExecutionException e)
+		{
+			cancel();
+			if(e.getCause() instanceof AmazonClientException)
+				throw (AmazonClientException) e.getCause();
+			throw new IOException("failed to delete keys from bucket [" + bucketName + "]", e.getCause());
+		}
+
+		XmlBuilder report = new XmlBuilder("deleteBatch");
+		report.addAttribute("bucketName", bucketName);
+		report.addAttribute("deleted", String.valueOf(keyCount - failures.size()));
+		report.addAttribute("failed", String.valueOf(failures.size()));
+		for(DeleteError failure : failures)
+		{
+			XmlBuilder failed = new XmlBuilder("failure");
+			failed.addAttribute("key", failure.getKey());
+			failed.addAttribute("code", failure.getCode());
+			failed.addAttribute("message", failure.getMessage());
+			report.addSubElement(failed);
+		}
+		return report.toXML();
+	}
+
+	private void cancel()
+	{
+		for(Future<List<DeleteError>> request : requests)
+			request.cancel(true);
+	}
+
+	private class DeleteTask implements Callable<List<DeleteError>>
+	{
+		private final String[] keys;
+
+		DeleteTask(String[] keys)
+		{
+			this.keys = keys;
+		}
+
+		@Override
+		public List<DeleteError> call()
+		{
+			try
+			{
+				s3Client.deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(keys).withQuiet(true));
+				return new ArrayList<DeleteError>(0);
+			}
+			catch(MultiObjectDeleteException e)
+			{
+				return e.getErrors();
+			}
+			finally
+			{
+				inFlight.release();
+			}
+		}
+	}
+}
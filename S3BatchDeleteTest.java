@@ -0,0 +1,174 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+
+public class S3BatchDeleteTest
+{
+	private static final String BUCKET_NAME = "bucket";
+
+	private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@After
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Records the number of keys of every DeleteObjects request, and holds the requests until they are released.
+	 */
+	private static class HoldingAmazonS3 extends FakeAmazonS3
+	{
+		private final List<Integer> requestSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		private final CountDownLatch released;
+
+		HoldingAmazonS3(boolean held)
+		{
+			released = new CountDownLatch(held ? 1 : 0);
+		}
+
+		@Override
+		public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
+		{
+			requestSizes.add(deleteObjectsRequest.getKeys().size());
+			try
+			{
+				released.await(10, TimeUnit.SECONDS);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SdkClientException("interrupted", e);
+			}
+			return super.deleteObjects(deleteObjectsRequest);
+		}
+	}
+
+	/**
+	 * Refuses to delete the keys that start with "locked", like S3 does for objects under legal hold.
+	 */
+	private static class LockingAmazonS3 extends FakeAmazonS3
+	{
+		@Override
+		public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
+		{
+			List<KeyVersion> deletable = new ArrayList<KeyVersion>();
+			List<DeleteError> errors = new ArrayList<DeleteError>();
+			for(KeyVersion keyVersion : deleteObjectsRequest.getKeys())
+			{
+				if(keyVersion.getKey().startsWith("locked"))
+				{
+					DeleteError error = new DeleteError();
+					error.setKey(keyVersion.getKey());
+					error.setCode("AccessDenied");
+					error.setMessage("Access Denied");
+					errors.add(error);
+				}
+				else
+					deletable.add(keyVersion);
+			}
+			super.deleteObjects(new DeleteObjectsRequest(deleteObjectsRequest.getBucketName()).withKeys(deletable).withQuiet(true));
+			if(!errors.isEmpty())
+				throw new MultiObjectDeleteException(errors, new ArrayList<DeletedObject>());
+			return new DeleteObjectsResult(new ArrayList<DeletedObject>());
+		}
+	}
+
+	private static List<String> addObjects(FakeAmazonS3 s3Client, String prefix, int count)
+	{
+		List<String> keys = new ArrayList<String>();
+		for(int i = 0; i < count; i++)
+		{
+			String key = String.format("%s%05d", prefix, i);
+			s3Client.addObject(BUCKET_NAME, key, new byte[1]);
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private static long requests(FakeAmazonS3 s3Client, String type)
+	{
+		Long count = s3Client.getRequestCounts().get(type);
+		return count == null ? 0 : count;
+	}
+
+	@Test
+	public void keysAreDeletedInRequestsOfAtMost1000Keys() throws IOException
+	{
+		HoldingAmazonS3 s3Client = new HoldingAmazonS3(false);
+		List<String> keys = addObjects(s3Client, "file-", 2500);
+
+		String report = new S3BatchDelete(s3Client, executor, BUCKET_NAME, 2).deleteKeys(keys).getReport();
+
+		List<Integer> requestSizes = new ArrayList<Integer>(s3Client.requestSizes);
+		Collections.sort(requestSizes);
+		assertEquals("[500, 1000, 1000]", requestSizes.toString());
+		assertTrue(report, report.contains("deleted=\"2500\""));
+		assertTrue(report, report.contains("failed=\"0\""));
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "file-00000"));
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "file-02499"));
+	}
+
+	@Test
+	public void prefixIsListedWhileItsKeysAreDeleted() throws IOException
+	{
+		HoldingAmazonS3 s3Client = new HoldingAmazonS3(true);
+		addObjects(s3Client, "prefix/", 2500);
+		addObjects(s3Client, "other/", 10);
+		s3Client.resetRequestCounts();
+
+		// every page is listed and submitted while none of the delete requests has finished
+		S3BatchDelete batchDelete = new S3BatchDelete(s3Client, executor, BUCKET_NAME, 3).deletePrefix("prefix/");
+		assertEquals(3, requests(s3Client, "LIST"));
+		assertEquals(0, requests(s3Client, "DELETE"));
+
+		s3Client.released.countDown();
+		String report = batchDelete.getReport();
+		assertTrue(report, report.contains("deleted=\"2500\""));
+		assertEquals(3, s3Client.requestSizes.size());
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "prefix/02499"));
+		assertTrue(s3Client.doesObjectExist(BUCKET_NAME, "other/00000"));
+	}
+
+	@Test
+	public void keysThatFailAreReported() throws IOException
+	{
+		LockingAmazonS3 s3Client = new LockingAmazonS3();
+		List<String> keys = addObjects(s3Client, "file-", 2);
+		keys.addAll(addObjects(s3Client, "locked-", 1));
+
+		String report = new S3BatchDelete(s3Client, executor, BUCKET_NAME, 1).deleteKeys(keys).getReport();
+
+		assertTrue(report, report.startsWith("<deleteBatch"));
+		assertTrue(report, report.contains("bucketName=\"bucket\""));
+		assertTrue(report, report.contains("deleted=\"2\""));
+		assertTrue(report, report.contains("failed=\"1\""));
+		assertTrue(report, report.contains("<failure"));
+		assertTrue(report, report.contains("key=\"locked-00000\""));
+		assertTrue(report, report.contains("code=\"AccessDenied\""));
+		assertTrue(s3Client.doesObjectExist(BUCKET_NAME, "locked-00000"));
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "file-00000"));
+	}
+}
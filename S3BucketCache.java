@@ -0,0 +1,92 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Remembers whether buckets exist, so actions don't need a HEAD request on the bucket for every message.
+ * Existing and non-existing buckets are remembered for a different amount of time, a time to live of 0 disables caching of that state.
+ * The sender keeps the cache up to date when it creates or deletes a bucket itself and invalidates an entry when S3 answers NoSuchBucket.
+ * </p>
+ */
+public class S3BucketCache
+{
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final long existsTtl;
+	private final long notExistsTtl;
+
+	/**
+	 * @param existsTtl
+	 *            Number of milliseconds an existing bucket is remembered.
+	 * @param notExistsTtl
+	 *            Number of milliseconds a non-existing bucket is remembered.
+	 */
+	public S3BucketCache(long existsTtl, long notExistsTtl)
+	{
+		this.existsTtl = existsTtl;
+		this.notExistsTtl = notExistsTtl;
+	}
+
+	/**
+	 * Returns the remembered state of the bucket, or null when it is not known or expired.
+	 */
+	public Boolean get(String bucketName)
+	{
+		Entry entry = entries.get(bucketName);
+		if(entry == null)
+			return null;
+		if(entry.expiresAt < System.currentTimeMillis())
+		{
+			entries.remove(bucketName, entry);
+			return null;
+		}
+		return entry.exists;
+	}
+
+	public void put(String bucketName, boolean exists)
+	{
+		long ttl = exists ? existsTtl : notExistsTtl;
+		if(ttl > 0)
+			entries.put(bucketName, new Entry(exists, System.currentTimeMillis() + ttl));
+		else
+			entries.remove(bucketName);
+	}
+
+	public void invalidate(String bucketName)
+	{
+		entries.remove(bucketName);
+	}
+
+	public void clear()
+	{
+		entries.clear();
+	}
+
+	private static class Entry
+	{
+		final boolean exists;
+		final long expiresAt;
+
+		Entry(boolean exists, long expiresAt)
+		{
+			this.exists = exists;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
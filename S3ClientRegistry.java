@@ -0,0 +1,259 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * Keeps one {@link AmazonS3} client per distinct set of {@link Options}, so senders with equal settings share the connection pool,
+ * TLS sessions and credentials of a single client. Clients are reference counted: the first {@link #acquire(Options)} builds the client,
+ * the last {@link #release(AmazonS3)} shuts it down.
+ * </p>
+ */
+public class S3ClientRegistry
+{
+	private static final Logger LOG = LogUtil.getLogger(S3ClientRegistry.class);
+	private static final S3ClientRegistry INSTANCE = new S3ClientRegistry();
+	/**
+	 * Retries like the SDK does by default, except throttled requests without a body, which the {@link S3ConcurrencyLimiter} retries itself.
+	 * Requests with a body are still retried by the SDK, as only the SDK can rewind their content.
+	 */
+	private static final RetryPolicy.RetryCondition NO_THROTTLE_RETRY_CONDITION = new RetryPolicy.RetryCondition()
+	{
+		@Override
+		public boolean shouldRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted)
+		{
+			if(exception instanceof AmazonServiceException && S3ThrottlingException.isThrottling((AmazonServiceException) exception)
+					&& !(originalRequest instanceof PutObjectRequest) && !(originalRequest instanceof UploadPartRequest))
+				return false;
+			return PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(originalRequest, exception, retriesAttempted);
+		}
+	};
+
+	private final Map<Options, Entry> entries = new HashMap<Options, Entry>();
+	private final Map<AmazonS3, Options> optionsByClient = new IdentityHashMap<AmazonS3, Options>();
+	//a lock instead of synchronized, so a virtual thread that opens a sender does not pin its carrier while a client is built or shut down
+	private final Lock lock = new ReentrantLock();
+
+	public static S3ClientRegistry getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the client for the given options, building it when no sender uses it yet.
+	 */
+	public AmazonS3 acquire(Options options)
+	{
+		lock.lock();
+		try
+		{
+			Entry entry = entries.get(options);
+			if(entry == null)
+			{
+				entry = new Entry(build(options));
+				entries.put(options, entry);
+				optionsByClient.put(entry.client, options);
+				LOG.info("created S3 client for " + options);
+			}
+			entry.references++;
+			return entry.client;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases a client returned by {@link #acquire(Options)} and shuts it down when no sender uses it anymore.
+	 *
+	 * @return false when the client was not acquired from this registry, the caller then remains responsible for it.
+	 */
+	public boolean release(AmazonS3 client)
+	{
+		lock.lock();
+		try
+		{
+			Options options = optionsByClient.get(client);
+			if(options == null)
+				return false;
+			Entry entry = entries.get(options);
+			if(--entry.references == 0)
+			{
+				entries.remove(options);
+				optionsByClient.remove(client);
+				client.shutdown();
+				LOG.info("shut down S3 client for " + options);
+			}
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	protected AmazonS3 build(Options options)
+	{
+		ClientConfiguration clientConfiguration = new ClientConfiguration()
+				.withMaxConnections(options.maxConnections)
+				.withConnectionTTL(options.connectionTtl)
+				.withConnectionTimeout(options.connectionTimeout)
+				.withSocketTimeout(options.socketTimeout)
+				.withRequestTimeout(options.requestTimeout)
+				.withTcpKeepAlive(options.tcpKeepAlive);
+		if(options.throttleRetriesDisabled)
+			clientConfiguration.setRetryPolicy(new RetryPolicy(NO_THROTTLE_RETRY_CONDITION, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY,
+					PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY, true));
+
+		AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard();
+		if(options.metricsEnabled)
+			builder.withMetricsCollector(S3Metrics.REQUEST_METRIC_COLLECTOR);
+		return builder
+				.withClientConfiguration(clientConfiguration)
+				.withChunkedEncodingDisabled(options.chunkedEncodingDisabled)
+				.withAccelerateModeEnabled(options.accelerateModeEnabled)
+				.withForceGlobalBucketAccessEnabled(options.forceGlobalBucketAccessEnabled)
+				.withRegion(options.clientRegion)
+				.withCredentials(new EnvironmentVariableCredentialsProvider())
+				.build();
+	}
+
+	private static class Entry
+	{
+		private final AmazonS3 client;
+		private int references = 0;
+
+		Entry(AmazonS3 client)
+		{
+			this.client = client;
+		}
+	}
+
+	/**
+	 * The settings a client is built with. Two senders share a client when their options are equal.
+	 */
+	public static final class Options
+	{
+		private final String clientRegion;
+		private final boolean chunkedEncodingDisabled;
+		private final boolean accelerateModeEnabled;
+		private final boolean forceGlobalBucketAccessEnabled;
+		private final int maxConnections;
+		private final long connectionTtl;
+		private final int connectionTimeout;
+		private final int socketTimeout;
+		private final int requestTimeout;
+		private final boolean tcpKeepAlive;
+		private final boolean metricsEnabled;
+		private final boolean throttleRetriesDisabled;
+
+		/**
+		 * @param metricsEnabled
+		 *            Whether the client reports retries and throttling to {@link S3Metrics#REQUEST_METRIC_COLLECTOR}.
+		 * @param throttleRetriesDisabled
+		 *            Whether throttled requests without a body are passed on without retries, so a {@link S3ConcurrencyLimiter} sees the throttling at once and owns the backoff.
+		 */
+		public Options(String clientRegion, boolean chunkedEncodingDisabled, boolean accelerateModeEnabled, boolean forceGlobalBucketAccessEnabled,
+				int maxConnections, long connectionTtl, int connectionTimeout, int socketTimeout, int requestTimeout, boolean tcpKeepAlive, boolean metricsEnabled,
+				boolean throttleRetriesDisabled)
+		{
+			this.clientRegion = clientRegion;
+			this.chunkedEncodingDisabled = chunkedEncodingDisabled;
+			this.accelerateModeEnabled = accelerateModeEnabled;
+			this.forceGlobalBucketAccessEnabled = forceGlobalBucketAccessEnabled;
+			this.maxConnections = maxConnections;
+			this.connectionTtl = connectionTtl;
+			this.connectionTimeout = connectionTimeout;
+			this.socketTimeout = socketTimeout;
+			this.requestTimeout = requestTimeout;
+			this.tcpKeepAlive = tcpKeepAlive;
+			this.metricsEnabled = metricsEnabled;
+			this.throttleRetriesDisabled = throttleRetriesDisabled;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Options))
+				return false;
+			Options other = (Options) obj;
+			return clientRegion.equals(other.clientRegion)
+					&& chunkedEncodingDisabled == other.chunkedEncodingDisabled
+					&& accelerateModeEnabled == other.accelerateModeEnabled
+					&& forceGlobalBucketAccessEnabled == other.forceGlobalBucketAccessEnabled
+					&& maxConnections == other.maxConnections
+					&& connectionTtl == other.connectionTtl
+					&& connectionTimeout == other.connectionTimeout
+					&& socketTimeout == other.socketTimeout
+					&& requestTimeout == other.requestTimeout
+					&& tcpKeepAlive == other.tcpKeepAlive
+					&& metricsEnabled == other.metricsEnabled
+					&& throttleRetriesDisabled == other.throttleRetriesDisabled;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = clientRegion.hashCode();
+			hash = 31 * hash + (chunkedEncodingDisabled ? 1 : 0);
+			hash = 31 * hash + (accelerateModeEnabled ? 1 : 0);
+			hash = 31 * hash + (forceGlobalBucketAccessEnabled ? 1 : 0);
+			hash = 31 * hash + maxConnections;
+			hash = 31 * hash + (int) (connectionTtl ^ (connectionTtl >>> 32));
+			hash = 31 * hash + connectionTimeout;
+			hash = 31 * hash + socketTimeout;
+			hash = 31 * hash + requestTimeout;
+			hash = 31 * hash + (tcpKeepAlive ? 1 : 0);
+			hash = 31 * hash + (metricsEnabled ? 1 : 0);
+			hash = 31 * hash + (throttleRetriesDisabled ? 1 : 0);
+			return hash;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "region [" + clientRegion + "] chunkedEncodingDisabled [" + chunkedEncodingDisabled + "] accelerateModeEnabled [" + accelerateModeEnabled
+					+ "] forceGlobalBucketAccessEnabled [" + forceGlobalBucketAccessEnabled + "] maxConnections [" + maxConnections + "] connectionTtl [" + connectionTtl
+					+ "] connectionTimeout [" + connectionTimeout + "] socketTimeout [" + socketTimeout + "] requestTimeout [" + requestTimeout + "] tcpKeepAlive [" + tcpKeepAlive + "] metricsEnabled [" + metricsEnabled
+					+ "] throttleRetriesDisabled [" + throttleRetriesDisabled + "]";
+		}
+	}
+}
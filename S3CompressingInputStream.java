@@ -0,0 +1,243 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * This class is used for the upload action when compression is set to 'gzip'. It returns the gzip compressed contents of another InputStream
+ * while that stream is read, so the payload is never held in memory as a whole.
+ * </p>
+ * <p>
+ * The source is cut into blocks of blockSize bytes that are each compressed into a gzip member of their own. A gzip stream may consist of
+ * several members, which every gzip reader, including {@link GZIPInputStream}, returns as one stream. That makes the blocks independent, so up
+ * to concurrency blocks are compressed at the same time on the executor while the reader consumes the members in order.
+ * Memory used is about concurrency * blockSize.
+ * </p>
+ */
+public class S3CompressingInputStream extends InputStream
+{
+	public static final String GZIP = "gzip";
+
+	private final InputStream source;
+	private final ExecutorService executor;
+	private final int blockSize;
+	private final int concurrency;
+
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private boolean sourceDone = false;
+	private boolean anyBlock = false;
+	private byte[] member;
+	private int position;
+	private boolean closed = false;
+
+	/**
+	 * @param executor
+	 *            Executor the blocks are compressed on, null to compress on the thread that reads.
+	 */
+	public S3CompressingInputStream(InputStream source, ExecutorService executor, int blockSize, int concurrency)
+	{
+		this.source = source;
+		this.executor = executor;
+		this.blockSize = blockSize;
+		this.concurrency = executor == null ? 1 : concurrency;
+	}
+
+	/**
+	 * Returns a stream that decodes the content of a file that was stored with the given Content-Encoding, or the stream itself when it is not encoded
+	 * or the encoding is not supported.
+	 */
+	public static InputStream decode(InputStream content, String contentEncoding) throws IOException
+	{
+		if(GZIP.equalsIgnoreCase(contentEncoding))
+			return new GZIPInputStream(new MemberBoundaryInputStream(content), 64 * 1024);
+		return content;
+	}
+
+	/**
+	 * Reports at least one available byte until the end of the content is read. {@link GZIPInputStream} only reads the member after the one it
+	 * finished when the content has bytes available, a stream that reports none at the boundary between two members ends the decoded stream early.
+	 */
+	private static class MemberBoundaryInputStream extends FilterInputStream
+	{
+		private boolean endReached = false;
+
+		MemberBoundaryInputStream(InputStream content)
+		{
+			super(content);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int read = in.read();
+			endReached = read == -1;
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = in.read(b, off, len);
+			endReached = read == -1;
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return endReached ? 0 : Math.max(1, in.available());
+		}
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if(!nextMember())
+			return -1;
+		return member[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len == 0)
+			return 0;
+		if(!nextMember())
+			return -1;
+		int count = Math.min(len, member.length - position);
+		System.arraycopy(member, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		return member == null ? 0 : member.length - position;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		for(Future<byte[]> future : pending)
+			future.cancel(true);
+		pending.clear();
+		member = null;
+		source.close();
+	}
+
+	/**
+	 * Makes sure there are unread bytes in the current member, returns false when the source is compressed completely.
+	 */
+	private boolean nextMember() throws IOException
+	{
+		if(closed)
+			throw new IOException("compressing stream is closed");
+		while(member == null || position >= member.length)
+		{
+			compressAhead();
+			Future<byte[]> future = pending.poll();
+			if(future == null)
+				return false;
+			member = await(future);
+			position = 0;
+		}
+		return true;
+	}
+
+	private void compressAhead() throws IOException
+	{
+		while(!sourceDone && pending.size() < concurrency)
+		{
+			byte[] block = new byte[blockSize];
+			int length = S3MultipartUpload.fill(source, block);
+			if(length < blockSize)
+				sourceDone = true;
+			//an empty source still results in a valid gzip stream of a single empty member
+			if(length > 0 || !anyBlock)
+			{
+				anyBlock = true;
+				CompressTask task = new CompressTask(block, length);
+				if(executor == null)
+				{
+					FutureTask<byte[]> future = new FutureTask<byte[]>(task);
+					future.run();
+					pending.add(future);
+				}
+				else
+					pending.add(executor.submit(task));
+			}
+		}
+	}
+
+	private byte[] await(Future<byte[]> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			close();
+			throw new IOException("interrupted while compressing", e);
+		}
+		catch(ExecutionException e)
+		{
+			close();
+			throw new IOException("failed to compress block", e.getCause());
+		}
+	}
+
+	private static class CompressTask implements Callable<byte[]>
+	{
+		private final byte[] block;
+		private final int length;
+
+		CompressTask(byte[] block, int length)
+		{
+			this.block = block;
+			this.length = length;
+		}
+
+		@Override
+		public byte[] call() throws IOException
+		{
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 4));
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed, 64 * 1024);
+			gzip.write(block, 0, length);
+			gzip.close();
+			return compressed.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class S3CompressingInputStreamTest
+{
+	private static final int BLOCK_SIZE = 4096;
+
+	private static byte[] payload(int size)
+	{
+		byte[] payload = new byte[size];
+		Random random = new Random(size);
+		// half random, half repeated, so the blocks are compressible but not trivially
+		for(int i = 0; i < size; i++)
+			payload[i] = i % 2 == 0 ? (byte) random.nextInt() : (byte) (i / 64);
+		return payload;
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int read;
+		while((read = inputStream.read(buffer)) != -1)
+			content.write(buffer, 0, read);
+		inputStream.close();
+		return content.toByteArray();
+	}
+
+	/**
+	 * Returns the content in ranges like a ranged download does, a read never crosses the end of a range and no bytes are reported
+	 * available until the next range is read.
+	 */
+	private static class RangedInputStream extends ByteArrayInputStream
+	{
+		private final int rangeSize;
+
+		RangedInputStream(byte[] content, int rangeSize)
+		{
+			super(content);
+			this.rangeSize = rangeSize;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len)
+		{
+			return super.read(b, off, Math.min(len, rangeSize - pos % rangeSize));
+		}
+
+		@Override
+		public synchronized int available()
+		{
+			if(pos % rangeSize == 0)
+				return 0;
+			return Math.min(count - pos, rangeSize - pos % rangeSize);
+		}
+	}
+
+	private static byte[] roundTrip(byte[] payload, ExecutorService executor) throws IOException
+	{
+		byte[] compressed = readFully(new S3CompressingInputStream(new ByteArrayInputStream(payload), executor, BLOCK_SIZE, 4));
+		return readFully(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	@Test
+	public void emptySourceIsAValidGzipStream() throws IOException
+	{
+		assertEquals(0, roundTrip(new byte[0], null).length);
+	}
+
+	@Test
+	public void exactlyOneBlock() throws IOException
+	{
+		byte[] payload = payload(BLOCK_SIZE);
+		assertArrayEquals(payload, roundTrip(payload, null));
+	}
+
+	@Test
+	public void severalBlocksOnAnExecutor() throws IOException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			byte[] payload = payload(BLOCK_SIZE * 10 + 123);
+			assertArrayEquals(payload, roundTrip(payload, executor));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void decodeReadsEveryMember() throws IOException
+	{
+		byte[] payload = payload(BLOCK_SIZE * 3 + 1);
+		byte[] compressed = readFully(new S3CompressingInputStream(new ByteArrayInputStream(payload), null, BLOCK_SIZE, 1));
+
+		assertArrayEquals(payload, readFully(S3CompressingInputStream.decode(new ByteArrayInputStream(compressed), "GZIP")));
+		assertArrayEquals(compressed, readFully(S3CompressingInputStream.decode(new ByteArrayInputStream(compressed), null)));
+	}
+
+	@Test
+	public void decodeReadsEveryMemberOfRangedContent() throws IOException
+	{
+		byte[] payload = payload(BLOCK_SIZE * 20 + 1);
+		byte[] compressed = readFully(new S3CompressingInputStream(new ByteArrayInputStream(payload), null, BLOCK_SIZE, 1));
+
+		// the first range ends exactly where the first member ends
+		int firstMemberLength = readFully(new S3CompressingInputStream(new ByteArrayInputStream(payload, 0, BLOCK_SIZE), null, BLOCK_SIZE, 1)).length;
+		assertArrayEquals(payload, readFully(S3CompressingInputStream.decode(new RangedInputStream(compressed, firstMemberLength), "gzip")));
+	}
+}
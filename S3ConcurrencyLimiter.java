@@ -0,0 +1,465 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * Limits the number of requests in flight per partition of a bucket with additive increase and multiplicative decrease (AIMD), so the request rate
+ * converges to what S3 allows for that partition. S3 scales a bucket per key prefix, so a partition is the bucket and the first partitionDepth
+ * segments of the key, 0 limits per bucket.
+ * </p>
+ * <p>
+ * Every request that succeeds raises the limit of its partition by 1 / limit, about one per round trip of all requests in flight. A throttled
+ * request halves the limit, and a request slower than latencyThreshold milliseconds lowers it by 10%. A partition is lowered at most once
+ * per average request latency, so a burst of throttled requests that were all sent at the old limit counts as one signal.
+ * </p>
+ * <p>
+ * Requests without a body (HEAD, GET, COPY, DELETE and LIST) that are throttled are sent again up to maxRetries times after a backoff with full jitter: a
+ * random time up to backoff * 2<sup>retry</sup> milliseconds, at most maxBackoff. Requests with a body are left to the retries of the SDK, which can rewind
+ * their content, and the throttling error is passed on. The client should not retry throttled requests without a body itself, see
+ * {@link S3ClientRegistry.Options}, otherwise every throttling reaches the limit only after the retries of the SDK and each request is sent up to
+ * (1 + maxRetries) times the number of retries of the SDK.
+ * </p>
+ * <p>
+ * A partition without requests in flight for a minute is forgotten when another partition is created, so the partitions of every key prefix that
+ * was ever used don't pile up. Its next request starts at the initial limit again.
+ * </p>
+ */
+public class S3ConcurrencyLimiter
+{
+	private static final double LATENCY_DECREASE = 0.9;
+	private static final double THROTTLE_DECREASE = 0.5;
+	private static final long PARTITION_IDLE_TIMEOUT = TimeUnit.MINUTES.toNanos(1);
+	private static final Set<String> RETRYABLE_METHODS = new HashSet<String>();
+	static
+	{
+		for(String method : new String[] {"getObjectMetadata", "doesObjectExist", "doesBucketExistV2", "getObject", "copyObject", "copyPart",
+				"deleteObject", "deleteObjects", "listObjects", "listObjectsV2", "listNextBatchOfObjects"})
+			RETRYABLE_METHODS.add(method);
+	}
+	//the getBucketName, getKey and getPrefix methods of the request classes, looked up once per class
+	private static final ConcurrentMap<Class<?>, Method[]> REQUEST_GETTERS = new ConcurrentHashMap<Class<?>, Method[]>();
+
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<String, Partition>();
+	private final int initialLimit;
+	private final int maxLimit;
+	private final int partitionDepth;
+	private final long latencyThreshold;
+	private final int maxRetries;
+	private final long backoff;
+	private final long maxBackoff;
+
+	public S3ConcurrencyLimiter(int initialLimit, int maxLimit, int partitionDepth, long latencyThreshold, int maxRetries, long backoff, long maxBackoff)
+	{
+		this.initialLimit = initialLimit;
+		this.maxLimit = maxLimit;
+		this.partitionDepth = partitionDepth;
+		this.latencyThreshold = latencyThreshold;
+		this.maxRetries = maxRetries;
+		this.backoff = backoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Returns a client that sends every request on the given client within the limit of the partition it addresses.
+	 */
+	public AmazonS3 limit(final AmazonS3 s3Client)
+	{
+		return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[] {AmazonS3.class}, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				String partitionName = partitionOf(args);
+				if(partitionName == null)
+					return invokeOn(s3Client, method, args);
+
+				boolean retryable = RETRYABLE_METHODS.contains(method.getName());
+				for(int retry = 0; ; retry++)
+				{
+					Partition partition = acquire(partitionName);
+					long start = System.nanoTime();
+					try
+					{
+						Object result = invokeOn(s3Client, method, args);
+						partition.succeeded(System.nanoTime() - start);
+						return result;
+					}
+					catch(AmazonServiceException e)
+					{
+						if(!S3ThrottlingException.isThrottling(e))
+						{
+							partition.failed();
+							throw e;
+						}
+						partition.throttled();
+						if(!retryable || retry >= maxRetries)
+							throw e;
+					}
+					catch(Throwable t)
+					{
+						partition.failed();
+						throw t;
+					}
+					sleep(backoff(retry));
+				}
+			}
+		});
+	}
+
+	private static Object invokeOn(AmazonS3 s3Client, Method method, Object[] args) throws Throwable
+	{
+		try
+		{
+			return method.invoke(s3Client, args);
+		}
+		catch(InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns a random backoff between 0 and backoff * 2^retry milliseconds, so clients that were throttled together don't return together.
+	 */
+	long backoff(int retry)
+	{
+		long ceiling = Math.min(maxBackoff, backoff << Math.min(retry, 30));
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	private static void sleep(long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new AmazonClientException("interrupted while backing off from throttling", e);
+		}
+	}
+
+	/**
+	 * Returns the partition a call addresses from the bucket and key among its arguments, or null when it does not address a bucket.
+	 */
+	String partitionOf(Object[] args)
+	{
+		if(args == null || args.length == 0)
+			return null;
+		String bucketName;
+		String key = null;
+		if(args[0] instanceof String)
+		{
+			bucketName = (String) args[0];
+			if(args.length > 1 && args[1] instanceof String)
+				key = (String) args[1];
+		}
+		else if(args[0] instanceof CopyObjectRequest)
+		{
+			bucketName = ((CopyObjectRequest) args[0]).getDestinationBucketName();
+			key = ((CopyObjectRequest) args[0]).getDestinationKey();
+		}
+		else if(args[0] instanceof CopyPartRequest)
+		{
+			bucketName = ((CopyPartRequest) args[0]).getDestinationBucketName();
+			key = ((CopyPartRequest) args[0]).getDestinationKey();
+		}
+		else if(args[0] != null)
+		{
+			Method[] getters = requestGetters(args[0].getClass());
+			bucketName = invokeGetter(getters[0], args[0]);
+			key = invokeGetter(getters[1], args[0]);
+			if(key == null)
+				key = invokeGetter(getters[2], args[0]);
+		}
+		else
+			return null;
+		if(bucketName == null)
+			return null;
+		return bucketName + "/" + keyPrefix(key);
+	}
+
+	private String keyPrefix(String key)
+	{
+		if(key == null || partitionDepth == 0)
+			return "";
+		int end = -1;
+		for(int segment = 0; segment < partitionDepth; segment++)
+		{
+			end = key.indexOf('/', end + 1);
+			if(end == -1)
+				return "";
+		}
+		return key.substring(0, end + 1);
+	}
+
+	private static Method[] requestGetters(Class<?> requestClass)
+	{
+		Method[] getters = REQUEST_GETTERS.get(requestClass);
+		if(getters == null)
+		{
+			getters = new Method[] {stringGetter(requestClass, "getBucketName"), stringGetter(requestClass, "getKey"), stringGetter(requestClass, "getPrefix")};
+			REQUEST_GETTERS.putIfAbsent(requestClass, getters);
+		}
+		return getters;
+	}
+
+	/**
+	 * Returns the public getter of a request class with the given name when it returns a String, otherwise null.
+	 */
+	private static Method stringGetter(Class<?> requestClass, String name)
+	{
+		try
+		{
+			Method method = requestClass.getMethod(name);
+			return method.getReturnType() == String.class ? method : null;
+		}
+		catch(NoSuchMethodException e)
+		{
+			return null;
+		}
+	}
+
+	private static String invokeGetter(Method getter, Object request)
+	{
+		if(getter == null)
+			return null;
+		try
+		{
+			return (String) getter.invoke(request);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Takes a request slot of a partition, looking it up again when it was removed as idle after it was looked up.
+	 */
+	private Partition acquire(String name)
+	{
+		while(true)
+		{
+			Partition partition = partitions.get(name);
+			if(partition == null)
+			{
+				Partition created = new Partition(name);
+				partition = partitions.putIfAbsent(name, created);
+				if(partition == null)
+				{
+					partition = created;
+					removeIdlePartitions(PARTITION_IDLE_TIMEOUT);
+				}
+			}
+			if(partition.acquire())
+				return partition;
+		}
+	}
+
+	/**
+	 * Removes the partitions that had no requests in flight for the given number of nanoseconds.
+	 */
+	void removeIdlePartitions(long idleNanos)
+	{
+		long now = System.nanoTime();
+		for(Partition partition : partitions.values())
+		{
+			if(partition.remove(now, idleNanos))
+				partitions.remove(partition.name, partition);
+		}
+	}
+
+	int getPartitionCount()
+	{
+		return partitions.size();
+	}
+
+	/**
+	 * Returns the current limit of a partition, or the initial limit when no request was sent to it yet.
+	 */
+	public double getLimit(String partitionName)
+	{
+		Partition partition = partitions.get(partitionName);
+		return partition == null ? initialLimit : partition.getLimit();
+	}
+
+	private class Partition
+	{
+		private final String name;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition belowLimit = lock.newCondition();
+		private double limit = initialLimit;
+		private int inFlight = 0;
+		private long averageLatency = 0;
+		private long lastDecrease = 0;
+		private long lastRelease = System.nanoTime();
+		private boolean removed = false;
+
+		Partition(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Waits for a request slot, returns false when the partition was removed as idle and has to be looked up again.
+		 */
+		boolean acquire()
+		{
+			lock.lock();
+			try
+			{
+				while(!removed && inFlight >= (int) limit)
+					belowLimit.await();
+				if(removed)
+					return false;
+				inFlight++;
+				return true;
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new AmazonClientException("interrupted while waiting for a request slot of [" + name + "]", e);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void succeeded(long nanos)
+		{
+			lock.lock();
+			try
+			{
+				averageLatency = averageLatency == 0 ? nanos : averageLatency + (nanos - averageLatency) / 8;
+				if(latencyThreshold > 0 && TimeUnit.NANOSECONDS.toMillis(nanos) > latencyThreshold)
+					decrease(LATENCY_DECREASE);
+				else
+					limit = Math.min(maxLimit, limit + 1 / limit);
+				release();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void throttled()
+		{
+			lock.lock();
+			try
+			{
+				decrease(THROTTLE_DECREASE);
+				release();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void failed()
+		{
+			lock.lock();
+			try
+			{
+				release();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		private void decrease(double factor)
+		{
+			long now = System.nanoTime();
+			if(lastDecrease != 0 && now - lastDecrease < averageLatency)
+				return;
+			lastDecrease = now;
+			double previous = limit;
+			limit = Math.max(1, limit * factor);
+			if(log.isDebugEnabled()) log.debug("lowered request limit of [" + name + "] from [" + (int) previous + "] to [" + (int) limit + "]");
+		}
+
+		private void release()
+		{
+			inFlight--;
+			lastRelease = System.nanoTime();
+			belowLimit.signalAll();
+		}
+
+		/**
+		 * Marks the partition as removed when it had no requests in flight for idleNanos nanoseconds.
+		 */
+		boolean remove(long now, long idleNanos)
+		{
+			lock.lock();
+			try
+			{
+				if(inFlight > 0 || now - lastRelease < idleNanos)
+					return false;
+				removed = true;
+				return true;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		double getLimit()
+		{
+			lock.lock();
+			try
+			{
+				return limit;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+}
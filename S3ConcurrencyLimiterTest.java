@@ -0,0 +1,288 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+
+public class S3ConcurrencyLimiterTest
+{
+	private static final double DELTA = 0.0001;
+
+	/**
+	 * Throttles the first HEAD and PUT requests with 503 SlowDown, and counts every attempt.
+	 */
+	private static class ThrottlingAmazonS3 extends FakeAmazonS3
+	{
+		private final int throttled;
+		private int headAttempts = 0;
+		private int putAttempts = 0;
+
+		ThrottlingAmazonS3(int throttled)
+		{
+			this.throttled = throttled;
+			addBucket("bucket");
+			addObject("bucket", "a/b/c", new byte[] {1, 2, 3});
+		}
+
+		@Override
+		public synchronized ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest)
+		{
+			if(++headAttempts <= throttled)
+				throw slowDown();
+			return super.getObjectMetadata(getObjectMetadataRequest);
+		}
+
+		@Override
+		public synchronized PutObjectResult putObject(PutObjectRequest putObjectRequest)
+		{
+			if(++putAttempts <= throttled)
+				throw slowDown();
+			return super.putObject(putObjectRequest);
+		}
+
+		private static AmazonS3Exception slowDown()
+		{
+			AmazonS3Exception e = new AmazonS3Exception("Please reduce your request rate.");
+			e.setStatusCode(503);
+			e.setErrorCode("SlowDown");
+			return e;
+		}
+	}
+
+	private static S3ConcurrencyLimiter limiter(int partitionDepth)
+	{
+		return new S3ConcurrencyLimiter(4, 8, partitionDepth, 0, 3, 1, 10);
+	}
+
+	@Test
+	public void partitionIsTheBucketAndTheFirstSegmentsOfTheKey()
+	{
+		Object[] args = new Object[] {"bucket", "a/b/c"};
+
+		assertEquals("bucket/", limiter(0).partitionOf(args));
+		assertEquals("bucket/a/", limiter(1).partitionOf(args));
+		assertEquals("bucket/a/b/", limiter(2).partitionOf(args));
+		// a key with fewer segments than the depth belongs to the partition of the bucket
+		assertEquals("bucket/", limiter(2).partitionOf(new Object[] {"bucket", "a/c"}));
+		assertEquals("bucket/", limiter(1).partitionOf(new Object[] {"bucket"}));
+	}
+
+	@Test
+	public void partitionIsTakenFromTheRequest()
+	{
+		S3ConcurrencyLimiter limiter = limiter(1);
+
+		assertEquals("bucket/a/", limiter.partitionOf(new Object[] {new GetObjectRequest("bucket", "a/b")}));
+		// a copy is limited in the partition it writes to
+		assertEquals("target/b/", limiter.partitionOf(new Object[] {new CopyObjectRequest("bucket", "a/c", "target", "b/c")}));
+		assertEquals("bucket/a/", limiter.partitionOf(new Object[] {new ListObjectsV2Request().withBucketName("bucket").withPrefix("a/b/")}));
+	}
+
+	@Test
+	public void callWithoutBucketHasNoPartition()
+	{
+		S3ConcurrencyLimiter limiter = limiter(1);
+
+		assertNull(limiter.partitionOf(null));
+		assertNull(limiter.partitionOf(new Object[0]));
+		assertNull(limiter.partitionOf(new Object[] {null}));
+	}
+
+	@Test
+	public void backoffStaysBelowTheCeiling()
+	{
+		S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(4, 8, 0, 0, 3, 100, 1000);
+		for(int retry = 0; retry < 8; retry++)
+		{
+			long ceiling = Math.min(1000, 100L << retry);
+			for(int i = 0; i < 1000; i++)
+			{
+				long backoff = limiter.backoff(retry);
+				assertTrue("backoff [" + backoff + "] of retry [" + retry + "]", backoff >= 0 && backoff <= ceiling);
+			}
+		}
+		assertEquals(0, new S3ConcurrencyLimiter(4, 8, 0, 0, 3, 0, 1000).backoff(5));
+	}
+
+	@Test
+	public void limitGrowsWhileRequestsSucceed()
+	{
+		S3ConcurrencyLimiter limiter = limiter(0);
+		AmazonS3 s3Client = limiter.limit(new ThrottlingAmazonS3(0));
+
+		assertEquals(4, limiter.getLimit("bucket/"), DELTA);
+		s3Client.getObjectMetadata("bucket", "a/b/c");
+		assertEquals(4.25, limiter.getLimit("bucket/"), DELTA);
+		for(int i = 0; i < 100; i++)
+			s3Client.getObjectMetadata("bucket", "a/b/c");
+		assertEquals(8, limiter.getLimit("bucket/"), DELTA);
+	}
+
+	@Test
+	public void throttledRequestHalvesTheLimit()
+	{
+		S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(4, 8, 0, 0, 0, 1, 10);
+		AmazonS3 s3Client = limiter.limit(new ThrottlingAmazonS3(1));
+		try
+		{
+			s3Client.getObjectMetadata("bucket", "a/b/c");
+			fail("throttled request should fail without retries");
+		}
+		catch(AmazonServiceException e)
+		{
+			assertEquals("SlowDown", e.getErrorCode());
+		}
+
+		assertEquals(2, limiter.getLimit("bucket/"), DELTA);
+	}
+
+	@Test
+	public void slowRequestLowersTheLimit()
+	{
+		S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(4, 8, 0, 1, 3, 1, 10);
+		ThrottlingAmazonS3 fake = new ThrottlingAmazonS3(0);
+		fake.setLatencyMillis(20);
+		limiter.limit(fake).getObjectMetadata("bucket", "a/b/c");
+
+		assertEquals(3.6, limiter.getLimit("bucket/"), DELTA);
+	}
+
+	@Test
+	public void throttledRequestWithoutBodyIsSentAgain()
+	{
+		ThrottlingAmazonS3 fake = new ThrottlingAmazonS3(2);
+		S3ConcurrencyLimiter limiter = limiter(0);
+
+		assertEquals(3, limiter.limit(fake).getObjectMetadata("bucket", "a/b/c").getContentLength());
+		assertEquals(3, fake.headAttempts);
+		assertTrue(limiter.getLimit("bucket/") < 4);
+	}
+
+	@Test
+	public void throttledRequestWithBodyIsLeftToTheSdk()
+	{
+		ThrottlingAmazonS3 fake = new ThrottlingAmazonS3(1);
+		try
+		{
+			limiter(0).limit(fake).putObject(new PutObjectRequest("bucket", "a/d", new ByteArrayInputStream(new byte[] {1}), new ObjectMetadata()));
+			fail("throttled upload should not be sent again");
+		}
+		catch(AmazonServiceException e)
+		{
+			assertEquals(503, e.getStatusCode());
+		}
+
+		assertEquals(1, fake.putAttempts);
+	}
+
+	@Test
+	public void limitsArePerPartition()
+	{
+		S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(4, 8, 1, 0, 0, 1, 10);
+		try
+		{
+			limiter.limit(new ThrottlingAmazonS3(1)).getObjectMetadata("bucket", "a/b/c");
+			fail("throttled request should fail without retries");
+		}
+		catch(AmazonServiceException e)
+		{
+			assertEquals(503, e.getStatusCode());
+		}
+
+		assertEquals(2, limiter.getLimit("bucket/a/"), DELTA);
+		// a partition no request was sent to yet starts at the initial limit
+		assertEquals(4, limiter.getLimit("bucket/b/"), DELTA);
+	}
+
+	@Test
+	public void idlePartitionsAreRemoved()
+	{
+		S3ConcurrencyLimiter limiter = limiter(1);
+		ThrottlingAmazonS3 fake = new ThrottlingAmazonS3(0);
+		fake.addObject("bucket", "b/c", new byte[] {1});
+		AmazonS3 s3Client = limiter.limit(fake);
+		s3Client.getObjectMetadata("bucket", "a/b/c");
+		s3Client.getObjectMetadata("bucket", "b/c");
+		// a recently used partition is kept
+		assertEquals(2, limiter.getPartitionCount());
+		assertEquals(4.25, limiter.getLimit("bucket/a/"), DELTA);
+
+		limiter.removeIdlePartitions(0);
+		assertEquals(0, limiter.getPartitionCount());
+		// a removed partition starts at the initial limit again
+		assertEquals(4, limiter.getLimit("bucket/a/"), DELTA);
+		s3Client.getObjectMetadata("bucket", "a/b/c");
+		assertEquals(1, limiter.getPartitionCount());
+		assertEquals(4.25, limiter.getLimit("bucket/a/"), DELTA);
+	}
+
+	@Test
+	public void partitionWithRequestsInFlightIsKept() throws Exception
+	{
+		S3ConcurrencyLimiter limiter = limiter(0);
+		final CountDownLatch sent = new CountDownLatch(1);
+		final CountDownLatch pruned = new CountDownLatch(1);
+		final AmazonS3 s3Client = limiter.limit(new ThrottlingAmazonS3(0)
+		{
+			@Override
+			public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest)
+			{
+				sent.countDown();
+				try
+				{
+					pruned.await(10, TimeUnit.SECONDS);
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				return super.getObjectMetadata(getObjectMetadataRequest);
+			}
+		});
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			Future<ObjectMetadata> request = executor.submit(new Callable<ObjectMetadata>()
+			{
+				@Override
+				public ObjectMetadata call()
+				{
+					return s3Client.getObjectMetadata("bucket", "a/b/c");
+				}
+			});
+			assertTrue(sent.await(10, TimeUnit.SECONDS));
+			limiter.removeIdlePartitions(0);
+			pruned.countDown();
+			request.get(10, TimeUnit.SECONDS);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, limiter.getPartitionCount());
+		assertEquals(4.25, limiter.getLimit("bucket/"), DELTA);
+	}
+}
@@ -0,0 +1,154 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Remembers where a file with a given content hash was uploaded, so an upload of the same content can be done with a server-side copy instead.
+ * At most maxSize hashes are remembered, the least recently used hash is forgotten first.
+ * </p>
+ * <p>
+ * The index is only a hint: the hash is also stored in the metadata of every object that is uploaded, and the sender compares it to the
+ * metadata of the remembered object before it copies, so an object that was replaced or removed since is never mistaken for a duplicate.
+ * </p>
+ */
+public class S3ContentIndex
+{
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<String, Location> locations;
+
+	public S3ContentIndex(final int maxSize)
+	{
+		locations = new LinkedHashMap<String, Location>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Location> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns where content with the hash was uploaded, or null when it is not known.
+	 */
+	public Location get(String hash)
+	{
+		lock.lock();
+		try
+		{
+			return locations.get(hash);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public void put(String hash, String bucketName, String key)
+	{
+		lock.lock();
+		try
+		{
+			locations.put(hash, new Location(bucketName, key));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets a location that no longer holds the content of the hash, unless another location was remembered in the meantime.
+	 */
+	public void remove(String hash, Location location)
+	{
+		lock.lock();
+		try
+		{
+			if(location.equals(locations.get(hash)))
+				locations.remove(hash);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public int size()
+	{
+		lock.lock();
+		try
+		{
+			return locations.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public static final class Location
+	{
+		private final String bucketName;
+		private final String key;
+
+		Location(String bucketName, String key)
+		{
+			this.bucketName = bucketName;
+			this.key = key;
+		}
+
+		public String getBucketName()
+		{
+			return bucketName;
+		}
+
+		public String getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(this == o)
+				return true;
+			if(!(o instanceof Location))
+				return false;
+			Location other = (Location) o;
+			return bucketName.equals(other.bucketName) && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * bucketName.hashCode() + key.hashCode();
+		}
+
+		@Override
+		public String toString()
+		{
+			return bucketName + "/" + key;
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * <p>
+ * Local disk cache of downloaded files, keyed by bucket, key and ETag. A file that is cached is revalidated with a GET that carries
+ * the cached ETag in an If-None-Match header, S3 answers 304 without content when the file did not change. Within freshnessTtl
+ * milliseconds after the last validation a cached file is returned without any request.
+ * </p>
+ * <p>
+ * The cached files together never take more than maxSize bytes, the least recently used files are removed first. Files larger than
+ * maxEntrySize are not cached but streamed from S3 directly. Cached files are read through a FileChannel, a file that is evicted while it
+ * is being read stays readable until its stream is closed on file systems that allow removing open files.
+ * </p>
+ * <p>
+ * When decodeContent is set, files stored with a Content-Encoding like gzip are cached as they are stored and decoded while they are read.
+ * </p>
+ * <p>
+ * The index is kept in memory, files that are left in the directory by a previous run are removed when the cache is opened.
+ * Every cache needs a directory of its own.
+ * </p>
+ */
+public class S3DownloadCache
+{
+	private static final String FILE_SUFFIX = ".s3cache";
+	private static final String TEMP_SUFFIX = ".s3tmp";
+
+	private final Path directory;
+	private final long maxSize;
+	private final long maxEntrySize;
+	private final long freshnessTtl;
+	private final ReentrantLock lock = new ReentrantLock();
+	// access ordered, so iteration starts at the least recently used file
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final AtomicLong fileCounter = new AtomicLong();
+	private long size = 0;
+	private boolean decodeContent = false;
+
+	/**
+	 * @param maxSize
+	 *            Maximum number of bytes of all cached files together.
+	 * @param maxEntrySize
+	 *            Maximum size in bytes of a file that is cached.
+	 * @param freshnessTtl
+	 *            Number of milliseconds after a validation in which a cached file is returned without asking S3 whether it changed.
+	 */
+	public S3DownloadCache(File directory, long maxSize, long maxEntrySize, long freshnessTtl)
+	{
+		this.directory = directory.toPath();
+		this.maxSize = maxSize;
+		this.maxEntrySize = Math.min(maxEntrySize, maxSize);
+		this.freshnessTtl = freshnessTtl;
+	}
+
+	public void setDecodeContent(boolean decodeContent)
+	{
+		this.decodeContent = decodeContent;
+	}
+
+	/**
+	 * Creates the directory and removes the files a previous run left behind.
+	 */
+	public void open() throws IOException
+	{
+		Files.createDirectories(directory);
+		DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*{" + FILE_SUFFIX + "," + TEMP_SUFFIX + "}");
+		try
+		{
+			for(Path leftover : leftovers)
+				Files.deleteIfExists(leftover);
+		}
+		finally
+		{
+			leftovers.close();
+		}
+	}
+
+	/**
+	 * Returns the content of a file, from the cache when it did not change. A file that does not exist results in an AmazonServiceException
+	 * with status code 404, like a plain GET.
+	 */
+	public InputStream getObject(AmazonS3 s3Client, String bucketName, String key) throws IOException
+	{
+		String cacheKey = bucketName + "/" + key;
+		Entry entry = get(cacheKey);
+		if(entry != null && System.currentTimeMillis() - entry.validatedAt < freshnessTtl)
+		{
+			InputStream content = open(entry);
+			if(content != null)
+				return decode(content, entry.contentEncoding);
+			entry = null;
+		}
+
+		GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, key);
+		if(entry != null)
+			getObjectRequest.withNonmatchingETagConstraint(entry.eTag);
+		long requestedAt = System.currentTimeMillis();
+		S3Object object = s3Client.getObject(getObjectRequest);
+		if(object == null)
+		{
+			//304, the cached file is still current
+			entry.validatedAt = requestedAt;
+			InputStream content = open(entry);
+			if(content != null)
+				return decode(content, entry.contentEncoding);
+			object = s3Client.getObject(new GetObjectRequest(bucketName, key));
+		}
+
+		long length = object.getObjectMetadata().getContentLength();
+		String eTag = object.getObjectMetadata().getETag();
+		String contentEncoding = object.getObjectMetadata().getContentEncoding();
+		if(length > maxEntrySize || eTag == null)
+			return decode(new S3ObjectInputStreamCloser(object.getObjectContent()), contentEncoding);
+
+		InputStream content = store(cacheKey, eTag, contentEncoding, object.getObjectContent(), requestedAt);
+		return decode(content, contentEncoding);
+	}
+
+	private InputStream decode(InputStream content, String contentEncoding) throws IOException
+	{
+		if(!decodeContent)
+			return content;
+		try
+		{
+			return S3CompressingInputStream.decode(content, contentEncoding);
+		}
+		catch(IOException e)
+		{
+			content.close();
+			throw e;
+		}
+	}
+
+	private Entry get(String cacheKey)
+	{
+		lock.lock();
+		try
+		{
+			return entries.get(cacheKey);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Opens the cached file of an entry, returns null when it was removed in the meantime.
+	 */
+	private InputStream open(Entry entry) throws IOException
+	{
+		try
+		{
+			return Channels.newInputStream(FileChannel.open(entry.file, StandardOpenOption.READ));
+		}
+		catch(NoSuchFileException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the content to a file of its own and adds it to the cache, replacing the entry of an older version of the file.
+	 * The file is opened before it is added, so a concurrent download of the same file that replaces or evicts the entry
+	 * cannot remove it before it is read.
+	 */
+	private InputStream store(String cacheKey, String eTag, String contentEncoding, S3ObjectInputStream content, long validatedAt) throws IOException
+	{
+		String fileName = Long.toString(fileCounter.incrementAndGet());
+		Path temp = directory.resolve(fileName + TEMP_SUFFIX);
+		Path file = directory.resolve(fileName + FILE_SUFFIX);
+		long length;
+		try
+		{
+			length = Files.copy(content, temp);
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			content.abort();
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		catch(AmazonClientException e)
+		{
+			Files.deleteIfExists(temp);
+			throw new IOException("failed to read file [" + cacheKey + "] into the download cache", e);
+		}
+		finally
+		{
+			content.close();
+		}
+
+		FileChannel channel;
+		try
+		{
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+		}
+		catch(IOException e)
+		{
+			Files.deleteIfExists(file);
+			throw e;
+		}
+
+		Entry entry = new Entry(eTag, contentEncoding, file, length, validatedAt);
+		lock.lock();
+		try
+		{
+			Entry previous = entries.put(cacheKey, entry);
+			size += length;
+			if(previous != null)
+				remove(previous);
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while(size > maxSize && iterator.hasNext())
+			{
+				Entry eldest = iterator.next().getValue();
+				if(eldest == entry)
+					continue;
+				iterator.remove();
+				remove(eldest);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return Channels.newInputStream(channel);
+	}
+
+	private void remove(Entry entry)
+	{
+		size -= entry.length;
+		try
+		{
+			Files.deleteIfExists(entry.file);
+		}
+		catch(IOException e)
+		{
+			//the file is counted no longer, it is removed when the cache is opened again
+		}
+	}
+
+	/**
+	 * Removes all cached files.
+	 */
+	public void clear()
+	{
+		lock.lock();
+		try
+		{
+			for(Entry entry : entries.values())
+				remove(entry);
+			entries.clear();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of all cached files together.
+	 */
+	public long getSize()
+	{
+		lock.lock();
+		try
+		{
+			return size;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private static class Entry
+	{
+		final String eTag;
+		final String contentEncoding;
+		final Path file;
+		final long length;
+		volatile long validatedAt;
+
+		Entry(String eTag, String contentEncoding, Path file, long length, long validatedAt)
+		{
+			this.eTag = eTag;
+			this.contentEncoding = contentEncoding;
+			this.file = file;
+			this.length = length;
+			this.validatedAt = validatedAt;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+public class S3DownloadCacheTest
+{
+	private static final String BUCKET_NAME = "bucket";
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 50;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private S3DownloadCache createCache(long maxSize, long freshnessTtl) throws IOException
+	{
+		S3DownloadCache cache = new S3DownloadCache(folder.newFolder(), maxSize, maxSize, freshnessTtl);
+		cache.open();
+		return cache;
+	}
+
+	private static String read(InputStream inputStream) throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while((read = inputStream.read(buffer)) != -1)
+			content.write(buffer, 0, read);
+		inputStream.close();
+		return content.toString();
+	}
+
+	private static String download(S3DownloadCache cache, AmazonS3 s3Client, String key) throws IOException
+	{
+		return read(cache.getObject(s3Client, BUCKET_NAME, key));
+	}
+
+	private static long gets(FakeAmazonS3 s3Client)
+	{
+		Long count = s3Client.getRequestCounts().get("GET");
+		return count == null ? 0 : count;
+	}
+
+	@Test
+	public void freshFileIsReturnedWithoutRequest() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "file", "content".getBytes());
+		S3DownloadCache cache = createCache(1024, 60000);
+
+		assertEquals("content", download(cache, s3Client, "file"));
+		assertEquals("content", download(cache, s3Client, "file"));
+		assertEquals(1, gets(s3Client));
+	}
+
+	@Test
+	public void unchangedFileIsRevalidated() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "file", "content".getBytes());
+		S3DownloadCache cache = createCache(1024, 0);
+
+		assertEquals("content", download(cache, s3Client, "file"));
+		assertEquals("content", download(cache, s3Client, "file"));
+		assertEquals(2, gets(s3Client));
+		assertEquals("content".length(), cache.getSize());
+	}
+
+	@Test
+	public void changedFileIsDownloadedAgain() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "file", "content".getBytes());
+		S3DownloadCache cache = createCache(1024, 0);
+
+		assertEquals("content", download(cache, s3Client, "file"));
+		s3Client.addObject(BUCKET_NAME, "file", "changed content".getBytes());
+		assertEquals("changed content", download(cache, s3Client, "file"));
+		assertEquals("changed content".length(), cache.getSize());
+	}
+
+	@Test
+	public void leastRecentlyUsedFileIsEvicted() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "first", "0123456789".getBytes());
+		s3Client.addObject(BUCKET_NAME, "second", "0123456789".getBytes());
+		s3Client.addObject(BUCKET_NAME, "third", "0123456789".getBytes());
+		S3DownloadCache cache = createCache(25, 60000);
+
+		download(cache, s3Client, "first");
+		download(cache, s3Client, "second");
+		download(cache, s3Client, "first");
+		download(cache, s3Client, "third");
+		assertEquals(20, cache.getSize());
+		assertEquals(3, gets(s3Client));
+
+		// second was used least recently and is downloaded again, first is still cached
+		download(cache, s3Client, "first");
+		assertEquals(3, gets(s3Client));
+		download(cache, s3Client, "second");
+		assertEquals(4, gets(s3Client));
+	}
+
+	@Test
+	public void concurrentMissesOfTheSameFileAllSucceed() throws Exception
+	{
+		final CyclicBarrier allMissed = new CyclicBarrier(THREADS);
+		final FakeAmazonS3 s3Client = new FakeAmazonS3()
+		{
+			@Override
+			public S3Object getObject(GetObjectRequest getObjectRequest)
+			{
+				try
+				{
+					// all downloads looked in the cache before any of them stores the file
+					allMissed.await(10, TimeUnit.SECONDS);
+				}
+				catch(Exception e)
+				{
+					throw new SdkClientException("downloads did not run concurrently", e);
+				}
+				return super.getObject(getObjectRequest);
+			}
+		};
+		s3Client.addObject(BUCKET_NAME, "file", "content".getBytes());
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			for(int round = 0; round < ROUNDS; round++)
+			{
+				final S3DownloadCache cache = createCache(1024, 60000);
+				Callable<InputStream> download = new Callable<InputStream>()
+				{
+					@Override
+					public InputStream call() throws Exception
+					{
+						return cache.getObject(s3Client, BUCKET_NAME, "file");
+					}
+				};
+				List<Future<InputStream>> downloads = new ArrayList<Future<InputStream>>();
+				for(int i = 0; i < THREADS; i++)
+					downloads.add(executor.submit(download));
+
+				// every store but the last replaced and removed the file of an earlier one, which stays readable
+				for(Future<InputStream> content : downloads)
+					assertEquals("content", read(content.get(10, TimeUnit.SECONDS)));
+				assertEquals("content".length(), cache.getSize());
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+}
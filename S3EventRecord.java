@@ -0,0 +1,236 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * <p>
+ * A single record of an S3 event notification that was received from SQS. A notification may hold several records, every record is
+ * processed as a message of its own and the SQS message is acknowledged when all its records are processed.
+ * </p>
+ * <p>
+ * Notifications are parsed with a streaming parser that only keeps the fields of a record that are used and skips everything else,
+ * like request parameters and the identity of the requester.
+ * </p>
+ */
+public class S3EventRecord
+{
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	/** Event S3 sends when a notification configuration is set, it has no records. */
+	public static final String TEST_EVENT = "s3:TestEvent";
+
+	private final Message message;
+	private final int index;
+	private final MessageState messageState;
+	private String eventName;
+	private String bucketName;
+	private String key;
+	private long size = -1;
+	private String eTag;
+	private String sequencer;
+
+	private S3EventRecord(Message message, int index, MessageState messageState)
+	{
+		this.message = message;
+		this.index = index;
+		this.messageState = messageState;
+	}
+
+	/**
+	 * Parses the records of the notification in the body of a message. Returns an empty list for the s3:TestEvent S3 sends when a
+	 * notification configuration is set. Any other message without records, like a notification that was wrapped by SNS, is not an
+	 * S3 event notification and throws an IOException.
+	 */
+	public static List<S3EventRecord> parse(Message message) throws IOException
+	{
+		List<S3EventRecord> records = new ArrayList<S3EventRecord>();
+		MessageState messageState = new MessageState();
+		boolean hasRecords = false;
+		String event = null;
+		JsonParser parser = JSON_FACTORY.createParser(message.getBody());
+		try
+		{
+			if(parser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("message [" + message.getMessageId() + "] is not an S3 event notification");
+			while(parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if("Records".equals(field) && value == JsonToken.START_ARRAY)
+				{
+					hasRecords = true;
+					while(parser.nextToken() == JsonToken.START_OBJECT)
+					{
+						S3EventRecord record = new S3EventRecord(message, records.size(), messageState);
+						record.parseRecord(parser);
+						records.add(record);
+					}
+				}
+				else if("Event".equals(field) && value == JsonToken.VALUE_STRING)
+					event = parser.getText();
+				else
+					parser.skipChildren();
+			}
+		}
+		finally
+		{
+			parser.close();
+		}
+		if(!hasRecords && !TEST_EVENT.equals(event))
+			throw new IOException("message [" + message.getMessageId() + "] is not an S3 event notification");
+		messageState.remaining.set(records.size());
+		return records;
+	}
+
+	private void parseRecord(JsonParser parser) throws IOException
+	{
+		while(parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if("eventName".equals(field))
+				eventName = parser.getText();
+			else if("s3".equals(field) && value == JsonToken.START_OBJECT)
+				parseEntity(parser);
+			else
+				parser.skipChildren();
+		}
+	}
+
+	private void parseEntity(JsonParser parser) throws IOException
+	{
+		while(parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if("bucket".equals(field) && value == JsonToken.START_OBJECT)
+			{
+				while(parser.nextToken() == JsonToken.FIELD_NAME)
+				{
+					String bucketField = parser.getCurrentName();
+					parser.nextToken();
+					if("name".equals(bucketField))
+						bucketName = parser.getText();
+					else
+						parser.skipChildren();
+				}
+			}
+			else if("object".equals(field) && value == JsonToken.START_OBJECT)
+			{
+				while(parser.nextToken() == JsonToken.FIELD_NAME)
+				{
+					String objectField = parser.getCurrentName();
+					parser.nextToken();
+					if("key".equals(objectField))
+						key = URLDecoder.decode(parser.getText(), "UTF-8"); //keys are URL encoded in notifications
+					else if("size".equals(objectField))
+						size = parser.getLongValue();
+					else if("eTag".equals(objectField))
+						eTag = parser.getText();
+					else if("sequencer".equals(objectField))
+						sequencer = parser.getText();
+					else
+						parser.skipChildren();
+				}
+			}
+			else
+				parser.skipChildren();
+		}
+	}
+
+	/**
+	 * Registers that this record is processed, returns true when it was the last record of its message to be processed.
+	 */
+	boolean processed(boolean success)
+	{
+		if(!success)
+			messageState.failed = true;
+		return messageState.remaining.decrementAndGet() == 0;
+	}
+
+	/**
+	 * Returns true when a record of the same message was not processed successfully.
+	 */
+	boolean isMessageFailed()
+	{
+		return messageState.failed;
+	}
+
+	public Message getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * Returns an id that is unique for every record, the id of the message followed by the position of the record in it.
+	 */
+	public String getId()
+	{
+		return message.getMessageId() + "#" + index;
+	}
+
+	public String getEventName()
+	{
+		return eventName;
+	}
+
+	public String getBucketName()
+	{
+		return bucketName;
+	}
+
+	public String getKey()
+	{
+		return key;
+	}
+
+	/**
+	 * Returns the size of the file in bytes, or -1 for events without size like ObjectRemoved events.
+	 */
+	public long getSize()
+	{
+		return size;
+	}
+
+	public String getETag()
+	{
+		return eTag;
+	}
+
+	public String getSequencer()
+	{
+		return sequencer;
+	}
+
+	/**
+	 * Processing state shared by the records of one message.
+	 */
+	private static class MessageState
+	{
+		private final AtomicInteger remaining = new AtomicInteger();
+		private volatile boolean failed = false;
+	}
+}
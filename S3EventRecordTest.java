@@ -0,0 +1,85 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.amazonaws.services.sqs.model.Message;
+
+public class S3EventRecordTest
+{
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	private static Message message(String body)
+	{
+		return new Message().withMessageId("message-1").withReceiptHandle("receipt-1").withBody(body);
+	}
+
+	private static String record(String eventName, String key, long size)
+	{
+		return "{\"eventVersion\":\"2.1\",\"eventSource\":\"aws:s3\",\"eventName\":\"" + eventName + "\","
+				+ "\"requestParameters\":{\"sourceIPAddress\":\"127.0.0.1\"},"
+				+ "\"s3\":{\"s3SchemaVersion\":\"1.0\",\"bucket\":{\"name\":\"bucket\",\"arn\":\"arn:aws:s3:::bucket\"},"
+				+ "\"object\":{\"key\":\"" + key + "\",\"size\":" + size + ",\"eTag\":\"etag-" + size + "\",\"sequencer\":\"00" + size + "\"}}}";
+	}
+
+	@Test
+	public void everyRecordIsParsed() throws IOException
+	{
+		List<S3EventRecord> records = S3EventRecord.parse(message("{\"Records\":[" + record("ObjectCreated:Put", "first", 1) + "," + record("ObjectCreated:Copy", "second", 2) + "]}"));
+
+		assertEquals(2, records.size());
+		assertEquals("message-1#0", records.get(0).getId());
+		assertEquals("ObjectCreated:Put", records.get(0).getEventName());
+		assertEquals("bucket", records.get(0).getBucketName());
+		assertEquals("first", records.get(0).getKey());
+		assertEquals(1, records.get(0).getSize());
+		assertEquals("etag-1", records.get(0).getETag());
+		assertEquals("001", records.get(0).getSequencer());
+		assertEquals("message-1#1", records.get(1).getId());
+		assertEquals("second", records.get(1).getKey());
+		// the message is acknowledged when the last of its records is processed
+		assertFalse(records.get(0).processed(true));
+		assertTrue(records.get(1).processed(true));
+	}
+
+	@Test
+	public void keyIsUrlDecoded() throws IOException
+	{
+		List<S3EventRecord> records = S3EventRecord.parse(message("{\"Records\":[" + record("ObjectCreated:Put", "reports/2019+Q1/sum%C3%A9+%2B+total.csv", 3) + "]}"));
+
+		assertEquals("reports/2019 Q1/sumé + total.csv", records.get(0).getKey());
+	}
+
+	@Test
+	public void testEventHasNoRecords() throws IOException
+	{
+		List<S3EventRecord> records = S3EventRecord.parse(message("{\"Service\":\"Amazon S3\",\"Event\":\"s3:TestEvent\",\"Time\":\"2019-01-01T00:00:00.000Z\",\"Bucket\":\"bucket\"}"));
+
+		assertTrue(records.isEmpty());
+	}
+
+	@Test
+	public void notificationWrappedBySnsIsRefused() throws IOException
+	{
+		exception.expect(IOException.class);
+
+		S3EventRecord.parse(message("{\"Type\":\"Notification\",\"MessageId\":\"id\",\"Message\":\"{\\\"Records\\\":[]}\"}"));
+	}
+
+	@Test
+	public void foreignMessageIsRefused() throws IOException
+	{
+		exception.expect(IOException.class);
+
+		S3EventRecord.parse(message("{\"orderId\":42}"));
+	}
+}
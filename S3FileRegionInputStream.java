@@ -0,0 +1,99 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * InputStream of a region of a file that reads at absolute positions of a FileChannel, so several regions of one channel can be read at the
+ * same time, for instance the parts of a multipart upload. Mark and reset only move the position, so the SDK can retry a request by rereading
+ * the region from disk instead of buffering it in memory. Closing the stream does not close the channel.
+ * </p>
+ */
+public class S3FileRegionInputStream extends InputStream
+{
+	private final FileChannel channel;
+	private final long start;
+	private final long end;
+	private long position;
+	private long mark;
+
+	public S3FileRegionInputStream(FileChannel channel, long start, long length)
+	{
+		this.channel = channel;
+		this.start = start;
+		this.end = start + length;
+		this.position = start;
+		this.mark = start;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len == 0)
+			return 0;
+		if(position >= end)
+			return -1;
+		int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+		if(read == -1)
+			throw new IOException("file ends at [" + position + "] before the end of region [" + start + "-" + end + "], it was truncated during the upload");
+		position += read;
+		return read;
+	}
+
+	@Override
+	public long skip(long n)
+	{
+		long skipped = Math.max(0, Math.min(n, end - position));
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available()
+	{
+		return (int) Math.min(Integer.MAX_VALUE, end - position);
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit)
+	{
+		mark = position;
+	}
+
+	@Override
+	public void reset()
+	{
+		position = mark;
+	}
+}
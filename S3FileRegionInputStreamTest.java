@@ -0,0 +1,109 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class S3FileRegionInputStreamTest
+{
+	private static final byte[] CONTENT = "0123456789abcdefghij".getBytes();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	private FileChannel channel;
+
+	@Before
+	public void open() throws IOException
+	{
+		File file = folder.newFile();
+		Files.write(file.toPath(), CONTENT);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	@After
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[3];
+		int read;
+		while((read = inputStream.read(buffer)) != -1)
+			content.write(buffer, 0, read);
+		return content.toByteArray();
+	}
+
+	@Test
+	public void regionIsReadFromItsOffset() throws IOException
+	{
+		S3FileRegionInputStream region = new S3FileRegionInputStream(channel, 5, 10);
+
+		assertEquals(10, region.available());
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 5, 15), readFully(region));
+		assertEquals(0, region.available());
+		assertEquals(-1, region.read());
+	}
+
+	@Test
+	public void resetRereadsTheRegionFromTheMark() throws IOException
+	{
+		S3FileRegionInputStream region = new S3FileRegionInputStream(channel, 5, 10);
+		assertTrue(region.markSupported());
+
+		// the SDK marks the start of the content and resets to it when it retries a request
+		region.mark(Integer.MAX_VALUE);
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 5, 15), readFully(region));
+		region.reset();
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 5, 15), readFully(region));
+
+		region.reset();
+		assertEquals(4, region.skip(4));
+		region.mark(Integer.MAX_VALUE);
+		assertEquals(CONTENT[9], region.read());
+		region.reset();
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 9, 15), readFully(region));
+	}
+
+	@Test
+	public void regionsOfOneChannelAreReadIndependently() throws IOException
+	{
+		S3FileRegionInputStream first = new S3FileRegionInputStream(channel, 0, 10);
+		S3FileRegionInputStream second = new S3FileRegionInputStream(channel, 10, 10);
+
+		assertEquals(CONTENT[10], second.read());
+		assertEquals(CONTENT[0], first.read());
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 11, 20), readFully(second));
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 1, 10), readFully(first));
+	}
+
+	@Test
+	public void truncatedFileFailsTheRead() throws IOException
+	{
+		exception.expect(IOException.class);
+
+		readFully(new S3FileRegionInputStream(channel, 15, 10));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Lock-free histogram of latencies in microseconds, recording takes a few atomic increments so it can be used on every request.
+ * Values are counted in buckets of which the width grows with the value: every power of two is split into {@value #SUB_BUCKETS} linear
+ * sub-buckets, so a percentile is reported within about 6% of the actual value, like a high dynamic range histogram with one
+ * significant digit. Snapshots are taken without stopping the recording threads, so they may be off by the values recorded meanwhile.
+ * </p>
+ */
+public class S3LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long micros)
+	{
+		long value = Math.max(0, micros);
+		buckets.incrementAndGet(bucketIndex(value));
+		total.addAndGet(value);
+		long currentMax;
+		while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value))
+			;
+	}
+
+	/**
+	 * Values below {@value #SUB_BUCKETS} get a bucket each, larger values share a bucket with the values that have the same highest
+	 * {@value #SUB_BUCKET_BITS} + 1 bits.
+	 */
+	private static int bucketIndex(long value)
+	{
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * Returns the highest value that falls in a bucket.
+	 */
+	private static long bucketUpperBound(int index)
+	{
+		if(index < SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = ((long) (index % SUB_BUCKETS + SUB_BUCKETS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public S3LatencySnapshot snapshot()
+	{
+		long[] counts = new long[buckets.length()];
+		long recorded = 0;
+		for(int i = 0; i < counts.length; i++)
+		{
+			counts[i] = buckets.get(i);
+			recorded += counts[i];
+		}
+		long sum = total.get();
+		long highest = max.get();
+		return new S3LatencySnapshot(recorded, recorded == 0 ? 0 : sum / recorded,
+				percentile(counts, recorded, 0.5, highest), percentile(counts, recorded, 0.9, highest),
+				percentile(counts, recorded, 0.99, highest), percentile(counts, recorded, 0.999, highest), highest);
+	}
+
+	private static long percentile(long[] counts, long recorded, double fraction, long highest)
+	{
+		if(recorded == 0)
+			return 0;
+		long rank = (long) Math.ceil(recorded * fraction);
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(bucketUpperBound(i), highest);
+		}
+		return highest;
+	}
+
+	public void reset()
+	{
+		for(int i = 0; i < buckets.length(); i++)
+			buckets.set(i, 0);
+		total.set(0);
+		max.set(0);
+	}
+}
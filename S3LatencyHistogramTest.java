@@ -0,0 +1,79 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class S3LatencyHistogramTest
+{
+	@Test
+	public void emptyHistogram()
+	{
+		S3LatencySnapshot snapshot = new S3LatencyHistogram().snapshot();
+
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMean());
+		assertEquals(0, snapshot.getP99());
+		assertEquals(0, snapshot.getMax());
+	}
+
+	@Test
+	public void smallValuesAreExact()
+	{
+		S3LatencyHistogram histogram = new S3LatencyHistogram();
+		for(long value = 0; value < S3LatencyHistogram.SUB_BUCKETS; value++)
+			histogram.record(value);
+		histogram.record(-5);
+		S3LatencySnapshot snapshot = histogram.snapshot();
+
+		assertEquals(S3LatencyHistogram.SUB_BUCKETS + 1, snapshot.getCount());
+		assertEquals(7, snapshot.getP50());
+		assertEquals(15, snapshot.getP99());
+		assertEquals(15, snapshot.getMax());
+	}
+
+	@Test
+	public void percentilesAreTheUpperBoundOfTheirBucket()
+	{
+		S3LatencyHistogram histogram = new S3LatencyHistogram();
+		for(long value = 1; value <= 1000; value++)
+			histogram.record(value);
+		S3LatencySnapshot snapshot = histogram.snapshot();
+
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500, snapshot.getMean());
+		// 500 falls in the bucket of 496 to 511, 900 in 896 to 927 and 990 in 960 to 991
+		assertEquals(511, snapshot.getP50());
+		assertEquals(927, snapshot.getP90());
+		assertEquals(991, snapshot.getP99());
+		// the bucket of 999 reaches up to 1023, but no value above the maximum is reported
+		assertEquals(1000, snapshot.getP999());
+		assertEquals(1000, snapshot.getMax());
+	}
+
+	@Test
+	public void largeValuesStayWithinThePrecision()
+	{
+		for(long value = 17; value < Long.MAX_VALUE / 3; value = value * 3 + 1)
+		{
+			S3LatencyHistogram histogram = new S3LatencyHistogram();
+			histogram.record(value);
+			histogram.record(value + 1);
+			long p50 = histogram.snapshot().getP50();
+			assertTrue("p50 [" + p50 + "] of [" + value + "]", p50 >= value && p50 - value <= value / S3LatencyHistogram.SUB_BUCKETS);
+		}
+	}
+
+	@Test
+	public void resetClearsAllValues()
+	{
+		S3LatencyHistogram histogram = new S3LatencyHistogram();
+		histogram.record(12345);
+		histogram.reset();
+		S3LatencySnapshot snapshot = histogram.snapshot();
+
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMax());
+	}
+}
@@ -0,0 +1,109 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * <p>
+ * InputStream of a file in S3 that is only requested when it is read for the first time, so a message can refer to the content of a
+ * file without downloading it when the content is not used. When an ETag is given the file is only returned when it did not change.
+ * </p>
+ */
+public class S3LazyInputStream extends InputStream
+{
+	private final AmazonS3 s3Client;
+	private final String bucketName;
+	private final String key;
+	private final String eTag;
+	private InputStream content;
+	private boolean closed = false;
+
+	/**
+	 * @param eTag
+	 *            ETag the file must still have when it is read, null to read whatever version is current.
+	 */
+	public S3LazyInputStream(AmazonS3 s3Client, String bucketName, String key, String eTag)
+	{
+		this.s3Client = s3Client;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.eTag = eTag;
+	}
+
+	private InputStream getContent() throws IOException
+	{
+		if(closed)
+			throw new IOException("stream of file [" + key + "] in bucket [" + bucketName + "] is closed");
+		if(content == null)
+		{
+			GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, key);
+			if(eTag != null)
+				getObjectRequest.withMatchingETagConstraint(eTag);
+			S3Object object;
+			try
+			{
+				object = s3Client.getObject(getObjectRequest);
+			}
+			catch(AmazonClientException e)
+			{
+				throw new IOException("failed to get file [" + key + "] from bucket [" + bucketName + "]", e);
+			}
+			if(object == null)
+				throw new IOException("file [" + key + "] in bucket [" + bucketName + "] no longer has ETag [" + eTag + "]");
+			content = new S3ObjectInputStreamCloser(object.getObjectContent());
+		}
+		return content;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		return getContent().read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		return getContent().read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		return getContent().skip(n);
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return content == null ? 0 : content.available();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+		if(content != null)
+			content.close();
+	}
+}
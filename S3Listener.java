@@ -15,101 +15,387 @@
 */
 package nl.nn.adapterframework.receivers;
 
-import java.util.List;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.internal.BucketNameUtils;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPullingListener;
 import nl.nn.adapterframework.core.ListenerException;
 import nl.nn.adapterframework.core.PipeLineResult;
-import nl.nn.adapterframework.senders.S3Sender;
+import nl.nn.adapterframework.senders.S3ClientRegistry;
+import nl.nn.adapterframework.senders.S3LazyInputStream;
+import nl.nn.adapterframework.util.LogUtil;
 
+/**
+ * <p>
+ * Pulling listener that delivers the files that are added to a S3 bucket. The bucket is listed in key order with a StartAfter watermark,
+ * so every listing only returns files that were not seen before. This works for files of which the names increase, like names that start
+ * with a timestamp or a sequence number. The watermark is the name of the last file that was processed, files that are still being
+ * processed are never skipped. It is stored in watermarkFile, so a restart continues where the listener stopped instead of listing the bucket from the start.
+ * </p>
+ * <p>
+ * The message is the name of the file. Its content is not downloaded, an InputStream that requests the file when it is read
+ * for the first time is stored in contentSessionKey. The bucket, name, size and ETag of the file are stored in the session keys
+ * s3BucketName, s3Key, s3Size and s3ETag.
+ * </p>
+ *
+ * <p><b>Configuration:</b>
+ * <table border="1">
+ * <tr><th>attributes</th><th>description</th><th>default</th></tr>
+ * <tr><td>{@link #setName(String) name}</td><td>name of the listener</td><td></td></tr>
+ * <tr><td>{@link #setClientRegion(String) clientRegion}</td><td>Region of the bucket.</td><td>"eu-west-1"</td></tr>
+ * <tr><td>{@link #setBucketName(String) bucketName}</td><td>Name of the bucket that is listened to.</td><td></td></tr>
+ * <tr><td>{@link #setPrefix(String) prefix}</td><td>Only files of which the name starts with the prefix are delivered.</td><td></td></tr>
+ * <tr><td>{@link #setWatermarkFile(String) watermarkFile}</td><td>Local file in which the name of the last processed file is kept. Without it the bucket is listed from the start after every restart.</td><td></td></tr>
+ * <tr><td>{@link #setPollInterval(long) pollInterval}</td><td>Minimum number of milliseconds between two listings that found no new files.</td><td>10000</td></tr>
+ * <tr><td>{@link #setContentSessionKey(String) contentSessionKey}</td><td>Session key in which the InputStream of the content of the file is stored.</td><td>s3Content</td></tr>
+ * </table>
+ * </p>
+ */
 public class S3Listener implements IPullingListener
 {
-	private AmazonS3ClientBuilder s3ClientBuilder;
+	public static final String BUCKET_NAME_SESSION_KEY = "s3BucketName";
+	public static final String KEY_SESSION_KEY = "s3Key";
+	public static final String SIZE_SESSION_KEY = "s3Size";
+	public static final String ETAG_SESSION_KEY = "s3ETag";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long WATERMARK_FLUSH_INTERVAL = 1000;
+
+	protected Logger log = LogUtil.getLogger(this);
+
 	private AmazonS3 s3Client;
-	//private List<String> availableRegions = S3Sender.getAvailableRegions();
-	
+	private String name;
+	private String clientRegion = "eu-west-1";
+	private String bucketName;
+	private String prefix;
+	private String watermarkFile;
+	private long pollInterval = 10000;
+	private String contentSessionKey = "s3Content";
+
+	private final Queue<S3ObjectSummary> listed = new ConcurrentLinkedQueue<S3ObjectSummary>();
+	// files that are listed and not passed by the watermark yet, in key order, mapped to whether they are processed
+	private final ConcurrentNavigableMap<String, Boolean> inProcess = new ConcurrentSkipListMap<String, Boolean>();
+	private final Lock listingLock = new ReentrantLock();
+	private final Lock watermarkLock = new ReentrantLock();
+	private volatile String listedUntil;
+	private volatile long nextListing = 0;
+	private String watermark;
+	private String persistedWatermark;
+	private long watermarkPersistedAt = 0;
+
 	@Override
 	public void configure() throws ConfigurationException
 	{
-		// TODO Auto-generated method stub
-		
+		if(StringUtils.isEmpty(getClientRegion()) || !SQSFacade.AVAILABLE_REGIONS.contains(getClientRegion()))
+			throw new ConfigurationException(getLogPrefix() + " invalid region [" + getClientRegion() + "] please use following supported regions " + SQSFacade.AVAILABLE_REGIONS.toString());
+
+		if(StringUtils.isEmpty(getBucketName()) || !BucketNameUtils.isValidV2BucketName(getBucketName()))
+			throw new ConfigurationException(getLogPrefix() + " invalid bucketName [" + getBucketName() + "] visit AWS to see correct bucket naming");
+
+		if(StringUtils.isEmpty(getContentSessionKey()) || getPollInterval() < 0)
+			throw new ConfigurationException(getLogPrefix() + " invalid contentSessionKey [" + getContentSessionKey() + "] or pollInterval [" + getPollInterval() + "] a session key is required and the interval cannot be negative");
 	}
 
 	@Override
 	public void open() throws ListenerException
 	{
-		// TODO Auto-generated method stub
-		
+		s3Client = createS3Client();
+		watermark = readWatermark();
+		persistedWatermark = watermark;
+		listedUntil = watermark;
+		if(watermark != null)
+			log.info(getLogPrefix() + "continuing after file [" + watermark + "]");
+	}
+
+	/**
+	 * Returns the client the bucket is listed with, shared with the senders and listeners in the same region with default client settings.
+	 */
+	protected AmazonS3 createS3Client()
+	{
+		S3ClientRegistry.Options options = new S3ClientRegistry.Options(getClientRegion(), false, false, false, ClientConfiguration.DEFAULT_MAX_CONNECTIONS,
+				ClientConfiguration.DEFAULT_CONNECTION_TTL, ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT, ClientConfiguration.DEFAULT_SOCKET_TIMEOUT,
+				ClientConfiguration.DEFAULT_REQUEST_TIMEOUT, ClientConfiguration.DEFAULT_TCP_KEEP_ALIVE, false, false);
+		return S3ClientRegistry.getInstance().acquire(options);
 	}
 
 	@Override
 	public Map<String, Object> openThread() throws ListenerException
 	{
-		// TODO Auto-generated method stub
 		return null;
 	}
 
 	@Override
 	public void close() throws ListenerException
 	{
-		// TODO Auto-generated method stub
-		
+		watermarkLock.lock();
+		try
+		{
+			persistWatermark();
+		}
+		finally
+		{
+			watermarkLock.unlock();
+		}
+		listed.clear();
+		inProcess.clear();
+		if(!S3ClientRegistry.getInstance().release(s3Client))
+			s3Client.shutdown();
 	}
 
 	@Override
 	public void closeThread(Map<String, Object> threadContext) throws ListenerException
 	{
-		// TODO Auto-generated method stub
-		
 	}
 
+	/**
+	 * Returns the {@link S3ObjectSummary} of the next new file, listing the next page of the bucket when all listed files are handed out.
+	 * Only one thread lists at a time, the others return null.
+	 */
 	@Override
 	public Object getRawMessage(Map<String, Object> threadContext) throws ListenerException
 	{
-		// TODO Auto-generated method stub
-		return null;
+		S3ObjectSummary summary = listed.poll();
+		if(summary == null && System.currentTimeMillis() >= nextListing && listingLock.tryLock())
+		{
+			try
+			{
+				if(listed.isEmpty())
+					listNextPage();
+			}
+			finally
+			{
+				listingLock.unlock();
+			}
+			summary = listed.poll();
+		}
+		return summary;
+	}
+
+	private void listNextPage() throws ListenerException
+	{
+		ListObjectsV2Request listRequest = new ListObjectsV2Request()
+				.withBucketName(getBucketName())
+				.withPrefix(getPrefix())
+				.withStartAfter(listedUntil);
+		ListObjectsV2Result listing;
+		try
+		{
+			listing = s3Client.listObjectsV2(listRequest);
+		}
+		catch(AmazonClientException e)
+		{
+			nextListing = System.currentTimeMillis() + getPollInterval();
+			throw new ListenerException(getLogPrefix() + "failed to list bucket [" + getBucketName() + "]", e);
+		}
+		for(S3ObjectSummary summary : listing.getObjectSummaries())
+		{
+			//registered before any thread can poll it, so the watermark cannot pass a file that was handed out but not yet processed
+			inProcess.put(summary.getKey(), Boolean.FALSE);
+			listed.offer(summary);
+			listedUntil = summary.getKey();
+		}
+		if(listing.getObjectSummaries().isEmpty())
+			nextListing = System.currentTimeMillis() + getPollInterval();
+		if(log.isDebugEnabled()) log.debug(getLogPrefix() + "listed [" + listing.getObjectSummaries().size() + "] new files after [" + listRequest.getStartAfter() + "]");
 	}
 
 	@Override
 	public String getIdFromRawMessage(Object rawMessage, Map<String, Object> context) throws ListenerException
 	{
-		// TODO Auto-generated method stub
-		return null;
+		S3ObjectSummary summary = (S3ObjectSummary) rawMessage;
+		return summary.getBucketName() + "/" + summary.getKey() + "@" + summary.getETag();
 	}
 
 	@Override
 	public String getStringFromRawMessage(Object rawMessage, Map<String, Object> context) throws ListenerException
 	{
-		// TODO Auto-generated method stub
-		return null;
+		S3ObjectSummary summary = (S3ObjectSummary) rawMessage;
+		if(context != null)
+		{
+			context.put(BUCKET_NAME_SESSION_KEY, summary.getBucketName());
+			context.put(KEY_SESSION_KEY, summary.getKey());
+			context.put(SIZE_SESSION_KEY, String.valueOf(summary.getSize()));
+			context.put(ETAG_SESSION_KEY, summary.getETag());
+			context.put(getContentSessionKey(), new S3LazyInputStream(s3Client, summary.getBucketName(), summary.getKey(), summary.getETag()));
+		}
+		return summary.getKey();
 	}
 
+	/**
+	 * Moves the watermark past every file that is processed and not preceded by a file that is still being processed.
+	 * A file that failed is not delivered again by this listener, the receiver handles it like any other failed message.
+	 */
 	@Override
 	public void afterMessageProcessed(PipeLineResult processResult, Object rawMessage, Map<String, Object> context)
 			throws ListenerException
 	{
-		// TODO Auto-generated method stub
-		
+		S3ObjectSummary summary = (S3ObjectSummary) rawMessage;
+		inProcess.put(summary.getKey(), Boolean.TRUE);
+
+		watermarkLock.lock();
+		try
+		{
+			Map.Entry<String, Boolean> first;
+			while((first = inProcess.firstEntry()) != null && first.getValue())
+			{
+				watermark = first.getKey();
+				inProcess.remove(first.getKey());
+			}
+			if(System.currentTimeMillis() - watermarkPersistedAt >= WATERMARK_FLUSH_INTERVAL)
+				persistWatermark();
+		}
+		finally
+		{
+			watermarkLock.unlock();
+		}
+	}
+
+	private String readWatermark() throws ListenerException
+	{
+		if(StringUtils.isEmpty(getWatermarkFile()))
+			return null;
+		File file = new File(getWatermarkFile());
+		if(!file.exists())
+			return null;
+		try
+		{
+			String value = new String(Files.readAllBytes(file.toPath()), UTF8);
+			return value.isEmpty() ? null : value;
+		}
+		catch(IOException e)
+		{
+			throw new ListenerException(getLogPrefix() + "cannot read watermarkFile [" + getWatermarkFile() + "]", e);
+		}
+	}
+
+	/**
+	 * Writes the watermark to a temporary file that replaces watermarkFile, so a crash never leaves a partial watermark behind.
+	 */
+	private void persistWatermark()
+	{
+		if(StringUtils.isEmpty(getWatermarkFile()) || watermark == null || watermark.equals(persistedWatermark))
+			return;
+		File file = new File(getWatermarkFile());
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		try
+		{
+			OutputStream out = new FileOutputStream(temporaryFile);
+			try
+			{
+				out.write(watermark.getBytes(UTF8));
+			}
+			finally
+			{
+				out.close();
+			}
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			persistedWatermark = watermark;
+			watermarkPersistedAt = System.currentTimeMillis();
+		}
+		catch(IOException e)
+		{
+			log.warn(getLogPrefix() + "cannot write watermark [" + watermark + "] to watermarkFile [" + getWatermarkFile() + "]", e);
+		}
+	}
+
+	protected String getLogPrefix()
+	{
+		return "[" + this.getClass().getName() + "] [" + getName() + "] ";
 	}
 
-	
 	@Override
 	public String getName()
 	{
-		// TODO Auto-generated method stub
-		return null;
+		return name;
 	}
 
 	@Override
 	public void setName(String name)
 	{
-		// TODO Auto-generated method stub
-		
+		this.name = name;
+	}
+
+	public String getClientRegion()
+	{
+		return clientRegion;
+	}
+
+	public void setClientRegion(String clientRegion)
+	{
+		this.clientRegion = clientRegion;
+	}
+
+	public String getBucketName()
+	{
+		return bucketName;
+	}
+
+	public void setBucketName(String bucketName)
+	{
+		this.bucketName = bucketName;
+	}
+
+	public String getPrefix()
+	{
+		return prefix;
+	}
+
+	public void setPrefix(String prefix)
+	{
+		this.prefix = prefix;
+	}
+
+	public String getWatermarkFile()
+	{
+		return watermarkFile;
+	}
+
+	public void setWatermarkFile(String watermarkFile)
+	{
+		this.watermarkFile = watermarkFile;
+	}
+
+	public long getPollInterval()
+	{
+		return pollInterval;
+	}
+
+	public void setPollInterval(long pollInterval)
+	{
+		this.pollInterval = pollInterval;
+	}
+
+	public String getContentSessionKey()
+	{
+		return contentSessionKey;
+	}
+
+	public void setContentSessionKey(String contentSessionKey)
+	{
+		this.contentSessionKey = contentSessionKey;
 	}
-	
-}
\ No newline at end of file
+}
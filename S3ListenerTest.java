@@ -0,0 +1,144 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.senders.FakeAmazonS3;
+
+public class S3ListenerTest
+{
+	private static final String BUCKET_NAME = "bucket";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private S3Listener createListener(final FakeAmazonS3 s3Client, File watermarkFile, long pollInterval) throws ConfigurationException, ListenerException
+	{
+		S3Listener listener = new S3Listener()
+		{
+			@Override
+			protected AmazonS3 createS3Client()
+			{
+				return s3Client;
+			}
+		};
+		listener.setName("s3");
+		listener.setBucketName(BUCKET_NAME);
+		if(watermarkFile != null)
+			listener.setWatermarkFile(watermarkFile.getPath());
+		listener.setPollInterval(pollInterval);
+		listener.configure();
+		listener.open();
+		return listener;
+	}
+
+	private static S3ObjectSummary next(S3Listener listener) throws ListenerException
+	{
+		return (S3ObjectSummary) listener.getRawMessage(null);
+	}
+
+	private static void processed(S3Listener listener, S3ObjectSummary summary) throws ListenerException
+	{
+		listener.afterMessageProcessed(null, summary, null);
+	}
+
+	private static String read(File watermarkFile) throws IOException
+	{
+		return new String(Files.readAllBytes(watermarkFile.toPath()), "UTF-8");
+	}
+
+	private static long lists(FakeAmazonS3 s3Client)
+	{
+		Long count = s3Client.getRequestCounts().get("LIST");
+		return count == null ? 0 : count;
+	}
+
+	@Test
+	public void watermarkDoesNotPassAFileThatIsStillBeingProcessed() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "1", new byte[1]);
+		s3Client.addObject(BUCKET_NAME, "2", new byte[1]);
+		s3Client.addObject(BUCKET_NAME, "3", new byte[1]);
+		File watermarkFile = new File(folder.getRoot(), "watermark");
+		S3Listener listener = createListener(s3Client, watermarkFile, 0);
+		S3ObjectSummary first = next(listener);
+		S3ObjectSummary second = next(listener);
+		S3ObjectSummary third = next(listener);
+		assertEquals("3", third.getKey());
+
+		// the last file finishes first, the watermark stays before the second file until that one is done
+		processed(listener, third);
+		processed(listener, first);
+		listener.close();
+		assertEquals("1", read(watermarkFile));
+
+		// after a restart the file that was still being processed is listed again
+		listener = createListener(s3Client, watermarkFile, 0);
+		second = next(listener);
+		assertEquals("2", second.getKey());
+		third = next(listener);
+		processed(listener, second);
+		processed(listener, third);
+		listener.close();
+		assertEquals("3", read(watermarkFile));
+	}
+
+	@Test
+	public void watermarkIsRestoredWhenTheListenerIsOpenedAgain() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "1", new byte[1]);
+		s3Client.addObject(BUCKET_NAME, "2", new byte[1]);
+		File watermarkFile = new File(folder.getRoot(), "watermark");
+		S3Listener listener = createListener(s3Client, watermarkFile, 0);
+		processed(listener, next(listener));
+		processed(listener, next(listener));
+		listener.close();
+		assertEquals("2", read(watermarkFile));
+
+		s3Client.addObject(BUCKET_NAME, "3", new byte[1]);
+		listener = createListener(s3Client, watermarkFile, 0);
+		S3ObjectSummary summary = next(listener);
+		assertEquals("3", summary.getKey());
+		assertNull(next(listener));
+		processed(listener, summary);
+		listener.close();
+		assertEquals("3", read(watermarkFile));
+	}
+
+	@Test
+	public void emptyListingIsNotRepeatedWithinThePollInterval() throws Exception
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket(BUCKET_NAME);
+		S3Listener listener = createListener(s3Client, null, 60000);
+		assertNull(next(listener));
+		s3Client.addObject(BUCKET_NAME, "1", new byte[1]);
+		assertNull(next(listener));
+		listener.close();
+		assertEquals(1, lists(s3Client));
+
+		s3Client.resetRequestCounts();
+		listener = createListener(s3Client, null, 0);
+		assertEquals("1", next(listener).getKey());
+		assertNull(next(listener));
+		assertNull(next(listener));
+		listener.close();
+		// the listing that found the file, and one for every empty listing after it
+		assertEquals(3, lists(s3Client));
+	}
+}
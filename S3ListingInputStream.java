@@ -0,0 +1,266 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * <p>
+ * This class is used for the list action. It returns the keys in a bucket one per line, UTF-8 encoded, and lists the next page of
+ * at most 1000 keys only when the pages before it are (almost) read, so a listing is never held in memory as a whole.
+ * </p>
+ * <p>
+ * In parallel mode the keyspace below the prefix is split on the delimiter: the keys directly below the prefix and the keys of every
+ * common prefix are listed as separate partitions, of which up to concurrency are listed at the same time. Pages are returned in the order
+ * they were listed, whichever partition they come from, so keys are only sorted within a partition. Every partition holds at most
+ * {@link #PAGES_AHEAD} pages that have not been read yet, a slow partition does not hold up the others.
+ * </p>
+ */
+public class S3ListingInputStream extends InputStream
+{
+	/** Number of pages a partition lists ahead of the reader. */
+	public static final int PAGES_AHEAD = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final AmazonS3 s3Client;
+	private final ExecutorService executor;
+	private final String bucketName;
+	private final String delimiter;
+	private final int concurrency;
+
+	private final List<Partition> partitions = new ArrayList<Partition>();
+	private final BlockingQueue<String> pendingPrefixes = new LinkedBlockingQueue<String>();
+	private final BlockingQueue<Page> listedPages = new LinkedBlockingQueue<Page>();
+	private byte[] page;
+	private int position;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param prefix
+	 *            Only keys that start with the prefix are listed, may be null to list the whole bucket.
+	 * @param delimiter
+	 *            When not null the keyspace is split on the delimiter and common prefixes are listed in parallel.
+	 * @param concurrency
+	 *            Maximum number of partitions that are listed at the same time.
+	 */
+	public S3ListingInputStream(AmazonS3 s3Client, ExecutorService executor, String bucketName, String prefix, String delimiter, int concurrency)
+	{
+		this.s3Client = s3Client;
+		this.executor = executor;
+		this.bucketName = bucketName;
+		this.delimiter = delimiter;
+		this.concurrency = concurrency;
+		start(new Partition(prefix, delimiter != null));
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if(!nextPage())
+			return -1;
+		return page[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len == 0)
+			return 0;
+		if(!nextPage())
+			return -1;
+		int count = Math.min(len, page.length - position);
+		System.arraycopy(page, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		return page == null ? 0 : page.length - position;
+	}
+
+	@Override
+	public void close()
+	{
+		if(closed)
+			return;
+		closed = true;
+		for(Partition partition : partitions)
+			partition.future.cancel(true);
+		partitions.clear();
+		page = null;
+	}
+
+	private void start(Partition partition)
+	{
+		partitions.add(partition);
+		partition.future = executor.submit(partition);
+	}
+
+	/**
+	 * Makes sure there are unread bytes in the current page, returns false when all keys are read.
+	 */
+	private boolean nextPage() throws IOException
+	{
+		if(closed)
+			throw new IOException("listing of bucket [" + bucketName + "] is closed");
+		while(page == null || position >= page.length)
+		{
+			String prefix;
+			while(partitions.size() < concurrency && (prefix = pendingPrefixes.poll()) != null)
+				start(new Partition(prefix, false));
+
+			if(partitions.isEmpty())
+			{
+				close();
+				return false;
+			}
+			Page next;
+			try
+			{
+				next = listedPages.take();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				close();
+				throw new IOException("interrupted while listing bucket [" + bucketName + "]", e);
+			}
+			if(next.failure != null)
+			{
+				close();
+				throw new IOException("failed to list bucket [" + bucketName + "]", next.failure);
+			}
+			if(next.keys == null)
+				partitions.remove(next.partition);
+			else
+			{
+				next.partition.pagesAhead.release();
+				page = toLines(next.keys);
+				position = 0;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] toLines(List<String> keys)
+	{
+		StringBuilder lines = new StringBuilder(keys.size() * 64);
+		for(String key : keys)
+			lines.append(key).append('\n');
+		return lines.toString().getBytes(UTF8);
+	}
+
+	/**
+	 * A page of keys listed by a partition, or the end of a partition when keys is null.
+	 */
+	private static class Page
+	{
+		private final Partition partition;
+		private final List<String> keys;
+		private final Throwable failure;
+
+		Page(Partition partition, List<String> keys, Throwable failure)
+		{
+			this.partition = partition;
+			this.keys = keys;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Lists all keys below a prefix into the pages shared by all partitions, waiting while {@link #PAGES_AHEAD} of its pages have not been read.
+	 * A partition that splits the keyspace lists with the delimiter, and hands the common prefixes it finds to the reader before it ends.
+	 */
+	private class Partition implements Runnable
+	{
+		private final String prefix;
+		private final boolean split;
+		private final Semaphore pagesAhead = new Semaphore(PAGES_AHEAD);
+		private Future<?> future;
+
+		Partition(String prefix, boolean split)
+		{
+			this.prefix = prefix;
+			this.split = split;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				try
+				{
+					ListObjectsV2Request listRequest = new ListObjectsV2Request()
+							.withBucketName(bucketName)
+							.withPrefix(prefix);
+					if(split)
+						listRequest.setDelimiter(delimiter);
+					ListObjectsV2Result listing;
+					do
+					{
+						listing = s3Client.listObjectsV2(listRequest);
+						if(split)
+							pendingPrefixes.addAll(listing.getCommonPrefixes());
+						List<String> keys = new ArrayList<String>(listing.getObjectSummaries().size());
+						for(S3ObjectSummary summary : listing.getObjectSummaries())
+							keys.add(summary.getKey());
+						//a page with only common prefixes is handed over as well, so the reader starts listing them
+						if(!keys.isEmpty() || split && !listing.getCommonPrefixes().isEmpty())
+						{
+							pagesAhead.acquire();
+							listedPages.put(new Page(this, keys, null));
+						}
+						listRequest.setContinuationToken(listing.getNextContinuationToken());
+					}
+					while(listing.isTruncated() && !closed);
+					listedPages.put(new Page(this, null, null));
+				}
+				catch(InterruptedException e)
+				{
+					throw e;
+				}
+				catch(Throwable e)
+				{
+					//errors are handed over as well, the reader waits for the last page of every partition
+					listedPages.put(new Page(this, null, e));
+				}
+			}
+			catch(InterruptedException e)
+			{
+				//the reader closed the listing
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+
+public class S3ListingInputStreamTest
+{
+	private static final String BUCKET_NAME = "bucket";
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@After
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Fails every listing of the given prefix with an internal error.
+	 */
+	private static class FailingPrefixAmazonS3 extends FakeAmazonS3
+	{
+		private final String failingPrefix;
+
+		FailingPrefixAmazonS3(String failingPrefix)
+		{
+			this.failingPrefix = failingPrefix;
+		}
+
+		@Override
+		public ListObjectsV2Result listObjectsV2(ListObjectsV2Request listObjectsV2Request)
+		{
+			if(failingPrefix.equals(listObjectsV2Request.getPrefix()))
+			{
+				AmazonS3Exception e = new AmazonS3Exception("We encountered an internal error. Please try again.");
+				e.setStatusCode(500);
+				e.setErrorCode("InternalError");
+				throw e;
+			}
+			return super.listObjectsV2(listObjectsV2Request);
+		}
+	}
+
+	private static List<String> addObjects(FakeAmazonS3 s3Client, String prefix, int count)
+	{
+		List<String> keys = new ArrayList<String>();
+		for(int i = 0; i < count; i++)
+		{
+			String key = String.format("%s%05d", prefix, i);
+			s3Client.addObject(BUCKET_NAME, key, new byte[1]);
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private static List<String> readLines(InputStream inputStream) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while((line = reader.readLine()) != null)
+			lines.add(line);
+		reader.close();
+		return lines;
+	}
+
+	@Test
+	public void listingContinuesPastAPageOf1000Keys() throws IOException
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		List<String> keys = addObjects(s3Client, "file-", 2500);
+		s3Client.resetRequestCounts();
+
+		assertEquals(keys, readLines(new S3ListingInputStream(s3Client, executor, BUCKET_NAME, null, null, 1)));
+		assertEquals(3, s3Client.getRequestCounts().get("LIST").longValue());
+	}
+
+	@Test
+	public void parallelListingReturnsEveryKeyOnce() throws IOException
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		List<String> keys = addObjects(s3Client, "data/", 5);
+		keys.addAll(addObjects(s3Client, "data/a/", 1200));
+		keys.addAll(addObjects(s3Client, "data/b/", 300));
+		keys.addAll(addObjects(s3Client, "data/c/d/", 1001));
+		addObjects(s3Client, "other/", 10);
+
+		List<String> lines = readLines(new S3ListingInputStream(s3Client, executor, BUCKET_NAME, "data/", "/", 2));
+
+		assertEquals(lines.size(), new HashSet<String>(lines).size());
+		Collections.sort(lines);
+		Collections.sort(keys);
+		assertEquals(keys, lines);
+	}
+
+	@Test
+	public void failingPartitionFailsTheRead() throws IOException
+	{
+		FakeAmazonS3 s3Client = new FailingPrefixAmazonS3("data/b/");
+		addObjects(s3Client, "data/a/", 10);
+		addObjects(s3Client, "data/b/", 10);
+		addObjects(s3Client, "data/c/", 10);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("failed to list bucket [bucket]");
+		readLines(new S3ListingInputStream(s3Client, executor, BUCKET_NAME, "data/", "/", 2));
+	}
+}
@@ -0,0 +1,342 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * <p>
+ * Low overhead metrics of an {@link AmazonS3Sender}: latency histograms per action and per kind of S3 request, bytes transferred, failures,
+ * retries and throttling. The calls on the S3 client are measured by a proxy around the client, see {@link #instrument(AmazonS3)}.
+ * </p>
+ * <p>
+ * Retries and throttling happen inside the SDK and are reported by {@link #REQUEST_METRIC_COLLECTOR}, which {@link S3ClientRegistry} installs
+ * on clients built for senders with metrics. The collector runs on the thread that called the client, the proxy tells it which sender that
+ * thread is calling for, so senders that share a client still get their own counts.
+ * </p>
+ */
+public class S3Metrics implements S3MetricsMXBean
+{
+	private static final ThreadLocal<S3Metrics> CURRENT = new ThreadLocal<S3Metrics>();
+	private static final Map<String, String> REQUEST_KINDS = new HashMap<String, String>();
+	static
+	{
+		for(String method : new String[] {"getObjectMetadata", "doesObjectExist", "doesBucketExist", "doesBucketExistV2", "headBucket"})
+			REQUEST_KINDS.put(method, "HEAD");
+		REQUEST_KINDS.put("getObject", "GET");
+		for(String method : new String[] {"putObject", "uploadPart", "initiateMultipartUpload", "completeMultipartUpload", "createBucket"})
+			REQUEST_KINDS.put(method, "PUT");
+		for(String method : new String[] {"copyObject", "copyPart"})
+			REQUEST_KINDS.put(method, "COPY");
+		for(String method : new String[] {"deleteObject", "deleteObjects", "deleteBucket", "abortMultipartUpload"})
+			REQUEST_KINDS.put(method, "DELETE");
+		for(String method : new String[] {"listObjects", "listObjectsV2", "listNextBatchOfObjects"})
+			REQUEST_KINDS.put(method, "LIST");
+	}
+
+	/**
+	 * Counts the retries and throttled attempts of the requests of the sender the current thread is calling for.
+	 */
+	public static final RequestMetricCollector REQUEST_METRIC_COLLECTOR = new RequestMetricCollector()
+	{
+		@Override
+		public void collectMetrics(Request<?> request, Response<?> response)
+		{
+			S3Metrics metrics = CURRENT.get();
+			if(metrics == null)
+				return;
+			TimingInfo timingInfo = request.getAWSRequestMetrics().getTimingInfo();
+			Number attempts = timingInfo.getCounter(AWSRequestMetrics.Field.RequestCount.name());
+			if(attempts != null && attempts.longValue() > 1)
+				metrics.retries.addAndGet(attempts.longValue() - 1);
+			Number throttled = timingInfo.getCounter(AWSRequestMetrics.Field.ThrottleException.name());
+			if(throttled != null)
+				metrics.throttledRequests.addAndGet(throttled.longValue());
+		}
+	};
+
+	private final ConcurrentMap<String, S3LatencyHistogram> actionLatencies = new ConcurrentHashMap<String, S3LatencyHistogram>();
+	private final ConcurrentMap<String, S3LatencyHistogram> requestLatencies = new ConcurrentHashMap<String, S3LatencyHistogram>();
+	private final AtomicLong failedRequests = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong throttledRequests = new AtomicLong();
+	private final AtomicLong bytesUploaded = new AtomicLong();
+	private final AtomicLong bytesDownloaded = new AtomicLong();
+	private volatile long resetAt = System.nanoTime();
+
+	/**
+	 * Returns a client that measures every call on the given client.
+	 */
+	public AmazonS3 instrument(final AmazonS3 s3Client)
+	{
+		return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[] {AmazonS3.class}, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				String kind = REQUEST_KINDS.get(method.getName());
+				if(kind == null)
+					return invokeOn(s3Client, method, args);
+
+				S3Metrics previous = CURRENT.get();
+				CURRENT.set(S3Metrics.this);
+				countUploadedStream(args);
+				long start = System.nanoTime();
+				boolean success = false;
+				try
+				{
+					Object result = invokeOn(s3Client, method, args);
+					countTransfer(args, result);
+					success = true;
+					return result;
+				}
+				finally
+				{
+					recordRequest(kind, System.nanoTime() - start);
+					if(!success)
+						failedRequests.incrementAndGet();
+					if(previous == null)
+						CURRENT.remove();
+					else
+						CURRENT.set(previous);
+				}
+			}
+		});
+	}
+
+	private static Object invokeOn(AmazonS3 s3Client, Method method, Object[] args) throws Throwable
+	{
+		try
+		{
+			return method.invoke(s3Client, args);
+		}
+		catch(InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Counts the bytes of a stream of which the length is not known up front while the SDK reads it.
+	 */
+	private void countUploadedStream(Object[] args)
+	{
+		if(args != null && args.length == 1 && args[0] instanceof PutObjectRequest)
+		{
+			PutObjectRequest putObjectRequest = (PutObjectRequest) args[0];
+			if(putObjectRequest.getInputStream() != null && !hasContentLength(putObjectRequest))
+				putObjectRequest.setInputStream(new CountingInputStream(putObjectRequest.getInputStream(), bytesUploaded));
+		}
+	}
+
+	private static boolean hasContentLength(PutObjectRequest putObjectRequest)
+	{
+		return putObjectRequest.getMetadata() != null && putObjectRequest.getMetadata().getRawMetadataValue(Headers.CONTENT_LENGTH) != null;
+	}
+
+	private void countTransfer(Object[] args, Object result)
+	{
+		if(result instanceof S3Object)
+		{
+			S3Object object = (S3Object) result;
+			if(object.getObjectContent() != null)
+				object.setObjectContent(new CountingInputStream(object.getObjectContent(), bytesDownloaded));
+		}
+		else if(args != null && args.length == 1 && args[0] instanceof UploadPartRequest)
+			bytesUploaded.addAndGet(((UploadPartRequest) args[0]).getPartSize());
+		else if(args != null && args.length == 1 && args[0] instanceof PutObjectRequest)
+		{
+			PutObjectRequest putObjectRequest = (PutObjectRequest) args[0];
+			if(putObjectRequest.getFile() != null)
+				bytesUploaded.addAndGet(putObjectRequest.getFile().length());
+			else if(hasContentLength(putObjectRequest))
+				bytesUploaded.addAndGet(putObjectRequest.getMetadata().getContentLength());
+		}
+	}
+
+	public void recordAction(String actionName, long nanos)
+	{
+		histogram(actionLatencies, actionName).record(nanos / 1000);
+	}
+
+	private void recordRequest(String kind, long nanos)
+	{
+		histogram(requestLatencies, kind).record(nanos / 1000);
+	}
+
+	private static S3LatencyHistogram histogram(ConcurrentMap<String, S3LatencyHistogram> histograms, String name)
+	{
+		S3LatencyHistogram histogram = histograms.get(name);
+		if(histogram == null)
+		{
+			S3LatencyHistogram created = new S3LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if(histogram == null)
+				histogram = created;
+		}
+		return histogram;
+	}
+
+	private static Map<String, S3LatencySnapshot> snapshot(ConcurrentMap<String, S3LatencyHistogram> histograms)
+	{
+		Map<String, S3LatencySnapshot> snapshots = new TreeMap<String, S3LatencySnapshot>();
+		for(Map.Entry<String, S3LatencyHistogram> entry : histograms.entrySet())
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		return snapshots;
+	}
+
+	@Override
+	public Map<String, S3LatencySnapshot> getActionLatencies()
+	{
+		return snapshot(actionLatencies);
+	}
+
+	@Override
+	public Map<String, S3LatencySnapshot> getRequestLatencies()
+	{
+		return snapshot(requestLatencies);
+	}
+
+	@Override
+	public long getFailedRequests()
+	{
+		return failedRequests.get();
+	}
+
+	@Override
+	public long getRetries()
+	{
+		return retries.get();
+	}
+
+	@Override
+	public long getThrottledRequests()
+	{
+		return throttledRequests.get();
+	}
+
+	@Override
+	public long getBytesUploaded()
+	{
+		return bytesUploaded.get();
+	}
+
+	@Override
+	public long getBytesDownloaded()
+	{
+		return bytesDownloaded.get();
+	}
+
+	@Override
+	public long getUploadThroughput()
+	{
+		return perSecond(bytesUploaded.get());
+	}
+
+	@Override
+	public long getDownloadThroughput()
+	{
+		return perSecond(bytesDownloaded.get());
+	}
+
+	private long perSecond(long bytes)
+	{
+		long elapsed = System.nanoTime() - resetAt;
+		return elapsed <= 0 ? 0 : (long) (bytes / (elapsed / 1e9));
+	}
+
+	@Override
+	public void reset()
+	{
+		for(S3LatencyHistogram histogram : actionLatencies.values())
+			histogram.reset();
+		for(S3LatencyHistogram histogram : requestLatencies.values())
+			histogram.reset();
+		failedRequests.set(0);
+		retries.set(0);
+		throttledRequests.set(0);
+		bytesUploaded.set(0);
+		bytesDownloaded.set(0);
+		resetAt = System.nanoTime();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "actions " + getActionLatencies() + " requests " + getRequestLatencies() + " failed [" + getFailedRequests() + "] retries [" + getRetries()
+				+ "] throttled [" + getThrottledRequests() + "] uploaded [" + getBytesUploaded() + "] downloaded [" + getBytesDownloaded() + "] bytes";
+	}
+
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private final AtomicLong bytes;
+
+		CountingInputStream(InputStream in, AtomicLong bytes)
+		{
+			super(in);
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1)
+				bytes.incrementAndGet();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if(read > 0)
+				bytes.addAndGet(read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			bytes.addAndGet(skipped);
+			return skipped;
+		}
+	}
+}
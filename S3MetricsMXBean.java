@@ -0,0 +1,50 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.Map;
+
+/**
+ * Metrics of an {@link AmazonS3Sender} as they are shown over JMX, all since the sender was opened or the metrics were reset.
+ */
+public interface S3MetricsMXBean
+{
+	/** Latency in microseconds of every action, by action name. */
+	Map<String, S3LatencySnapshot> getActionLatencies();
+
+	/** Latency in microseconds of the calls on the S3 client by kind of request: HEAD, GET, PUT, COPY, DELETE and LIST. For GET up to the first byte. */
+	Map<String, S3LatencySnapshot> getRequestLatencies();
+
+	long getFailedRequests();
+
+	/** Number of requests the SDK sent again after a failed attempt. */
+	long getRetries();
+
+	/** Number of attempts S3 answered with a throttling error like SlowDown. */
+	long getThrottledRequests();
+
+	long getBytesUploaded();
+
+	long getBytesDownloaded();
+
+	/** Average number of bytes uploaded per second. */
+	long getUploadThroughput();
+
+	/** Average number of bytes downloaded per second. */
+	long getDownloadThroughput();
+
+	void reset();
+}
@@ -0,0 +1,39 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+
+public class S3MetricsTest
+{
+	@Test
+	public void uploadsAreCountedWithAndWithoutKnownLength() throws Exception
+	{
+		FakeAmazonS3 fakeClient = new FakeAmazonS3();
+		fakeClient.addBucket("bucket");
+		S3Metrics metrics = new S3Metrics();
+		AmazonS3 s3Client = metrics.instrument(fakeClient);
+
+		ObjectMetadata knownLength = new ObjectMetadata();
+		knownLength.setContentLength(100);
+		s3Client.putObject(new PutObjectRequest("bucket", "known", new ByteArrayInputStream(new byte[100]), knownLength));
+		s3Client.putObject(new PutObjectRequest("bucket", "streamed", new ByteArrayInputStream(new byte[250]), new ObjectMetadata()));
+		assertEquals(350, metrics.getBytesUploaded());
+
+		InputStream content = s3Client.getObject(new GetObjectRequest("bucket", "streamed")).getObjectContent();
+		while(content.read() != -1)
+			;
+		content.close();
+		assertEquals(250, metrics.getBytesDownloaded());
+		assertEquals(1, metrics.getRequestLatencies().get("GET").getCount());
+		assertEquals(2, metrics.getRequestLatencies().get("PUT").getCount());
+	}
+}
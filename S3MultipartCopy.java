@@ -0,0 +1,220 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * This class is used for the copy action when the file is larger than multipartCopyThreshold. The file is copied by S3 itself in
+ * parts with UploadPartCopy requests, of which up to partConcurrency are sent at the same time, so no bytes pass through this JVM.
+ * The metadata of the source file is set on the multipart upload, as UploadPartCopy does not copy it, and every part is copied
+ * on the condition that the ETag of the source did not change. A failed copy is aborted so no parts are left behind.
+ * </p>
+ */
+public class S3MultipartCopy
+{
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final AmazonS3 s3Client;
+	private final ExecutorService executor;
+	private final long partSize;
+	private final int partConcurrency;
+
+	public S3MultipartCopy(AmazonS3 s3Client, ExecutorService executor, long partSize, int partConcurrency)
+	{
+		this.s3Client = s3Client;
+		this.executor = executor;
+		this.partSize = partSize;
+		this.partConcurrency = partConcurrency;
+	}
+
+	/**
+	 * Copies a file to another bucket and/or name.
+	 *
+	 * @param sourceMetadata
+	 *            The metadata of the source file as returned by a HEAD request, its content length and ETag are used to divide the file into parts.
+	 */
+	public void copy(String sourceBucketName, String sourceKey, ObjectMetadata sourceMetadata, String destinationBucketName, String destinationKey) throws IOException
+	{
+		long length = sourceMetadata.getContentLength();
+		long size = Math.max(partSize, (length + S3MultipartUpload.MAX_PARTS - 1) / S3MultipartUpload.MAX_PARTS);
+
+		InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(destinationBucketName, destinationKey, copyableMetadata(sourceMetadata));
+		String uploadId = s3Client.initiateMultipartUpload(initiateRequest).getUploadId();
+		if(log.isDebugEnabled()) log.debug("Initiated multipart copy [" + uploadId + "] of [" + length + "] bytes from [" + sourceBucketName + "/" + sourceKey + "] to [" + destinationBucketName + "/" + destinationKey + "]");
+
+		Semaphore inFlight = new Semaphore(partConcurrency);
+		List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>();
+		try
+		{
+			int partNumber = 1;
+			for(long start = 0; start < length; start += size)
+			{
+				acquire(inFlight);
+				CopyPartRequest copyPartRequest = new CopyPartRequest()
+						.withSourceBucketName(sourceBucketName)
+						.withSourceKey(sourceKey)
+						.withDestinationBucketName(destinationBucketName)
+						.withDestinationKey(destinationKey)
+						.withUploadId(uploadId)
+						.withPartNumber(partNumber++)
+						.withFirstByte(start)
+						.withLastByte(Math.min(start + size, length) - 1);
+				if(sourceMetadata.getETag() != null)
+					copyPartRequest.withMatchingETagConstraint(sourceMetadata.getETag());
+				parts.add(executor.submit(new CopyPartTask(copyPartRequest, inFlight)));
+			}
+
+			List<PartETag> partETags = new ArrayList<PartETag>(parts.size());
+			for(Future<PartETag> part : parts)
+				partETags.add(await(part));
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(destinationBucketName, destinationKey, uploadId, partETags));
+			if(log.isDebugEnabled()) log.debug("Completed multipart copy [" + uploadId + "] in [" + partETags.size() + "] parts");
+		}
+		catch(IOException e)
+		{
+			abort(destinationBucketName, destinationKey, uploadId, parts);
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			abort(destinationBucketName, destinationKey, uploadId, parts);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the metadata of the source that is stored with the file, without the headers S3 determines itself.
+	 */
+	private static ObjectMetadata copyableMetadata(ObjectMetadata sourceMetadata)
+	{
+		ObjectMetadata metadata = new ObjectMetadata();
+		if(sourceMetadata.getContentType() != null)
+			metadata.setContentType(sourceMetadata.getContentType());
+		if(sourceMetadata.getContentEncoding() != null)
+			metadata.setContentEncoding(sourceMetadata.getContentEncoding());
+		if(sourceMetadata.getContentDisposition() != null)
+			metadata.setContentDisposition(sourceMetadata.getContentDisposition());
+		if(sourceMetadata.getContentLanguage() != null)
+			metadata.setContentLanguage(sourceMetadata.getContentLanguage());
+		if(sourceMetadata.getCacheControl() != null)
+			metadata.setCacheControl(sourceMetadata.getCacheControl());
+		if(sourceMetadata.getHttpExpiresDate() != null)
+			metadata.setHttpExpiresDate(sourceMetadata.getHttpExpiresDate());
+		if(sourceMetadata.getSSEAlgorithm() != null)
+			metadata.setSSEAlgorithm(sourceMetadata.getSSEAlgorithm());
+		metadata.setUserMetadata(sourceMetadata.getUserMetadata());
+		return metadata;
+	}
+
+	private void acquire(Semaphore inFlight) throws IOException
+	{
+		try
+		{
+			inFlight.acquire();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a part to finish copying", e);
+		}
+	}
+
+	private PartETag await(Future<PartETag> part) throws IOException
+	{
+		try
+		{
+			return part.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a part to finish copying", e);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof AmazonClientException)
+				throw (AmazonClientException) cause;
+			throw new IOException("failed to copy part", cause);
+		}
+	}
+
+	private void abort(String bucketName, String key, String uploadId, List<Future<PartETag>> parts)
+	{
+		for(Future<PartETag> part : parts)
+			part.cancel(true);
+		try
+		{
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+			log.warn("Aborted multipart copy [" + uploadId + "] to object [" + key + "] in bucket [" + bucketName + "]");
+		}
+		catch(AmazonClientException e)
+		{
+			log.error("Failed to abort multipart copy [" + uploadId + "] to object [" + key + "] in bucket [" + bucketName + "]", e);
+		}
+	}
+
+	private class CopyPartTask implements Callable<PartETag>
+	{
+		private final CopyPartRequest copyPartRequest;
+		private final Semaphore inFlight;
+
+		CopyPartTask(CopyPartRequest copyPartRequest, Semaphore inFlight)
+		{
+			this.copyPartRequest = copyPartRequest;
+			this.inFlight = inFlight;
+		}
+
+		@Override
+		public PartETag call() throws IOException
+		{
+			try
+			{
+				CopyPartResult result = s3Client.copyPart(copyPartRequest);
+				if(result == null)
+					throw new IOException("source object [" + copyPartRequest.getSourceKey() + "] changed during copy, ETag no longer matches");
+				return result.getPartETag();
+			}
+			finally
+			{
+				inFlight.release();
+			}
+		}
+	}
+}
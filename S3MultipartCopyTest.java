@@ -0,0 +1,231 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+public class S3MultipartCopyTest
+{
+	private static final String BUCKET_NAME = "bucket";
+	private static final int PART_SIZE = 5;
+
+	private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@After
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Records the requests of the multipart copy, and fails the copy of one part when a failing part number is set.
+	 */
+	private static class RecordingAmazonS3 extends FakeAmazonS3
+	{
+		private final List<CopyPartRequest> copyPartRequests = Collections.synchronizedList(new ArrayList<CopyPartRequest>());
+		private final AtomicInteger aborted = new AtomicInteger();
+		private InitiateMultipartUploadRequest initiateRequest;
+		private int failingPartNumber;
+
+		@Override
+		public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+		{
+			initiateRequest = request;
+			return super.initiateMultipartUpload(request);
+		}
+
+		@Override
+		public CopyPartResult copyPart(CopyPartRequest copyPartRequest)
+		{
+			copyPartRequests.add(copyPartRequest);
+			if(copyPartRequest.getPartNumber() == failingPartNumber)
+			{
+				AmazonS3Exception e = new AmazonS3Exception("We encountered an internal error. Please try again.");
+				e.setStatusCode(500);
+				e.setErrorCode("InternalError");
+				throw e;
+			}
+			return super.copyPart(copyPartRequest);
+		}
+
+		@Override
+		public void abortMultipartUpload(AbortMultipartUploadRequest request)
+		{
+			aborted.incrementAndGet();
+			super.abortMultipartUpload(request);
+		}
+
+		List<CopyPartRequest> sortedCopyPartRequests()
+		{
+			List<CopyPartRequest> sorted = new ArrayList<CopyPartRequest>(copyPartRequests);
+			Collections.sort(sorted, new Comparator<CopyPartRequest>()
+			{
+				@Override
+				public int compare(CopyPartRequest first, CopyPartRequest second)
+				{
+					return first.getPartNumber() - second.getPartNumber();
+				}
+			});
+			return sorted;
+		}
+	}
+
+	private static byte[] payload(int size)
+	{
+		byte[] payload = new byte[size];
+		for(int i = 0; i < size; i++)
+			payload[i] = (byte) i;
+		return payload;
+	}
+
+	private static byte[] content(FakeAmazonS3 s3Client, String key) throws IOException
+	{
+		InputStream inputStream = s3Client.getObject(BUCKET_NAME, key).getObjectContent();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while((read = inputStream.read(buffer)) != -1)
+			content.write(buffer, 0, read);
+		inputStream.close();
+		return content.toByteArray();
+	}
+
+	private void copy(FakeAmazonS3 s3Client, ObjectMetadata sourceMetadata) throws IOException
+	{
+		new S3MultipartCopy(s3Client, executor, PART_SIZE, 3).copy(BUCKET_NAME, "source", sourceMetadata, BUCKET_NAME, "destination");
+	}
+
+	@Test
+	public void partsCoverTheSourceInOrder() throws IOException
+	{
+		RecordingAmazonS3 s3Client = new RecordingAmazonS3();
+		byte[] payload = payload(PART_SIZE * 4 + 3);
+		s3Client.addObject(BUCKET_NAME, "source", payload);
+		ObjectMetadata sourceMetadata = s3Client.getObjectMetadata(BUCKET_NAME, "source");
+
+		copy(s3Client, sourceMetadata);
+
+		List<CopyPartRequest> requests = s3Client.sortedCopyPartRequests();
+		assertEquals(5, requests.size());
+		for(int i = 0; i < requests.size(); i++)
+		{
+			CopyPartRequest request = requests.get(i);
+			assertEquals(i + 1, request.getPartNumber());
+			assertEquals(i * PART_SIZE, request.getFirstByte().longValue());
+			assertEquals(Math.min((i + 1) * PART_SIZE, payload.length) - 1, request.getLastByte().longValue());
+			assertEquals(Collections.singletonList(sourceMetadata.getETag()), request.getMatchingETagConstraints());
+		}
+		assertArrayEquals(payload, content(s3Client, "destination"));
+		assertEquals(0, s3Client.aborted.get());
+	}
+
+	@Test
+	public void partSizeGrowsToStayWithinTheMaximumNumberOfParts() throws IOException
+	{
+		RecordingAmazonS3 s3Client = new RecordingAmazonS3();
+		// three times the number of bytes that fit in the maximum number of parts of PART_SIZE
+		byte[] payload = payload(S3MultipartUpload.MAX_PARTS * PART_SIZE * 3);
+		s3Client.addObject(BUCKET_NAME, "source", payload);
+
+		copy(s3Client, s3Client.getObjectMetadata(BUCKET_NAME, "source"));
+
+		List<CopyPartRequest> requests = s3Client.sortedCopyPartRequests();
+		assertEquals(S3MultipartUpload.MAX_PARTS, requests.size());
+		CopyPartRequest last = requests.get(requests.size() - 1);
+		assertEquals(payload.length - PART_SIZE * 3, last.getFirstByte().longValue());
+		assertEquals(payload.length - 1, last.getLastByte().longValue());
+		assertArrayEquals(payload, content(s3Client, "destination"));
+	}
+
+	@Test
+	public void metadataOfTheSourceIsCarriedOver() throws IOException
+	{
+		RecordingAmazonS3 s3Client = new RecordingAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "source", payload(PART_SIZE * 2));
+		ObjectMetadata sourceMetadata = s3Client.getObjectMetadata(BUCKET_NAME, "source");
+		sourceMetadata.setContentType("application/xml");
+		sourceMetadata.setContentEncoding("gzip");
+		sourceMetadata.setCacheControl("no-cache");
+		sourceMetadata.addUserMetadata("origin", "test");
+
+		copy(s3Client, sourceMetadata);
+
+		ObjectMetadata metadata = s3Client.initiateRequest.getObjectMetadata();
+		assertEquals("application/xml", metadata.getContentType());
+		assertEquals("gzip", metadata.getContentEncoding());
+		assertEquals("no-cache", metadata.getCacheControl());
+		assertEquals("test", metadata.getUserMetaDataOf("origin"));
+		// the headers S3 determines itself are left out
+		assertNull(metadata.getRawMetadataValue(Headers.ETAG));
+		assertNull(metadata.getRawMetadataValue(Headers.CONTENT_LENGTH));
+	}
+
+	@Test
+	public void failedPartAbortsTheCopy() throws IOException
+	{
+		RecordingAmazonS3 s3Client = new RecordingAmazonS3();
+		s3Client.failingPartNumber = 2;
+		s3Client.addObject(BUCKET_NAME, "source", payload(PART_SIZE * 4));
+
+		try
+		{
+			copy(s3Client, s3Client.getObjectMetadata(BUCKET_NAME, "source"));
+			fail("copy with a failing part should fail");
+		}
+		catch(AmazonS3Exception e)
+		{
+			assertEquals("InternalError", e.getErrorCode());
+		}
+		assertEquals(1, s3Client.aborted.get());
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "destination"));
+	}
+
+	@Test
+	public void changedSourceAbortsTheCopy()
+	{
+		RecordingAmazonS3 s3Client = new RecordingAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "source", payload(PART_SIZE * 4));
+		ObjectMetadata sourceMetadata = s3Client.getObjectMetadata(BUCKET_NAME, "source");
+		// the parts are copied after the source is replaced, so the ETag constraint no longer matches
+		s3Client.addObject(BUCKET_NAME, "source", payload(PART_SIZE * 4 + 1));
+
+		try
+		{
+			copy(s3Client, sourceMetadata);
+			fail("copy of a changed source should fail");
+		}
+		catch(IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("failed to copy part"));
+			assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("ETag no longer matches"));
+		}
+		assertEquals(1, s3Client.aborted.get());
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "destination"));
+	}
+}
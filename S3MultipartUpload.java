@@ -0,0 +1,400 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * This class is used for the upload action when multipartUploadEnabled is set to 'true'.
+ * The InputStream is cut into parts of partSize bytes which are uploaded concurrently while the next part is being read.
+ * At most partConcurrency parts are in flight at the same time and the next part is read into the buffer of one that finished,
+ * so the memory used per upload stays at partConcurrency * partSize no matter how big the file is. When the stream fits into a single part it is sent
+ * with one PutObjectRequest with a known content length, otherwise a failed upload is aborted so no parts are left behind.
+ * </p>
+ * <p>
+ * A file that is given as a FileChannel is not buffered at all: its length is known up front, so the part size is raised when needed to fit the file in
+ * {@link #MAX_PARTS} parts, and every part is read from its own offset in the file while it is sent. A part that has to be retried is read from disk again.
+ * </p>
+ * <p>
+ * When failIfExists is set, the upload is sent with an <code>If-None-Match: *</code> header, S3 then refuses to overwrite an existing
+ * object with status 412 (PreconditionFailed) instead of the caller having to check for the object first.
+ * </p>
+ */
+public class S3MultipartUpload
+{
+	/** Smallest part size S3 accepts for all but the last part of a multipart upload. */
+	public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+	/** Highest part number S3 accepts for a multipart upload. */
+	public static final int MAX_PARTS = 10000;
+
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final AmazonS3 s3Client;
+	private final ExecutorService executor;
+	private final int partSize;
+	private final int partConcurrency;
+	private boolean failIfExists = false;
+
+	public S3MultipartUpload(AmazonS3 s3Client, ExecutorService executor, int partSize, int partConcurrency)
+	{
+		this.s3Client = s3Client;
+		this.executor = executor;
+		this.partSize = partSize;
+		this.partConcurrency = partConcurrency;
+	}
+
+	public void setFailIfExists(boolean failIfExists)
+	{
+		this.failIfExists = failIfExists;
+	}
+
+	/**
+	 * Uploads the contents of the InputStream as an object with the given key.
+	 *
+	 * @param bucketName
+	 *            The name of the bucket where the object shall be stored in.
+	 * @param key
+	 *            The name that shall be given to the object.
+	 * @param inputStream
+	 *            The stream that is read until its end, it is not closed by this method.
+	 * @param metadata
+	 *            The metadata of the object, the content length is set by this method.
+	 * @return the number of bytes uploaded.
+	 */
+	public long upload(String bucketName, String key, InputStream inputStream, ObjectMetadata metadata) throws IOException
+	{
+		BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<byte[]>(partConcurrency);
+		byte[] buffer = new byte[partSize];
+		int length = fill(inputStream, buffer);
+		if(length < partSize)
+		{
+			metadata.setContentLength(length);
+			PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, new ByteArrayInputStream(buffer, 0, length), metadata);
+			if(failIfExists)
+				putObjectRequest.putCustomRequestHeader("If-None-Match", "*");
+			s3Client.putObject(putObjectRequest);
+			return length;
+		}
+
+		String uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, metadata)).getUploadId();
+		if(log.isDebugEnabled()) log.debug("Initiated multipart upload [" + uploadId + "] for object [" + key + "] in bucket [" + bucketName + "]");
+
+		List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>();
+		long total = 0;
+		try
+		{
+			int partNumber = 1;
+			while(length > 0)
+			{
+				if(partNumber > MAX_PARTS)
+					throw new IOException("object [" + key + "] does not fit in " + MAX_PARTS + " parts of [" + partSize + "] bytes, please increase partSize");
+
+				parts.add(executor.submit(new UploadPartTask(bucketName, key, uploadId, partNumber++, buffer, length, bufferPool)));
+				total += length;
+				checkFailures(parts);
+
+				buffer = takeBuffer(bufferPool, parts.size());
+				length = fill(inputStream, buffer);
+			}
+			return complete(bucketName, key, uploadId, parts, total);
+		}
+		catch(IOException e)
+		{
+			abort(bucketName, key, uploadId, parts);
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			abort(bucketName, key, uploadId, parts);
+			throw e;
+		}
+	}
+
+	/**
+	 * Uploads the contents of a file as an object with the given key, reading every part at its offset in the file.
+	 *
+	 * @param bucketName
+	 *            The name of the bucket where the object shall be stored in.
+	 * @param key
+	 *            The name that shall be given to the object.
+	 * @param channel
+	 *            The file that is uploaded from its start to its current size, it is not closed by this method.
+	 * @param metadata
+	 *            The metadata of the object, the content length is set by this method.
+	 * @return the number of bytes uploaded.
+	 */
+	public long upload(String bucketName, String key, FileChannel channel, ObjectMetadata metadata) throws IOException
+	{
+		long length = channel.size();
+		if(length < partSize)
+		{
+			metadata.setContentLength(length);
+			PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, new S3FileRegionInputStream(channel, 0, length), metadata);
+			if(failIfExists)
+				putObjectRequest.putCustomRequestHeader("If-None-Match", "*");
+			s3Client.putObject(putObjectRequest);
+			return length;
+		}
+
+		long size = Math.max(partSize, (length + MAX_PARTS - 1) / MAX_PARTS);
+		String uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, metadata)).getUploadId();
+		if(log.isDebugEnabled()) log.debug("Initiated multipart upload [" + uploadId + "] of [" + length + "] bytes from file for object [" + key + "] in bucket [" + bucketName + "]");
+
+		Semaphore inFlight = new Semaphore(partConcurrency);
+		List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>();
+		try
+		{
+			int partNumber = 1;
+			for(long start = 0; start < length; start += size)
+			{
+				try
+				{
+					inFlight.acquire();
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while waiting for a part to finish uploading", e);
+				}
+				//a part that failed ends the upload before the rest of the file is sent
+				checkFailures(parts);
+				long partLength = Math.min(size, length - start);
+				UploadPartRequest uploadPartRequest = new UploadPartRequest()
+						.withBucketName(bucketName)
+						.withKey(key)
+						.withUploadId(uploadId)
+						.withPartNumber(partNumber++)
+						.withPartSize(partLength)
+						.withInputStream(new S3FileRegionInputStream(channel, start, partLength));
+				UploadFilePartTask part = new UploadFilePartTask(uploadPartRequest, inFlight);
+				executor.execute(part);
+				parts.add(part);
+			}
+			return complete(bucketName, key, uploadId, parts, length);
+		}
+		catch(IOException e)
+		{
+			abort(bucketName, key, uploadId, parts);
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			abort(bucketName, key, uploadId, parts);
+			throw e;
+		}
+	}
+
+	private long complete(String bucketName, String key, String uploadId, List<Future<PartETag>> parts, long total) throws IOException
+	{
+		List<PartETag> partETags = new ArrayList<PartETag>(parts.size());
+		for(Future<PartETag> part : parts)
+			partETags.add(await(part));
+		Collections.sort(partETags, new Comparator<PartETag>()
+		{
+			@Override
+			public int compare(PartETag p1, PartETag p2)
+			{
+				return p1.getPartNumber() - p2.getPartNumber();
+			}
+		});
+
+		CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags);
+		if(failIfExists)
+			completeRequest.putCustomRequestHeader("If-None-Match", "*");
+		s3Client.completeMultipartUpload(completeRequest);
+		if(log.isDebugEnabled()) log.debug("Completed multipart upload [" + uploadId + "] of [" + total + "] bytes in [" + partETags.size() + "] parts");
+		return total;
+	}
+
+	/**
+	 * Reuses a buffer of a finished part when all buffers are in use, this is what bounds the number of parts in flight.
+	 */
+	private byte[] takeBuffer(BlockingQueue<byte[]> bufferPool, int partsSubmitted) throws IOException
+	{
+		byte[] buffer = bufferPool.poll();
+		if(buffer != null)
+			return buffer;
+		if(partsSubmitted < partConcurrency)
+			return new byte[partSize];
+		try
+		{
+			return bufferPool.take();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a part to finish uploading", e);
+		}
+	}
+
+	private void checkFailures(List<Future<PartETag>> parts) throws IOException
+	{
+		for(Future<PartETag> part : parts)
+			if(part.isDone())
+				await(part);
+	}
+
+	private PartETag await(Future<PartETag> part) throws IOException
+	{
+		try
+		{
+			return part.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a part to finish uploading", e);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof AmazonClientException)
+				throw (AmazonClientException) cause;
+			throw new IOException("failed to upload part", cause);
+		}
+	}
+
+	private void abort(String bucketName, String key, String uploadId, List<Future<PartETag>> parts)
+	{
+		for(Future<PartETag> part : parts)
+			part.cancel(true);
+		try
+		{
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+			log.warn("Aborted multipart upload [" + uploadId + "] for object [" + key + "] in bucket [" + bucketName + "]");
+		}
+		catch(AmazonClientException e)
+		{
+			log.error("Failed to abort multipart upload [" + uploadId + "] for object [" + key + "] in bucket [" + bucketName + "]", e);
+		}
+	}
+
+	/**
+	 * Reads from the stream until the buffer is full or the end of the stream is reached.
+	 */
+	static int fill(InputStream inputStream, byte[] buffer) throws IOException
+	{
+		int length = 0;
+		while(length < buffer.length)
+		{
+			int read = inputStream.read(buffer, length, buffer.length - length);
+			if(read == -1)
+				break;
+			length += read;
+		}
+		return length;
+	}
+
+	private class UploadPartTask implements Callable<PartETag>
+	{
+		private final String bucketName;
+		private final String key;
+		private final String uploadId;
+		private final int partNumber;
+		private final byte[] buffer;
+		private final int length;
+		private final BlockingQueue<byte[]> bufferPool;
+
+		UploadPartTask(String bucketName, String key, String uploadId, int partNumber, byte[] buffer, int length, BlockingQueue<byte[]> bufferPool)
+		{
+			this.bucketName = bucketName;
+			this.key = key;
+			this.uploadId = uploadId;
+			this.partNumber = partNumber;
+			this.buffer = buffer;
+			this.length = length;
+			this.bufferPool = bufferPool;
+		}
+
+		@Override
+		public PartETag call()
+		{
+			try
+			{
+				UploadPartRequest uploadPartRequest = new UploadPartRequest()
+						.withBucketName(bucketName)
+						.withKey(key)
+						.withUploadId(uploadId)
+						.withPartNumber(partNumber)
+						.withPartSize(length)
+						.withInputStream(new ByteArrayInputStream(buffer, 0, length));
+				return s3Client.uploadPart(uploadPartRequest).getPartETag();
+			}
+			finally
+			{
+				bufferPool.offer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Uploads a part of a file and frees its slot once the outcome of the part is set, so the part that waited for the slot sees a failure
+	 * before it is sent.
+	 */
+	private class UploadFilePartTask extends FutureTask<PartETag>
+	{
+		private final Semaphore inFlight;
+
+		UploadFilePartTask(final UploadPartRequest uploadPartRequest, Semaphore inFlight)
+		{
+			super(new Callable<PartETag>()
+			{
+				@Override
+				public PartETag call()
+				{
+					return s3Client.uploadPart(uploadPartRequest).getPartETag();
+				}
+			});
+			this.inFlight = inFlight;
+		}
+
+		@Override
+		protected void done()
+		{
+			inFlight.release();
+		}
+	}
+}
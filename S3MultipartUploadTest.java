@@ -0,0 +1,297 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+public class S3MultipartUploadTest
+{
+	private static final String BUCKET_NAME = "bucket";
+	private static final int PART_SIZE = 4;
+
+	private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Counts the parts that are being uploaded at the same time, each part takes a while so the uploads overlap.
+	 */
+	private static class ConcurrentPartsAmazonS3 extends FakeAmazonS3
+	{
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger maxInFlight = new AtomicInteger();
+
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request)
+		{
+			int current = inFlight.incrementAndGet();
+			while(maxInFlight.get() < current)
+				maxInFlight.compareAndSet(maxInFlight.get(), current);
+			try
+			{
+				TimeUnit.MILLISECONDS.sleep(20);
+				return super.uploadPart(request);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SdkClientException("interrupted", e);
+			}
+			finally
+			{
+				inFlight.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Records the number and size of every part that is uploaded.
+	 */
+	private static class RecordingPartsAmazonS3 extends FakeAmazonS3
+	{
+		private final Map<Integer, Long> partSizes = new ConcurrentHashMap<Integer, Long>();
+
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request)
+		{
+			partSizes.put(request.getPartNumber(), request.getPartSize());
+			return super.uploadPart(request);
+		}
+	}
+
+	/**
+	 * Fails the upload of the given part with an internal error, and counts every attempt to upload a part.
+	 */
+	private static class FailingPartAmazonS3 extends FakeAmazonS3
+	{
+		private final int failingPart;
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		FailingPartAmazonS3(int failingPart)
+		{
+			this.failingPart = failingPart;
+		}
+
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request)
+		{
+			attempts.incrementAndGet();
+			if(request.getPartNumber() == failingPart)
+			{
+				AmazonS3Exception e = new AmazonS3Exception("We encountered an internal error. Please try again.");
+				e.setStatusCode(500);
+				e.setErrorCode("InternalError");
+				throw e;
+			}
+			return super.uploadPart(request);
+		}
+	}
+
+	static byte[] payload(int size)
+	{
+		byte[] payload = new byte[size];
+		for(int i = 0; i < size; i++)
+			payload[i] = (byte) i;
+		return payload;
+	}
+
+	static byte[] content(FakeAmazonS3 s3Client, String key) throws IOException
+	{
+		InputStream inputStream = s3Client.getObject(BUCKET_NAME, key).getObjectContent();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while((read = inputStream.read(buffer)) != -1)
+			content.write(buffer, 0, read);
+		inputStream.close();
+		return content.toByteArray();
+	}
+
+	private FileChannel open(byte[] payload) throws IOException
+	{
+		File file = folder.newFile();
+		Files.write(file.toPath(), payload);
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	static long requests(FakeAmazonS3 s3Client, String type)
+	{
+		Long count = s3Client.getRequestCounts().get(type);
+		return count == null ? 0 : count;
+	}
+
+	@Test
+	public void streamOfSeveralPartsIsUploaded() throws IOException
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket(BUCKET_NAME);
+		byte[] payload = payload(PART_SIZE * 5 + 1);
+
+		long uploaded = new S3MultipartUpload(s3Client, executor, PART_SIZE, 2).upload(BUCKET_NAME, "file", new ByteArrayInputStream(payload), new ObjectMetadata());
+
+		assertEquals(payload.length, uploaded);
+		assertArrayEquals(payload, content(s3Client, "file"));
+		// initiate and complete, and a part upload for each of the 6 parts
+		assertEquals(2, requests(s3Client, "MULTIPART"));
+		assertEquals(6, requests(s3Client, "PUT"));
+	}
+
+	@Test
+	public void atMostPartConcurrencyPartsAreInFlight() throws IOException
+	{
+		ConcurrentPartsAmazonS3 s3Client = new ConcurrentPartsAmazonS3();
+		s3Client.addBucket(BUCKET_NAME);
+		byte[] payload = payload(PART_SIZE * 20);
+
+		new S3MultipartUpload(s3Client, executor, PART_SIZE, 3).upload(BUCKET_NAME, "file", new ByteArrayInputStream(payload), new ObjectMetadata());
+
+		assertArrayEquals(payload, content(s3Client, "file"));
+		assertTrue("[" + s3Client.maxInFlight.get() + "] parts were in flight", s3Client.maxInFlight.get() <= 3);
+	}
+
+	@Test
+	public void failingPartAbortsTheUpload() throws IOException
+	{
+		FakeAmazonS3 s3Client = new FailingPartAmazonS3(2);
+		s3Client.addBucket(BUCKET_NAME);
+		try
+		{
+			new S3MultipartUpload(s3Client, executor, PART_SIZE, 2).upload(BUCKET_NAME, "file", new ByteArrayInputStream(payload(PART_SIZE * 10)), new ObjectMetadata());
+			fail("upload with a failing part should fail");
+		}
+		catch(AmazonS3Exception e)
+		{
+			assertEquals("InternalError", e.getErrorCode());
+		}
+
+		// initiate and abort, the upload is never completed
+		assertEquals(2, requests(s3Client, "MULTIPART"));
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "file"));
+	}
+
+	@Test
+	public void streamThatFitsOnePartIsPut() throws IOException
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket(BUCKET_NAME);
+		byte[] payload = payload(PART_SIZE - 1);
+		ObjectMetadata metadata = new ObjectMetadata();
+
+		long uploaded = new S3MultipartUpload(s3Client, executor, PART_SIZE, 2).upload(BUCKET_NAME, "file", new ByteArrayInputStream(payload), metadata);
+
+		assertEquals(payload.length, uploaded);
+		assertEquals(payload.length, metadata.getContentLength());
+		assertArrayEquals(payload, content(s3Client, "file"));
+		assertEquals(0, requests(s3Client, "MULTIPART"));
+		assertEquals(1, requests(s3Client, "PUT"));
+	}
+
+	@Test
+	public void fileThatFitsOnePartIsPutWithItsLength() throws IOException
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addBucket(BUCKET_NAME);
+		byte[] payload = payload(PART_SIZE - 1);
+		ObjectMetadata metadata = new ObjectMetadata();
+		FileChannel channel = open(payload);
+		try
+		{
+			new S3MultipartUpload(s3Client, executor, PART_SIZE, 2).upload(BUCKET_NAME, "file", channel, metadata);
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		assertEquals(payload.length, metadata.getContentLength());
+		assertArrayEquals(payload, content(s3Client, "file"));
+		assertEquals(0, requests(s3Client, "MULTIPART"));
+		assertEquals(1, requests(s3Client, "PUT"));
+	}
+
+	@Test
+	public void partsOfAFileAreReadAtTheirOffsets() throws IOException
+	{
+		RecordingPartsAmazonS3 s3Client = new RecordingPartsAmazonS3();
+		s3Client.addBucket(BUCKET_NAME);
+		byte[] payload = payload(PART_SIZE * 5 + 1);
+		FileChannel channel = open(payload);
+		try
+		{
+			assertEquals(payload.length, new S3MultipartUpload(s3Client, executor, PART_SIZE, 3).upload(BUCKET_NAME, "file", channel, new ObjectMetadata()));
+			// the channel of the caller is left open
+			assertTrue(channel.isOpen());
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		assertArrayEquals(payload, content(s3Client, "file"));
+		assertEquals(6, s3Client.partSizes.size());
+		for(int partNumber = 1; partNumber <= 5; partNumber++)
+			assertEquals(PART_SIZE, s3Client.partSizes.get(partNumber).longValue());
+		assertEquals(1, s3Client.partSizes.get(6).longValue());
+	}
+
+	@Test
+	public void fileUploadStopsAtTheFirstFailedPart() throws IOException
+	{
+		FailingPartAmazonS3 s3Client = new FailingPartAmazonS3(1);
+		s3Client.addBucket(BUCKET_NAME);
+		FileChannel channel = open(payload(PART_SIZE * 10));
+		try
+		{
+			new S3MultipartUpload(s3Client, executor, PART_SIZE, 1).upload(BUCKET_NAME, "file", channel, new ObjectMetadata());
+			fail("upload with a failing part should fail");
+		}
+		catch(AmazonS3Exception e)
+		{
+			assertEquals("InternalError", e.getErrorCode());
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		// with one part in flight the failure is seen before the second part is sent
+		assertEquals(1, s3Client.attempts.get());
+		assertEquals(2, requests(s3Client, "MULTIPART"));
+		assertFalse(s3Client.doesObjectExist(BUCKET_NAME, "file"));
+	}
+}
@@ -65,7 +65,6 @@ public class S3ObjectInputStreamCloser extends InputStream
 	@Override
 	public void close() throws IOException {
 		s3InputStream.close();
-		System.out.println("Stream closed.");
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * <p>
+ * This class is used for the download action when parallelDownloadEnabled is set to 'true'.
+ * The object is fetched in ranges of rangeSize bytes by concurrent ranged GET requests, up to prefetchDepth ranges ahead of
+ * the range that is being read. The ranges are handed out in order, so the reader sees the same bytes as a single GET would return.
+ * Every range is requested with the ETag of the object as a constraint, an object that is replaced during the download results in an IOException.
+ * </p>
+ */
+public class S3RangedInputStream extends InputStream
+{
+	private final AmazonS3 s3Client;
+	private final ExecutorService executor;
+	private final String bucketName;
+	private final String key;
+	private final String eTag;
+	private final long length;
+	private final int rangeSize;
+	private final int prefetchDepth;
+
+	private final Deque<Future<byte[]>> prefetched = new ArrayDeque<Future<byte[]>>();
+	private long nextRangeStart = 0;
+	private byte[] range;
+	private int position;
+	private boolean closed = false;
+
+	/**
+	 * @param length
+	 *            The content length of the object, as returned by a HEAD request.
+	 * @param eTag
+	 *            The ETag of the object, may be null when the object shall not be checked for changes.
+	 */
+	public S3RangedInputStream(AmazonS3 s3Client, ExecutorService executor, String bucketName, String key, String eTag, long length, int rangeSize, int prefetchDepth)
+	{
+		this.s3Client = s3Client;
+		this.executor = executor;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.eTag = eTag;
+		this.length = length;
+		this.rangeSize = rangeSize;
+		this.prefetchDepth = prefetchDepth;
+		prefetch();
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if(!nextRange())
+			return -1;
+		return range[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len == 0)
+			return 0;
+		if(!nextRange())
+			return -1;
+		int count = Math.min(len, range.length - position);
+		System.arraycopy(range, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		if(n <= 0 || !nextRange())
+			return 0;
+		int count = (int) Math.min(n, range.length - position);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		if(range != null && position < range.length)
+			return range.length - position;
+		// more ranges follow, report them so readers like GZIPInputStream do not take the end of a range for the end of the object
+		return prefetched.isEmpty() ? 0 : 1;
+	}
+
+	@Override
+	public void close()
+	{
+		if(closed)
+			return;
+		closed = true;
+		for(Future<byte[]> future : prefetched)
+			future.cancel(true);
+		prefetched.clear();
+		range = null;
+	}
+
+	/**
+	 * Makes sure there are unread bytes in the current range, returns false when the end of the object is reached.
+	 */
+	private boolean nextRange() throws IOException
+	{
+		if(closed)
+			throw new IOException("stream for object [" + key + "] is closed");
+		while(range == null || position >= range.length)
+		{
+			Future<byte[]> future = prefetched.poll();
+			if(future == null)
+			{
+				close();
+				return false;
+			}
+			range = await(future);
+			position = 0;
+			prefetch();
+		}
+		return true;
+	}
+
+	private void prefetch()
+	{
+		while(prefetched.size() < prefetchDepth && nextRangeStart < length)
+		{
+			long end = Math.min(nextRangeStart + rangeSize, length) - 1;
+			prefetched.add(executor.submit(new RangeTask(nextRangeStart, end)));
+			nextRangeStart = end + 1;
+		}
+	}
+
+	private byte[] await(Future<byte[]> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			close();
+			throw new IOException("interrupted while downloading object [" + key + "]", e);
+		}
+		catch(ExecutionException e)
+		{
+			close();
+			throw new IOException("failed to download range of object [" + key + "] from bucket [" + bucketName + "]", e.getCause());
+		}
+	}
+
+	private class RangeTask implements Callable<byte[]>
+	{
+		private final long start;
+		private final long end;
+
+		RangeTask(long start, long end)
+		{
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public byte[] call() throws IOException
+		{
+			GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, key).withRange(start, end);
+			if(eTag != null)
+				getObjectRequest.withMatchingETagConstraint(eTag);
+			S3Object s3Object = s3Client.getObject(getObjectRequest);
+			if(s3Object == null)
+				throw new IOException("object [" + key + "] changed during download, ETag [" + eTag + "] no longer matches");
+
+			byte[] buffer = new byte[(int) (end - start + 1)];
+			S3ObjectInputStream content = s3Object.getObjectContent();
+			try
+			{
+				if(S3MultipartUpload.fill(content, buffer) < buffer.length)
+					throw new IOException("premature end of range [" + start + "-" + end + "] of object [" + key + "]");
+			}
+			catch(AmazonClientException e)
+			{
+				content.abort();
+				throw e;
+			}
+			finally
+			{
+				content.close();
+			}
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+public class S3RangedInputStreamTest
+{
+	private static final String BUCKET_NAME = "bucket";
+	private static final int RANGE_SIZE = 4;
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@After
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Answers later ranges sooner than earlier ones, so the ranges finish in reverse order.
+	 */
+	private static class ReverseOrderAmazonS3 extends FakeAmazonS3
+	{
+		private final int length;
+
+		ReverseOrderAmazonS3(int length)
+		{
+			this.length = length;
+		}
+
+		@Override
+		public S3Object getObject(GetObjectRequest getObjectRequest)
+		{
+			long start = getObjectRequest.getRange()[0];
+			sleep((length - start) / RANGE_SIZE * 5);
+			return super.getObject(getObjectRequest);
+		}
+	}
+
+	/**
+	 * Counts the ranged GET requests that were started, and holds them until they are released.
+	 */
+	private static class HoldingAmazonS3 extends FakeAmazonS3
+	{
+		private final AtomicInteger started = new AtomicInteger();
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public S3Object getObject(GetObjectRequest getObjectRequest)
+		{
+			started.incrementAndGet();
+			try
+			{
+				released.await(10, TimeUnit.SECONDS);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SdkClientException("interrupted", e);
+			}
+			return super.getObject(getObjectRequest);
+		}
+	}
+
+	private static void sleep(long millis)
+	{
+		try
+		{
+			TimeUnit.MILLISECONDS.sleep(millis);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SdkClientException("interrupted", e);
+		}
+	}
+
+	private static byte[] payload(int size)
+	{
+		byte[] payload = new byte[size];
+		for(int i = 0; i < size; i++)
+			payload[i] = (byte) i;
+		return payload;
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[3];
+		int read;
+		while((read = inputStream.read(buffer)) != -1)
+			content.write(buffer, 0, read);
+		inputStream.close();
+		return content.toByteArray();
+	}
+
+	private S3RangedInputStream open(FakeAmazonS3 s3Client, int prefetchDepth)
+	{
+		ObjectMetadata metadata = s3Client.getObjectMetadata(BUCKET_NAME, "file");
+		return new S3RangedInputStream(s3Client, executor, BUCKET_NAME, "file", metadata.getETag(), metadata.getContentLength(), RANGE_SIZE, prefetchDepth);
+	}
+
+	@Test
+	public void rangesAreReturnedInOrder() throws IOException
+	{
+		byte[] payload = payload(RANGE_SIZE * 10 + 2);
+		FakeAmazonS3 s3Client = new ReverseOrderAmazonS3(payload.length);
+		s3Client.addObject(BUCKET_NAME, "file", payload);
+		s3Client.resetRequestCounts();
+
+		assertArrayEquals(payload, readFully(open(s3Client, 4)));
+		// one GET for every range, the last range holds the 2 remaining bytes
+		assertEquals(11, s3Client.getRequestCounts().get("GET").longValue());
+	}
+
+	@Test
+	public void prefetchDepthRangesAreInFlight() throws Exception
+	{
+		HoldingAmazonS3 s3Client = new HoldingAmazonS3();
+		byte[] payload = payload(RANGE_SIZE * 10);
+		s3Client.addObject(BUCKET_NAME, "file", payload);
+		InputStream inputStream = open(s3Client, 3);
+		try
+		{
+			for(int i = 0; i < 100 && s3Client.started.get() < 3; i++)
+				TimeUnit.MILLISECONDS.sleep(10);
+			TimeUnit.MILLISECONDS.sleep(100);
+			assertEquals(3, s3Client.started.get());
+
+			s3Client.released.countDown();
+			assertEquals(0, inputStream.read());
+			// taking the first range from the prefetched ones fetches the next range
+			for(int i = 0; i < 100 && s3Client.started.get() < 4; i++)
+				TimeUnit.MILLISECONDS.sleep(10);
+			TimeUnit.MILLISECONDS.sleep(100);
+			assertEquals(4, s3Client.started.get());
+		}
+		finally
+		{
+			s3Client.released.countDown();
+			inputStream.close();
+		}
+	}
+
+	@Test
+	public void replacedObjectFailsTheRead() throws Exception
+	{
+		HoldingAmazonS3 s3Client = new HoldingAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "file", payload(RANGE_SIZE * 10));
+		InputStream inputStream = open(s3Client, 2);
+		// the ranges are requested after the object is replaced
+		s3Client.addObject(BUCKET_NAME, "file", payload(RANGE_SIZE * 10 + 1));
+		s3Client.released.countDown();
+
+		try
+		{
+			readFully(inputStream);
+			fail("read of a replaced object should fail");
+		}
+		catch(IOException e)
+		{
+			assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("ETag"));
+		}
+		// a failed stream is closed
+		exception.expect(IOException.class);
+		exception.expectMessage("closed");
+		inputStream.read();
+	}
+}
@@ -0,0 +1,241 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * <p>
+ * This class is used for the download action when seekableDownloadEnabled is set to 'true'.
+ * The object is read in blocks of blockSize bytes that are fetched with a ranged GET request when they are first read, so a reader that
+ * seeks only transfers the blocks it actually reads, like the central directory of a ZIP file or the footer of a columnar file.
+ * The last blockCacheSize blocks that were read are kept, the least recently used block is dropped first.
+ * Every block is requested with the ETag of the object as a constraint, an object that is replaced while it is read results in an IOException.
+ * </p>
+ * <p>
+ * The channel is read-only, a position beyond the end of the object reads end-of-stream.
+ * </p>
+ */
+public class S3SeekableByteChannel implements SeekableByteChannel
+{
+	private final AmazonS3 s3Client;
+	private final String bucketName;
+	private final String key;
+	private final String eTag;
+	private final long size;
+	private final int blockSize;
+	private final Map<Long, byte[]> blocks;
+	private final ReentrantLock lock = new ReentrantLock();
+	private long position = 0;
+	private volatile boolean open = true;
+
+	/**
+	 * @param size
+	 *            The content length of the object, as returned by a HEAD request.
+	 * @param eTag
+	 *            The ETag of the object, may be null when the object shall not be checked for changes.
+	 * @param blockCacheSize
+	 *            Maximum number of blocks that are kept in memory.
+	 */
+	public S3SeekableByteChannel(AmazonS3 s3Client, String bucketName, String key, String eTag, long size, int blockSize, final int blockCacheSize)
+	{
+		this.s3Client = s3Client;
+		this.bucketName = bucketName;
+		this.key = key;
+		this.eTag = eTag;
+		this.size = size;
+		this.blockSize = blockSize;
+		this.blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest)
+			{
+				return size() > blockCacheSize;
+			}
+		};
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException
+	{
+		lock.lock();
+		try
+		{
+			checkOpen();
+			if(position >= size)
+				return -1;
+			int count = 0;
+			while(dst.hasRemaining() && position < size)
+			{
+				long blockIndex = position / blockSize;
+				byte[] block = getBlock(blockIndex);
+				int offset = (int) (position - blockIndex * blockSize);
+				int length = Math.min(dst.remaining(), block.length - offset);
+				dst.put(block, offset, length);
+				position += length;
+				count += length;
+			}
+			return count;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private byte[] getBlock(long blockIndex) throws IOException
+	{
+		byte[] block = blocks.get(blockIndex);
+		if(block == null)
+		{
+			block = fetchBlock(blockIndex);
+			blocks.put(blockIndex, block);
+		}
+		return block;
+	}
+
+	private byte[] fetchBlock(long blockIndex) throws IOException
+	{
+		long start = blockIndex * blockSize;
+		long end = Math.min(start + blockSize, size) - 1;
+		GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, key).withRange(start, end);
+		if(eTag != null)
+			getObjectRequest.withMatchingETagConstraint(eTag);
+		S3Object s3Object;
+		try
+		{
+			s3Object = s3Client.getObject(getObjectRequest);
+		}
+		catch(AmazonClientException e)
+		{
+			throw new IOException("failed to read block [" + start + "-" + end + "] of object [" + key + "] from bucket [" + bucketName + "]", e);
+		}
+		if(s3Object == null)
+			throw new IOException("object [" + key + "] changed while it was read, ETag [" + eTag + "] no longer matches");
+
+		byte[] buffer = new byte[(int) (end - start + 1)];
+		S3ObjectInputStream content = s3Object.getObjectContent();
+		try
+		{
+			if(S3MultipartUpload.fill(content, buffer) < buffer.length)
+				throw new IOException("premature end of block [" + start + "-" + end + "] of object [" + key + "]");
+		}
+		catch(AmazonClientException e)
+		{
+			content.abort();
+			throw new IOException("failed to read block [" + start + "-" + end + "] of object [" + key + "] from bucket [" + bucketName + "]", e);
+		}
+		finally
+		{
+			content.close();
+		}
+		return buffer;
+	}
+
+	@Override
+	public int write(ByteBuffer src)
+	{
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException
+	{
+		lock.lock();
+		try
+		{
+			checkOpen();
+			return position;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException
+	{
+		if(newPosition < 0)
+			throw new IllegalArgumentException("position [" + newPosition + "] cannot be negative");
+		lock.lock();
+		try
+		{
+			checkOpen();
+			position = newPosition;
+			return this;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long size() throws IOException
+	{
+		checkOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size)
+	{
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return open;
+	}
+
+	@Override
+	public void close()
+	{
+		lock.lock();
+		try
+		{
+			open = false;
+			blocks.clear();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void checkOpen() throws ClosedChannelException
+	{
+		if(!open)
+			throw new ClosedChannelException();
+	}
+}
@@ -0,0 +1,131 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+public class S3SeekableByteChannelTest
+{
+	private static final String BUCKET_NAME = "bucket";
+	private static final byte[] CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+	private static final int BLOCK_SIZE = 8;
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	private static S3SeekableByteChannel open(FakeAmazonS3 s3Client, int blockCacheSize)
+	{
+		ObjectMetadata metadata = s3Client.getObjectMetadata(BUCKET_NAME, "file");
+		s3Client.resetRequestCounts();
+		return new S3SeekableByteChannel(s3Client, BUCKET_NAME, "file", metadata.getETag(), metadata.getContentLength(), BLOCK_SIZE, blockCacheSize);
+	}
+
+	private static FakeAmazonS3 createS3Client()
+	{
+		FakeAmazonS3 s3Client = new FakeAmazonS3();
+		s3Client.addObject(BUCKET_NAME, "file", CONTENT);
+		return s3Client;
+	}
+
+	private static byte[] read(S3SeekableByteChannel channel, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		int read = channel.read(buffer);
+		return read == -1 ? null : Arrays.copyOf(buffer.array(), read);
+	}
+
+	private static long gets(FakeAmazonS3 s3Client)
+	{
+		Long count = s3Client.getRequestCounts().get("GET");
+		return count == null ? 0 : count;
+	}
+
+	@Test
+	public void readCrossesBlockBoundaries() throws IOException
+	{
+		FakeAmazonS3 s3Client = createS3Client();
+		S3SeekableByteChannel channel = open(s3Client, 8);
+
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 0, 5), read(channel, 5));
+		// from the first block into the third one
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 5, 20), read(channel, 15));
+		assertEquals(20, channel.position());
+		// the last block is shorter than blockSize
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 20, CONTENT.length), read(channel, 100));
+		assertEquals(5, gets(s3Client));
+		channel.close();
+	}
+
+	@Test
+	public void positionSeeksWithinAndBeyondTheObject() throws IOException
+	{
+		FakeAmazonS3 s3Client = createS3Client();
+		S3SeekableByteChannel channel = open(s3Client, 8);
+
+		channel.position(26);
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 26, 29), read(channel, 3));
+		channel.position(2);
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 2, 4), read(channel, 2));
+		// only the blocks that were read are fetched
+		assertEquals(2, gets(s3Client));
+
+		channel.position(CONTENT.length);
+		assertNull(read(channel, 1));
+		channel.position(CONTENT.length + 100);
+		assertNull(read(channel, 1));
+		assertEquals(CONTENT.length + 100, channel.position());
+		assertEquals(CONTENT.length, channel.size());
+		assertEquals(2, gets(s3Client));
+		channel.close();
+	}
+
+	@Test
+	public void leastRecentlyUsedBlockIsEvicted() throws IOException
+	{
+		FakeAmazonS3 s3Client = createS3Client();
+		S3SeekableByteChannel channel = open(s3Client, 2);
+
+		channel.position(0);
+		read(channel, 1);
+		channel.position(8);
+		read(channel, 1);
+		channel.position(0);
+		read(channel, 1);
+		// the second block was used least recently and makes room for the third
+		channel.position(16);
+		read(channel, 1);
+		assertEquals(3, gets(s3Client));
+
+		channel.position(0);
+		read(channel, 1);
+		assertEquals(3, gets(s3Client));
+		channel.position(8);
+		read(channel, 1);
+		assertEquals(4, gets(s3Client));
+		channel.close();
+	}
+
+	@Test
+	public void replacedObjectFailsTheRead() throws IOException
+	{
+		FakeAmazonS3 s3Client = createS3Client();
+		S3SeekableByteChannel channel = open(s3Client, 8);
+		read(channel, 1);
+
+		s3Client.addObject(BUCKET_NAME, "file", "replaced content of the object".getBytes());
+		channel.position(BLOCK_SIZE);
+		exception.expect(IOException.class);
+		exception.expectMessage("changed while it was read");
+		read(channel, 1);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+
+import nl.nn.adapterframework.core.SenderException;
+
+/**
+ * <p>
+ * Thrown by {@link AmazonS3Sender} when S3 refused a request because the request rate of the bucket or prefix is too high, for instance with
+ * 503 SlowDown. The request may succeed when it is sent again later, so callers can back off instead of treating it as a failure of the message.
+ * </p>
+ */
+public class S3ThrottlingException extends SenderException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String errorCode;
+	private final String bucketName;
+
+	public S3ThrottlingException(String message, String bucketName, AmazonServiceException cause)
+	{
+		super(message, cause);
+		this.errorCode = cause.getErrorCode();
+		this.bucketName = bucketName;
+	}
+
+	/**
+	 * Returns true when S3 refused the request because of its request rate.
+	 */
+	public static boolean isThrottling(AmazonServiceException e)
+	{
+		return e.getStatusCode() == 503 || RetryUtils.isThrottlingException(e);
+	}
+
+	/**
+	 * Returns the error code S3 answered with, like SlowDown.
+	 */
+	public String getErrorCode()
+	{
+		return errorCode;
+	}
+
+	public String getBucketName()
+	{
+		return bucketName;
+	}
+}
@@ -0,0 +1,366 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * Coalesces the acknowledgements of processed messages into DeleteMessageBatch requests, and visibility changes into
+ * ChangeMessageVisibilityBatch requests, of up to 10 messages. A batch is sent as soon as it is full, or when the linger time
+ * expires with fewer messages waiting. Entries that SQS fails for a reason on its side are retried with a later batch, after the linger
+ * time doubled for every attempt, so a short outage of SQS does not use up all retries at once.
+ * </p>
+ * <p>
+ * Visibility extensions of messages that are still being processed are dropped when the message is deleted or its visibility is changed
+ * before the extension is sent, also while the extension waits for a retry, so an acknowledged message is never hidden again.
+ * </p>
+ */
+public class SQSAcknowledger
+{
+	/** Highest number of entries SQS accepts in a single batch request. */
+	public static final int MAX_BATCH_SIZE = 10;
+	/** Highest number of milliseconds a failed entry waits before it is sent again. */
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final AmazonSQS sqsClient;
+	private final ExecutorService executor;
+	private final String queueUrl;
+	private final long linger;
+	private final int maxRetries;
+
+	private final Batcher deletes = new DeleteBatcher();
+	private final Batcher visibilityChanges = new VisibilityBatcher();
+	private final Semaphore batchFull = new Semaphore(0);
+	// the extension that is waiting or retrying per receipt handle
+	private final ConcurrentMap<String, Entry> extensions = new ConcurrentHashMap<String, Entry>();
+	private volatile boolean running = false;
+
+	/**
+	 * @param linger
+	 *            Number of milliseconds an entry may wait for its batch to fill.
+	 * @param maxRetries
+	 *            Number of times an entry that failed is sent again.
+	 */
+	public SQSAcknowledger(AmazonSQS sqsClient, ExecutorService executor, String queueUrl, long linger, int maxRetries)
+	{
+		this.sqsClient = sqsClient;
+		this.executor = executor;
+		this.queueUrl = queueUrl;
+		this.linger = linger;
+		this.maxRetries = maxRetries;
+	}
+
+	public void start()
+	{
+		running = true;
+		executor.submit(new Flusher());
+	}
+
+	/**
+	 * Sends the entries that are still waiting and stops.
+	 */
+	public void stop()
+	{
+		running = false;
+		batchFull.release();
+		executor.shutdown();
+		try
+		{
+			if(!executor.awaitTermination(linger + 30000, TimeUnit.MILLISECONDS))
+				log.warn("acknowledgements for queue [" + queueUrl + "] are still pending after stop, the messages will be delivered again");
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Deletes a message from the queue with the next batch.
+	 */
+	public void delete(Message message)
+	{
+		cancelExtension(message);
+		deletes.add(new Entry(message, 0, false));
+	}
+
+	/**
+	 * Changes the visibility timeout of a message with the next batch, 0 makes it visible to other consumers immediately.
+	 */
+	public void changeVisibility(Message message, int visibilityTimeout)
+	{
+		cancelExtension(message);
+		visibilityChanges.add(new Entry(message, visibilityTimeout, false));
+	}
+
+	/**
+	 * Extends the visibility timeout of a message that is being processed with the next batch, unless the message is deleted or
+	 * its visibility is changed before the extension is sent.
+	 */
+	public void extendVisibility(Message message, int visibilityTimeout)
+	{
+		Entry entry = new Entry(message, visibilityTimeout, true);
+		Entry previous = extensions.put(message.getReceiptHandle(), entry);
+		if(previous != null)
+			previous.cancelled = true;
+		visibilityChanges.add(entry);
+	}
+
+	/**
+	 * Drops the extension of a message that is waiting to be sent or to be retried.
+	 */
+	public void cancelExtension(Message message)
+	{
+		Entry extension = extensions.remove(message.getReceiptHandle());
+		if(extension != null)
+			extension.cancelled = true;
+	}
+
+	private static class Entry
+	{
+		private final Message message;
+		private final int visibilityTimeout;
+		private final boolean extension;
+		private volatile boolean cancelled = false;
+		private int attempts = 0;
+		private long retryAt;
+
+		Entry(Message message, int visibilityTimeout, boolean extension)
+		{
+			this.message = message;
+			this.visibilityTimeout = visibilityTimeout;
+			this.extension = extension;
+		}
+	}
+
+	/**
+	 * Queue of entries for one type of batch request. Entries are taken from the queue in chunks of at most 10, the position of an
+	 * entry in its chunk is its id in the request. Only the flusher sends batches, so the entries that wait for a retry are its own.
+	 */
+	private abstract class Batcher
+	{
+		private final Queue<Entry> pending = new ConcurrentLinkedQueue<Entry>();
+		private final AtomicInteger pendingCount = new AtomicInteger();
+		private final List<Entry> retries = new ArrayList<Entry>();
+
+		void add(Entry entry)
+		{
+			pending.offer(entry);
+			if(pendingCount.incrementAndGet() % MAX_BATCH_SIZE == 0)
+				batchFull.release();
+		}
+
+		/**
+		 * Sends the full batches, or all entries when all is true.
+		 */
+		void flush(boolean all)
+		{
+			long now = System.currentTimeMillis();
+			for(Iterator<Entry> iterator = retries.iterator(); iterator.hasNext(); )
+			{
+				Entry entry = iterator.next();
+				if(entry.cancelled)
+					iterator.remove();
+				else if(entry.retryAt <= now)
+				{
+					iterator.remove();
+					add(entry);
+				}
+			}
+			while(pendingCount.get() >= MAX_BATCH_SIZE || (all && pendingCount.get() > 0))
+			{
+				List<Entry> batch = new ArrayList<Entry>(MAX_BATCH_SIZE);
+				Entry entry;
+				while(batch.size() < MAX_BATCH_SIZE && (entry = pending.poll()) != null)
+				{
+					pendingCount.decrementAndGet();
+					if(!entry.cancelled)
+						batch.add(entry);
+				}
+				if(!batch.isEmpty())
+					send(batch);
+			}
+		}
+
+		/**
+		 * Sends all entries, including those that wait for a retry, when the acknowledger stops.
+		 */
+		void flushRemaining()
+		{
+			for(Entry entry : retries)
+				entry.retryAt = 0;
+			flush(true);
+			for(Entry entry : retries)
+			{
+				log.warn(getAction() + " of message [" + entry.message.getMessageId() + "] failed [" + entry.attempts + "] times before the acknowledger stopped");
+				settle(entry);
+			}
+			retries.clear();
+		}
+
+		private void send(List<Entry> batch)
+		{
+			List<BatchResultErrorEntry> failed;
+			try
+			{
+				failed = sendBatch(batch);
+			}
+			catch(AmazonClientException e)
+			{
+				log.warn("failed to send " + getAction() + " batch of [" + batch.size() + "] entries to queue [" + queueUrl + "]", e);
+				for(Entry entry : batch)
+					retry(entry, e.getMessage());
+				return;
+			}
+			List<Entry> retried = new ArrayList<Entry>(failed.size());
+			for(BatchResultErrorEntry error : failed)
+			{
+				Entry entry = batch.get(Integer.parseInt(error.getId()));
+				if(error.isSenderFault())
+					log.error(getAction() + " of message [" + entry.message.getMessageId() + "] rejected by queue [" + queueUrl + "] code [" + error.getCode() + "]: " + error.getMessage());
+				else if(retry(entry, error.getCode()))
+					retried.add(entry);
+			}
+			for(Entry entry : batch)
+				if(!retried.contains(entry))
+					settle(entry);
+		}
+
+		/**
+		 * Schedules an entry for a later batch, returns false when it failed too often.
+		 */
+		private boolean retry(Entry entry, String reason)
+		{
+			if(++entry.attempts > maxRetries)
+			{
+				log.error(getAction() + " of message [" + entry.message.getMessageId() + "] failed [" + entry.attempts + "] times, last reason [" + reason + "]");
+				settle(entry);
+				return false;
+			}
+			//not added to the pending entries, so it is not sent again by the flush that is running
+			entry.retryAt = System.currentTimeMillis() + Math.min(MAX_RETRY_DELAY, linger << Math.min(entry.attempts - 1, 16));
+			retries.add(entry);
+			return true;
+		}
+
+		/**
+		 * Forgets an extension that was sent or given up, a later acknowledgement has nothing left to drop.
+		 */
+		private void settle(Entry entry)
+		{
+			if(entry.extension)
+				extensions.remove(entry.message.getReceiptHandle(), entry);
+		}
+
+		abstract String getAction();
+
+		abstract List<BatchResultErrorEntry> sendBatch(List<Entry> batch);
+	}
+
+	private class DeleteBatcher extends Batcher
+	{
+		@Override
+		String getAction()
+		{
+			return "DeleteMessage";
+		}
+
+		@Override
+		List<BatchResultErrorEntry> sendBatch(List<Entry> batch)
+		{
+			List<DeleteMessageBatchRequestEntry> entries = new ArrayList<DeleteMessageBatchRequestEntry>(batch.size());
+			for(int i = 0; i < batch.size(); i++)
+				entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), batch.get(i).message.getReceiptHandle()));
+			return sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries)).getFailed();
+		}
+	}
+
+	private class VisibilityBatcher extends Batcher
+	{
+		@Override
+		String getAction()
+		{
+			return "ChangeMessageVisibility";
+		}
+
+		@Override
+		List<BatchResultErrorEntry> sendBatch(List<Entry> batch)
+		{
+			List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>(batch.size());
+			for(int i = 0; i < batch.size(); i++)
+				entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i), batch.get(i).message.getReceiptHandle())
+						.withVisibilityTimeout(batch.get(i).visibilityTimeout));
+			return sqsClient.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(queueUrl, entries)).getFailed();
+		}
+	}
+
+	/**
+	 * Sends full batches as soon as they fill, and everything that waits when the linger time expires.
+	 */
+	private class Flusher implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(running)
+				{
+					boolean full = batchFull.tryAcquire(linger, TimeUnit.MILLISECONDS);
+					batchFull.drainPermits();
+					deletes.flush(!full);
+					visibilityChanges.flush(!full);
+				}
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			finally
+			{
+				deletes.flushRemaining();
+				visibilityChanges.flushRemaining();
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.Message;
+
+public class SQSAcknowledgerTest
+{
+	private static final long LINGER = 50;
+
+	/**
+	 * Fails the delete batches as configured for the first request, and records the receipt handles and time of every request.
+	 * Visibility changes are recorded as receipt handle and timeout, and all of them fail when visibilityChangesUnavailable is set.
+	 */
+	private static class FailingAmazonSQS extends FakeAmazonSQS
+	{
+		private final List<String> failedHandles;
+		private final List<String> senderFaultHandles;
+		private final boolean unavailable;
+		private final List<List<String>> requests = Collections.synchronizedList(new ArrayList<List<String>>());
+		private final List<Long> requestTimes = Collections.synchronizedList(new ArrayList<Long>());
+		private final List<String> visibilityChanges = Collections.synchronizedList(new ArrayList<String>());
+		private final CountDownLatch visibilityChangeSent = new CountDownLatch(1);
+		private volatile boolean visibilityChangesUnavailable = false;
+
+		FailingAmazonSQS(List<String> failedHandles, List<String> senderFaultHandles, boolean unavailable)
+		{
+			this.failedHandles = failedHandles;
+			this.senderFaultHandles = senderFaultHandles;
+			this.unavailable = unavailable;
+		}
+
+		@Override
+		public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest deleteMessageBatchRequest)
+		{
+			boolean first = requests.isEmpty();
+			List<String> handles = new ArrayList<String>();
+			for(DeleteMessageBatchRequestEntry entry : deleteMessageBatchRequest.getEntries())
+				handles.add(entry.getReceiptHandle());
+			requests.add(handles);
+			requestTimes.add(System.currentTimeMillis());
+			if(!first)
+				return super.deleteMessageBatch(deleteMessageBatchRequest);
+			if(unavailable)
+				throw new SdkClientException("connection refused");
+
+			DeleteMessageBatchResult result = new DeleteMessageBatchResult()
+					.withSuccessful(new ArrayList<DeleteMessageBatchResultEntry>())
+					.withFailed(new ArrayList<BatchResultErrorEntry>());
+			for(DeleteMessageBatchRequestEntry entry : deleteMessageBatchRequest.getEntries())
+			{
+				if(failedHandles.contains(entry.getReceiptHandle()))
+					result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId()).withCode("InternalError").withSenderFault(false));
+				else if(senderFaultHandles.contains(entry.getReceiptHandle()))
+					result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId()).withCode("ReceiptHandleIsInvalid").withSenderFault(true));
+				else
+					result.getSuccessful().add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+			}
+			return result;
+		}
+
+		@Override
+		public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest)
+		{
+			for(ChangeMessageVisibilityBatchRequestEntry entry : changeMessageVisibilityBatchRequest.getEntries())
+				visibilityChanges.add(entry.getReceiptHandle() + "=" + entry.getVisibilityTimeout());
+			visibilityChangeSent.countDown();
+			if(visibilityChangesUnavailable)
+				throw new SdkClientException("connection refused");
+			return super.changeMessageVisibilityBatch(changeMessageVisibilityBatchRequest);
+		}
+	}
+
+	private static Message message(String receiptHandle)
+	{
+		return new Message().withMessageId(receiptHandle).withReceiptHandle(receiptHandle);
+	}
+
+	private static void deleteAll(FailingAmazonSQS sqsClient, String... receiptHandles) throws InterruptedException
+	{
+		SQSAcknowledger acknowledger = new SQSAcknowledger(sqsClient, Executors.newSingleThreadExecutor(), "queue", LINGER, 3);
+		acknowledger.start();
+		for(String receiptHandle : receiptHandles)
+			acknowledger.delete(message(receiptHandle));
+		Thread.sleep(LINGER * 6);
+		acknowledger.stop();
+	}
+
+	@Test
+	public void failedEntriesAreRetriedAfterTheLingerTime() throws InterruptedException
+	{
+		FailingAmazonSQS sqsClient = new FailingAmazonSQS(Collections.singletonList("failed"), Collections.singletonList("rejected"), false);
+		deleteAll(sqsClient, "deleted", "failed", "rejected");
+
+		assertEquals(2, sqsClient.requests.size());
+		assertEquals(3, sqsClient.requests.get(0).size());
+		// only the entry that failed on the side of SQS is sent again, an entry rejected as the fault of the sender is not
+		assertEquals(Collections.singletonList("failed"), sqsClient.requests.get(1));
+		assertTrue(sqsClient.requestTimes.get(1) - sqsClient.requestTimes.get(0) >= LINGER);
+	}
+
+	@Test
+	public void batchIsRetriedAfterTheLingerTimeWhenSqsIsUnavailable() throws InterruptedException
+	{
+		FailingAmazonSQS sqsClient = new FailingAmazonSQS(Collections.<String>emptyList(), Collections.<String>emptyList(), true);
+		deleteAll(sqsClient, "first", "second");
+
+		assertEquals(2, sqsClient.requests.size());
+		assertEquals(sqsClient.requests.get(0), sqsClient.requests.get(1));
+		assertTrue(sqsClient.requestTimes.get(1) - sqsClient.requestTimes.get(0) >= LINGER);
+	}
+
+	@Test
+	public void extensionIsNotSentAfterTheMessageIsAcknowledged() throws InterruptedException
+	{
+		FailingAmazonSQS sqsClient = new FailingAmazonSQS(Collections.<String>emptyList(), Collections.<String>emptyList(), false);
+		SQSAcknowledger acknowledger = new SQSAcknowledger(sqsClient, Executors.newSingleThreadExecutor(), "queue", LINGER, 3);
+		acknowledger.start();
+		acknowledger.extendVisibility(message("deleted"), 30);
+		acknowledger.extendVisibility(message("failed"), 30);
+		acknowledger.extendVisibility(message("processing"), 30);
+		acknowledger.delete(message("deleted"));
+		acknowledger.changeVisibility(message("failed"), 0);
+		Thread.sleep(LINGER * 4);
+		acknowledger.stop();
+
+		assertEquals(Arrays.asList("processing=30", "failed=0"), sqsClient.visibilityChanges);
+		assertEquals(Collections.singletonList(Collections.singletonList("deleted")), sqsClient.requests);
+	}
+
+	@Test
+	public void extensionWaitingForARetryIsDroppedWhenTheMessageIsDeleted() throws InterruptedException
+	{
+		FailingAmazonSQS sqsClient = new FailingAmazonSQS(Collections.<String>emptyList(), Collections.<String>emptyList(), false);
+		sqsClient.visibilityChangesUnavailable = true;
+		SQSAcknowledger acknowledger = new SQSAcknowledger(sqsClient, Executors.newSingleThreadExecutor(), "queue", LINGER, 3);
+		acknowledger.start();
+		acknowledger.extendVisibility(message("deleted"), 30);
+		assertTrue(sqsClient.visibilityChangeSent.await(1, TimeUnit.SECONDS));
+		// the retry waits at least the linger time
+		acknowledger.delete(message("deleted"));
+		Thread.sleep(LINGER * 8);
+		acknowledger.stop();
+
+		assertEquals(Collections.singletonList("deleted=30"), sqsClient.visibilityChanges);
+		assertEquals(Collections.singletonList(Collections.singletonList("deleted")), sqsClient.requests);
+	}
+}
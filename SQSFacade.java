@@ -16,10 +16,15 @@
 package nl.nn.adapterframework.receivers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.sqs.AmazonSQS;
@@ -28,29 +33,68 @@ import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.HasPhysicalDestination;
 import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.VirtualThreadExecutors;
 
 public class SQSFacade implements HasPhysicalDestination
 {
+	/** Number of connections on top of the concurrent requests, for requests that are sent once, like the lookup of the visibility timeout of a queue. */
+	private static final int CONNECTION_HEADROOM = 10;
+	
+	protected Logger log = LogUtil.getLogger(this);
 	private String name;
 	private AmazonSQSClientBuilder sqsClientBuilder;
 	private AmazonSQS sqsClient;
 	public static final List<String> AVAILABLE_REGIONS = getAvailableRegions();
 	
 	private String clientRegion = Regions.EU_CENTRAL_1.getName();
+	private String queueUrl;
+	private String queueUrls;
+	private boolean virtualThreadsEnabled = false;
 
 	public void configure() throws ConfigurationException
 	{
 		if(StringUtils.isEmpty(getClientRegion()) || !AVAILABLE_REGIONS.contains(getClientRegion()))
 			throw new ConfigurationException(getLogPrefix() + " region unknown or is not specified [" + getClientRegion() + "] please use following supported regions: " + AVAILABLE_REGIONS.toString());
 		
+		if(StringUtils.isEmpty(getQueueUrl()) && StringUtils.isEmpty(getQueueUrls()))
+			throw new ConfigurationException(getLogPrefix() + " queueUrl or queueUrls must be specified");
+		
+		//long polls hold a connection for up to 20 seconds, a pool that is too small makes deletes wait behind them
+		int maxConnections = Math.max(ClientConfiguration.DEFAULT_MAX_CONNECTIONS, getConcurrentRequests() + CONNECTION_HEADROOM);
 		sqsClientBuilder = AmazonSQSClientBuilder.standard()
 												 .withRegion(getClientRegion())
-												 .withCredentials(new EnvironmentVariableCredentialsProvider());
+												 .withCredentials(new EnvironmentVariableCredentialsProvider())
+												 .withClientConfiguration(new ClientConfiguration().withMaxConnections(maxConnections));
+	}
+	
+	/**
+	 * Returns the highest number of requests that are sent on the client at the same time, the connection pool of the client is sized to fit them.
+	 */
+	protected int getConcurrentRequests()
+	{
+		return getQueueUrlList().size();
 	}
 
 	public void open() throws ListenerException
 	{
-		sqsClient = sqsClientBuilder.build();
+		sqsClient = createSqsClient();
+	}
+
+	/**
+	 * Creates the client the listener receives its messages with.
+	 */
+	protected AmazonSQS createSqsClient()
+	{
+		return sqsClientBuilder.build();
+	}
+
+	/**
+	 * Creates an unbounded executor for the SQS requests that are sent in the background, on virtual threads when virtualThreadsEnabled is set to 'true'.
+	 */
+	protected ExecutorService createExecutor(String purpose)
+	{
+		return VirtualThreadExecutors.newExecutor("SQS-" + getName() + "-" + purpose + "-", isVirtualThreadsEnabled());
 	}
 
 	public void close() throws ListenerException
@@ -98,10 +142,54 @@ public class SQSFacade implements HasPhysicalDestination
 		this.clientRegion = clientRegion;
 	}
 
+	public String getQueueUrl()
+	{
+		return queueUrl;
+	}
+	
+	public void setQueueUrl(String queueUrl)
+	{
+		this.queueUrl = queueUrl;
+	}
+	
+	public String getQueueUrls()
+	{
+		return queueUrls;
+	}
+	
+	public void setQueueUrls(String queueUrls)
+	{
+		this.queueUrls = queueUrls;
+	}
+	
+	/**
+	 * Returns the URLs in queueUrls, or queueUrl when queueUrls is not set.
+	 */
+	public List<String> getQueueUrlList()
+	{
+		if(StringUtils.isEmpty(getQueueUrls()))
+			return Collections.singletonList(getQueueUrl());
+		List<String> urls = new ArrayList<String>();
+		StringTokenizer tokenizer = new StringTokenizer(getQueueUrls(), " ,\t\n\r\f");
+		while(tokenizer.hasMoreTokens())
+			urls.add(tokenizer.nextToken());
+		return urls;
+	}
+	
+	public boolean isVirtualThreadsEnabled()
+	{
+		return virtualThreadsEnabled;
+	}
+	
+	public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled)
+	{
+		this.virtualThreadsEnabled = virtualThreadsEnabled;
+	}
+
 	@Override
 	public String getPhysicalDestinationName()
 	{
-		return null;
+		return StringUtils.isEmpty(getQueueUrls()) ? getQueueUrl() : getQueueUrls();
 	}
 	
 	public AmazonSQS getSqsClient() {
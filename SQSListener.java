@@ -15,95 +15,428 @@
 */
 package nl.nn.adapterframework.receivers;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang.StringUtils;
+
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.model.BucketNotificationConfiguration;
 import com.amazonaws.services.s3.model.QueueConfiguration;
 import com.amazonaws.services.s3.model.S3Event;
 import com.amazonaws.services.s3.model.SetBucketNotificationConfigurationRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
 import com.amazonaws.services.sqs.model.Message;
-import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPullingListener;
 import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.core.PipeLine;
 import nl.nn.adapterframework.core.PipeLineResult;
 
+/**
+ * <p>
+ * Pulling listener for one or more Amazon SQS queues. Messages are received in the background with long-polling requests of up to 10 messages
+ * into a bounded prefetch buffer per queue, that the pulling threads of the receiver drain without taking a lock.
+ * </p>
+ * <p>
+ * When several queues are consumed, the pulling threads take messages from the queues in proportion to their weight, spread evenly
+ * over time. A thread that finds the buffer of its turn empty takes a message of another queue instead, and a message that waited longer than
+ * starvationTimeout is taken before the weights are considered, so a queue with a low weight is never left waiting behind busy ones.
+ * </p>
+ * 
+ * <p><b>Configuration:</b>
+ * <table border="1">
+ * <tr><th>attributes</th><th>description</th><th>default</th></tr>
+ * <tr><td>{@link #setQueueUrl(String) queueUrl}</td><td>URL of the queue the messages are received from.</td><td></td></tr>
+ * <tr><td>{@link #setQueueUrls(String) queueUrls}</td><td>Comma separated URLs of several queues the messages are received from, used instead of queueUrl.</td><td></td></tr>
+ * <tr><td>{@link #setQueueWeights(String) queueWeights}</td><td>Comma separated weights of the queues in queueUrls, between 1 and 100. A queue with weight 3 gets three messages processed for every message of a queue with weight 1 when both have messages waiting.</td><td>1 for every queue</td></tr>
+ * <tr><td>{@link #setStarvationTimeout(long) starvationTimeout}</td><td>Number of milliseconds after which a buffered message is processed before the messages of queues with a higher weight.</td><td>1000</td></tr>
+ * <tr><td>{@link #setMaxEmptyReceiveBackoff(long) maxEmptyReceiveBackoff}</td><td>When larger than 0, a queue that returned no messages is not received from for 100 ms, doubling up to this number of milliseconds while it stays empty. Useful for many mostly empty queues or a waitTimeSeconds of 0.</td><td>0</td></tr>
+ * <tr><td>{@link #setMaxNumberOfMessages(int) maxNumberOfMessages}</td><td>Maximum number of messages a single receive request returns, between 1 and 10.</td><td>10</td></tr>
+ * <tr><td>{@link #setWaitTimeSeconds(int) waitTimeSeconds}</td><td>Number of seconds a receive request waits for messages to arrive in an empty queue, between 0 and 20. 0 polls without waiting.</td><td>20</td></tr>
+ * <tr><td>{@link #setVisibilityTimeout(int) visibilityTimeout}</td><td>Number of seconds received messages are hidden from other consumers, -1 uses the visibility timeout of the queue.</td><td>-1</td></tr>
+ * <tr><td>{@link #setPrefetchBufferSize(int) prefetchBufferSize}</td><td>Maximum number of received messages per queue that wait for a pulling thread, at least maxNumberOfMessages.
+ * Messages that waited longer than half of the visibility timeout are dropped and delivered again by SQS later, receiving pauses while messages are waiting that long.</td><td>20</td></tr>
+ * <tr><td>{@link #setReceiveConcurrency(int) receiveConcurrency}</td><td>Number of receive requests per queue that are in flight at the same time to fill its prefetch buffer.
+ * The connection pool of the client is sized to fit the receive requests and acknowledgements of all queues.</td><td>1</td></tr>
+ * <tr><td>{@link #setAckLinger(long) ackLinger}</td><td>Number of milliseconds a processed message waits for 9 others, so they are deleted from the queue with a single DeleteMessageBatch request.</td><td>100</td></tr>
+ * <tr><td>{@link #setAckMaxRetries(int) ackMaxRetries}</td><td>Number of times a delete or visibility change that failed on the side of SQS is sent again.</td><td>3</td></tr>
+ * <tr><td>{@link #setFailedVisibilityTimeout(int) failedVisibilityTimeout}</td><td>When 0 or more, the visibility timeout of a message that was not processed successfully is changed to this number of seconds, 0 delivers it again right away. -1 leaves the message invisible until its visibility timeout expires.</td><td>-1</td></tr>
+ * <tr><td>{@link #setMaxVisibilityExtension(int) maxVisibilityExtension}</td><td>When larger than 0, the visibility of a message that is still being processed is extended by the visibility timeout shortly before it expires,
+ * until this number of seconds after it was received. This prevents another thread from processing the message again. SQS allows at most 43200 seconds (12 hours).</td><td>0</td></tr>
+ * <tr><td>{@link #setS3EventNotificationsEnabled(boolean) s3EventNotificationsEnabled}</td><td>When set to 'true' the messages are S3 event notifications, every record of a notification is processed as a message of its own.
+ * The message is then the name of the file, its bucket, name, size and ETag are stored in the session keys s3BucketName, s3Key, s3Size and s3ETag and the event in s3EventName.
+ * The file itself is not downloaded. The notification is deleted from the queue when all its records are processed successfully. The s3:TestEvent is deleted without processing,
+ * any other message, like a notification that was delivered through SNS, fails.</td><td>false</td></tr>
+ * <tr><td>{@link #setVirtualThreadsEnabled(boolean) virtualThreadsEnabled}</td><td>When set to 'true' the receive, delete and visibility requests run on virtual threads (Java 21 and later).</td><td>false</td></tr>
+ * </table>
+ * </p>
+ */
 public class SQSListener extends SQSFacade implements IPullingListener
 {
+	private static final long POLL_TIMEOUT = 1000;
+	private static final long IDLE_WAIT = 50;
+	private static final int MAX_QUEUE_WEIGHT = 100;
+	private static final int MAX_VISIBILITY_TIMEOUT = 43200;
+	public static final String EVENT_NAME_SESSION_KEY = "s3EventName";
+	
 	private String name;
+	private int maxNumberOfMessages = 10;
+	private int waitTimeSeconds = 20;
+	private int visibilityTimeout = -1;
+	private int prefetchBufferSize = 20;
+	private int receiveConcurrency = 1;
+	private long ackLinger = 100;
+	private int ackMaxRetries = 3;
+	private int failedVisibilityTimeout = -1;
+	private int maxVisibilityExtension = 0;
+	private boolean s3EventNotificationsEnabled = false;
+	private String queueWeights;
+	private long starvationTimeout = 1000;
+	private long maxEmptyReceiveBackoff = 0;
+	
+	private List<Integer> weights;
+	private SQSQueueConsumer[] consumers;
+	// the consumer of every turn of a round, each consumer has as many turns as its weight
+	private SQSQueueConsumer[] schedule;
+	private final AtomicInteger turn = new AtomicInteger();
+	private final ConcurrentMap<String, SQSQueueConsumer> consumerByReceiptHandle = new ConcurrentHashMap<String, SQSQueueConsumer>();
+	// records of a notification that are not handed to a pulling thread yet
+	private final Queue<S3EventRecord> pendingRecords = new ConcurrentLinkedQueue<S3EventRecord>();
 	
 	@Override
 	public void configure() throws ConfigurationException
 	{
 		super.configure();
-System.out.println("congfiguring");
+		
+		if(getMaxNumberOfMessages() < 1 || getMaxNumberOfMessages() > 10)
+			throw new ConfigurationException(getLogPrefix() + " invalid maxNumberOfMessages [" + getMaxNumberOfMessages() + "] it must be between 1 and 10");
+		
+		if(getWaitTimeSeconds() < 0 || getWaitTimeSeconds() > 20)
+			throw new ConfigurationException(getLogPrefix() + " invalid waitTimeSeconds [" + getWaitTimeSeconds() + "] it must be between 0 and 20");
+		
+		if(getPrefetchBufferSize() < getMaxNumberOfMessages() || getReceiveConcurrency() < 1)
+			throw new ConfigurationException(getLogPrefix() + " invalid prefetchBufferSize [" + getPrefetchBufferSize() + "] or receiveConcurrency [" + getReceiveConcurrency() + "] the buffer must fit maxNumberOfMessages and at least one request has to be sent at a time");
+		
+		if(getAckLinger() < 1 || getAckMaxRetries() < 0)
+			throw new ConfigurationException(getLogPrefix() + " invalid ackLinger [" + getAckLinger() + "] or ackMaxRetries [" + getAckMaxRetries() + "] the linger time must be positive and the number of retries cannot be negative");
+		
+		if(getMaxVisibilityExtension() < 0 || getMaxVisibilityExtension() > MAX_VISIBILITY_TIMEOUT)
+			throw new ConfigurationException(getLogPrefix() + " invalid maxVisibilityExtension [" + getMaxVisibilityExtension() + "] it must be between 0 and " + MAX_VISIBILITY_TIMEOUT + " seconds");
+		
+		if(getStarvationTimeout() < 0 || getMaxEmptyReceiveBackoff() < 0)
+			throw new ConfigurationException(getLogPrefix() + " invalid starvationTimeout [" + getStarvationTimeout() + "] or maxEmptyReceiveBackoff [" + getMaxEmptyReceiveBackoff() + "] they cannot be negative");
+		
+		weights = new ArrayList<Integer>();
+		int queueCount = getQueueUrlList().size();
+		if(StringUtils.isEmpty(getQueueWeights()))
+		{
+			for(int i = 0; i < queueCount; i++)
+				weights.add(1);
+		}
+		else
+		{
+			StringTokenizer tokenizer = new StringTokenizer(getQueueWeights(), " ,\t\n\r\f");
+			while(tokenizer.hasMoreTokens())
+			{
+				String weight = tokenizer.nextToken();
+				try
+				{
+					weights.add(Integer.parseInt(weight));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new ConfigurationException(getLogPrefix() + " invalid queue weight [" + weight + "] in queueWeights [" + getQueueWeights() + "]", e);
+				}
+				if(weights.get(weights.size() - 1) < 1 || weights.get(weights.size() - 1) > MAX_QUEUE_WEIGHT)
+					throw new ConfigurationException(getLogPrefix() + " invalid queue weight [" + weight + "] it must be between 1 and " + MAX_QUEUE_WEIGHT);
+			}
+			if(weights.size() != queueCount)
+				throw new ConfigurationException(getLogPrefix() + " queueWeights [" + getQueueWeights() + "] must have a weight for each of the [" + queueCount + "] queues");
+		}
 	}
 
 	@Override
 	public void open() throws ListenerException
 	{
 		super.open();
-System.out.println("open method: starting everything");
+		
+		List<String> queueUrlList = getQueueUrlList();
+		consumers = new SQSQueueConsumer[queueUrlList.size()];
+		for(int i = 0; i < consumers.length; i++)
+		{
+			consumers[i] = createConsumer(queueUrlList.get(i), weights.get(i));
+			consumers[i].start(getReceiveConcurrency());
+		}
+		schedule = createSchedule(consumers);
+	}
+	
+	/**
+	 * Returns the receive requests of every queue plus one request of its acknowledger, which also sends the visibility extensions of the heartbeat.
+	 */
+	@Override
+	protected int getConcurrentRequests()
+	{
+		return getQueueUrlList().size() * (getReceiveConcurrency() + 1);
+	}
+	
+	/**
+	 * Creates the consumer of one queue with its prefetch buffer, acknowledger and heartbeat.
+	 */
+	protected SQSQueueConsumer createConsumer(String queueUrl, int weight) throws ListenerException
+	{
+		Integer requestedVisibilityTimeout = getVisibilityTimeout() < 0 ? null : getVisibilityTimeout();
+		int visibilityTimeout = requestedVisibilityTimeout == null ? getQueueVisibilityTimeout(queueUrl) : getVisibilityTimeout();
+		
+		SQSAcknowledger acknowledger = new SQSAcknowledger(getSqsClient(), createExecutor("acknowledge"), queueUrl, getAckLinger(), getAckMaxRetries());
+		SQSVisibilityHeartbeat heartbeat = null;
+		if(getMaxVisibilityExtension() > 0)
+			heartbeat = new SQSVisibilityHeartbeat(acknowledger, createExecutor("heartbeat"), visibilityTimeout, getMaxVisibilityExtension());
+		SQSPrefetchBuffer prefetchBuffer = new SQSPrefetchBuffer(getSqsClient(), createExecutor("receive"), queueUrl, getPrefetchBufferSize(), getMaxNumberOfMessages(), getWaitTimeSeconds(), requestedVisibilityTimeout, visibilityTimeout * 1000L / 2);
+		prefetchBuffer.setMaxEmptyReceiveBackoff(getMaxEmptyReceiveBackoff());
+		return new SQSQueueConsumer(queueUrl, weight, prefetchBuffer, acknowledger, heartbeat);
+	}
+	
+	/**
+	 * Spreads the turns of every consumer evenly over a round with smooth weighted round robin: every turn goes to the consumer with
+	 * the highest current weight, which is then lowered by the total weight. Weights 3 and 1 give the round A A B A instead of A A A B.
+	 */
+	private static SQSQueueConsumer[] createSchedule(SQSQueueConsumer[] consumers)
+	{
+		int totalWeight = 0;
+		for(SQSQueueConsumer consumer : consumers)
+			totalWeight += consumer.getWeight();
+		SQSQueueConsumer[] schedule = new SQSQueueConsumer[totalWeight];
+		int[] currentWeights = new int[consumers.length];
+		for(int turn = 0; turn < totalWeight; turn++)
+		{
+			int selected = 0;
+			for(int i = 0; i < consumers.length; i++)
+			{
+				currentWeights[i] += consumers[i].getWeight();
+				if(currentWeights[i] > currentWeights[selected])
+					selected = i;
+			}
+			currentWeights[selected] -= totalWeight;
+			schedule[turn] = consumers[selected];
+		}
+		return schedule;
+	}
+	
+	private int getQueueVisibilityTimeout(String queueUrl) throws ListenerException
+	{
+		try
+		{
+			GetQueueAttributesRequest request = new GetQueueAttributesRequest(queueUrl).withAttributeNames(QueueAttributeName.VisibilityTimeout);
+			return Integer.parseInt(getSqsClient().getQueueAttributes(request).getAttributes().get(QueueAttributeName.VisibilityTimeout.toString()));
+		}
+		catch(AmazonClientException e)
+		{
+			throw new ListenerException(getLogPrefix() + "cannot read the visibility timeout of queue [" + queueUrl + "]", e);
+		}
 	}
 
 	@Override
 	public Map<String, Object> openThread() throws ListenerException
 	{
-System.out.println("open thread method");
 		return null;
 	}
 
 	@Override
 	public void close() throws ListenerException
 	{
+		if(consumers != null)
+		{
+			for(SQSQueueConsumer consumer : consumers)
+				consumer.stop();
+			consumers = null;
+			schedule = null;
+		}
+		pendingRecords.clear();
+		consumerByReceiptHandle.clear();
 		super.close();
-System.out.println("close methode: stops everything before exiting");
 	}
 
 	@Override
 	public void closeThread(Map<String, Object> threadContext) throws ListenerException
 	{
-System.out.println("close thread method");
 	}
 
+	/**
+	 * Returns the next {@link Message} from the prefetch buffers, or null when none arrives within a second.
+	 */
 	@Override
-	public synchronized Object getRawMessage(Map<String, Object> threadContext) throws ListenerException
+	public Object getRawMessage(Map<String, Object> threadContext) throws ListenerException
 	{
-		ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest("https://sqs.eu-west-1.amazonaws.com/025885598068/S3NotificationQueue.fifo").withMaxNumberOfMessages(1);
-		final List<Message> message = getSqsClient().receiveMessage(receiveMessageRequest).getMessages();
-System.out.println("messages: "+message);
-		
+		if(isS3EventNotificationsEnabled())
+		{
+			S3EventRecord record = pendingRecords.poll();
+			if(record != null)
+				return record;
+		}
+		try
+		{
+			SQSQueueConsumer[] currentConsumers = consumers;
+			if(currentConsumers.length == 1)
+				return deliver(currentConsumers[0], currentConsumers[0].poll(POLL_TIMEOUT));
+			
+			long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+			do
+			{
+				SQSQueueConsumer starving = findStarvingConsumer(currentConsumers);
+				if(starving != null)
+				{
+					Message message = starving.poll(0);
+					if(message != null)
+						return deliver(starving, message);
+				}
+				SQSQueueConsumer scheduled = schedule[(turn.getAndIncrement() & Integer.MAX_VALUE) % schedule.length];
+				Message message = scheduled.poll(0);
+				if(message != null)
+					return deliver(scheduled, message);
+				//the queue of this turn has nothing buffered, take a message of any other queue so the thread never idles while messages wait
+				for(SQSQueueConsumer consumer : currentConsumers)
+				{
+					if(consumer != scheduled && (message = consumer.poll(0)) != null)
+						return deliver(consumer, message);
+				}
+				message = scheduled.poll(Math.min(IDLE_WAIT, Math.max(0, deadline - System.currentTimeMillis())));
+				if(message != null)
+					return deliver(scheduled, message);
+			}
+			while(System.currentTimeMillis() < deadline);
+			return null;
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ListenerException(getLogPrefix() + "interrupted while waiting for a message", e);
+		}
+	}
+	
+	/**
+	 * Returns the consumer whose oldest buffered message waited longest, when that is longer than starvationTimeout.
+	 */
+	private SQSQueueConsumer findStarvingConsumer(SQSQueueConsumer[] currentConsumers)
+	{
+		SQSQueueConsumer starving = null;
+		long oldestAge = getStarvationTimeout();
+		for(SQSQueueConsumer consumer : currentConsumers)
+		{
+			long age = consumer.getOldestAge();
+			if(age > oldestAge)
+			{
+				starving = consumer;
+				oldestAge = age;
+			}
+		}
+		return starving;
+	}
+	
+	private Object deliver(SQSQueueConsumer consumer, Message message)
+	{
+		if(message == null)
+			return null;
+		consumerByReceiptHandle.put(message.getReceiptHandle(), consumer);
+		if(isS3EventNotificationsEnabled())
+			return splitS3EventNotification(message);
 		return message;
 	}
 	
+	/**
+	 * Returns the first record of a notification and keeps the others for the next calls. The s3:TestEvent is deleted, a message
+	 * that is not an S3 event notification is treated as a message that failed.
+	 */
+	private S3EventRecord splitS3EventNotification(Message message)
+	{
+		List<S3EventRecord> records;
+		try
+		{
+			records = S3EventRecord.parse(message);
+		}
+		catch(IOException e)
+		{
+			log.error(getLogPrefix() + "cannot parse S3 event notification [" + message.getMessageId() + "]", e);
+			acknowledge(message, false);
+			return null;
+		}
+		if(records.isEmpty())
+		{
+			if(log.isDebugEnabled()) log.debug(getLogPrefix() + "deleting S3 event notification [" + message.getMessageId() + "] without records");
+			acknowledge(message, true);
+			return null;
+		}
+		pendingRecords.addAll(records.subList(1, records.size()));
+		return records.get(0);
+	}
+	
 	@Override
 	public String getIdFromRawMessage(Object rawMessage, Map<String, Object> context) throws ListenerException
 	{
-System.out.println("getIdFromRawMessage method");
-		// TODO Auto-generated method stub
-		return null;
+		if(rawMessage instanceof S3EventRecord)
+			return ((S3EventRecord) rawMessage).getId();
+		return ((Message) rawMessage).getMessageId();
 	}
 
 	@Override
 	public String getStringFromRawMessage(Object rawMessage, Map<String, Object> context) throws ListenerException
 	{
-System.out.println("getStringFromRawMessage");
-		// TODO Auto-generated method stub
-		return null;
+		if(rawMessage instanceof S3EventRecord)
+		{
+			S3EventRecord record = (S3EventRecord) rawMessage;
+			if(context != null)
+			{
+				context.put(EVENT_NAME_SESSION_KEY, record.getEventName());
+				context.put(S3Listener.BUCKET_NAME_SESSION_KEY, record.getBucketName());
+				context.put(S3Listener.KEY_SESSION_KEY, record.getKey());
+				context.put(S3Listener.SIZE_SESSION_KEY, String.valueOf(record.getSize()));
+				context.put(S3Listener.ETAG_SESSION_KEY, record.getETag());
+			}
+			return record.getKey();
+		}
+		return ((Message) rawMessage).getBody();
 	}
 
+	/**
+	 * Deletes a message that was processed successfully from the queue, and makes a message that was not visible again
+	 * after failedVisibilityTimeout seconds when it is set. Both are sent in batches shortly after this method returns.
+	 * The records of an S3 event notification are acknowledged together, when the last one is processed.
+	 */
 	@Override
 	public void afterMessageProcessed(PipeLineResult processResult, Object rawMessage, Map<String, Object> context)
 			throws ListenerException
 	{
-		System.out.println("afterMessageProcessed");
-		// TODO Auto-generated method stub
-		
+		boolean success = processResult != null && PipeLine.EXIT_STATE_SUCCESS.equals(processResult.getState());
+		if(rawMessage instanceof S3EventRecord)
+		{
+			S3EventRecord record = (S3EventRecord) rawMessage;
+			if(record.processed(success))
+				acknowledge(record.getMessage(), !record.isMessageFailed());
+		}
+		else
+			acknowledge((Message) rawMessage, success);
+	}
+	
+	private void acknowledge(Message message, boolean success)
+	{
+		SQSQueueConsumer consumer = consumerByReceiptHandle.remove(message.getReceiptHandle());
+		if(consumer == null)
+			log.warn(getLogPrefix() + "message [" + message.getMessageId() + "] is not in flight, it was received before the listener was closed");
+		else
+			consumer.acknowledge(message, success, getFailedVisibilityTimeout());
 	}
 
 	//temp method for SQSSender
@@ -142,4 +475,134 @@ System.out.println("getStringFromRawMessage");
 	{
 		this.name = name;
 	}
+
+	public int getMaxNumberOfMessages()
+	{
+		return maxNumberOfMessages;
+	}
+
+	public void setMaxNumberOfMessages(int maxNumberOfMessages)
+	{
+		this.maxNumberOfMessages = maxNumberOfMessages;
+	}
+
+	public int getWaitTimeSeconds()
+	{
+		return waitTimeSeconds;
+	}
+
+	public void setWaitTimeSeconds(int waitTimeSeconds)
+	{
+		this.waitTimeSeconds = waitTimeSeconds;
+	}
+
+	public int getVisibilityTimeout()
+	{
+		return visibilityTimeout;
+	}
+
+	public void setVisibilityTimeout(int visibilityTimeout)
+	{
+		this.visibilityTimeout = visibilityTimeout;
+	}
+
+	public int getPrefetchBufferSize()
+	{
+		return prefetchBufferSize;
+	}
+
+	public void setPrefetchBufferSize(int prefetchBufferSize)
+	{
+		this.prefetchBufferSize = prefetchBufferSize;
+	}
+
+	public int getReceiveConcurrency()
+	{
+		return receiveConcurrency;
+	}
+
+	public void setReceiveConcurrency(int receiveConcurrency)
+	{
+		this.receiveConcurrency = receiveConcurrency;
+	}
+
+	public long getAckLinger()
+	{
+		return ackLinger;
+	}
+
+	public void setAckLinger(long ackLinger)
+	{
+		this.ackLinger = ackLinger;
+	}
+
+	public int getAckMaxRetries()
+	{
+		return ackMaxRetries;
+	}
+
+	public void setAckMaxRetries(int ackMaxRetries)
+	{
+		this.ackMaxRetries = ackMaxRetries;
+	}
+
+	public int getFailedVisibilityTimeout()
+	{
+		return failedVisibilityTimeout;
+	}
+
+	public void setFailedVisibilityTimeout(int failedVisibilityTimeout)
+	{
+		this.failedVisibilityTimeout = failedVisibilityTimeout;
+	}
+
+	public String getQueueWeights()
+	{
+		return queueWeights;
+	}
+
+	public void setQueueWeights(String queueWeights)
+	{
+		this.queueWeights = queueWeights;
+	}
+
+	public long getStarvationTimeout()
+	{
+		return starvationTimeout;
+	}
+
+	public void setStarvationTimeout(long starvationTimeout)
+	{
+		this.starvationTimeout = starvationTimeout;
+	}
+
+	public long getMaxEmptyReceiveBackoff()
+	{
+		return maxEmptyReceiveBackoff;
+	}
+
+	public void setMaxEmptyReceiveBackoff(long maxEmptyReceiveBackoff)
+	{
+		this.maxEmptyReceiveBackoff = maxEmptyReceiveBackoff;
+	}
+
+	public boolean isS3EventNotificationsEnabled()
+	{
+		return s3EventNotificationsEnabled;
+	}
+
+	public void setS3EventNotificationsEnabled(boolean s3EventNotificationsEnabled)
+	{
+		this.s3EventNotificationsEnabled = s3EventNotificationsEnabled;
+	}
+
+	public int getMaxVisibilityExtension()
+	{
+		return maxVisibilityExtension;
+	}
+
+	public void setMaxVisibilityExtension(int maxVisibilityExtension)
+	{
+		this.maxVisibilityExtension = maxVisibilityExtension;
+	}
 }
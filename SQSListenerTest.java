@@ -0,0 +1,135 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.ListenerException;
+
+public class SQSListenerTest
+{
+	private final Map<String, StubConsumer> consumers = new HashMap<String, StubConsumer>();
+	private SQSListener listener;
+
+	/**
+	 * Consumer of which the buffered messages and the age of the oldest one are set by the test.
+	 */
+	private static class StubConsumer extends SQSQueueConsumer
+	{
+		private final Queue<Message> messages = new ArrayDeque<Message>();
+		private long oldestAge = -1;
+
+		StubConsumer(String queueUrl, int weight, int messageCount)
+		{
+			super(queueUrl, weight, null, null, null);
+			for(int i = 0; i < messageCount; i++)
+				messages.add(new Message().withMessageId(queueUrl + "-" + i).withReceiptHandle(queueUrl + "-" + i).withBody(queueUrl));
+		}
+
+		@Override
+		public void start(int receiveConcurrency)
+		{
+		}
+
+		@Override
+		public void stop()
+		{
+		}
+
+		@Override
+		public Message poll(long timeout)
+		{
+			return messages.poll();
+		}
+
+		@Override
+		public long getOldestAge()
+		{
+			return messages.isEmpty() ? -1 : oldestAge;
+		}
+	}
+
+	private void openListener(String queueWeights, int... messageCounts) throws ConfigurationException, ListenerException
+	{
+		final String[] weights = queueWeights.split(",");
+		StringBuilder queueUrls = new StringBuilder();
+		for(int i = 0; i < weights.length; i++)
+		{
+			String queueUrl = String.valueOf((char) ('A' + i));
+			consumers.put(queueUrl, new StubConsumer(queueUrl, Integer.parseInt(weights[i]), messageCounts[i]));
+			queueUrls.append(i == 0 ? "" : ",").append(queueUrl);
+		}
+		listener = new SQSListener()
+		{
+			@Override
+			protected AmazonSQS createSqsClient()
+			{
+				return new FakeAmazonSQS();
+			}
+
+			@Override
+			protected SQSQueueConsumer createConsumer(String queueUrl, int weight)
+			{
+				return consumers.get(queueUrl);
+			}
+		};
+		listener.setName("listener");
+		listener.setQueueUrls(queueUrls.toString());
+		listener.setQueueWeights(queueWeights);
+		listener.configure();
+		listener.open();
+	}
+
+	private List<String> receive(int count) throws ListenerException
+	{
+		List<String> queues = new ArrayList<String>();
+		for(int i = 0; i < count; i++)
+			queues.add(((Message) listener.getRawMessage(null)).getBody());
+		return queues;
+	}
+
+	@After
+	public void tearDown() throws ListenerException
+	{
+		if(listener != null)
+			listener.close();
+	}
+
+	@Test
+	public void turnsAreSpreadByWeight() throws Exception
+	{
+		openListener("3,1", 10, 10);
+
+		assertEquals(Arrays.asList("A", "A", "B", "A", "A", "A", "B", "A"), receive(8));
+	}
+
+	@Test
+	public void emptyTurnFallsBackToAnotherQueue() throws Exception
+	{
+		openListener("3,1", 0, 2);
+
+		assertEquals(Arrays.asList("B", "B"), receive(2));
+	}
+
+	@Test
+	public void starvingQueueGoesFirst() throws Exception
+	{
+		openListener("3,1", 10, 2);
+		consumers.get("B").oldestAge = listener.getStarvationTimeout() + 1;
+
+		assertEquals(Arrays.asList("B", "B", "A"), receive(3));
+	}
+}
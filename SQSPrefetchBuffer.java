@@ -0,0 +1,236 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * Bounded buffer of received SQS messages that the pulling threads of a listener drain. Fetchers fill it in the background with
+ * long-polling ReceiveMessage requests of up to 10 messages, and only send a request when the whole batch fits in the buffer.
+ * The buffer itself is a lock-free queue, the bound is kept with two semaphores so neither side takes a lock.
+ * </p>
+ * <p>
+ * Received messages are invisible for the visibility timeout of the queue only. Fetchers therefore pause while the oldest buffered
+ * message has waited for more than half of maxBufferAge, and messages that waited longer than maxBufferAge are dropped
+ * instead of processed, as SQS may already have handed them to another consumer.
+ * </p>
+ * <p>
+ * When an empty-receive backoff is set, a fetcher that received nothing waits before it receives again, starting at 100 ms and doubling
+ * up to the maximum, so queues that are mostly empty cost few requests.
+ * </p>
+ */
+public class SQSPrefetchBuffer
+{
+	private static final long ERROR_BACKOFF = 1000;
+	private static final long STALE_BACKOFF = 100;
+	private static final long INITIAL_EMPTY_RECEIVE_BACKOFF = 100;
+
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final AmazonSQS sqsClient;
+	private final ExecutorService executor;
+	private final ReceiveMessageRequest receiveMessageRequest;
+	private final int batchSize;
+	private final long maxBufferAge;
+
+	private final Queue<PrefetchedMessage> buffer = new ConcurrentLinkedQueue<PrefetchedMessage>();
+	private final Semaphore available = new Semaphore(0);
+	private final Semaphore space;
+	private volatile boolean running = false;
+	private long maxEmptyReceiveBackoff = 0;
+
+	/**
+	 * @param capacity
+	 *            Maximum number of messages in the buffer, at least maxNumberOfMessages.
+	 * @param visibilityTimeout
+	 *            Visibility timeout in seconds that is requested for received messages, null to use the timeout of the queue.
+	 * @param maxBufferAge
+	 *            Number of milliseconds a message may wait in the buffer.
+	 */
+	public SQSPrefetchBuffer(AmazonSQS sqsClient, ExecutorService executor, String queueUrl, int capacity, int maxNumberOfMessages, int waitTimeSeconds, Integer visibilityTimeout, long maxBufferAge)
+	{
+		this.sqsClient = sqsClient;
+		this.executor = executor;
+		this.batchSize = maxNumberOfMessages;
+		this.maxBufferAge = maxBufferAge;
+		this.space = new Semaphore(capacity);
+		this.receiveMessageRequest = new ReceiveMessageRequest(queueUrl)
+				.withMaxNumberOfMessages(maxNumberOfMessages)
+				.withWaitTimeSeconds(waitTimeSeconds)
+				.withVisibilityTimeout(visibilityTimeout)
+				.withAttributeNames("All")
+				.withMessageAttributeNames("All");
+	}
+
+	/**
+	 * Sets the longest time in milliseconds a fetcher waits after receiving nothing, 0 receives again right away.
+	 */
+	public void setMaxEmptyReceiveBackoff(long maxEmptyReceiveBackoff)
+	{
+		this.maxEmptyReceiveBackoff = maxEmptyReceiveBackoff;
+	}
+
+	/**
+	 * Starts the given number of fetchers.
+	 */
+	public void start(int fetchers)
+	{
+		running = true;
+		for(int i = 0; i < fetchers; i++)
+			executor.submit(new Fetcher());
+	}
+
+	/**
+	 * Stops the fetchers, messages left in the buffer become visible again when their visibility timeout expires.
+	 */
+	public void stop()
+	{
+		running = false;
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the next message that has not waited too long, or null when none arrives within the timeout.
+	 */
+	public PrefetchedMessage poll(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while(available.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+		{
+			PrefetchedMessage prefetched = buffer.poll();
+			space.release();
+			long age = System.currentTimeMillis() - prefetched.receivedAt;
+			if(age <= maxBufferAge)
+				return prefetched;
+			log.warn("dropped message [" + prefetched.message.getMessageId() + "] that waited [" + age + "] ms in the prefetch buffer, its visibility timeout may have expired");
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of buffered messages.
+	 */
+	public int size()
+	{
+		return available.availablePermits();
+	}
+
+	/**
+	 * Returns the number of milliseconds the oldest buffered message has waited, or -1 when the buffer is empty.
+	 */
+	public long getOldestAge()
+	{
+		PrefetchedMessage oldest = buffer.peek();
+		return oldest == null ? -1 : System.currentTimeMillis() - oldest.receivedAt;
+	}
+
+	private boolean isStale()
+	{
+		return getOldestAge() > maxBufferAge / 2;
+	}
+
+	/**
+	 * A received message with the time it was received, from which its visibility timeout runs.
+	 */
+	public static class PrefetchedMessage
+	{
+		private final Message message;
+		private final long receivedAt;
+
+		PrefetchedMessage(Message message, long receivedAt)
+		{
+			this.message = message;
+			this.receivedAt = receivedAt;
+		}
+
+		public Message getMessage()
+		{
+			return message;
+		}
+
+		public long getReceivedAt()
+		{
+			return receivedAt;
+		}
+	}
+
+	private class Fetcher implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			long emptyReceiveBackoff = 0;
+			try
+			{
+				while(running)
+				{
+					if(emptyReceiveBackoff > 0)
+						TimeUnit.MILLISECONDS.sleep(emptyReceiveBackoff);
+					space.acquire(batchSize);
+					int received = 0;
+					try
+					{
+						if(isStale())
+						{
+							//the pulling threads don't keep up, more messages would only expire in the buffer
+							TimeUnit.MILLISECONDS.sleep(STALE_BACKOFF);
+							continue;
+						}
+						List<Message> messages = sqsClient.receiveMessage(receiveMessageRequest).getMessages();
+						long receivedAt = System.currentTimeMillis();
+						for(Message message : messages)
+							buffer.offer(new PrefetchedMessage(message, receivedAt));
+						received = messages.size();
+						available.release(received);
+						if(received > 0 || maxEmptyReceiveBackoff == 0)
+							emptyReceiveBackoff = 0;
+						else
+							emptyReceiveBackoff = Math.min(maxEmptyReceiveBackoff, emptyReceiveBackoff == 0 ? INITIAL_EMPTY_RECEIVE_BACKOFF : emptyReceiveBackoff * 2);
+					}
+					catch(AmazonClientException e)
+					{
+						log.warn("failed to receive messages from queue [" + receiveMessageRequest.getQueueUrl() + "]", e);
+						TimeUnit.MILLISECONDS.sleep(ERROR_BACKOFF);
+					}
+					finally
+					{
+						space.release(batchSize - received);
+					}
+				}
+			}
+			catch(InterruptedException e)
+			{
+				//the buffer is stopped
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+import nl.nn.adapterframework.receivers.SQSPrefetchBuffer.PrefetchedMessage;
+
+public class SQSPrefetchBufferTest
+{
+	private static final String QUEUE_URL = "https://sqs.eu-west-1.amazonaws.com/123456789012/queue";
+	private static final int BATCH_SIZE = 10;
+
+	private SQSPrefetchBuffer buffer;
+
+	@After
+	public void stop()
+	{
+		if(buffer != null)
+			buffer.stop();
+	}
+
+	/**
+	 * Receives nothing, like a queue that is empty.
+	 */
+	private static class EmptyAmazonSQS extends FakeAmazonSQS
+	{
+		@Override
+		public ReceiveMessageResult receiveMessage(ReceiveMessageRequest receiveMessageRequest)
+		{
+			super.receiveMessage(receiveMessageRequest);
+			return new ReceiveMessageResult();
+		}
+	}
+
+	private SQSPrefetchBuffer start(FakeAmazonSQS sqsClient, int capacity, long maxBufferAge, int fetchers)
+	{
+		buffer = new SQSPrefetchBuffer(sqsClient, Executors.newCachedThreadPool(), QUEUE_URL, capacity, BATCH_SIZE, 20, null, maxBufferAge);
+		buffer.start(fetchers);
+		return buffer;
+	}
+
+	private static long receives(FakeAmazonSQS sqsClient)
+	{
+		Long count = sqsClient.getRequestCounts().get("ReceiveMessage");
+		return count == null ? 0 : count;
+	}
+
+	private static void awaitSize(SQSPrefetchBuffer buffer, int size) throws InterruptedException
+	{
+		for(int i = 0; i < 100 && buffer.size() < size; i++)
+			TimeUnit.MILLISECONDS.sleep(10);
+		// give the fetchers the time to overfill the buffer if they would
+		TimeUnit.MILLISECONDS.sleep(100);
+	}
+
+	private static int number(PrefetchedMessage prefetched)
+	{
+		return Integer.parseInt(prefetched.getMessage().getReceiptHandle().substring("receipt-".length()));
+	}
+
+	@Test
+	public void bufferDoesNotGrowPastItsCapacity() throws InterruptedException
+	{
+		FakeAmazonSQS sqsClient = new FakeAmazonSQS();
+		SQSPrefetchBuffer buffer = start(sqsClient, 2 * BATCH_SIZE, 60000, 3);
+		awaitSize(buffer, 2 * BATCH_SIZE);
+		assertEquals(2 * BATCH_SIZE, buffer.size());
+		assertEquals(2, receives(sqsClient));
+
+		// a batch is only received when all of its messages fit
+		for(int i = 0; i < BATCH_SIZE - 1; i++)
+			assertNotNull(buffer.poll(0, TimeUnit.MILLISECONDS));
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertEquals(BATCH_SIZE + 1, buffer.size());
+		assertEquals(2, receives(sqsClient));
+
+		assertNotNull(buffer.poll(0, TimeUnit.MILLISECONDS));
+		awaitSize(buffer, 2 * BATCH_SIZE);
+		assertEquals(2 * BATCH_SIZE, buffer.size());
+		assertEquals(3, receives(sqsClient));
+	}
+
+	@Test
+	public void fetchersPauseWhileTheOldestMessageWaitedHalfTheMaxBufferAge() throws InterruptedException
+	{
+		FakeAmazonSQS sqsClient = new FakeAmazonSQS();
+		sqsClient.setLatencyMillis(50);
+		SQSPrefetchBuffer buffer = start(sqsClient, 1000, 300, 1);
+
+		// the oldest message is 150 ms old after a few receives, without pausing there would be about 16 of them
+		TimeUnit.MILLISECONDS.sleep(800);
+		long receives = receives(sqsClient);
+		assertTrue("receives: " + receives, receives >= 2 && receives <= 6);
+		assertTrue(buffer.getOldestAge() > 300);
+
+		// the messages that waited too long are dropped, after which the fetcher receives again
+		PrefetchedMessage prefetched = buffer.poll(1, TimeUnit.SECONDS);
+		assertNotNull(prefetched);
+		assertTrue(number(prefetched) > receives * BATCH_SIZE);
+		assertTrue(System.currentTimeMillis() - prefetched.getReceivedAt() <= 300);
+	}
+
+	@Test
+	public void messagesThatWaitedTooLongAreDropped() throws InterruptedException
+	{
+		FakeAmazonSQS sqsClient = new FakeAmazonSQS();
+		SQSPrefetchBuffer buffer = start(sqsClient, BATCH_SIZE, 100, 1);
+		awaitSize(buffer, BATCH_SIZE);
+		TimeUnit.MILLISECONDS.sleep(100);
+
+		// the whole first batch is dropped, the next message is from the batch that is received in its place
+		PrefetchedMessage prefetched = buffer.poll(1, TimeUnit.SECONDS);
+		assertNotNull(prefetched);
+		assertEquals(BATCH_SIZE + 1, number(prefetched));
+	}
+
+	@Test
+	public void emptyReceivesBackOff() throws InterruptedException
+	{
+		FakeAmazonSQS sqsClient = new EmptyAmazonSQS();
+		buffer = new SQSPrefetchBuffer(sqsClient, Executors.newCachedThreadPool(), QUEUE_URL, BATCH_SIZE, BATCH_SIZE, 20, null, 60000);
+		buffer.setMaxEmptyReceiveBackoff(400);
+		buffer.start(1);
+
+		// receives after 0, 100, 300 and 700 ms
+		assertNull(buffer.poll(900, TimeUnit.MILLISECONDS));
+		long receives = receives(sqsClient);
+		assertTrue("receives: " + receives, receives >= 3 && receives <= 5);
+	}
+
+	@Test
+	public void emptyReceivesAreRepeatedRightAwayWithoutBackoff() throws InterruptedException
+	{
+		FakeAmazonSQS sqsClient = new EmptyAmazonSQS();
+		sqsClient.setLatencyMillis(10);
+		SQSPrefetchBuffer buffer = start(sqsClient, BATCH_SIZE, 60000, 1);
+
+		assertNull(buffer.poll(300, TimeUnit.MILLISECONDS));
+		long receives = receives(sqsClient);
+		assertTrue("receives: " + receives, receives >= 10);
+	}
+}
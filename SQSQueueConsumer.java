@@ -0,0 +1,113 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.sqs.model.Message;
+
+/**
+ * <p>
+ * Everything an {@link SQSListener} needs to consume from one queue: the prefetch buffer it receives into, the acknowledger that
+ * deletes and releases its messages and the optional heartbeat that extends their visibility. Receipt handles are only valid for the queue
+ * a message was received from, so a message is always acknowledged by the consumer it came from.
+ * </p>
+ */
+public class SQSQueueConsumer
+{
+	private final String queueUrl;
+	private final int weight;
+	private final SQSPrefetchBuffer prefetchBuffer;
+	private final SQSAcknowledger acknowledger;
+	private final SQSVisibilityHeartbeat heartbeat;
+
+	/**
+	 * @param heartbeat
+	 *            Heartbeat that extends the visibility of messages that are being processed, null to let their visibility expire.
+	 */
+	public SQSQueueConsumer(String queueUrl, int weight, SQSPrefetchBuffer prefetchBuffer, SQSAcknowledger acknowledger, SQSVisibilityHeartbeat heartbeat)
+	{
+		this.queueUrl = queueUrl;
+		this.weight = weight;
+		this.prefetchBuffer = prefetchBuffer;
+		this.acknowledger = acknowledger;
+		this.heartbeat = heartbeat;
+	}
+
+	public void start(int receiveConcurrency)
+	{
+		acknowledger.start();
+		if(heartbeat != null)
+			heartbeat.start();
+		prefetchBuffer.start(receiveConcurrency);
+	}
+
+	/**
+	 * Stops receiving first, so the messages that are acknowledged while stopping are still deleted.
+	 */
+	public void stop()
+	{
+		prefetchBuffer.stop();
+		if(heartbeat != null)
+			heartbeat.stop();
+		acknowledger.stop();
+	}
+
+	/**
+	 * Returns the next buffered message, or null when none arrives within the timeout. The visibility of the message is extended from now on
+	 * until it is acknowledged.
+	 */
+	public Message poll(long timeout) throws InterruptedException
+	{
+		SQSPrefetchBuffer.PrefetchedMessage prefetched = prefetchBuffer.poll(timeout, TimeUnit.MILLISECONDS);
+		if(prefetched == null)
+			return null;
+		if(heartbeat != null)
+			heartbeat.track(prefetched.getMessage(), prefetched.getReceivedAt());
+		return prefetched.getMessage();
+	}
+
+	/**
+	 * Deletes a message that was processed successfully, or changes the visibility of one that was not when failedVisibilityTimeout is 0 or more.
+	 */
+	public void acknowledge(Message message, boolean success, int failedVisibilityTimeout)
+	{
+		if(heartbeat != null)
+			heartbeat.untrack(message);
+		if(success)
+			acknowledger.delete(message);
+		else if(failedVisibilityTimeout >= 0)
+			acknowledger.changeVisibility(message, failedVisibilityTimeout);
+	}
+
+	/**
+	 * Returns the number of milliseconds the oldest buffered message has waited, or -1 when none is buffered.
+	 */
+	public long getOldestAge()
+	{
+		return prefetchBuffer.getOldestAge();
+	}
+
+	public String getQueueUrl()
+	{
+		return queueUrl;
+	}
+
+	public int getWeight()
+	{
+		return weight;
+	}
+}
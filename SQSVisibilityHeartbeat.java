@@ -0,0 +1,170 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.amazonaws.services.sqs.model.Message;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * Keeps messages that are being processed invisible to other consumers. Every in-flight message is tracked from the moment it is handed
+ * to a pulling thread until it is acknowledged. A few times per visibility timeout the heartbeat extends the visibility of the messages
+ * that would become visible before the next beat by another visibility timeout, through the batched visibility changes of
+ * the {@link SQSAcknowledger}. Messages are not extended beyond maxExtension seconds after they were received, so a hanging
+ * message is eventually delivered again.
+ * </p>
+ */
+public class SQSVisibilityHeartbeat
+{
+	/** Number of heartbeats per visibility timeout. */
+	private static final int BEATS_PER_TIMEOUT = 3;
+
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final SQSAcknowledger acknowledger;
+	private final ExecutorService executor;
+	private final int visibilityTimeout;
+	private final long maxExtension;
+	private final long interval;
+
+	private final ConcurrentMap<String, InFlightMessage> inFlight = new ConcurrentHashMap<String, InFlightMessage>();
+	private volatile boolean running = false;
+
+	/**
+	 * @param visibilityTimeout
+	 *            Visibility timeout of received messages in seconds, also the number of seconds a message is extended by.
+	 * @param maxExtension
+	 *            Number of seconds after it was received a message is no longer extended.
+	 */
+	public SQSVisibilityHeartbeat(SQSAcknowledger acknowledger, ExecutorService executor, int visibilityTimeout, int maxExtension)
+	{
+		this.acknowledger = acknowledger;
+		this.executor = executor;
+		this.visibilityTimeout = visibilityTimeout;
+		this.maxExtension = maxExtension * 1000L;
+		this.interval = Math.max(1000L, visibilityTimeout * 1000L / BEATS_PER_TIMEOUT);
+	}
+
+	public void start()
+	{
+		running = true;
+		executor.submit(new Beat());
+	}
+
+	public void stop()
+	{
+		running = false;
+		executor.shutdownNow();
+		inFlight.clear();
+	}
+
+	/**
+	 * Starts extending the visibility of a message that was received at the given time.
+	 */
+	public void track(Message message, long receivedAt)
+	{
+		inFlight.put(message.getReceiptHandle(), new InFlightMessage(message, receivedAt, receivedAt + visibilityTimeout * 1000L));
+	}
+
+	/**
+	 * Stops extending the visibility of a message. Extensions that are not sent yet are dropped by the acknowledgement that follows.
+	 */
+	public void untrack(Message message)
+	{
+		inFlight.remove(message.getReceiptHandle());
+	}
+
+	/**
+	 * Returns the number of messages that are being processed.
+	 */
+	public int size()
+	{
+		return inFlight.size();
+	}
+
+	private void beat()
+	{
+		long now = System.currentTimeMillis();
+		//a message is extended when it would otherwise become visible before the beat after the next one
+		long horizon = now + 2 * interval;
+		for(InFlightMessage message : inFlight.values())
+		{
+			if(message.visibleAt > horizon)
+				continue;
+			long extensionEnd = Math.min(now + visibilityTimeout * 1000L, message.receivedAt + maxExtension);
+			if(extensionEnd <= message.visibleAt)
+			{
+				if(!message.expiryLogged)
+				{
+					log.warn("message [" + message.message.getMessageId() + "] is processed for more than [" + maxExtension / 1000 + "] seconds, it becomes visible to other consumers again");
+					message.expiryLogged = true;
+				}
+				continue;
+			}
+			int timeout = (int) ((extensionEnd - now + 999) / 1000);
+			if(log.isDebugEnabled()) log.debug("extending visibility of message [" + message.message.getMessageId() + "] by [" + timeout + "] seconds");
+			acknowledger.extendVisibility(message.message, timeout);
+			//a message acknowledged since it was read above may have missed the extension when it cancelled the pending ones
+			if(!inFlight.containsKey(message.message.getReceiptHandle()))
+				acknowledger.cancelExtension(message.message);
+			message.visibleAt = now + timeout * 1000L;
+		}
+	}
+
+	private static class InFlightMessage
+	{
+		private final Message message;
+		private final long receivedAt;
+		private volatile long visibleAt;
+		private volatile boolean expiryLogged = false;
+
+		InFlightMessage(Message message, long receivedAt, long visibleAt)
+		{
+			this.message = message;
+			this.receivedAt = receivedAt;
+			this.visibleAt = visibleAt;
+		}
+	}
+
+	private class Beat implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(running)
+				{
+					TimeUnit.MILLISECONDS.sleep(interval);
+					beat();
+				}
+			}
+			catch(InterruptedException e)
+			{
+				//the heartbeat is stopped
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Creates the executors on which blocking AWS SDK calls run. When virtual threads are requested and the JVM supports them (Java 21 and later)
+ * every task gets its own virtual thread, so waiting on the network costs no platform thread. Otherwise, or on older JVMs, a cached pool of
+ * daemon platform threads is used. Virtual threads are looked up reflectively so this class still runs on the JVMs the framework supports.
+ * </p>
+ */
+public class VirtualThreadExecutors
+{
+	private static final Logger LOG = LogUtil.getLogger(VirtualThreadExecutors.class);
+	private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+	private VirtualThreadExecutors()
+	{
+	}
+
+	/**
+	 * Returns true when the JVM can create virtual threads.
+	 */
+	public static boolean isSupported()
+	{
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates an unbounded executor whose threads are named threadNamePrefix followed by a number.
+	 *
+	 * @param virtualThreads
+	 *            When true and supported, every task runs on a new virtual thread.
+	 */
+	public static ExecutorService newExecutor(String threadNamePrefix, boolean virtualThreads)
+	{
+		if(virtualThreads)
+		{
+			if(isSupported())
+			{
+				try
+				{
+					//Executors.newThreadPerTaskExecutor(factory)
+					Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+					return (ExecutorService) newThreadPerTaskExecutor.invoke(null, virtualThreadFactory(threadNamePrefix));
+				}
+				catch(ReflectiveOperationException e)
+				{
+					LOG.warn("cannot create virtual threads, falling back to platform threads for [" + threadNamePrefix + "]", e);
+				}
+			}
+			else
+				LOG.warn("virtual threads require Java 21 or later, falling back to platform threads for [" + threadNamePrefix + "]");
+		}
+		return Executors.newCachedThreadPool(platformThreadFactory(threadNamePrefix));
+	}
+
+	private static ThreadFactory virtualThreadFactory(String threadNamePrefix) throws ReflectiveOperationException
+	{
+		//Thread.ofVirtual().name(threadNamePrefix, 1).factory()
+		Object builder = OF_VIRTUAL.invoke(null);
+		Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+		builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 1L);
+		return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+	}
+
+	private static ThreadFactory platformThreadFactory(final String threadNamePrefix)
+	{
+		return new ThreadFactory()
+		{
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static Method findMethod(Class<?> type, String name)
+	{
+		try
+		{
+			return type.getMethod(name);
+		}
+		catch(NoSuchMethodException e)
+		{
+			return null;
+		}
+	}
+}
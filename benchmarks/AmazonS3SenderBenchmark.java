@@ -0,0 +1,218 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.parameters.Parameter;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * Measures {@link AmazonS3Sender#sendMessage(String, String, ParameterResolutionContext)} per action against a {@link FakeAmazonS3},
+ * so the cost of the sender itself (and the number of requests it sends) is measured without network.
+ * The latency of the fake client can be raised to see how request counts translate into response times.
+ * </p>
+ * <p>
+ * Besides throughput, the <code>requests</code> counter reports the rate of S3 requests, divide it by the throughput to get requests per message.
+ * The requests per type are logged after every iteration. Run with the GC profiler to see the allocation per message:
+ * <pre>
+ * java -jar benchmarks.jar AmazonS3SenderBenchmark -prof gc
+ * </pre>
+ * or start the main method of this class.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AmazonS3SenderBenchmark
+{
+	private static final String BUCKET_NAME = "benchmark-bucket";
+	private static final String DESTINATION_BUCKET_NAME = "benchmark-destination-bucket";
+	private static final String OBJECT_NAME = "benchmark-object";
+
+	protected Logger log = LogUtil.getLogger(this);
+
+	@Param({"upload", "download", "copy", "delete", "deleteBatch", "list"})
+	public String action;
+
+	@Param({"false", "true"})
+	public boolean optimisticModeEnabled;
+
+	@Param({"0"})
+	public long latencyMillis;
+
+	@Param({"65536"})
+	public int payloadSize;
+
+	private FakeAmazonS3 s3Client;
+	private AmazonS3Sender sender;
+	private byte[] payload;
+	private String deleteBatchMessage;
+	private final AtomicLong messageNumber = new AtomicLong();
+	private final AtomicLong messageCount = new AtomicLong();
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Requests
+	{
+		public long requests;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		payload = new byte[payloadSize];
+		new Random(0).nextBytes(payload);
+
+		s3Client = new FakeAmazonS3();
+		s3Client.setLatencyMillis(latencyMillis);
+		s3Client.setRetainDeletedObjects(true);
+		s3Client.addBucket(DESTINATION_BUCKET_NAME);
+		s3Client.addObject(BUCKET_NAME, OBJECT_NAME, payload);
+		StringBuilder keys = new StringBuilder();
+		for(int i = 0; i < 2500; i++)
+			keys.append(OBJECT_NAME).append('-').append(i).append('\n');
+		deleteBatchMessage = keys.toString();
+
+		sender = new AmazonS3Sender()
+		{
+			@Override
+			protected AmazonS3 createS3Client()
+			{
+				return s3Client;
+			}
+		};
+		sender.setName("AmazonS3SenderBenchmark");
+		sender.setBucketName(BUCKET_NAME);
+		sender.setDestinationBucketName(DESTINATION_BUCKET_NAME);
+		sender.setActions(action);
+		sender.setOptimisticModeEnabled(optimisticModeEnabled);
+		sender.setStoreResultInSessionKey("result");
+		sender.addParameter(sessionKeyParameter("file"));
+		sender.addParameter(sessionKeyParameter("destinationFileName"));
+		sender.configure();
+		sender.open();
+	}
+
+	private static Parameter sessionKeyParameter(String name)
+	{
+		Parameter parameter = new Parameter();
+		parameter.setName(name);
+		parameter.setSessionKey(name);
+		return parameter;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		sender.close();
+	}
+
+	@TearDown(Level.Iteration)
+	public void logRequestCounts()
+	{
+		long messages = Math.max(1, messageCount.getAndSet(0));
+		StringBuilder requestsPerMessage = new StringBuilder();
+		for(Map.Entry<String, Long> entry : s3Client.getRequestCounts().entrySet())
+			requestsPerMessage.append(' ').append(entry.getKey()).append('=').append((double) entry.getValue() / messages);
+		log.info("[" + action + "] requests per message:" + requestsPerMessage);
+		s3Client.resetRequestCounts();
+		// uploaded and copied objects are only needed for their existence checks, dropping them keeps the heap flat
+		s3Client.removeObjects();
+		s3Client.addObject(BUCKET_NAME, OBJECT_NAME, payload);
+	}
+
+	@Benchmark
+	public void sendMessage(Requests requests, Blackhole blackhole) throws Exception
+	{
+		long requestsBefore = s3Client.getRequestCount();
+		String uniqueName = OBJECT_NAME + "-" + messageNumber.incrementAndGet();
+
+		IPipeLineSession session = new PipeLineSessionBase();
+		String message = OBJECT_NAME;
+		if("upload".equals(action))
+		{
+			message = uniqueName;
+			session.put("file", new ByteArrayInputStream(payload));
+		}
+		else if("copy".equals(action))
+			session.put("destinationFileName", uniqueName);
+		else if("deleteBatch".equals(action))
+			message = deleteBatchMessage;
+
+		blackhole.consume(sender.sendMessage(null, message, new ParameterResolutionContext(message, session)));
+
+		if("download".equals(action) || "list".equals(action))
+		{
+			InputStream inputStream = (InputStream) session.get("result");
+			byte[] buffer = new byte[8192];
+			long total = 0;
+			int read;
+			while((read = inputStream.read(buffer)) != -1)
+				total += read;
+			inputStream.close();
+			blackhole.consume(total);
+		}
+
+		messageCount.incrementAndGet();
+		requests.requests += s3Client.getRequestCount() - requestsBefore;
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(AmazonS3SenderBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
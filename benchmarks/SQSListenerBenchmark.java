@@ -0,0 +1,164 @@
+/*
+   Copyright 2019 Integration Partners B.V.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+
+import nl.nn.adapterframework.core.PipeLineResult;
+import nl.nn.adapterframework.util.LogUtil;
+
+/**
+ * <p>
+ * Measures the receive path of {@link SQSListener} (getRawMessage, getIdFromRawMessage, getStringFromRawMessage and afterMessageProcessed)
+ * against a {@link FakeAmazonSQS}, with as many pulling threads as a receiver would start. The <code>requests</code> counter reports the
+ * rate of SQS requests, the requests per action are logged after every iteration. Run with <code>-prof gc</code> or start the main method
+ * of this class to see the allocation per message.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SQSListenerBenchmark
+{
+	private static final String QUEUE_URL = "https://sqs.eu-west-1.amazonaws.com/000000000000/benchmark-queue";
+
+	protected Logger log = LogUtil.getLogger(this);
+
+	@Param({"0"})
+	public long latencyMillis;
+
+	private FakeAmazonSQS sqsClient;
+	private SQSListener listener;
+	private final AtomicLong messageCount = new AtomicLong();
+
+	@State(Scope.Thread)
+	public static class ListenerThread
+	{
+		Map<String, Object> threadContext;
+
+		@Setup(Level.Trial)
+		public void openThread(SQSListenerBenchmark benchmark) throws Exception
+		{
+			threadContext = benchmark.listener.openThread();
+		}
+
+		@TearDown(Level.Trial)
+		public void closeThread(SQSListenerBenchmark benchmark) throws Exception
+		{
+			benchmark.listener.closeThread(threadContext);
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Requests
+	{
+		public long requests;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		sqsClient = new FakeAmazonSQS();
+		sqsClient.setLatencyMillis(latencyMillis);
+
+		listener = new SQSListener()
+		{
+			@Override
+			protected AmazonSQS createSqsClient()
+			{
+				return sqsClient;
+			}
+		};
+		listener.setName("SQSListenerBenchmark");
+		listener.setQueueUrl(QUEUE_URL);
+		listener.configure();
+		listener.open();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		listener.close();
+	}
+
+	@TearDown(Level.Iteration)
+	public void logRequestCounts()
+	{
+		long messages = Math.max(1, messageCount.getAndSet(0));
+		StringBuilder requestsPerMessage = new StringBuilder();
+		for(Map.Entry<String, Long> entry : sqsClient.getRequestCounts().entrySet())
+			requestsPerMessage.append(' ').append(entry.getKey()).append('=').append((double) entry.getValue() / messages);
+		log.info("requests per message:" + requestsPerMessage);
+		sqsClient.resetRequestCounts();
+	}
+
+	@Benchmark
+	public Object receive(ListenerThread thread, Requests requests) throws Exception
+	{
+		long requestsBefore = sqsClient.getRequestCount();
+		Map<String, Object> threadContext = thread.threadContext;
+		Object rawMessage = listener.getRawMessage(threadContext);
+		String id = listener.getIdFromRawMessage(rawMessage, threadContext);
+		String message = listener.getStringFromRawMessage(rawMessage, threadContext);
+		PipeLineResult processResult = new PipeLineResult();
+		processResult.setState("success");
+		processResult.setResult(message);
+		listener.afterMessageProcessed(processResult, rawMessage, threadContext);
+		messageCount.incrementAndGet();
+		requests.requests += sqsClient.getRequestCount() - requestsBefore;
+		return id;
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(SQSListenerBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}